@@ -1,14 +1,40 @@
 package com.rag.chatstorage;
 
+import com.rag.chatstorage.aicache.AiCacheProperties;
+import com.rag.chatstorage.aicache.PromptCacheProperties;
+import com.rag.chatstorage.aicache.SingleFlightProperties;
+import com.rag.chatstorage.airouting.AiRoutingProperties;
+import com.rag.chatstorage.archive.RetentionProperties;
+import com.rag.chatstorage.cache.RecentMessageCacheProperties;
+import com.rag.chatstorage.cache.VersionStampProperties;
+import com.rag.chatstorage.config.provider.StubAiProperties;
+import com.rag.chatstorage.datasource.ReplicaProperties;
+import com.rag.chatstorage.domain.convert.TextCompressionProperties;
+import com.rag.chatstorage.idempotency.IdempotencyProperties;
+import com.rag.chatstorage.ratelimit.AiConcurrencyProperties;
 import com.rag.chatstorage.ratelimit.RateLimitProperties;
+import com.rag.chatstorage.search.MessageSearchProperties;
+import com.rag.chatstorage.search.TitleSearchProperties;
+import com.rag.chatstorage.shard.ShardProperties;
+import com.rag.chatstorage.threads.PinningProperties;
+import com.rag.chatstorage.web.InferBatchProperties;
+import com.rag.chatstorage.web.ReplyJobProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableJpaAuditing
-@EnableConfigurationProperties(RateLimitProperties.class)
+@EnableScheduling
+@EnableConfigurationProperties({RateLimitProperties.class, RecentMessageCacheProperties.class,
+        TextCompressionProperties.class, TitleSearchProperties.class, MessageSearchProperties.class,
+        RetentionProperties.class, ReplicaProperties.class, ShardProperties.class,
+        IdempotencyProperties.class, VersionStampProperties.class, ReplyJobProperties.class,
+        PinningProperties.class, AiCacheProperties.class, AiConcurrencyProperties.class,
+        AiRoutingProperties.class, SingleFlightProperties.class, InferBatchProperties.class,
+        PromptCacheProperties.class, StubAiProperties.class})
 public class App {
     public static void main(String[] args) {
         SpringApplication.run(App.class, args);
@@ -0,0 +1,69 @@
+package com.rag.chatstorage.aicache;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the cache of assistant replies in front of the model.
+ * <p>
+ * The exact tier answers a prompt seen before with the same model, system prompt and history. The
+ * semantic tier answers a prompt whose embedding is at least {@code minSimilarity} (cosine) close to
+ * one seen before with the same model, system prompt and history; only prompts up to
+ * {@code maxPromptLength} characters are embedded. Each tier is bounded by {@code maxSize} of
+ * retained text and vectors and forgets entries after {@code ttl}. Entries are never shared between
+ * tenants, which are told apart by API key.
+ * <p>
+ * The semantic tier is off by default: it answers with a reply written for another, similar prompt,
+ * which within a tenant may be another user's. When on, it only serves inference without history under
+ * an API key; chat turns and requests without a key, which share one tenant, use the exact tier alone.
+ * <p>
+ * {@code model} goes into every key, so that switching models does not serve the old model's replies.
+ */
+@ConfigurationProperties(prefix = "chat.ai-cache")
+public class AiCacheProperties {
+    private boolean enabled = true;
+    private String model = "default";
+    private final Exact exact = new Exact();
+    private final Semantic semantic = new Semantic();
+
+    public static class Exact {
+        private Duration ttl = Duration.ofHours(1);
+        private DataSize maxSize = DataSize.ofMegabytes(32);
+
+        public Duration getTtl() { return ttl; }
+        public void setTtl(Duration ttl) { this.ttl = ttl; }
+        public DataSize getMaxSize() { return maxSize; }
+        public void setMaxSize(DataSize maxSize) { this.maxSize = maxSize; }
+    }
+
+    public static class Semantic {
+        private boolean enabled = false;
+        private double minSimilarity = 0.95;
+        private int maxPromptLength = 1000;
+        private int maxPerContext = 2000;
+        private Duration ttl = Duration.ofHours(1);
+        private DataSize maxSize = DataSize.ofMegabytes(64);
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public double getMinSimilarity() { return minSimilarity; }
+        public void setMinSimilarity(double minSimilarity) { this.minSimilarity = minSimilarity; }
+        public int getMaxPromptLength() { return maxPromptLength; }
+        public void setMaxPromptLength(int maxPromptLength) { this.maxPromptLength = maxPromptLength; }
+        public int getMaxPerContext() { return maxPerContext; }
+        public void setMaxPerContext(int maxPerContext) { this.maxPerContext = maxPerContext; }
+        public Duration getTtl() { return ttl; }
+        public void setTtl(Duration ttl) { this.ttl = ttl; }
+        public DataSize getMaxSize() { return maxSize; }
+        public void setMaxSize(DataSize maxSize) { this.maxSize = maxSize; }
+    }
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public String getModel() { return model; }
+    public void setModel(String model) { this.model = model; }
+    public Exact getExact() { return exact; }
+    public Semantic getSemantic() { return semantic; }
+}
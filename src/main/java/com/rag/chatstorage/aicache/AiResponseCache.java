@@ -0,0 +1,242 @@
+package com.rag.chatstorage.aicache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.rag.chatstorage.domain.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Assistant replies by prompt, in two tiers.
+ * <p>
+ * Both tiers are keyed by tenant and by the context of the prompt: model, system prompt and
+ * conversation history, compared after normalizing case, Unicode forms and whitespace. The exact tier
+ * then matches the normalized prompt. The semantic tier keeps the prompt's embedding next to the
+ * reply and matches the closest earlier prompt of the same context, if its cosine similarity reaches
+ * the threshold; it is skipped without an embedding model. Lookups that fail to embed count as misses.
+ * <p>
+ * A semantic hit returns a reply written for a different prompt, possibly someone else's. It is only
+ * tried for prompts without history (inference) under a tenant of their own: requests without an API
+ * key all share {@link AiTenant#DEFAULT}, and chat turns of every user would meet there.
+ * <p>
+ * Meters: {@code chat.ai.cache} counts lookups by {@code tier} and {@code result} (hit, miss), and
+ * {@code chat.ai.cache.size} reports the entries held per tier.
+ */
+@Component
+public class AiResponseCache {
+
+    private static final Logger log = LoggerFactory.getLogger(AiResponseCache.class);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // Per-entry bookkeeping of Caffeine, keys and the entry records, in bytes
+    private static final int ENTRY_OVERHEAD = 200;
+
+    public enum Tier { EXACT, SEMANTIC }
+
+    /**
+     * The keys of one prompt, the embedding if one was computed, and the reply found for it, if any.
+     * Pass it back to {@link #put} with the model's reply after a miss.
+     */
+    public record Lookup(String exactKey, String contextKey, float[] embedding, String reply, Tier tier) {
+        public boolean hit() {
+            return reply != null;
+        }
+    }
+
+    private record SemanticEntry(String contextKey, float[] embedding, String reply) {}
+
+    private final AiCacheProperties props;
+    private final EmbeddingModel embeddingModel;
+    private final SingleFlight singleFlight;
+    private final Cache<String, String> exact;
+    private final Cache<Long, SemanticEntry> semantic;
+    // Ids of the semantic entries of each tenant and context, oldest first
+    private final Map<String, NavigableSet<Long>> contexts = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final Counter exactHits;
+    private final Counter exactMisses;
+    private final Counter semanticHits;
+    private final Counter semanticMisses;
+
+    public AiResponseCache(AiCacheProperties props, ObjectProvider<EmbeddingModel> embeddingModelProvider,
+                           SingleFlight singleFlight, MeterRegistry meterRegistry) {
+        this.props = props;
+        this.embeddingModel = props.getSemantic().isEnabled() ? embeddingModelProvider.getIfAvailable() : null;
+        this.singleFlight = singleFlight;
+        this.exact = Caffeine.newBuilder()
+                .expireAfterWrite(props.getExact().getTtl())
+                .maximumWeight(props.getExact().getMaxSize().toBytes())
+                .weigher((String key, String reply) -> ENTRY_OVERHEAD + 2 * (key.length() + reply.length()))
+                .build();
+        this.semantic = Caffeine.newBuilder()
+                .expireAfterWrite(props.getSemantic().getTtl())
+                .maximumWeight(props.getSemantic().getMaxSize().toBytes())
+                .weigher((Long id, SemanticEntry e) -> ENTRY_OVERHEAD + 4 * e.embedding().length + 2 * e.reply().length())
+                .removalListener((Long id, SemanticEntry e, RemovalCause cause) -> {
+                    if (id != null && e != null) forget(e.contextKey(), id);
+                })
+                .build();
+        this.exactHits = lookups(meterRegistry, "exact", "hit");
+        this.exactMisses = lookups(meterRegistry, "exact", "miss");
+        this.semanticHits = lookups(meterRegistry, "semantic", "hit");
+        this.semanticMisses = lookups(meterRegistry, "semantic", "miss");
+        Gauge.builder("chat.ai.cache.size", exact, Cache::estimatedSize).tag("tier", "exact")
+                .description("Cached assistant replies").register(meterRegistry);
+        Gauge.builder("chat.ai.cache.size", semantic, Cache::estimatedSize).tag("tier", "semantic")
+                .description("Cached assistant replies").register(meterRegistry);
+    }
+
+    private static Counter lookups(MeterRegistry registry, String tier, String result) {
+        return Counter.builder("chat.ai.cache").tag("tier", tier).tag("result", result)
+                .description("Lookups of cached assistant replies").register(registry);
+    }
+
+    public boolean isEnabled() {
+        return props.isEnabled();
+    }
+
+    /** Looks {@code user} up for {@code tenant}; may call the embedding model, so it blocks. */
+    public Lookup get(String tenant, String system, List<ChatMessage> history, String user) {
+        String contextKey = contextKey(tenant, system, history, user);
+        String exactKey = contextKey + '\n' + hash(normalize(user));
+        String reply = exact.getIfPresent(exactKey);
+        if (reply != null) {
+            exactHits.increment();
+            return new Lookup(exactKey, contextKey, null, reply, Tier.EXACT);
+        }
+        exactMisses.increment();
+        float[] embedding = AiTenant.DEFAULT.equals(tenant) || !history.isEmpty() ? null : embed(user);
+        if (embedding == null) return new Lookup(exactKey, contextKey, null, null, null);
+
+        SemanticEntry best = null;
+        double bestSimilarity = props.getSemantic().getMinSimilarity();
+        NavigableSet<Long> entries = contexts.get(contextKey);
+        if (entries != null) {
+            for (Long id : entries) {
+                SemanticEntry e = semantic.getIfPresent(id);
+                if (e == null || e.embedding().length != embedding.length) continue;
+                double similarity = dot(e.embedding(), embedding);
+                if (similarity >= bestSimilarity) {
+                    best = e;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        if (best == null) {
+            semanticMisses.increment();
+            return new Lookup(exactKey, contextKey, embedding, null, null);
+        }
+        semanticHits.increment();
+        // Repeats of this wording are now exact hits
+        exact.put(exactKey, best.reply());
+        return new Lookup(exactKey, contextKey, embedding, best.reply(), Tier.SEMANTIC);
+    }
+
+    /** The key of the exact tier for {@code user}, which also tells identical requests apart when the cache is off. */
+    public String exactKey(String tenant, String system, List<ChatMessage> history, String user) {
+        return contextKey(tenant, system, history, user) + '\n' + hash(normalize(user));
+    }
+
+    private String contextKey(String tenant, String system, List<ChatMessage> history, String user) {
+        return tenant + '\n' + hash(context(system, history, user));
+    }
+
+    /** Stores the model's reply to a prompt that was a miss. */
+    public void put(Lookup lookup, String reply) {
+        if (reply == null || reply.isBlank() || lookup.hit()) return;
+        exact.put(lookup.exactKey(), reply);
+        if (lookup.embedding() == null) return;
+        long id = ids.incrementAndGet();
+        // Added under the map's lock, so that forget() cannot drop the set in between
+        NavigableSet<Long> entries = contexts.compute(lookup.contextKey(), (k, set) -> {
+            NavigableSet<Long> ids = set == null ? new ConcurrentSkipListSet<>() : set;
+            ids.add(id);
+            return ids;
+        });
+        semantic.put(id, new SemanticEntry(lookup.contextKey(), lookup.embedding(), reply));
+        // Bounds the scan per lookup; the oldest entries of a busy context go first
+        while (entries.size() > props.getSemantic().getMaxPerContext()) {
+            Long oldest = entries.pollFirst();
+            if (oldest == null) break;
+            semantic.invalidate(oldest);
+        }
+    }
+
+    private void forget(String contextKey, Long id) {
+        contexts.computeIfPresent(contextKey, (k, entries) -> {
+            entries.remove(id);
+            return entries.isEmpty() ? null : entries;
+        });
+    }
+
+    /** The prompt's embedding scaled to unit length, or null when the semantic tier does not apply. */
+    private float[] embed(String user) {
+        if (embeddingModel == null || user.length() > props.getSemantic().getMaxPromptLength()) return null;
+        try {
+            String text = normalize(user);
+            float[] v = singleFlight.execute("embed", text, () -> embeddingModel.embed(text));
+            double norm = Math.sqrt(dot(v, v));
+            if (norm == 0) return null;
+            float[] unit = new float[v.length];
+            for (int i = 0; i < v.length; i++) unit[i] = (float) (v[i] / norm);
+            return unit;
+        } catch (RuntimeException e) {
+            log.debug("Embedding a prompt for the reply cache failed", e);
+            return null;
+        }
+    }
+
+    private String context(String system, List<ChatMessage> history, String user) {
+        StringBuilder sb = new StringBuilder(props.getModel()).append('\0').append(normalize(system));
+        int end = history.size();
+        // Callers store the prompt before asking; it is the prompt here, not part of its context
+        if (end > 0 && history.get(end - 1).getSender() == ChatMessage.Sender.USER
+                && normalize(history.get(end - 1).getContent()).equals(normalize(user))) {
+            end--;
+        }
+        for (ChatMessage m : history.subList(0, end)) {
+            sb.append('\0').append(m.getSender()).append(':').append(normalize(m.getContent()));
+        }
+        return sb.toString();
+    }
+
+    static String normalize(String text) {
+        if (text == null) return "";
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        return WHITESPACE.matcher(s).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) sum += (double) a[i] * b[i];
+        return sum;
+    }
+
+    private static String hash(String s) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.rag.chatstorage.aicache;
+
+/**
+ * The tenant the current thread works for, which scopes cached assistant replies.
+ * <p>
+ * Set per request by {@link AiTenantFilter}; work handed to other threads carries it over with
+ * {@link #runAs}. Threads outside a request belong to {@link #DEFAULT}.
+ */
+public final class AiTenant {
+
+    public static final String DEFAULT = "default";
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private AiTenant() {}
+
+    public static String current() {
+        String tenant = CURRENT.get();
+        return tenant == null ? DEFAULT : tenant;
+    }
+
+    public static void runAs(String tenant, Runnable work) {
+        String previous = CURRENT.get();
+        CURRENT.set(tenant);
+        try {
+            work.run();
+        } finally {
+            if (previous == null) CURRENT.remove(); else CURRENT.set(previous);
+        }
+    }
+
+    static void set(String tenant) {
+        CURRENT.set(tenant);
+    }
+
+    static void clear() {
+        CURRENT.remove();
+    }
+}
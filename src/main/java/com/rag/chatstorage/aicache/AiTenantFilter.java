@@ -0,0 +1,54 @@
+package com.rag.chatstorage.aicache;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Binds each request to its tenant: the API key it was authorized with, hashed so that keys are not
+ * kept in memory. Requests without a key (the UI) share {@link AiTenant#DEFAULT}.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class AiTenantFilter extends OncePerRequestFilter {
+
+    private final String apiKeyHeader;
+
+    public AiTenantFilter(@Value("${security.api-key.header:X-API-KEY}") String apiKeyHeader) {
+        this.apiKeyHeader = apiKeyHeader;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String key = request.getHeader(apiKeyHeader);
+        AiTenant.set(StringUtils.hasText(key) ? "key:" + hash(key) : AiTenant.DEFAULT);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            AiTenant.clear();
+        }
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.rag.chatstorage.aicache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.reactivestreams.Publisher;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.reactive.ClientHttpRequestDecorator;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+/**
+ * Marks cache breakpoints on requests to Anthropic's Messages API and records the cache counts of its replies.
+ * <p>
+ * Anthropic caches a prompt prefix only up to a block carrying {@code cache_control}. Spring AI sends none,
+ * so this rewrites the request body on its way out: the system prompt is marked, and so is the last block of
+ * the message before the final user turn, which ends the conversation history. With the history window moving
+ * in steps (see {@code ChatSessionService#promptHistory}) the next turn starts with the same bytes and reads
+ * them from the cache. Usage in the reply, including {@code cache_read_input_tokens}, goes to
+ * {@link PromptCacheMeter}. Installed as an interceptor on the blocking client and as a filter on the
+ * streaming one; other requests pass untouched.
+ */
+public class AnthropicPromptCache implements ClientHttpRequestInterceptor, ExchangeFilterFunction {
+
+    // Block types Anthropic accepts cache_control on; thinking blocks cannot be marked
+    private static final Set<String> MARKABLE = Set.of("text", "image", "document", "tool_use", "tool_result");
+
+    private final PromptCacheProperties props;
+    private final PromptCacheMeter meter;
+    private final ObjectMapper objectMapper;
+    private final String completionsPath;
+
+    public AnthropicPromptCache(PromptCacheProperties props, PromptCacheMeter meter, ObjectMapper objectMapper,
+                                String completionsPath) {
+        this.props = props;
+        this.meter = meter;
+        this.objectMapper = objectMapper;
+        this.completionsPath = completionsPath;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        if (!applies(request.getURI())) return execution.execute(request, body);
+        byte[] marked = mark(body);
+        // The buffered body's length is already in the headers, which are writable until the request runs
+        request.getHeaders().setContentLength(marked.length);
+        ClientHttpResponse response = execution.execute(request, marked);
+        if (!response.getStatusCode().is2xxSuccessful()) return response;
+        byte[] reply = StreamUtils.copyToByteArray(response.getBody());
+        try {
+            recordUsage(objectMapper.readTree(reply).path("usage"));
+        } catch (IOException e) {
+            // Not JSON; Spring AI reports it
+        }
+        return new BufferedResponse(response, reply);
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        if (!applies(request.url())) return next.exchange(request);
+        ClientRequest marked = ClientRequest.from(request)
+                .body((message, context) -> request.body().insert(new ClientHttpRequestDecorator(message) {
+                    @Override
+                    public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                        return DataBufferUtils.join(body).flatMap(buffer -> {
+                            byte[] bytes = new byte[buffer.readableByteCount()];
+                            buffer.read(bytes);
+                            DataBufferUtils.release(buffer);
+                            byte[] out = mark(bytes);
+                            getHeaders().setContentLength(out.length);
+                            return super.writeWith(Mono.just(bufferFactory().wrap(out)));
+                        });
+                    }
+                }, context))
+                .build();
+        // Usage arrives with the message_start event, before any text
+        AtomicBoolean recorded = new AtomicBoolean();
+        return next.exchange(marked).map(response -> response.mutate()
+                .body(chunks -> chunks.doOnNext(chunk -> {
+                    if (recorded.get()) return;
+                    String text = chunk.toString(chunk.readPosition(), chunk.readableByteCount(), StandardCharsets.UTF_8);
+                    if (text.contains("\"message_start\"")) recorded.set(recordStreamUsage(text));
+                }))
+                .build());
+    }
+
+    /** {@code body} with cache breakpoints on the system prompt and at the end of the history, or unchanged. */
+    byte[] mark(byte[] body) {
+        if (!props.isEnabled()) return body;
+        try {
+            if (!(objectMapper.readTree(body) instanceof ObjectNode root)) return body;
+            JsonNode system = root.get("system");
+            if (system != null && system.isTextual() && !system.asText().isEmpty()) {
+                root.set("system", objectMapper.createArrayNode().add(textBlock(system.asText())));
+            } else if (system instanceof ArrayNode blocks) {
+                markLast(blocks);
+            }
+            if (root.get("messages") instanceof ArrayNode messages && messages.size() >= 2
+                    && messages.get(messages.size() - 2) instanceof ObjectNode history) {
+                JsonNode content = history.get("content");
+                if (content != null && content.isTextual()) {
+                    history.set("content", objectMapper.createArrayNode().add(textBlock(content.asText())));
+                } else if (content instanceof ArrayNode blocks) {
+                    markLast(blocks);
+                }
+            }
+            return objectMapper.writeValueAsBytes(root);
+        } catch (IOException e) {
+            return body;
+        }
+    }
+
+    private ObjectNode textBlock(String text) {
+        ObjectNode block = objectMapper.createObjectNode().put("type", "text").put("text", text);
+        block.putObject("cache_control").put("type", "ephemeral");
+        return block;
+    }
+
+    private void markLast(ArrayNode blocks) {
+        if (!blocks.isEmpty() && blocks.get(blocks.size() - 1) instanceof ObjectNode block
+                && MARKABLE.contains(block.path("type").asText()) && !block.has("cache_control")) {
+            block.putObject("cache_control").put("type", "ephemeral");
+        }
+    }
+
+    // The usage of a streamed reply is in the data line of its message_start event
+    private boolean recordStreamUsage(String events) {
+        for (String line : events.split("\n")) {
+            if (!line.startsWith("data:") || !line.contains("\"message_start\"")) continue;
+            try {
+                recordUsage(objectMapper.readTree(line.substring(5)).path("message").path("usage"));
+                return true;
+            } catch (IOException e) {
+                return false; // split across chunks; the count is lost, the reply is not
+            }
+        }
+        return false;
+    }
+
+    // Anthropic's input_tokens leaves out the tokens read from or written to the cache
+    private void recordUsage(JsonNode usage) {
+        if (!usage.isObject()) return;
+        long read = usage.path("cache_read_input_tokens").asLong();
+        long write = usage.path("cache_creation_input_tokens").asLong();
+        meter.record("anthropic", usage.path("input_tokens").asLong() + read + write, read, write);
+    }
+
+    private boolean applies(URI uri) {
+        return uri.getPath() != null && uri.getPath().endsWith(completionsPath);
+    }
+
+    // The reply's body was read for its usage, so it is handed on from memory
+    private record BufferedResponse(ClientHttpResponse delegate, byte[] body) implements ClientHttpResponse {
+        @Override public HttpStatusCode getStatusCode() throws IOException { return delegate.getStatusCode(); }
+        @Override public String getStatusText() throws IOException { return delegate.getStatusText(); }
+        @Override public HttpHeaders getHeaders() { return delegate.getHeaders(); }
+        @Override public InputStream getBody() { return new ByteArrayInputStream(body); }
+        @Override public void close() { delegate.close(); }
+    }
+}
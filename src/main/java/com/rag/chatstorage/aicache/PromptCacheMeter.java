@@ -0,0 +1,65 @@
+package com.rag.chatstorage.aicache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.observation.ChatModelObservationContext;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the prompt tokens sent to the AI provider and how many of them the provider served from its
+ * prompt cache.
+ * <p>
+ * Meters: {@code chat.ai.prompt.tokens} counts tokens by {@code provider} and {@code kind}: input (every
+ * prompt token, cached or not), cache_read (served from the provider's cache) and cache_write (written to
+ * it, Anthropic only). The share of prompts served from the cache is cache_read / input.
+ * <p>
+ * OpenAI reports cached tokens with the usage Spring AI passes on, which is read from the chat model's
+ * observations, blocking and streamed alike. Spring AI drops Anthropic's cache counts, so those are
+ * recorded from the wire by {@link AnthropicPromptCache}.
+ */
+@Component
+public class PromptCacheMeter implements ObservationHandler<ChatModelObservationContext> {
+
+    private final MeterRegistry meterRegistry;
+
+    public PromptCacheMeter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void record(String provider, long input, long cacheRead, long cacheWrite) {
+        if (input > 0) counter(provider, "input").increment(input);
+        if (cacheRead > 0) counter(provider, "cache_read").increment(cacheRead);
+        if (cacheWrite > 0) counter(provider, "cache_write").increment(cacheWrite);
+    }
+
+    @Override
+    public boolean supportsContext(Observation.Context context) {
+        return context instanceof ChatModelObservationContext;
+    }
+
+    @Override
+    public void onStop(ChatModelObservationContext context) {
+        record(context.getResponse());
+    }
+
+    /** Records the usage reported with {@code response} by OpenAI-compatible providers. */
+    public void record(ChatResponse response) {
+        if (response == null || response.getMetadata() == null || response.getMetadata().getUsage() == null) return;
+        if (!(response.getMetadata().getUsage().getNativeUsage() instanceof OpenAiApi.Usage usage)
+                || usage.promptTokens() == null) {
+            return;
+        }
+        Integer cached = usage.promptTokensDetails() == null ? null : usage.promptTokensDetails().cachedTokens();
+        record("openai", usage.promptTokens(), cached == null ? 0 : cached, 0);
+    }
+
+    private Counter counter(String provider, String kind) {
+        return Counter.builder("chat.ai.prompt.tokens").tag("provider", provider).tag("kind", kind)
+                .description("Prompt tokens sent to the AI provider, and those served from or written to its prompt cache")
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,19 @@
+package com.rag.chatstorage.aicache;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the provider-side prompt cache.
+ * <p>
+ * When {@code enabled}, requests to providers that cache only marked prefixes (Anthropic) carry cache
+ * breakpoints after the system prompt and after the conversation history, so the next turn reads that
+ * prefix from the provider's cache. OpenAI caches long prefixes without markers; cached token counts are
+ * recorded either way.
+ */
+@ConfigurationProperties(prefix = "chat.ai.prompt-cache")
+public class PromptCacheProperties {
+    private boolean enabled = true;
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+}
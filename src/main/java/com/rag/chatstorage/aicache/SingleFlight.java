@@ -0,0 +1,133 @@
+package com.rag.chatstorage.aicache;
+
+import com.rag.chatstorage.service.AiService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.MDC;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent calls to the AI provider into one.
+ * <p>
+ * The first caller of an operation with a given key starts the call; callers with the same key that
+ * arrive while it runs wait for the same result, or the same failure. The call runs on a virtual thread
+ * of its own, so every caller can give up on its own: a caller that times out or is interrupted stops
+ * waiting, and the call is cancelled only when the last one has. Once the call completes the next
+ * caller starts a new one. The tenant and the logging context of the first caller carry over.
+ * <p>
+ * Meters: {@code chat.ai.single-flight} counts callers by {@code operation} and {@code result}
+ * (issued, coalesced, timeout).
+ */
+@Component
+public class SingleFlight {
+
+    private final SingleFlightProperties props;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final ExecutorService runner =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("single-flight-", 1).factory());
+
+    private static final class Flight {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final AtomicInteger waiters = new AtomicInteger(1);
+        volatile Future<?> task;
+
+        // False once every waiter has left; the flight is then being cancelled
+        boolean join() {
+            return waiters.getAndUpdate(w -> w > 0 ? w + 1 : w) > 0;
+        }
+    }
+
+    public SingleFlight(SingleFlightProperties props, MeterRegistry meterRegistry) {
+        this.props = props;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /** The result of {@code call}, shared with concurrent callers of {@code operation} with an equal {@code key}. */
+    @SuppressWarnings("unchecked")
+    public <V> V execute(String operation, String key, Supplier<V> call) {
+        if (!props.isEnabled()) return call.get();
+        String flightKey = operation + '\n' + key;
+        Flight mine = new Flight();
+        Flight flight = flights.compute(flightKey, (k, current) -> current != null && current.join() ? current : mine);
+        if (flight == mine) {
+            counter(operation, "issued").increment();
+            start(flightKey, mine, call);
+        } else {
+            counter(operation, "coalesced").increment();
+        }
+        try {
+            return (V) flight.result.get(props.getWaitTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            leave(flightKey, flight);
+            counter(operation, "timeout").increment();
+            throw new AiService.AiFriendlyException("AI_UNAVAILABLE",
+                    "The assistant couldn’t respond right now. Please try again.", "(timeout)");
+        } catch (InterruptedException e) {
+            leave(flightKey, flight);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for " + operation);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private <V> void start(String flightKey, Flight flight, Supplier<V> call) {
+        String tenant = AiTenant.current();
+        Map<String, String> mdc = MDC.getCopyOfContextMap();
+        flight.result.whenComplete((v, e) -> flights.remove(flightKey, flight));
+        flight.task = runner.submit(() -> {
+            if (flight.result.isDone()) return; // every caller left before it started
+            if (mdc != null) MDC.setContextMap(mdc);
+            try {
+                AiTenant.runAs(tenant, () -> flight.result.complete(call.get()));
+            } catch (Throwable t) {
+                flight.result.completeExceptionally(t);
+            } finally {
+                MDC.clear();
+            }
+        });
+    }
+
+    private void leave(String flightKey, Flight flight) {
+        if (flight.waiters.decrementAndGet() == 0) {
+            flights.remove(flightKey, flight);
+            flight.result.cancel(false);
+            Future<?> task = flight.task;
+            if (task != null) task.cancel(true);
+        }
+    }
+
+    private Counter counter(String operation, String result) {
+        return Counter.builder("chat.ai.single-flight").tag("operation", operation).tag("result", result)
+                .description("Calls to the AI provider by whether they were issued or joined one in flight")
+                .register(meterRegistry);
+    }
+
+    /** Calls in flight, for tests and diagnostics. */
+    int inFlight() {
+        return flights.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+}
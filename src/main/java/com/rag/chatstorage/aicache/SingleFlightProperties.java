@@ -0,0 +1,23 @@
+package com.rag.chatstorage.aicache;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for coalescing identical concurrent calls to the AI provider.
+ * <p>
+ * Callers with the same request share one call in flight; each of them waits for it at most
+ * {@code waitTimeout}, which covers the provider's retries. The call is cancelled once no caller
+ * waits for it any more.
+ */
+@ConfigurationProperties(prefix = "chat.ai.single-flight")
+public class SingleFlightProperties {
+    private boolean enabled = true;
+    private Duration waitTimeout = Duration.ofMinutes(2);
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public Duration getWaitTimeout() { return waitTimeout; }
+    public void setWaitTimeout(Duration waitTimeout) { this.waitTimeout = waitTimeout; }
+}
@@ -0,0 +1,88 @@
+package com.rag.chatstorage.airouting;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * With {@code chat.ai.routing.enabled}, the chat client the application uses routes over the profile's
+ * chat model and the configured OpenAI-compatible providers (see {@link HedgingChatModel}). The profile's
+ * own client stays registered next to it.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "chat.ai.routing", name = "enabled", havingValue = "true")
+public class AiRoutingConfig {
+
+    @Bean
+    @Primary
+    public ChatClient routedChatClient(ObjectProvider<ChatModel> profileModel,
+                                       AiRoutingProperties props,
+                                       ObjectProvider<CircuitBreakerRegistry> circuitBreakers,
+                                       ObjectProvider<RestClient.Builder> restClients,
+                                       WebClient.Builder webClientBuilder,
+                                       MeterRegistry meterRegistry) {
+        CircuitBreakerRegistry breakers = circuitBreakers.getIfAvailable();
+        // Every provider gets a breaker of its own, configured like the "ai" one around the whole call
+        CircuitBreakerConfig breakerConfig = breakers == null ? null : breakers.circuitBreaker("ai").getCircuitBreakerConfig();
+        List<HedgingChatModel.Route> routes = new ArrayList<>();
+        ChatModel primary = profileModel.getIfUnique();
+        if (primary != null) {
+            routes.add(route(props.getPrimaryName(), primary, breakers, breakerConfig));
+        }
+        for (AiRoutingProperties.Provider p : props.getProviders()) {
+            if (!StringUtils.hasText(p.getName()) || !StringUtils.hasText(p.getBaseUrl())) {
+                throw new IllegalStateException("chat.ai.routing.providers entries need a name and a base-url");
+            }
+            routes.add(route(p.getName(), openAiCompatible(p, restClients, webClientBuilder), breakers, breakerConfig));
+        }
+        if (routes.isEmpty()) {
+            throw new IllegalStateException("chat.ai.routing is enabled but no chat provider is configured");
+        }
+        return ChatClient.create(new HedgingChatModel(routes, props.getHedge(), meterRegistry));
+    }
+
+    private static HedgingChatModel.Route route(String name, ChatModel model, CircuitBreakerRegistry breakers,
+                                                CircuitBreakerConfig config) {
+        return new HedgingChatModel.Route(name, model,
+                breakers == null ? null : breakers.circuitBreaker("ai." + name, config));
+    }
+
+    private static ChatModel openAiCompatible(AiRoutingProperties.Provider p, ObjectProvider<RestClient.Builder> restClients,
+                                              WebClient.Builder webClientBuilder) {
+        OpenAiApi api = OpenAiApi.builder()
+                .baseUrl(p.getBaseUrl())
+                // Local stubs take no key, but the client insists on one
+                .apiKey(StringUtils.hasText(p.getApiKey()) ? p.getApiKey() : "none")
+                .completionsPath(p.getCompletionsPath())
+                .restClientBuilder(restClients.getIfAvailable(RestClient::builder))
+                .webClientBuilder(webClientBuilder.clone())
+                .build();
+        return OpenAiChatModel.builder()
+                .openAiApi(api)
+                .defaultOptions(OpenAiChatOptions.builder()
+                        .model(p.getModel())
+                        .temperature(p.getTemperature())
+                        .maxTokens(p.getMaxTokens())
+                        .build())
+                // One attempt per provider: the next provider is the retry, and the "ai" retry wraps them all
+                .retryTemplate(RetryTemplate.builder().maxAttempts(1).build())
+                .build();
+    }
+}
@@ -0,0 +1,85 @@
+package com.rag.chatstorage.airouting;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration properties for routing chat calls across several providers.
+ * <p>
+ * When {@code enabled}, the chat model of the active provider profile (named {@code primary-name}) is
+ * tried first and the {@code providers} follow in order; all of them speak the OpenAI chat API at their
+ * {@code base-url}, which also covers local stubs. Each provider has a circuit breaker configured like
+ * the {@code ai} one; providers whose breaker is open are skipped.
+ * <p>
+ * {@code hedge}: a call that takes longer than the {@code percentile} latency of its provider (time to
+ * the first chunk for streams) is sent to the next provider as well, and the slower of the two is
+ * cancelled. Until a provider has {@code min-samples} calls, {@code initial-delay} stands in for that
+ * latency, and the delay never drops below {@code min-delay}. At most {@code max-ratio} of the calls
+ * are hedged, which bounds the extra spend; a call that fails before the delay fails over at once.
+ */
+@ConfigurationProperties(prefix = "chat.ai.routing")
+public class AiRoutingProperties {
+    private boolean enabled = false;
+    private String primaryName = "primary";
+    private Hedge hedge = new Hedge();
+    private List<Provider> providers = new ArrayList<>();
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public String getPrimaryName() { return primaryName; }
+    public void setPrimaryName(String primaryName) { this.primaryName = primaryName; }
+    public Hedge getHedge() { return hedge; }
+    public void setHedge(Hedge hedge) { this.hedge = hedge; }
+    public List<Provider> getProviders() { return providers; }
+    public void setProviders(List<Provider> providers) { this.providers = providers; }
+
+    public static class Hedge {
+        private boolean enabled = true;
+        private double percentile = 0.95;
+        private int minSamples = 20;
+        private Duration initialDelay = Duration.ofSeconds(5);
+        private Duration minDelay = Duration.ofMillis(200);
+        private double maxRatio = 0.1;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+        public double getPercentile() { return percentile; }
+        public void setPercentile(double percentile) { this.percentile = percentile; }
+        public int getMinSamples() { return minSamples; }
+        public void setMinSamples(int minSamples) { this.minSamples = minSamples; }
+        public Duration getInitialDelay() { return initialDelay; }
+        public void setInitialDelay(Duration initialDelay) { this.initialDelay = initialDelay; }
+        public Duration getMinDelay() { return minDelay; }
+        public void setMinDelay(Duration minDelay) { this.minDelay = minDelay; }
+        public double getMaxRatio() { return maxRatio; }
+        public void setMaxRatio(double maxRatio) { this.maxRatio = maxRatio; }
+    }
+
+    public static class Provider {
+        private String name;
+        private String baseUrl;
+        private String apiKey;
+        private String completionsPath = "/v1/chat/completions";
+        private String model;
+        private Double temperature = 0.2;
+        private Integer maxTokens = 512;
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public String getBaseUrl() { return baseUrl; }
+        public void setBaseUrl(String baseUrl) { this.baseUrl = baseUrl; }
+        public String getApiKey() { return apiKey; }
+        public void setApiKey(String apiKey) { this.apiKey = apiKey; }
+        public String getCompletionsPath() { return completionsPath; }
+        public void setCompletionsPath(String completionsPath) { this.completionsPath = completionsPath; }
+        public String getModel() { return model; }
+        public void setModel(String model) { this.model = model; }
+        public Double getTemperature() { return temperature; }
+        public void setTemperature(Double temperature) { this.temperature = temperature; }
+        public Integer getMaxTokens() { return maxTokens; }
+        public void setMaxTokens(Integer maxTokens) { this.maxTokens = maxTokens; }
+    }
+}
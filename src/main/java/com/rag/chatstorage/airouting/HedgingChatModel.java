@@ -0,0 +1,262 @@
+package com.rag.chatstorage.airouting;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A chat model that spreads calls over several providers, tried in order.
+ * <p>
+ * A call goes to the first provider whose circuit breaker is not open. If it fails, or has not answered
+ * within the hedge delay, the same prompt goes to the next available provider, and whichever answers
+ * first wins; the other call is cancelled (for blocking calls, by interrupting its thread). Streams are
+ * judged by their first chunk; once a stream has produced one, it is not hedged or failed over.
+ * <p>
+ * The hedge delay is a percentile of the provider's recent latency, kept in {@code chat.ai.provider.latency}
+ * (tags {@code provider} and {@code kind}: call, first-chunk). Hedges draw on a budget that grows by
+ * {@code max-ratio} per call, so hedging adds at most that share of calls. Meters:
+ * {@code chat.ai.provider.hedges}, {@code chat.ai.provider.hedges.won} and {@code chat.ai.provider.failovers},
+ * by the provider the extra call went to.
+ */
+public class HedgingChatModel implements ChatModel {
+
+    /** One provider; {@code breaker} may be null. */
+    public record Route(String name, ChatModel model, CircuitBreaker breaker) {}
+
+    private static final int NEW = 0, RUNNING = 1, DONE = 2, CANCELLED = 3;
+    // Unused hedges saved up for bursts of slow calls, in calls
+    private static final long MAX_BUDGET = 10;
+    private static final long UNIT = 1000;
+
+    private final List<Provider> providers;
+    private final AiRoutingProperties.Hedge hedge;
+    // Blocking provider calls run on virtual threads, so waiting on a slow provider costs no platform thread
+    private final Scheduler scheduler = Schedulers.fromExecutorService(
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ai-route-", 1).factory()), "ai-route");
+    private final AtomicLong budget = new AtomicLong(UNIT);
+
+    public HedgingChatModel(List<Route> routes, AiRoutingProperties.Hedge hedge, MeterRegistry meterRegistry) {
+        if (routes.isEmpty()) throw new IllegalArgumentException("At least one chat provider is required");
+        this.hedge = hedge;
+        this.providers = routes.stream().map(r -> new Provider(r, hedge, meterRegistry)).toList();
+    }
+
+    /** Empty, so that every provider applies its own model and options. */
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return ChatOptions.builder().build();
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        List<Provider> available = available();
+        Provider first = available.get(0);
+        if (available.size() == 1) return first.call(prompt);
+        Provider second = available.get(1);
+
+        AtomicReference<Throwable> firstError = new AtomicReference<>();
+        Sinks.Empty<Void> failed = Sinks.empty();
+        Mono<ChatResponse> primary = attempt(first, prompt)
+                .doOnError(e -> {
+                    firstError.set(e);
+                    failed.tryEmitEmpty();
+                });
+        Mono<ChatResponse> secondary = trigger(first, first.callLatency, failed)
+                .flatMap(failover -> dispatch(second, failover) ? attempt(second, prompt)
+                        .doOnNext(r -> { if (!failover) second.hedgesWon.increment(); }) : Mono.empty());
+        return Mono.firstWithValue(primary, secondary)
+                .onErrorMap(NoSuchElementException.class, e -> firstError.get() != null ? firstError.get() : e)
+                .block();
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            List<Provider> available = available();
+            Provider first = available.get(0);
+            if (available.size() == 1) return first.stream(prompt);
+            Provider second = available.get(1);
+
+            AtomicReference<Throwable> firstError = new AtomicReference<>();
+            Sinks.Empty<Void> failed = Sinks.empty();
+            Flux<ChatResponse> primary = first.stream(prompt)
+                    .doOnError(e -> {
+                        firstError.set(e);
+                        failed.tryEmitEmpty();
+                    });
+            Flux<ChatResponse> secondary = trigger(first, first.firstChunkLatency, failed)
+                    .flatMapMany(failover -> {
+                        if (!dispatch(second, failover)) return Flux.empty();
+                        AtomicBoolean won = new AtomicBoolean(failover);
+                        return second.stream(prompt).doOnNext(r -> {
+                            if (won.compareAndSet(false, true)) second.hedgesWon.increment();
+                        });
+                    });
+            // The first to produce a chunk keeps streaming; the other is cancelled
+            return Flux.firstWithValue(primary, secondary)
+                    .onErrorMap(NoSuchElementException.class, e -> firstError.get() != null ? firstError.get() : e);
+        });
+    }
+
+    // Emits true when the first provider failed, false when its hedge delay ran out first
+    private Mono<Boolean> trigger(Provider first, Timer latency, Sinks.Empty<Void> failed) {
+        Mono<Boolean> failure = failed.asMono().thenReturn(true);
+        if (!hedge.isEnabled()) return failure;
+        return Mono.firstWithSignal(failure, Mono.delay(first.hedgeDelay(latency)).thenReturn(false));
+    }
+
+    // Failovers always go out; hedges only while the budget lasts
+    private boolean dispatch(Provider second, boolean failover) {
+        if (failover) {
+            second.failovers.increment();
+            return true;
+        }
+        long left = budget.getAndUpdate(b -> b >= UNIT ? b - UNIT : b);
+        if (left < UNIT) return false;
+        second.hedges.increment();
+        return true;
+    }
+
+    private List<Provider> available() {
+        long earned = Math.round(hedge.getMaxRatio() * UNIT);
+        budget.getAndUpdate(b -> Math.min(MAX_BUDGET * UNIT, b + earned));
+        List<Provider> open = providers.stream().filter(Provider::isAvailable).toList();
+        // With every circuit open, the first provider's breaker turns the call down
+        return open.isEmpty() ? List.of(providers.get(0)) : open;
+    }
+
+    private Mono<ChatResponse> attempt(Provider provider, Prompt prompt) {
+        AtomicInteger state = new AtomicInteger(NEW);
+        return Mono.fromCallable(() -> provider.call(prompt, state))
+                .subscribeOn(scheduler)
+                .doOnCancel(() -> {
+                    if (state.getAndSet(CANCELLED) == RUNNING) provider.release();
+                });
+    }
+
+    private static final class Provider {
+        final Route route;
+        final AiRoutingProperties.Hedge hedge;
+        final Timer callLatency;
+        final Timer firstChunkLatency;
+        final Counter hedges;
+        final Counter hedgesWon;
+        final Counter failovers;
+
+        Provider(Route route, AiRoutingProperties.Hedge hedge, MeterRegistry registry) {
+            this.route = route;
+            this.hedge = hedge;
+            this.callLatency = latency(registry, route.name(), "call", hedge);
+            this.firstChunkLatency = latency(registry, route.name(), "first-chunk", hedge);
+            this.hedges = Counter.builder("chat.ai.provider.hedges").tag("provider", route.name())
+                    .description("Slow calls also sent to this provider").register(registry);
+            this.hedgesWon = Counter.builder("chat.ai.provider.hedges.won").tag("provider", route.name())
+                    .description("Hedged calls this provider answered first").register(registry);
+            this.failovers = Counter.builder("chat.ai.provider.failovers").tag("provider", route.name())
+                    .description("Failed calls sent on to this provider").register(registry);
+        }
+
+        private static Timer latency(MeterRegistry registry, String provider, String kind, AiRoutingProperties.Hedge hedge) {
+            return Timer.builder("chat.ai.provider.latency").tag("provider", provider).tag("kind", kind)
+                    .publishPercentiles(hedge.getPercentile())
+                    .description("Latency of chat provider calls").register(registry);
+        }
+
+        boolean isAvailable() {
+            CircuitBreaker b = route.breaker();
+            return b == null || (b.getState() != CircuitBreaker.State.OPEN && b.getState() != CircuitBreaker.State.FORCED_OPEN);
+        }
+
+        Duration hedgeDelay(Timer latency) {
+            Duration min = hedge.getMinDelay();
+            if (latency.count() < hedge.getMinSamples()) return max(min, hedge.getInitialDelay());
+            for (ValueAtPercentile v : latency.takeSnapshot().percentileValues()) {
+                if (v.percentile() == hedge.getPercentile()) {
+                    return max(min, Duration.ofNanos((long) v.value(TimeUnit.NANOSECONDS)));
+                }
+            }
+            return max(min, hedge.getInitialDelay());
+        }
+
+        private static Duration max(Duration a, Duration b) {
+            return a.compareTo(b) >= 0 ? a : b;
+        }
+
+        ChatResponse call(Prompt prompt) {
+            return call(prompt, new AtomicInteger(NEW));
+        }
+
+        // state moves NEW -> RUNNING -> DONE, or to CANCELLED when the caller lost interest
+        ChatResponse call(Prompt prompt, AtomicInteger state) {
+            acquire();
+            if (!state.compareAndSet(NEW, RUNNING)) {
+                release();
+                return null;
+            }
+            long start = System.nanoTime();
+            try {
+                ChatResponse response = route.model().call(prompt);
+                if (state.compareAndSet(RUNNING, DONE)) succeeded(callLatency, System.nanoTime() - start);
+                return response;
+            } catch (RuntimeException e) {
+                if (state.compareAndSet(RUNNING, DONE)) failed(System.nanoTime() - start, e);
+                throw e;
+            }
+        }
+
+        Flux<ChatResponse> stream(Prompt prompt) {
+            return Flux.defer(() -> {
+                acquire();
+                long start = System.nanoTime();
+                AtomicBoolean first = new AtomicBoolean();
+                return route.model().stream(prompt)
+                        .doOnNext(r -> {
+                            if (first.compareAndSet(false, true)) firstChunkLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        })
+                        .doOnComplete(() -> succeeded(null, System.nanoTime() - start))
+                        .doOnError(e -> failed(System.nanoTime() - start, e))
+                        .doOnCancel(this::release);
+            });
+        }
+
+        private void acquire() {
+            CircuitBreaker b = route.breaker();
+            if (b != null && !b.tryAcquirePermission()) throw CallNotPermittedException.createCallNotPermittedException(b);
+        }
+
+        private void succeeded(Timer timer, long nanos) {
+            if (timer != null) timer.record(nanos, TimeUnit.NANOSECONDS);
+            if (route.breaker() != null) route.breaker().onSuccess(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void failed(long nanos, Throwable e) {
+            if (route.breaker() != null) route.breaker().onError(nanos, TimeUnit.NANOSECONDS, e);
+        }
+
+        void release() {
+            if (route.breaker() != null) route.breaker().releasePermission();
+        }
+    }
+}
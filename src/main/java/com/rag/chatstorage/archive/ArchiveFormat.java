@@ -0,0 +1,88 @@
+package com.rag.chatstorage.archive;
+
+import com.rag.chatstorage.domain.ChatMessage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary layout of an archived session: a version byte, the message count, then per message its id,
+ * sender, creation time and length-prefixed UTF-8 content and context, all in one zlib stream.
+ * Compressing a whole session at once lets repeated phrasing across messages share the window.
+ */
+final class ArchiveFormat {
+
+    static final int VERSION = 1;
+
+    private ArchiveFormat() {}
+
+    static byte[] encode(List<ArchivedMessage> messages, int level) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(level);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            out.writeByte(VERSION);
+            out.writeInt(messages.size());
+            for (ArchivedMessage m : messages) {
+                out.writeLong(m.id());
+                out.writeUTF(m.sender().name());
+                out.writeLong(m.createdAt().getEpochSecond());
+                out.writeInt(m.createdAt().getNano());
+                writeText(out, m.content());
+                writeText(out, m.context());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<ArchivedMessage> decode(byte[] payload) {
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(payload), inflater))) {
+            int version = in.readUnsignedByte();
+            if (version != VERSION) throw new IllegalStateException("Unsupported archive version " + version);
+            int count = in.readInt();
+            List<ArchivedMessage> out = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                ChatMessage.Sender sender = ChatMessage.Sender.valueOf(in.readUTF());
+                Instant createdAt = Instant.ofEpochSecond(in.readLong(), in.readInt());
+                out.add(new ArchivedMessage(id, sender, readText(in), readText(in), createdAt));
+            }
+            return out;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeText(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) return null;
+        return new String(in.readNBytes(n), StandardCharsets.UTF_8);
+    }
+}
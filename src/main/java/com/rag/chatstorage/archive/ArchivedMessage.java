@@ -0,0 +1,7 @@
+package com.rag.chatstorage.archive;
+
+import com.rag.chatstorage.domain.ChatMessage;
+import java.time.Instant;
+
+/** A message as held in the archive, with its original id and decoded text. */
+public record ArchivedMessage(long id, ChatMessage.Sender sender, String content, String context, Instant createdAt) {}
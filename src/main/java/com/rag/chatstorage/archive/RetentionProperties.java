@@ -0,0 +1,82 @@
+package com.rag.chatstorage.archive;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.PatternMatchUtils;
+
+/**
+ * Configuration properties for moving idle sessions into the cold archive.
+ * <p>
+ * A session becomes eligible once its last message (and its last restore, if any) is older than
+ * {@code archiveAfter}. Tenants are groups of users selected by user id patterns ({@code *} wildcard);
+ * the first tenant whose patterns match a user decides that user's age, and a tenant without an
+ * {@code archiveAfter} is never archived. The job walks sessions in batches of {@code batchSize},
+ * sleeping {@code pause} between batches to keep the load on the primary low.
+ */
+@ConfigurationProperties(prefix = "chat.retention")
+public class RetentionProperties {
+    private boolean enabled = false;
+    private Duration archiveAfter = Duration.ofDays(90);
+    private int batchSize = 50;
+    private Duration pause = Duration.ofMillis(200);
+    private int level = 6;
+    private List<Tenant> tenants = new ArrayList<>();
+
+    /** Messages last written before the returned instant are archived for this user; empty means never. */
+    public Optional<Instant> cutoff(String userId, Instant now) {
+        Duration age = archiveAfter;
+        for (Tenant t : tenants) {
+            if (t.matches(userId)) {
+                age = t.getArchiveAfter();
+                break;
+            }
+        }
+        return age == null || age.isZero() || age.isNegative() ? Optional.empty() : Optional.of(now.minus(age));
+    }
+
+    /** The earliest cutoff of any policy, used to narrow the candidate scan; empty if nothing is archived. */
+    public Optional<Instant> widestCutoff(Instant now) {
+        Duration shortest = null;
+        List<Duration> ages = new ArrayList<>();
+        ages.add(archiveAfter);
+        tenants.forEach(t -> ages.add(t.getArchiveAfter()));
+        for (Duration d : ages) {
+            if (d != null && d.isPositive() && (shortest == null || d.compareTo(shortest) < 0)) shortest = d;
+        }
+        return Optional.ofNullable(shortest).map(now::minus);
+    }
+
+    public static class Tenant {
+        private String id;
+        private List<String> users = new ArrayList<>();
+        private Duration archiveAfter;
+
+        boolean matches(String userId) {
+            return users.stream().anyMatch(p -> PatternMatchUtils.simpleMatch(p, userId));
+        }
+
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+        public List<String> getUsers() { return users; }
+        public void setUsers(List<String> users) { this.users = users; }
+        public Duration getArchiveAfter() { return archiveAfter; }
+        public void setArchiveAfter(Duration archiveAfter) { this.archiveAfter = archiveAfter; }
+    }
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public Duration getArchiveAfter() { return archiveAfter; }
+    public void setArchiveAfter(Duration archiveAfter) { this.archiveAfter = archiveAfter; }
+    public int getBatchSize() { return batchSize; }
+    public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+    public Duration getPause() { return pause; }
+    public void setPause(Duration pause) { this.pause = pause; }
+    public int getLevel() { return level; }
+    public void setLevel(int level) { this.level = level; }
+    public List<Tenant> getTenants() { return tenants; }
+    public void setTenants(List<Tenant> tenants) { this.tenants = tenants; }
+}
@@ -0,0 +1,178 @@
+package com.rag.chatstorage.archive;
+
+import com.rag.chatstorage.cache.RecentMessageCache;
+import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.domain.convert.TextCompressionCodec;
+import com.rag.chatstorage.search.MessageSearchIndex;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Cold storage for idle sessions.
+ * <p>
+ * Archiving replaces all {@code chat_messages} and {@code chat_message_context} rows of a session with
+ * one compressed row in {@code chat_session_archive} and stamps {@code chat_sessions.archived_at}.
+ * Restoring writes the rows back with their original ids, so links, search hits and exports keep
+ * working, and stamps {@code restored_at} so the session is not archived again straight away.
+ * <p>
+ * Both operations lock the session row first, which serializes them with each other. They join the
+ * caller's transaction when there is one, except that a restore requested from a read-only transaction
+ * runs in a transaction of its own (possibly on a replica-routed connection that cannot write).
+ */
+@Component
+public class SessionArchive {
+
+    private static final String MESSAGES_SQL = """
+            SELECT m.id, m.sender, m.content, c.context, m.created_at
+            FROM chat_messages m LEFT JOIN chat_message_context c ON c.message_id = m.id
+            WHERE m.session_id = ? ORDER BY m.created_at, m.id
+            """;
+    private static final String INSERT_MESSAGE =
+            "INSERT INTO chat_messages (id, session_id, sender, content, has_context, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final TransactionTemplate newTx;
+    private final TextCompressionCodec codec;
+    private final RecentMessageCache recentMessages;
+    private final MessageSearchIndex messageIndex;
+    private final RetentionProperties props;
+
+    public SessionArchive(DataSource dataSource, PlatformTransactionManager transactionManager, TextCompressionCodec codec,
+                          RecentMessageCache recentMessages, MessageSearchIndex messageIndex, RetentionProperties props) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.tx = new TransactionTemplate(transactionManager);
+        this.newTx = new TransactionTemplate(transactionManager);
+        this.newTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.codec = codec;
+        this.recentMessages = recentMessages;
+        this.messageIndex = messageIndex;
+        this.props = props;
+    }
+
+    /**
+     * Archives a session if it is still idle relative to {@code cutoff} once locked.
+     * Returns the number of messages archived, 0 if the session was skipped.
+     */
+    public int archive(long sessionId, Instant cutoff) {
+        Long[] userKey = new Long[1];
+        Integer archived = tx.execute(status -> {
+            List<Map<String, Object>> rows = jdbc.queryForList("""
+                    SELECT user_id FROM chat_sessions WHERE id = ? AND archived_at IS NULL AND deleted_at IS NULL AND message_count > 0
+                      AND last_message_at < ? AND (restored_at IS NULL OR restored_at < ?) FOR UPDATE
+                    """, sessionId, Timestamp.from(cutoff), Timestamp.from(cutoff));
+            if (rows.isEmpty()) return 0;
+            userKey[0] = ((Number) rows.get(0).get("user_id")).longValue();
+            List<ArchivedMessage> messages = jdbc.query(MESSAGES_SQL, (rs, i) -> new ArchivedMessage(rs.getLong("id"),
+                    ChatMessage.Sender.valueOf(rs.getString("sender")), codec.decode(rs.getString("content")),
+                    codec.decode(rs.getString("context")), rs.getTimestamp("created_at").toInstant()), sessionId);
+            if (messages.isEmpty()) return 0;
+            Timestamp now = Timestamp.from(Instant.now());
+            jdbc.update("INSERT INTO chat_session_archive (session_id, message_count, payload, archived_at) VALUES (?, ?, ?, ?)",
+                    sessionId, messages.size(), ArchiveFormat.encode(messages, props.getLevel()), now);
+            jdbc.update("DELETE FROM chat_message_context WHERE message_id IN (SELECT id FROM chat_messages WHERE session_id = ?)",
+                    sessionId);
+            jdbc.update("DELETE FROM chat_messages WHERE session_id = ?", sessionId);
+            jdbc.update("UPDATE chat_sessions SET archived_at = ? WHERE id = ?", now, sessionId);
+            return messages.size();
+        });
+        if (archived != null && archived > 0) {
+            recentMessages.evict(sessionId);
+            // The postings stay in memory, so a restore brings the session back without tokenizing it again
+            messageIndex.removeSession(userKey[0], sessionId);
+        }
+        return archived == null ? 0 : archived;
+    }
+
+    /** Moves an archived session back into the hot tables; returns false if it was not archived. */
+    public boolean restore(long sessionId) {
+        // Callers probe with every empty read, so rule out hot sessions without taking a lock
+        if (jdbc.queryForList("SELECT id FROM chat_sessions WHERE id = ? AND archived_at IS NOT NULL", Long.class, sessionId)
+                .isEmpty()) {
+            return false;
+        }
+        TransactionTemplate writer = TransactionSynchronizationManager.isCurrentTransactionReadOnly() ? newTx : tx;
+        Boolean restored = writer.execute(status -> {
+            List<Long> owner = jdbc.queryForList(
+                    "SELECT user_id FROM chat_sessions WHERE id = ? AND archived_at IS NOT NULL FOR UPDATE", Long.class, sessionId);
+            if (owner.isEmpty()) return false;
+            Optional<List<ArchivedMessage>> messages = read(sessionId);
+            if (messages.isPresent()) {
+                List<ArchivedMessage> list = messages.get();
+                jdbc.batchUpdate(INSERT_MESSAGE, list, list.size(), (ps, m) -> {
+                    ps.setLong(1, m.id());
+                    ps.setLong(2, sessionId);
+                    ps.setString(3, m.sender().name());
+                    ps.setString(4, codec.encode(m.content()));
+                    ps.setBoolean(5, m.context() != null);
+                    ps.setTimestamp(6, Timestamp.from(m.createdAt()));
+                });
+                List<ArchivedMessage> withContext = list.stream().filter(m -> m.context() != null).toList();
+                jdbc.batchUpdate("INSERT INTO chat_message_context (message_id, context) VALUES (?, ?)",
+                        withContext, withContext.size(), (ps, m) -> {
+                            ps.setLong(1, m.id());
+                            ps.setString(2, codec.encode(m.context()));
+                        });
+                jdbc.update("DELETE FROM chat_session_archive WHERE session_id = ?", sessionId);
+            }
+            jdbc.update("UPDATE chat_sessions SET archived_at = NULL, restored_at = ? WHERE id = ?",
+                    Timestamp.from(Instant.now()), sessionId);
+            Long userKey = owner.get(0);
+            List<ArchivedMessage> restoredMessages = messages.orElse(List.of());
+            afterCompletion(() -> {
+                // A window cached while the session was archived would claim it is empty
+                recentMessages.evict(sessionId);
+            });
+            afterCommit(() -> {
+                messageIndex.restoreSession(userKey, sessionId);
+                restoredMessages.forEach(m -> messageIndex.add(userKey, m.id(), sessionId, m.content()));
+            });
+            return true;
+        });
+        return Boolean.TRUE.equals(restored);
+    }
+
+    /** Messages of an archived session in chronological order, without restoring it. */
+    public Optional<List<ArchivedMessage>> read(long sessionId) {
+        List<byte[]> payload = jdbc.query("SELECT payload FROM chat_session_archive WHERE session_id = ?",
+                (rs, i) -> rs.getBytes("payload"), sessionId);
+        return payload.isEmpty() ? Optional.empty() : Optional.of(ArchiveFormat.decode(payload.get(0)));
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static void afterCompletion(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
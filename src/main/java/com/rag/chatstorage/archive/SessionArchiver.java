@@ -0,0 +1,103 @@
+package com.rag.chatstorage.archive;
+
+import com.rag.chatstorage.shard.ShardRouter;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Scheduled job that moves idle sessions into {@link SessionArchive}.
+ * <p>
+ * Candidates are walked by session id in keyset batches of {@code chat.retention.batch-size}; each
+ * session is archived in its own short transaction and the job pauses between batches, so it never
+ * holds locks for long nor competes with user traffic for I/O.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.retention.enabled", havingValue = "true")
+public class SessionArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionArchiver.class);
+
+    private static final String CANDIDATES_SQL = """
+            SELECT s.id, u.user_id, s.last_message_at, s.restored_at
+            FROM chat_sessions s JOIN users u ON u.id = s.user_id
+            WHERE s.id > ? AND s.archived_at IS NULL AND s.deleted_at IS NULL AND s.message_count > 0 AND s.last_message_at < ?
+            ORDER BY s.id LIMIT ?
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final SessionArchive archive;
+    private final RetentionProperties props;
+    private final ShardRouter shards;
+
+    public SessionArchiver(DataSource dataSource, SessionArchive archive, RetentionProperties props, ShardRouter shards) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.archive = archive;
+        this.props = props;
+        this.shards = shards;
+    }
+
+    @Scheduled(initialDelayString = "${chat.retention.initial-delay:PT5M}", fixedDelayString = "${chat.retention.interval:PT1H}")
+    public void run() {
+        shards.forEachShard(shard -> {
+            Result r = archiveIdleSessions(Instant.now());
+            if (r.sessions() > 0) {
+                log.info("Archived {} idle chat sessions ({} messages) on shard {}", r.sessions(), r.messages(), shard);
+            }
+        });
+    }
+
+    /** One full pass over the candidates as of {@code now}. */
+    public Result archiveIdleSessions(Instant now) {
+        Optional<Instant> widest = props.widestCutoff(now);
+        if (widest.isEmpty()) return new Result(0, 0);
+        int batchSize = Math.max(1, props.getBatchSize());
+        long after = 0;
+        long sessions = 0;
+        long messages = 0;
+        while (true) {
+            List<Candidate> batch = jdbc.query(CANDIDATES_SQL, (rs, i) -> new Candidate(rs.getLong("id"),
+                    rs.getString("user_id"), rs.getTimestamp("last_message_at"), rs.getTimestamp("restored_at")),
+                    after, Timestamp.from(widest.get()), batchSize);
+            for (Candidate c : batch) {
+                Optional<Instant> cutoff = props.cutoff(c.userId(), now);
+                if (cutoff.isEmpty() || !c.idleBefore(cutoff.get())) continue;
+                int archived = archive.archive(c.id(), cutoff.get());
+                if (archived > 0) {
+                    sessions++;
+                    messages += archived;
+                }
+            }
+            if (batch.size() < batchSize) break;
+            after = batch.get(batch.size() - 1).id();
+            if (!pause()) break;
+        }
+        return new Result(sessions, messages);
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(props.getPause());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public record Result(long sessions, long messages) {}
+
+    private record Candidate(long id, String userId, Timestamp lastMessageAt, Timestamp restoredAt) {
+        boolean idleBefore(Instant cutoff) {
+            return lastMessageAt.toInstant().isBefore(cutoff) && (restoredAt == null || restoredAt.toInstant().isBefore(cutoff));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.rag.chatstorage.cache;
+
+import com.rag.chatstorage.domain.ChatMessage;
+import java.time.Instant;
+import java.util.Comparator;
+
+/**
+ * The values of one cached message, copied out of the persistence context that loaded or wrote it, so
+ * that windows can be read from any thread. Readers get a fresh detached {@link ChatMessage} per read.
+ */
+record RecentMessage(Long id, Long sessionId, ChatMessage.Sender sender, String content, boolean hasContext,
+                     Instant createdAt) {
+
+    /** The order of message reads: creation time, then id. Ids alone do not follow inserts once they carry a shard slot. */
+    static final Comparator<RecentMessage> ORDER = Comparator
+            .comparing(RecentMessage::createdAt, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(RecentMessage::id);
+
+    static RecentMessage of(Long sessionId, ChatMessage m) {
+        return new RecentMessage(m.getId(), sessionId, m.getSender(), m.getContent(), m.hasContext(), m.getCreatedAt());
+    }
+
+    ChatMessage toMessage() {
+        return ChatMessage.detached(id, sessionId, sender, content, hasContext, createdAt);
+    }
+}
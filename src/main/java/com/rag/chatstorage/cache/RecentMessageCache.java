@@ -0,0 +1,98 @@
+package com.rag.chatstorage.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rag.chatstorage.domain.ChatMessage;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-process cache of the newest messages of recently active sessions.
+ * <p>
+ * Windows are loaded from the database on first read and kept current by write-through on
+ * message insert, so that reads of the latest page and of the AI history window during an
+ * active chat are served without a message query. They hold copies of the messages, not the
+ * entities of the persistence context that loaded them, and every read gets detached messages
+ * of its own. Write-through only sees this instance's
+ * inserts, so readers pass the message count recorded on the session row and a window whose
+ * total differs is reloaded. Entries expire after a period of inactivity and are bounded by
+ * the estimated memory weight of the buffered messages.
+ */
+@Component
+public class RecentMessageCache {
+
+    private final RecentMessageCacheProperties props;
+    private final Cache<Long, RecentMessageWindow> windows;
+
+    public RecentMessageCache(RecentMessageCacheProperties props) {
+        this.props = props;
+        this.windows = Caffeine.newBuilder()
+                .expireAfterAccess(props.getIdleTtl())
+                .maximumWeight(props.getMaxWeight().toBytes())
+                .weigher((Long id, RecentMessageWindow w) -> w.weight())
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return props.isEnabled();
+    }
+
+    public int capacity() {
+        return props.getCapacity();
+    }
+
+    /**
+     * Returns the cached window for a session, loading it with {@code loader} on a miss.
+     * The loader receives the window capacity and must return the newest messages in ascending order.
+     */
+    public Optional<RecentMessageWindow> window(Long sessionId, Function<Integer, Snapshot> loader) {
+        if (!isEnabled()) return Optional.empty();
+        return Optional.ofNullable(windows.get(sessionId, id -> {
+            Snapshot s = loader.apply(props.getCapacity());
+            return s == null ? null : new RecentMessageWindow(id, props.getCapacity(), s.newestAscending(), s.total());
+        }));
+    }
+
+    /**
+     * Like {@link #window(Long, Function)}, but a cached window that does not hold {@code total} messages
+     * in all is reloaded: another instance, or maintenance, changed the session since it was loaded.
+     */
+    public Optional<RecentMessageWindow> window(Long sessionId, long total, Function<Integer, Snapshot> loader) {
+        Optional<RecentMessageWindow> window = window(sessionId, loader);
+        if (window.isEmpty() || window.get().total() == total) return window;
+        windows.invalidate(sessionId);
+        return window(sessionId, loader);
+    }
+
+    /** Returns messages at absolute positions [from, from + count) if the cached tail covers them. */
+    public Optional<List<ChatMessage>> slice(RecentMessageWindow window, long from, int count) {
+        return Optional.ofNullable(window.slice(from, count));
+    }
+
+    /** Returns up to {@code limit} newest messages if the cached tail holds at least that many (or all of them). */
+    public Optional<List<ChatMessage>> newest(RecentMessageWindow window, int limit) {
+        if (window.size() < limit && window.firstIndex() > 0) return Optional.empty();
+        return Optional.of(window.newest(limit));
+    }
+
+    /** Write-through of a persisted message; windows that cannot be kept consistent are dropped. */
+    public void append(ChatMessage m) {
+        if (!isEnabled() || m.getSession() == null || m.getSession().getId() == null) return;
+        Long sessionId = m.getSession().getId();
+        // computeIfPresent re-evaluates the entry weight after the append
+        windows.asMap().computeIfPresent(sessionId, (id, w) -> w.append(m) ? w : null);
+    }
+
+    public void evict(Long sessionId) {
+        windows.invalidate(sessionId);
+    }
+
+    public long estimatedSize() {
+        return windows.estimatedSize();
+    }
+
+    /** Newest messages of a session in ascending order plus the session's total message count. */
+    public record Snapshot(List<ChatMessage> newestAscending, long total) {}
+}
@@ -0,0 +1,29 @@
+package com.rag.chatstorage.cache;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Configuration properties for the in-process cache of recent messages per active session.
+ * <p>
+ * Each cached session keeps at most {@code capacity} of its newest messages. Sessions are evicted
+ * after {@code idleTtl} without reads or writes, and the least recently used sessions are dropped
+ * once the estimated size of all cached messages exceeds {@code maxWeight}.
+ */
+@ConfigurationProperties(prefix = "chat.cache.recent-messages")
+public class RecentMessageCacheProperties {
+    private boolean enabled = true;
+    private int capacity = 50;
+    private Duration idleTtl = Duration.ofMinutes(10);
+    private DataSize maxWeight = DataSize.ofMegabytes(64);
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public int getCapacity() { return capacity; }
+    public void setCapacity(int capacity) { this.capacity = capacity; }
+    public Duration getIdleTtl() { return idleTtl; }
+    public void setIdleTtl(Duration idleTtl) { this.idleTtl = idleTtl; }
+    public DataSize getMaxWeight() { return maxWeight; }
+    public void setMaxWeight(DataSize maxWeight) { this.maxWeight = maxWeight; }
+}
@@ -0,0 +1,145 @@
+package com.rag.chatstorage.cache;
+
+import com.rag.chatstorage.domain.ChatMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed-capacity ring buffer holding the newest messages of one session in ascending order,
+ * together with the total number of messages stored for that session.
+ * <p>
+ * Message positions are absolute (0 = oldest message of the session), so a page request can be
+ * answered from the buffer whenever it starts at or after {@link #firstIndex()}. Messages are kept as
+ * {@link RecentMessage} values in {@link RecentMessage#ORDER}, the order of message reads, and handed
+ * out as new detached entities.
+ */
+public class RecentMessageWindow {
+
+    static final int WINDOW_OVERHEAD_BYTES = 128;
+    static final int MESSAGE_OVERHEAD_BYTES = 96;
+
+    private final Long sessionId;
+    private final RecentMessage[] ring;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int head; // slot of the oldest buffered message
+    private int size;
+    private long total;
+    private long weight;
+
+    RecentMessageWindow(Long sessionId, int capacity, List<ChatMessage> newestAscending, long total) {
+        this.sessionId = sessionId;
+        this.ring = new RecentMessage[Math.max(1, capacity)];
+        this.total = total;
+        int skip = Math.max(0, newestAscending.size() - ring.length);
+        for (int i = skip; i < newestAscending.size(); i++) {
+            push(RecentMessage.of(sessionId, newestAscending.get(i)));
+        }
+    }
+
+    /**
+     * Appends a newly persisted message. Returns {@code false} when the message cannot be placed
+     * at the tail (unknown id or committed out of order), in which case the window must be dropped.
+     */
+    boolean append(ChatMessage m) {
+        if (m.getId() == null) return false;
+        RecentMessage message = RecentMessage.of(sessionId, m);
+        lock.lock();
+        try {
+            if (size > 0) {
+                RecentMessage last = ring[slot(size - 1)];
+                if (RecentMessage.ORDER.compare(message, last) <= 0) {
+                    // Already loaded from the database by a concurrent read; anything else is out of order
+                    return contains(message.id());
+                }
+            }
+            push(message);
+            total++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the messages at absolute positions [from, from + count), or {@code null} when part of
+     * that range is older than the buffered tail.
+     */
+    List<ChatMessage> slice(long from, int count) {
+        lock.lock();
+        try {
+            long first = total - size;
+            if (from < first) return null;
+            List<ChatMessage> out = new ArrayList<>();
+            for (long i = from; i < total && out.size() < count; i++) {
+                out.add(ring[slot((int) (i - first))].toMessage());
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns up to {@code limit} of the newest messages in ascending order. */
+    List<ChatMessage> newest(int limit) {
+        lock.lock();
+        try {
+            int n = Math.min(limit, size);
+            List<ChatMessage> out = new ArrayList<>(n);
+            for (int i = size - n; i < size; i++) {
+                out.add(ring[slot(i)].toMessage());
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long total() {
+        lock.lock();
+        try { return total; } finally { lock.unlock(); }
+    }
+
+    public long firstIndex() {
+        lock.lock();
+        try { return total - size; } finally { lock.unlock(); }
+    }
+
+    public int size() {
+        lock.lock();
+        try { return size; } finally { lock.unlock(); }
+    }
+
+    /** Approximate retained heap size of the buffered messages, used as the cache weight. */
+    int weight() {
+        lock.lock();
+        try { return (int) Math.min(Integer.MAX_VALUE, WINDOW_OVERHEAD_BYTES + weight); } finally { lock.unlock(); }
+    }
+
+    private void push(RecentMessage m) {
+        if (size == ring.length) {
+            weight -= weigh(ring[head]);
+            ring[head] = m;
+            head = (head + 1) % ring.length;
+        } else {
+            ring[slot(size)] = m;
+            size++;
+        }
+        weight += weigh(m);
+    }
+
+    private boolean contains(Long id) {
+        for (int i = 0; i < size; i++) {
+            if (id.equals(ring[slot(i)].id())) return true;
+        }
+        return false;
+    }
+
+    private int slot(int offset) {
+        return (head + offset) % ring.length;
+    }
+
+    static long weigh(RecentMessage m) {
+        return MESSAGE_OVERHEAD_BYTES + (m.content() == null ? 0 : m.content().length()) * 2L;
+    }
+}
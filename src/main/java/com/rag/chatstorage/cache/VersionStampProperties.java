@@ -0,0 +1,26 @@
+package com.rag.chatstorage.cache;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the in-process version stamps behind the ETags of session lists and
+ * message pages.
+ * <p>
+ * A stamp is dropped {@code ttl} after it was set, as are the least recently used ones beyond
+ * {@code maxEntries}; a dropped stamp starts over at a fresh version, so earlier ETags no longer match.
+ * The ttl bounds how long a change written through another instance can be answered with a 304.
+ */
+@ConfigurationProperties(prefix = "chat.cache.etags")
+public class VersionStampProperties {
+    private boolean enabled = true;
+    private Duration ttl = Duration.ofSeconds(10);
+    private long maxEntries = 200_000;
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public Duration getTtl() { return ttl; }
+    public void setTtl(Duration ttl) { this.ttl = ttl; }
+    public long getMaxEntries() { return maxEntries; }
+    public void setMaxEntries(long maxEntries) { this.maxEntries = maxEntries; }
+}
@@ -0,0 +1,74 @@
+package com.rag.chatstorage.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rag.chatstorage.datasource.ReplicaProperties;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-process version stamps for polled resources: a user's session list and a session's messages.
+ * <p>
+ * Writers {@link #touch} a resource once their change has committed; readers turn its current stamp into
+ * an ETag before running any query, so a matching {@code If-None-Match} is answered without touching the
+ * database. Versions come from one instance-wide clock and a resource seen for the first time (or again
+ * after eviction) starts at a fresh version, so a stamp never repeats a value an earlier ETag was built on.
+ * The ETags also carry a random epoch, which invalidates them when the instance restarts.
+ * <p>
+ * Only writes made through this instance move the stamps, so every stamp is also retired {@code ttl} after
+ * it was set, whether or not it is read: a write made through another instance is then served at the latest
+ * one {@code ttl} later, at the cost of one full response per poller and {@code ttl}. With read replicas,
+ * no ETag is given out while a change may not have reached them yet, so that a stale read is not stamped
+ * with the new version.
+ */
+@Component
+public class VersionStamps {
+
+    private final VersionStampProperties props;
+    private final long settleNanos;
+    private final String epoch = Long.toHexString(new SecureRandom().nextLong());
+    private final AtomicLong clock = new AtomicLong();
+    private final Cache<String, Stamp> stamps;
+
+    public VersionStamps(VersionStampProperties props, ReplicaProperties replicas) {
+        this.props = props;
+        this.settleNanos = replicas.isEnabled() ? replicas.getMaxLag().toNanos() : 0;
+        this.stamps = Caffeine.newBuilder()
+                .expireAfterWrite(props.getTtl())
+                .maximumSize(props.getMaxEntries())
+                .build();
+    }
+
+    public static String sessions(String userId) {
+        return "u:" + userId;
+    }
+
+    public static String messages(Long sessionId) {
+        return "s:" + sessionId;
+    }
+
+    /**
+     * The ETag of a resource in the representation chosen by {@code variant} (paging and filters),
+     * or null when none should be given out.
+     */
+    public String etag(String resource, Object... variant) {
+        if (!props.isEnabled()) return null;
+        Stamp s = stamps.get(resource, k -> new Stamp(clock.incrementAndGet(), System.nanoTime()));
+        if (settleNanos > 0 && System.nanoTime() - s.at() < settleNanos) return null;
+        return "\"" + epoch + "-" + Long.toHexString(s.version()) + "-" + Integer.toHexString(Arrays.hashCode(variant)) + "\"";
+    }
+
+    /** Moves a resource to a new version; call after the change is committed. */
+    public void touch(String resource) {
+        if (!props.isEnabled()) return;
+        stamps.put(resource, new Stamp(clock.incrementAndGet(), System.nanoTime()));
+    }
+
+    public long estimatedSize() {
+        return stamps.estimatedSize();
+    }
+
+    private record Stamp(long version, long at) {}
+}
@@ -1,7 +1,61 @@
 package com.rag.chatstorage.config;
 
+import com.rag.chatstorage.service.AiService;
+import io.github.resilience4j.common.retry.configuration.CommonRetryConfigurationProperties;
+import io.github.resilience4j.common.retry.configuration.RetryConfigCustomizer;
+import io.github.resilience4j.core.IntervalBiFunction;
+import io.github.resilience4j.core.IntervalFunction;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Function;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class ResilienceConfig {
+
+    /**
+     * Lets the "ai" retry wait as long as the provider's Retry-After asks, when that is longer than its
+     * own backoff. The wait is the retry's only one; on a virtual thread it leaves the carrier free.
+     */
+    @Bean
+    public RetryConfigCustomizer aiRetryAfterCustomizer(CommonRetryConfigurationProperties retries) {
+        IntervalFunction backoff = backoff(retries.getBackendProperties("ai"));
+        return RetryConfigCustomizer.of("ai",
+                builder -> builder.intervalFunction(null).intervalBiFunction(honoringRetryAfter(backoff)));
+    }
+
+    // The backoff resilience4j would build from the same instance properties
+    static IntervalFunction backoff(CommonRetryConfigurationProperties.InstanceProperties props) {
+        if (props == null) return IntervalFunction.ofDefaults();
+        Duration wait = Objects.requireNonNullElse(props.getWaitDuration(),
+                Duration.ofMillis(IntervalFunction.DEFAULT_INITIAL_INTERVAL));
+        double multiplier = Objects.requireNonNullElse(props.getExponentialBackoffMultiplier(),
+                IntervalFunction.DEFAULT_MULTIPLIER);
+        double randomization = Objects.requireNonNullElse(props.getRandomizedWaitFactor(),
+                IntervalFunction.DEFAULT_RANDOMIZATION_FACTOR);
+        Duration maxWait = props.getExponentialMaxWaitDuration();
+        boolean exponential = Boolean.TRUE.equals(props.getEnableExponentialBackoff());
+        boolean randomized = Boolean.TRUE.equals(props.getEnableRandomizedWait());
+        if (exponential && randomized) {
+            return maxWait == null ? IntervalFunction.ofExponentialRandomBackoff(wait, multiplier, randomization)
+                    : IntervalFunction.ofExponentialRandomBackoff(wait, multiplier, randomization, maxWait);
+        }
+        if (exponential) {
+            return maxWait == null ? IntervalFunction.ofExponentialBackoff(wait, multiplier)
+                    : IntervalFunction.ofExponentialBackoff(wait, multiplier, maxWait);
+        }
+        return randomized ? IntervalFunction.ofRandomized(wait, randomization) : IntervalFunction.of(wait);
+    }
+
+    static IntervalBiFunction<Object> honoringRetryAfter(Function<Integer, Long> backoff) {
+        return (attempt, outcome) -> {
+            long wait = backoff.apply(attempt);
+            if (outcome.isLeft() && outcome.getLeft() instanceof AiService.AiFriendlyException afe
+                    && afe.getRetryAfter() != null) {
+                return Math.max(wait, afe.getRetryAfter().toMillis());
+            }
+            return wait;
+        };
+    }
 }
@@ -1,12 +1,22 @@
 package com.rag.chatstorage.config.provider;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rag.chatstorage.aicache.AnthropicPromptCache;
+import com.rag.chatstorage.aicache.PromptCacheMeter;
+import com.rag.chatstorage.aicache.PromptCacheProperties;
 import org.springframework.ai.anthropic.AnthropicChatModel;
+import org.springframework.ai.anthropic.api.AnthropicApi;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.model.anthropic.autoconfigure.AnthropicConnectionProperties;
 import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
 
 /**
  * Anthropic for chat; OpenAI for embeddings (Anthropic does not provide embeddings).
@@ -20,6 +30,29 @@ public class AnthropicProviderConfig {
         return ChatClient.create(anthropicChatModel);
     }
 
+    /**
+     * The client Spring AI would build, with prompt cache breakpoints added to its requests
+     * (see {@link AnthropicPromptCache}). The shared builders are cloned, not changed.
+     */
+    @Bean
+    public AnthropicApi anthropicApi(AnthropicConnectionProperties connection,
+                                     ObjectProvider<RestClient.Builder> restClientBuilder,
+                                     ObjectProvider<WebClient.Builder> webClientBuilder,
+                                     ResponseErrorHandler responseErrorHandler,
+                                     PromptCacheProperties promptCache, PromptCacheMeter meter, ObjectMapper objectMapper) {
+        AnthropicPromptCache cache = new AnthropicPromptCache(promptCache, meter, objectMapper, connection.getCompletionsPath());
+        return AnthropicApi.builder()
+                .baseUrl(connection.getBaseUrl())
+                .completionsPath(connection.getCompletionsPath())
+                .apiKey(connection.getApiKey())
+                .anthropicVersion(connection.getVersion())
+                .restClientBuilder(restClientBuilder.getIfAvailable(RestClient::builder).clone().requestInterceptor(cache))
+                .webClientBuilder(webClientBuilder.getIfAvailable(WebClient::builder).clone().filter(cache))
+                .responseErrorHandler(responseErrorHandler)
+                .anthropicBetaFeatures(connection.getBetaVersion())
+                .build();
+    }
+
     @Bean
     @org.springframework.context.annotation.Primary
     public EmbeddingModel embeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel) {
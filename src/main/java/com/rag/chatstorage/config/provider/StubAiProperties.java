@@ -0,0 +1,63 @@
+package com.rag.chatstorage.config.provider;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the offline chat and embedding models of the {@code stub-ai} profile.
+ * <p>
+ * {@code chat}: a call takes a log-normally distributed time with the given {@code median-latency} and
+ * {@code p99-latency} (for streams, the time to the first token), then yields a reply of {@code reply-tokens}
+ * words derived from the prompt; streams emit them at {@code tokens-per-second}. {@code rate-limit-rate}
+ * of the calls fail at once with a 429 carrying {@code retry-after}, and {@code error-rate} fail with a 503
+ * after the latency.
+ * <p>
+ * {@code embedding}: vectors of {@code dimensions} floats hashed from the words of the text, returned after
+ * {@code latency}.
+ */
+@ConfigurationProperties(prefix = "chat.ai.stub")
+public class StubAiProperties {
+    private Chat chat = new Chat();
+    private Embedding embedding = new Embedding();
+
+    public Chat getChat() { return chat; }
+    public void setChat(Chat chat) { this.chat = chat; }
+    public Embedding getEmbedding() { return embedding; }
+    public void setEmbedding(Embedding embedding) { this.embedding = embedding; }
+
+    public static class Chat {
+        private Duration medianLatency = Duration.ofMillis(300);
+        private Duration p99Latency = Duration.ofMillis(1500);
+        private int replyTokens = 60;
+        private int tokensPerSecond = 50;
+        private double rateLimitRate = 0.0;
+        private Duration retryAfter = Duration.ofSeconds(1);
+        private double errorRate = 0.0;
+
+        public Duration getMedianLatency() { return medianLatency; }
+        public void setMedianLatency(Duration medianLatency) { this.medianLatency = medianLatency; }
+        public Duration getP99Latency() { return p99Latency; }
+        public void setP99Latency(Duration p99Latency) { this.p99Latency = p99Latency; }
+        public int getReplyTokens() { return replyTokens; }
+        public void setReplyTokens(int replyTokens) { this.replyTokens = replyTokens; }
+        public int getTokensPerSecond() { return tokensPerSecond; }
+        public void setTokensPerSecond(int tokensPerSecond) { this.tokensPerSecond = tokensPerSecond; }
+        public double getRateLimitRate() { return rateLimitRate; }
+        public void setRateLimitRate(double rateLimitRate) { this.rateLimitRate = rateLimitRate; }
+        public Duration getRetryAfter() { return retryAfter; }
+        public void setRetryAfter(Duration retryAfter) { this.retryAfter = retryAfter; }
+        public double getErrorRate() { return errorRate; }
+        public void setErrorRate(double errorRate) { this.errorRate = errorRate; }
+    }
+
+    public static class Embedding {
+        private int dimensions = 1536;
+        private Duration latency = Duration.ofMillis(10);
+
+        public int getDimensions() { return dimensions; }
+        public void setDimensions(int dimensions) { this.dimensions = dimensions; }
+        public Duration getLatency() { return latency; }
+        public void setLatency(Duration latency) { this.latency = latency; }
+    }
+}
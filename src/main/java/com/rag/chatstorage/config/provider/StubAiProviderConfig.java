@@ -0,0 +1,31 @@
+package com.rag.chatstorage.config.provider;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Offline chat and embeddings for load tests: no network, no API keys (see {@link StubAiProperties}).
+ */
+@Configuration
+@Profile("stub-ai")
+public class StubAiProviderConfig {
+
+    @Bean
+    public StubChatModel stubChatModel(StubAiProperties props) {
+        return new StubChatModel(props.getChat());
+    }
+
+    @Bean
+    public ChatClient chatClient(StubChatModel stubChatModel) {
+        return ChatClient.create(stubChatModel);
+    }
+
+    @Bean
+    @org.springframework.context.annotation.Primary
+    public EmbeddingModel embeddingModel(StubAiProperties props) {
+        return new StubEmbeddingModel(props.getEmbedding());
+    }
+}
@@ -0,0 +1,124 @@
+package com.rag.chatstorage.config.provider;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+
+/**
+ * A chat model that answers locally, for load tests that must not reach a provider.
+ * <p>
+ * The reply is a function of the prompt, so equal prompts get equal replies. How long it takes, and whether
+ * the call fails with a 429 or a 503, is drawn per call (see {@link StubAiProperties.Chat}). Failures are the
+ * HTTP client exceptions a real provider client throws, Retry-After included, so retries, circuit breakers
+ * and concurrency limits react to them as they would in production.
+ */
+public class StubChatModel implements ChatModel {
+
+    // Standard normal quantile of the 99th percentile
+    private static final double Z_99 = 2.326;
+    private static final String[] WORDS = {
+            "the", "answer", "depends", "on", "context", "and", "data", "retrieval", "helps", "ground", "each",
+            "reply", "in", "stored", "documents", "so", "a", "model", "can", "cite", "sources", "while", "sessions",
+            "keep", "history", "for", "follow", "up", "questions", "about", "your", "topic"};
+
+    private final StubAiProperties.Chat props;
+
+    public StubChatModel(StubAiProperties.Chat props) {
+        this.props = props;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < props.getRateLimitRate()) {
+            throw HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests",
+                    retryAfterHeaders(), new byte[0], StandardCharsets.UTF_8);
+        }
+        try {
+            Thread.sleep(latency());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the stub reply", e);
+        }
+        if (roll < props.getRateLimitRate() + props.getErrorRate()) {
+            throw HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "Service Unavailable",
+                    HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8);
+        }
+        List<String> tokens = reply(prompt);
+        return response(String.join(" ", tokens), prompt, tokens.size());
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (roll < props.getRateLimitRate()) {
+                return Flux.error(WebClientResponseException.create(429, "Too Many Requests",
+                        retryAfterHeaders(), new byte[0], StandardCharsets.UTF_8));
+            }
+            Duration firstToken = latency();
+            if (roll < props.getRateLimitRate() + props.getErrorRate()) {
+                return Flux.<ChatResponse>error(WebClientResponseException.create(503, "Service Unavailable",
+                        HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8)).delaySubscription(firstToken);
+            }
+            List<String> tokens = reply(prompt);
+            Duration gap = Duration.ofNanos(1_000_000_000L / Math.max(1, props.getTokensPerSecond()));
+            return Flux.interval(firstToken, gap).take(tokens.size()).map(i -> {
+                int n = i.intValue();
+                String chunk = n == 0 ? tokens.get(0) : " " + tokens.get(n);
+                // Like the providers, the usage comes with the last chunk
+                return n == tokens.size() - 1 ? response(chunk, prompt, tokens.size()) : response(chunk, null, 0);
+            });
+        });
+    }
+
+    // Log-normal with the configured median and 99th percentile
+    Duration latency() {
+        long median = Math.max(0, props.getMedianLatency().toNanos());
+        long p99 = props.getP99Latency().toNanos();
+        if (median == 0) return Duration.ZERO;
+        double sigma = p99 > median ? Math.log((double) p99 / median) / Z_99 : 0;
+        return Duration.ofNanos((long) (median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian())));
+    }
+
+    List<String> reply(Prompt prompt) {
+        SplittableRandom words = new SplittableRandom(prompt.getContents().hashCode());
+        List<String> tokens = new ArrayList<>(props.getReplyTokens());
+        for (int i = 0; i < Math.max(1, props.getReplyTokens()); i++) {
+            tokens.add(WORDS[words.nextInt(WORDS.length)]);
+        }
+        tokens.set(0, Character.toUpperCase(tokens.get(0).charAt(0)) + tokens.get(0).substring(1));
+        tokens.set(tokens.size() - 1, tokens.getLast() + ".");
+        return tokens;
+    }
+
+    private ChatResponse response(String text, Prompt prompt, int completionTokens) {
+        ChatResponseMetadata.Builder metadata = ChatResponseMetadata.builder().model("stub");
+        if (prompt != null) {
+            metadata.usage(new DefaultUsage(prompt.getContents().split("\\s+").length, completionTokens));
+        }
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))), metadata.build());
+    }
+
+    private HttpHeaders retryAfterHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (props.getRetryAfter().toMillis() + 999) / 1000)));
+        return headers;
+    }
+}
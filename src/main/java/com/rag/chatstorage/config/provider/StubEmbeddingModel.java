@@ -0,0 +1,72 @@
+package com.rag.chatstorage.config.provider;
+
+import com.rag.chatstorage.search.TextTokens;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * An embedding model that hashes the words of a text into a unit vector, for load tests that must not
+ * reach a provider.
+ * <p>
+ * Each word adds +1 or -1 to one dimension chosen by its hash, so equal texts get equal vectors and texts
+ * that share words are more similar than texts that do not, which keeps document search and the semantic
+ * reply cache meaningful.
+ */
+public class StubEmbeddingModel implements EmbeddingModel {
+
+    private final StubAiProperties.Embedding props;
+
+    public StubEmbeddingModel(StubAiProperties.Embedding props) {
+        this.props = props;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        try {
+            Thread.sleep(props.getLatency());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the stub embedding", e);
+        }
+        List<Embedding> out = new ArrayList<>();
+        List<String> texts = request.getInstructions();
+        for (int i = 0; i < texts.size(); i++) {
+            out.add(new Embedding(vector(texts.get(i)), i));
+        }
+        return new EmbeddingResponse(out);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return call(new EmbeddingRequest(List.of(document.getText()), null)).getResult().getOutput();
+    }
+
+    @Override
+    public int dimensions() {
+        return props.getDimensions();
+    }
+
+    float[] vector(String text) {
+        float[] v = new float[Math.max(1, props.getDimensions())];
+        for (TextTokens.Token t : TextTokens.tokenize(text)) {
+            // Spread String.hashCode, whose low bits are weak for short words; the sign comes from a second mix
+            int h = t.term().hashCode() * 0x9E3779B9;
+            h ^= h >>> 16;
+            v[Math.floorMod(h, v.length)] += t.term().hashCode() * 0x85EBCA6B < 0 ? -1 : 1;
+        }
+        double norm = 0;
+        for (float x : v) norm += x * x;
+        if (norm == 0) {
+            v[0] = 1; // no words; a zero vector has no direction to compare
+            return v;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < v.length; i++) v[i] *= scale;
+        return v;
+    }
+}
@@ -0,0 +1,57 @@
+package com.rag.chatstorage.datasource;
+
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs a read against the primary even from inside a read-only transaction.
+ * <p>
+ * Meant for reads whose result outlives the request, such as loads into the in-process caches that are
+ * afterwards kept current by write-through. Loaded from a lagging replica, those would miss writes
+ * for as long as the entry lives. It is also used right after a write made from a read-only
+ * transaction. Without replicas, or outside a read-only transaction, the read simply runs in place.
+ * <p>
+ * {@link #fresh} is for reads of rows another transaction has just committed, such as a session restored
+ * from the archive: under REPEATABLE READ (InnoDB's default) the current transaction keeps the snapshot of
+ * its first query and would not see them, so the read always gets a new transaction.
+ */
+@Component
+public class PrimaryReads {
+
+    private final TransactionTemplate primary;
+    private final TransactionTemplate newTx;
+
+    public PrimaryReads(PlatformTransactionManager transactionManager,
+                        @Value("${chat.datasource.replicas.enabled:false}") boolean replicas) {
+        if (transactionManager != null) {
+            this.newTx = new TransactionTemplate(transactionManager);
+            this.newTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            this.newTx.setReadOnly(true);
+        } else {
+            this.newTx = null;
+        }
+        if (replicas && transactionManager != null) {
+            this.primary = new TransactionTemplate(transactionManager);
+            this.primary.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        } else {
+            this.primary = null;
+        }
+    }
+
+    public <T> T get(Supplier<T> read) {
+        if (primary == null || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) return read.get();
+        return primary.execute(status -> read.get());
+    }
+
+    /** Runs {@code read} in a transaction of its own, on the primary, seeing everything committed so far. */
+    public <T> T fresh(Supplier<T> read) {
+        if (newTx == null || !TransactionSynchronizationManager.isActualTransactionActive()) return read.get();
+        // Read-only, but not routed to a replica: a write has just been committed on the primary
+        return primary != null ? primary.execute(status -> read.get()) : newTx.execute(status -> read.get());
+    }
+}
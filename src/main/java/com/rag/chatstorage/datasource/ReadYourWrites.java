@@ -0,0 +1,86 @@
+package com.rag.chatstorage.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Remembers which users had data written recently so that reads of their data can be kept off lagging
+ * replicas.
+ * <p>
+ * The user a request acts for is bound to the request thread by {@link ReadYourWritesFilter}, from the
+ * request's path or parameters, and is only resolved once a connection needs it. Requests that name their
+ * user only in the body say so through {@link #actAs}. Work without a user (scheduled jobs, requests about
+ * no user) is never pinned and starts no window. The window is tracked per application instance, so behind
+ * a load balancer it relies on the replica lag staying below it or on requests of a user reaching the same
+ * instance.
+ */
+public class ReadYourWrites {
+
+    private static final ThreadLocal<Binding> USER = new ThreadLocal<>();
+
+    private final Cache<String, Boolean> recentWriters;
+
+    public ReadYourWrites(Duration window) {
+        this.recentWriters = Caffeine.newBuilder().expireAfterWrite(window).maximumSize(100_000).build();
+    }
+
+    /** Binds the user of the current request, looked up on first use; {@code user} may return null. */
+    public static void bind(Supplier<String> user) {
+        USER.set(new Binding(user));
+    }
+
+    public static void bind(String user) {
+        bind(() -> user);
+    }
+
+    public static void clear() {
+        USER.remove();
+    }
+
+    /** Within a request, the rest of it acts for {@code userId}; outside of one this does nothing. */
+    public static void actAs(String userId) {
+        if (USER.get() != null && userId != null) bind(userId);
+    }
+
+    /** Whether the current thread serves a request, whose writes are then tracked. */
+    static boolean bound() {
+        return USER.get() != null;
+    }
+
+    /** The user the current thread acts for, or null outside of a request or when it names none. */
+    public static String currentUser() {
+        Binding b = USER.get();
+        return b == null ? null : b.get();
+    }
+
+    /** Starts (or restarts) the window of the current thread's user. */
+    public void recordWrite() {
+        String user = currentUser();
+        if (user != null) recentWriters.put(user, Boolean.TRUE);
+    }
+
+    /** Whether reads of the current thread must go to the primary. */
+    public boolean pinned() {
+        String user = currentUser();
+        return user != null && recentWriters.getIfPresent(user) != null;
+    }
+
+    private static final class Binding {
+        private Supplier<String> lookup;
+        private String user;
+
+        Binding(Supplier<String> lookup) {
+            this.lookup = lookup;
+        }
+
+        String get() {
+            if (lookup != null) {
+                user = lookup.get();
+                lookup = null;
+            }
+            return user;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.rag.chatstorage.datasource;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Binds the user a request acts for to the request thread for {@link ReadYourWrites}, so that one user's
+ * writes pin only that user's reads, whichever API key or address they came from. The user is taken from
+ * a {@code /users/{userId}} path, the owner of a {@code /sessions/{id}} path, or a {@code userId} parameter.
+ * The owner lookup only runs if the request reaches the database.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    private static final Pattern USER_PATH = Pattern.compile("^/api/v1/users/([^/]+)");
+    private static final Pattern SESSION_PATH = Pattern.compile("^/(?:api/v1|ui)/sessions/(\\d+)(?:[/:]|$)");
+
+    private final LongFunction<String> sessionOwner;
+
+    public ReadYourWritesFilter(LongFunction<String> sessionOwner) {
+        this.sessionOwner = sessionOwner;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        Matcher user = USER_PATH.matcher(path);
+        Matcher session = SESSION_PATH.matcher(path);
+        if (user.find()) {
+            ReadYourWrites.bind(URLDecoder.decode(user.group(1), StandardCharsets.UTF_8));
+        } else if (session.find()) {
+            long id = Long.parseLong(session.group(1));
+            ReadYourWrites.bind(() -> sessionOwner.apply(id));
+        } else {
+            String userId = request.getParameter("userId");
+            ReadYourWrites.bind(StringUtils.hasText(userId) ? userId : null);
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ReadYourWrites.clear();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.rag.chatstorage.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+/**
+ * Replaces the auto-configured DataSource with a primary pool plus one pool per read replica when
+ * {@code chat.datasource.replicas.enabled} is set. The application keeps injecting a single
+ * {@code DataSource}, which routes by the read-only flag of the current transaction (see
+ * {@link ReplicaRoutingDataSource}). Every pool is a named Hikari pool reporting {@code hikaricp.*}
+ * metrics.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.datasource.replicas.enabled", havingValue = "true")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties(prefix = "spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource ds = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        ds.setPoolName("primary");
+        return ds;
+    }
+
+    @Bean
+    public ReadYourWrites readYourWrites(ReplicaProperties props) {
+        return new ReadYourWrites(props.getReadYourWrites());
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(@Qualifier("primaryDataSource") HikariDataSource primary,
+                                                             ReplicaProperties props, ReadYourWrites readYourWrites,
+                                                             MeterRegistry meterRegistry) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (ReplicaProperties.Member m : props.getMembers()) {
+            HikariDataSource ds = new HikariDataSource();
+            ds.setPoolName(m.getName());
+            ds.setJdbcUrl(m.getUrl());
+            ds.setUsername(m.getUsername());
+            ds.setPassword(m.getPassword());
+            ds.setDriverClassName(primary.getDriverClassName());
+            ds.setMaximumPoolSize(m.getMaximumPoolSize());
+            ds.setReadOnly(true);
+            // Start even when a replica is down; it is routed around until a check passes
+            ds.setInitializationFailTimeout(-1);
+            ds.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+            replicas.put(m.getName(), ds);
+        }
+        return new ReplicaRoutingDataSource(primary, replicas, props, readYourWrites, meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource routing) {
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    /**
+     * Hibernate keeps a session's connection until the session closes by default. Under open-in-view that
+     * is the whole request, so every transaction would reuse whichever pool the first one picked. Releasing
+     * it after each transaction lets each transaction be routed on its own.
+     */
+    @Bean
+    public HibernatePropertiesCustomizer replicaConnectionHandling() {
+        return props -> props.put(AvailableSettings.CONNECTION_HANDLING,
+                PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+    }
+
+    @Bean
+    public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(
+            @Qualifier("primaryDataSource") HikariDataSource primary) {
+        SessionOwners owners = new SessionOwners(primary);
+        return new FilterRegistrationBean<>(new ReadYourWritesFilter(owners::of));
+    }
+
+    /** Replica state for the health endpoint; reads fall back to the primary, so lagging replicas do not mean DOWN. */
+    @Bean
+    public HealthIndicator replicasHealthIndicator(ReplicaRoutingDataSource routing) {
+        return () -> {
+            Health.Builder health = Health.up();
+            routing.status().forEach(s -> health.withDetail(s.name(),
+                    Map.of("healthy", s.healthy(), "lagSeconds", Double.isNaN(s.lagSeconds()) ? "unknown" : s.lagSeconds())));
+            return health.build();
+        };
+    }
+}
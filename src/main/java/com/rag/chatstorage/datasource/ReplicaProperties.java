@@ -0,0 +1,58 @@
+package com.rag.chatstorage.datasource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for routing read-only transactions to read replicas.
+ * <p>
+ * A replica serves reads only while its last check succeeded and its reported lag is at most
+ * {@code maxLag}. {@code lagQuery} is run on each replica every {@code checkInterval}. It is either
+ * {@code SHOW REPLICA STATUS}, which is read through its {@code Seconds_Behind_Source} column, or any
+ * query whose first column is the lag in seconds, such as a heartbeat table. Without a lag query only
+ * connectivity is checked. Reads of a user whose data was written within the last {@code readYourWrites}
+ * go to the primary, so the user sees their own changes.
+ */
+@ConfigurationProperties(prefix = "chat.datasource.replicas")
+public class ReplicaProperties {
+    private boolean enabled = false;
+    private List<Member> members = new ArrayList<>();
+    private Duration maxLag = Duration.ofSeconds(5);
+    private Duration readYourWrites = Duration.ofSeconds(5);
+    private Duration checkInterval = Duration.ofSeconds(5);
+    private String lagQuery;
+
+    public static class Member {
+        private String name;
+        private String url;
+        private String username;
+        private String password;
+        private int maximumPoolSize = 10;
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public String getUrl() { return url; }
+        public void setUrl(String url) { this.url = url; }
+        public String getUsername() { return username; }
+        public void setUsername(String username) { this.username = username; }
+        public String getPassword() { return password; }
+        public void setPassword(String password) { this.password = password; }
+        public int getMaximumPoolSize() { return maximumPoolSize; }
+        public void setMaximumPoolSize(int maximumPoolSize) { this.maximumPoolSize = maximumPoolSize; }
+    }
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public List<Member> getMembers() { return members; }
+    public void setMembers(List<Member> members) { this.members = members; }
+    public Duration getMaxLag() { return maxLag; }
+    public void setMaxLag(Duration maxLag) { this.maxLag = maxLag; }
+    public Duration getReadYourWrites() { return readYourWrites; }
+    public void setReadYourWrites(Duration readYourWrites) { this.readYourWrites = readYourWrites; }
+    public Duration getCheckInterval() { return checkInterval; }
+    public void setCheckInterval(Duration checkInterval) { this.checkInterval = checkInterval; }
+    public String getLagQuery() { return lagQuery; }
+    public void setLagQuery(String lagQuery) { this.lagQuery = lagQuery; }
+}
@@ -0,0 +1,210 @@
+package com.rag.chatstorage.datasource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+
+/**
+ * Hands out replica connections to read-only transactions and primary connections to everything else.
+ * <p>
+ * The choice is made when a connection is requested. This DataSource must therefore sit behind a
+ * {@code LazyConnectionDataSourceProxy}, which defers that request to the first statement, after the
+ * transaction's read-only flag is known. Replicas are used round robin among those that passed their
+ * last health and lag check. When none is usable, or when the user the request acts for is inside
+ * their {@link ReadYourWrites} window, reads fall back to the primary. A replica that fails to hand out a
+ * connection is marked unhealthy until its next successful check.
+ * <p>
+ * Primary connections of a request are wrapped to notice data-changing statements, which start the
+ * read-your-writes window of the user the request acts for at that point. SQL passed to {@code prepareStatement}, {@code prepareCall} or to the
+ * execute and batch methods of a {@code createStatement} statement is seen; that covers Hibernate and
+ * plain or parameterized {@code JdbcTemplate} calls.
+ * <p>
+ * Connections requested with explicit credentials are routed the same way, with the credentials passed
+ * on to the chosen pool.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final ReplicaProperties props;
+    private final ReadYourWrites readYourWrites;
+    private final MeterRegistry meterRegistry;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, ReplicaProperties props,
+                                    ReadYourWrites readYourWrites, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.props = props;
+        this.readYourWrites = readYourWrites;
+        this.meterRegistry = meterRegistry;
+        replicas.forEach((name, ds) -> {
+            Replica r = new Replica(name, ds);
+            this.replicas.add(r);
+            Gauge.builder("gauge.datasource.replica.healthy", r, x -> x.healthy ? 1 : 0).tag("pool", name).register(meterRegistry);
+            Gauge.builder("gauge.datasource.replica.lag", r, x -> x.lagSeconds).tag("pool", name)
+                    .baseUnit("seconds").register(meterRegistry);
+        });
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return route(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return route(username, password);
+    }
+
+    private Connection route(String username, String password) throws SQLException {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) return primary("write", username, password);
+        if (readYourWrites.pinned()) return primary("read-your-writes", username, password);
+        int start = Math.floorMod(next.getAndIncrement(), Math.max(1, replicas.size()));
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica r = replicas.get((start + i) % replicas.size());
+            if (!r.healthy) continue;
+            try {
+                Connection c = open(r.dataSource, username, password);
+                count(r.name, "read");
+                return c;
+            } catch (SQLException e) {
+                r.healthy = false;
+                log.warn("Read replica {} is unavailable, routing around it: {}", r.name, e.getMessage());
+            }
+        }
+        return primary("no-replica", username, password);
+    }
+
+    private static Connection open(DataSource ds, String username, String password) throws SQLException {
+        return username == null && password == null ? ds.getConnection() : ds.getConnection(username, password);
+    }
+
+    private Connection primary(String reason, String username, String password) throws SQLException {
+        count("primary", reason);
+        Connection c = open(primary, username, password);
+        return ReadYourWrites.bound() ? trackWrites(c) : c;
+    }
+
+    private void count(String pool, String reason) {
+        meterRegistry.counter("counter.datasource.connections", "pool", pool, "reason", reason).increment();
+    }
+
+    private Connection trackWrites(Connection target) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if ((name.equals("prepareStatement") || name.equals("prepareCall"))
+                            && args != null && args[0] instanceof String sql && isWrite(sql)) {
+                        readYourWrites.recordWrite();
+                    }
+                    Object result = invoke(target, method, args);
+                    return name.equals("createStatement") ? trackWrites((Statement) result) : result;
+                });
+    }
+
+    // The SQL of a plain statement is only known when it is executed or batched
+    private Statement trackWrites(Statement target) {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {Statement.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if ((name.startsWith("execute") || name.equals("addBatch"))
+                            && args != null && args[0] instanceof String sql && isWrite(sql)) {
+                        readYourWrites.recordWrite();
+                    }
+                    return invoke(target, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    static boolean isWrite(String sql) {
+        String s = sql.stripLeading().toLowerCase(Locale.ROOT);
+        return s.startsWith("insert") || s.startsWith("update") || s.startsWith("delete")
+                || s.startsWith("replace") || s.startsWith("merge");
+    }
+
+    /** Runs the health and lag check of every replica. */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${chat.datasource.replicas.check-interval:PT5S}")
+    public void checkReplicas() {
+        for (Replica r : replicas) {
+            boolean wasHealthy = r.healthy;
+            try {
+                double lag = lag(r);
+                r.lagSeconds = lag;
+                r.healthy = lag <= props.getMaxLag().toMillis() / 1000.0;
+                if (!r.healthy && wasHealthy) {
+                    log.warn("Read replica {} lags {}s behind the primary (max {}), routing around it", r.name, lag, props.getMaxLag());
+                }
+            } catch (SQLException | RuntimeException e) {
+                r.lagSeconds = Double.NaN;
+                r.healthy = false;
+                if (wasHealthy) log.warn("Read replica {} failed its health check: {}", r.name, e.getMessage());
+            }
+            if (r.healthy && !wasHealthy) log.info("Read replica {} is serving reads", r.name);
+        }
+    }
+
+    private double lag(Replica r) throws SQLException {
+        String query = props.getLagQuery();
+        try (Connection c = r.dataSource.getConnection(); Statement st = c.createStatement()) {
+            if (!StringUtils.hasText(query)) {
+                if (!c.isValid(2)) throw new SQLException("connection is not valid");
+                return 0;
+            }
+            try (ResultSet rs = st.executeQuery(query)) {
+                if (!rs.next()) throw new SQLException("lag query returned no row; is replication configured?");
+                double lag = query.strip().toLowerCase(Locale.ROOT).startsWith("show")
+                        ? rs.getDouble("Seconds_Behind_Source") : rs.getDouble(1);
+                // NULL means replication is stopped
+                if (rs.wasNull()) throw new SQLException("replication is not running");
+                return lag;
+            }
+        }
+    }
+
+    /** Name, health and last measured lag in seconds of every replica. */
+    public List<Status> status() {
+        return replicas.stream().map(r -> new Status(r.name, r.healthy, r.lagSeconds)).toList();
+    }
+
+    public record Status(String name, boolean healthy, double lagSeconds) {}
+
+    private static final class Replica {
+        final String name;
+        final DataSource dataSource;
+        // Unusable until the first check has passed
+        volatile boolean healthy;
+        volatile double lagSeconds = Double.NaN;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+}
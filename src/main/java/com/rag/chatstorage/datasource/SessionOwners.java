@@ -0,0 +1,32 @@
+package com.rag.chatstorage.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.List;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * The user id of a session's owner, for {@link ReadYourWritesFilter}. Read from the primary, which
+ * already has a session its creator goes on to use, and cached: a session never changes owner.
+ */
+class SessionOwners {
+
+    private static final String OWNER_SQL =
+            "SELECT u.user_id FROM chat_sessions s JOIN users u ON u.id = s.user_id WHERE s.id = ?";
+
+    private final JdbcTemplate jdbc;
+    private final Cache<Long, String> owners = Caffeine.newBuilder().maximumSize(100_000).build();
+
+    SessionOwners(DataSource primary) {
+        this.jdbc = new JdbcTemplate(primary);
+    }
+
+    /** The owner, or null for an unknown session (not cached, it may be created yet). */
+    String of(long sessionId) {
+        return owners.get(sessionId, id -> {
+            List<String> users = jdbc.queryForList(OWNER_SQL, String.class, id);
+            return users.isEmpty() ? null : users.get(0);
+        });
+    }
+}
@@ -1,8 +1,7 @@
 package com.rag.chatstorage.domain;
 
+import com.rag.chatstorage.shard.ShardAwareId;
 import jakarta.persistence.Column;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.MappedSuperclass;
 import jakarta.persistence.PrePersist;
@@ -13,7 +12,7 @@ import org.springframework.data.annotation.CreatedDate;
 public abstract class BaseEntity {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @ShardAwareId
     protected Long id;
 
     @CreatedDate
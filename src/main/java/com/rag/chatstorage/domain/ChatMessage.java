@@ -1,5 +1,6 @@
 package com.rag.chatstorage.domain;
 
+import com.rag.chatstorage.domain.convert.CompressedTextConverter;
 import jakarta.persistence.*;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
@@ -25,11 +26,15 @@ public class ChatMessage extends BaseEntity {
 
     @Lob
     @Column(nullable = false)
+    @Convert(converter = CompressedTextConverter.class)
     private String content;
 
-    @Lob
-    @Column
-    private String context; // optional JSON or text context
+    @Column(name = "has_context", nullable = false)
+    private boolean hasContext;
+
+    // Optional JSON or text context, stored in chat_message_context and only set when explicitly loaded or written
+    @Transient
+    private String context;
 
 
     public ChatSession getSession() { return session; }
@@ -42,6 +47,29 @@ public class ChatMessage extends BaseEntity {
     public void setContent(String content) { this.content = content; }
 
     public String getContext() { return context; }
-    public void setContext(String context) { this.context = context; }
+    public void setContext(String context) {
+        this.context = context;
+        this.hasContext = context != null;
+    }
+
+    public boolean hasContext() { return hasContext; }
+
+    /**
+     * A message outside any persistence context, rebuilt from cached values; its session is a bare
+     * reference carrying only the id, and its context is left to be loaded on demand.
+     */
+    public static ChatMessage detached(Long id, Long sessionId, Sender sender, String content, boolean hasContext,
+                                       Instant createdAt) {
+        ChatSession session = new ChatSession();
+        session.setId(sessionId);
+        ChatMessage m = new ChatMessage();
+        m.id = id;
+        m.session = session;
+        m.sender = sender;
+        m.content = content;
+        m.hasContext = hasContext;
+        m.setCreatedAt(createdAt);
+        return m;
+    }
 
 }
@@ -0,0 +1,35 @@
+package com.rag.chatstorage.domain;
+
+import com.rag.chatstorage.domain.convert.CompressedTextConverter;
+import jakarta.persistence.*;
+
+/**
+ * Optional RAG context of a chat message, kept out of the {@code chat_messages} row so that
+ * listing messages does not read it. Shares its primary key with the owning message.
+ */
+@Entity
+@Table(name = "chat_message_context")
+public class ChatMessageContext {
+
+    @Id
+    @Column(name = "message_id")
+    private Long messageId;
+
+    @Lob
+    @Column(nullable = false)
+    @Convert(converter = CompressedTextConverter.class)
+    private String context;
+
+    public ChatMessageContext() {}
+
+    public ChatMessageContext(Long messageId, String context) {
+        this.messageId = messageId;
+        this.context = context;
+    }
+
+    public Long getMessageId() { return messageId; }
+    public void setMessageId(Long messageId) { this.messageId = messageId; }
+
+    public String getContext() { return context; }
+    public void setContext(String context) { this.context = context; }
+}
@@ -1,6 +1,7 @@
 package com.rag.chatstorage.domain;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.SQLRestriction;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 import java.time.Instant;
@@ -9,9 +10,13 @@ import java.util.List;
 
 @Entity
 @Table(name = "chat_sessions")
+// Deleted sessions stay in the table until DeletionPurger removes them but are never loaded
+@SQLRestriction("deleted_at IS NULL")
 @EntityListeners(AuditingEntityListener.class)
 public class ChatSession extends BaseEntity {
 
+    public static final int PREVIEW_LENGTH = 140;
+
     @ManyToOne(fetch = FetchType.LAZY, optional = false)
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
@@ -26,6 +31,23 @@ public class ChatSession extends BaseEntity {
     @Column(nullable = false)
     private Instant updatedAt;
 
+    // Activity summary maintained by ChatSessionRepository.recordMessage; never written through the entity
+    @Column(name = "message_count", insertable = false, updatable = false)
+    private int messageCount;
+
+    @Column(name = "last_message_at", updatable = false)
+    private Instant lastMessageAt;
+
+    @Column(name = "last_message_preview", insertable = false, updatable = false)
+    private String lastMessagePreview;
+
+    // Set while the messages live in chat_session_archive; managed by SessionArchive
+    @Column(name = "archived_at", insertable = false, updatable = false)
+    private Instant archivedAt;
+
+    @Column(name = "deleted_at", insertable = false, updatable = false)
+    private Instant deletedAt;
+
     @OneToMany(mappedBy = "session", cascade = CascadeType.ALL, orphanRemoval = true)
     @OrderBy("createdAt ASC")
     private List<ChatMessage> messages = new ArrayList<>();
@@ -34,6 +56,21 @@ public class ChatSession extends BaseEntity {
         if (this.title == null || this.title.isBlank()) {
             this.title = "New Session";
         }
+        // An empty session sorts by its creation time
+        if (this.lastMessageAt == null) {
+            this.lastMessageAt = getCreatedAt();
+        }
+    }
+
+    /** Single-line excerpt of a message as stored in {@code last_message_preview}. */
+    public static String preview(String content) {
+        if (content == null) return null;
+        String collapsed = content.strip().replaceAll("\\s+", " ");
+        if (collapsed.length() <= PREVIEW_LENGTH) return collapsed;
+        int end = PREVIEW_LENGTH - 1;
+        // Do not split a surrogate pair
+        if (Character.isHighSurrogate(collapsed.charAt(end - 1))) end--;
+        return collapsed.substring(0, end) + "…";
     }
 
     // getters and setters
@@ -51,6 +88,13 @@ public class ChatSession extends BaseEntity {
     public Instant getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
 
+    public int getMessageCount() { return messageCount; }
+    public Instant getLastMessageAt() { return lastMessageAt; }
+    public String getLastMessagePreview() { return lastMessagePreview; }
+
+    public Instant getArchivedAt() { return archivedAt; }
+    public boolean isArchived() { return archivedAt != null; }
+
     public List<ChatMessage> getMessages() { return messages; }
     public void setMessages(List<ChatMessage> messages) { this.messages = messages; }
 }
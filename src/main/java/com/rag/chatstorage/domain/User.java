@@ -1,5 +1,6 @@
 package com.rag.chatstorage.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EntityListeners;
@@ -22,9 +23,19 @@ public class User extends BaseEntity {
     @Column(nullable = false)
     private Instant updatedAt;
 
+    // Set by a user purge; sessions are purged in the background and the row last
+    @JsonIgnore
+    @Column(name = "deleted_at")
+    private Instant deletedAt;
+
     public String getUserId() { return userId; }
     public void setUserId(String userId) { this.userId = userId; }
 
     public Instant getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+
+    public Instant getDeletedAt() { return deletedAt; }
+    public void setDeletedAt(Instant deletedAt) { this.deletedAt = deletedAt; }
+    @JsonIgnore
+    public boolean isDeleted() { return deletedAt != null; }
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.rag.chatstorage.domain.convert;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * JPA converter that stores large text attributes through {@link TextCompressionCodec}.
+ * <p>
+ * Hibernate obtains converters from the Spring bean container, so the configured codec is injected.
+ * Outside of Spring the converter falls back to a pass-through codec that can still read compressed rows.
+ */
+@Converter
+public class CompressedTextConverter implements AttributeConverter<String, String> {
+
+    private final TextCompressionCodec codec;
+
+    public CompressedTextConverter() {
+        this(TextCompressionCodec.passthrough());
+    }
+
+    @Autowired
+    public CompressedTextConverter(TextCompressionCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public String convertToDatabaseColumn(String attribute) {
+        return codec.encode(attribute);
+    }
+
+    @Override
+    public String convertToEntityAttribute(String dbData) {
+        return codec.decode(dbData);
+    }
+}
@@ -0,0 +1,192 @@
+package com.rag.chatstorage.domain.convert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compresses large text values for storage in text (CLOB) columns behind a small format header.
+ * <p>
+ * Stored format: values that do not start with {@link #MARKER} are plain text, which keeps rows
+ * written before compression was enabled readable. Otherwise the header selects the encoding:
+ * <ul>
+ *   <li>{@code \u00011d:} base64 of a zlib stream</li>
+ *   <li>{@code \u00011D:} base64 of a zlib stream using the configured preset dictionary</li>
+ *   <li>{@code \u00011r:} plain text that itself starts with the marker character</li>
+ * </ul>
+ * Values below the configured minimum length, or that would not get smaller, are stored as-is.
+ * <p>
+ * A preset dictionary can be built from representative data with {@link #trainDictionary} and
+ * configured via {@code chat.storage.compression.dictionary}. The zlib stream records the checksum
+ * of the dictionary it was written with, so a mismatching dictionary is detected on read.
+ */
+@Component
+public class TextCompressionCodec {
+
+    static final char MARKER = '\u0001';
+    static final String DEFLATE = MARKER + "1d:";
+    static final String DEFLATE_DICT = MARKER + "1D:";
+    static final String RAW = MARKER + "1r:";
+
+    // Deflate can only reference the last 32 KiB, so a larger dictionary is never useful
+    public static final int MAX_DICTIONARY_BYTES = 32 * 1024;
+
+    private final boolean enabled;
+    private final int minLength;
+    private final int level;
+    private final byte[] dictionary;
+    private final int dictionaryId;
+
+    @Autowired
+    public TextCompressionCodec(TextCompressionProperties props) {
+        this(props.isEnabled(), props.getMinLength(), props.getLevel(), readDictionary(props));
+    }
+
+    public TextCompressionCodec(boolean enabled, int minLength, int level, byte[] dictionary) {
+        this.enabled = enabled;
+        this.minLength = Math.max(1, minLength);
+        this.level = level;
+        this.dictionary = dictionary == null || dictionary.length == 0 ? null : dictionary;
+        this.dictionaryId = this.dictionary == null ? 0 : adler(this.dictionary);
+    }
+
+    /** Codec that never compresses but still decodes compressed values without a dictionary. */
+    public static TextCompressionCodec passthrough() {
+        return new TextCompressionCodec(false, Integer.MAX_VALUE, Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    public String encode(String value) {
+        if (value == null || value.isEmpty()) return value;
+        if (!enabled || value.length() < minLength) return plain(value);
+        byte[] input = value.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(level);
+        try {
+            if (dictionary != null) deflater.setDictionary(dictionary);
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            String encoded = (dictionary != null ? DEFLATE_DICT : DEFLATE)
+                    + Base64.getEncoder().encodeToString(out.toByteArray());
+            // Both are stored as text, so compare characters; non-ASCII text has more bytes than characters
+            String plain = plain(value);
+            return encoded.length() < plain.length() ? encoded : plain;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public String decode(String stored) {
+        if (stored == null || stored.isEmpty() || stored.charAt(0) != MARKER) return stored;
+        if (stored.startsWith(RAW)) return stored.substring(RAW.length());
+        if (stored.startsWith(DEFLATE) || stored.startsWith(DEFLATE_DICT)) {
+            return inflate(Base64.getDecoder().decode(stored.substring(DEFLATE.length())));
+        }
+        // Unknown header: hand back the stored value rather than failing the whole row
+        return stored;
+    }
+
+    private String inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null || inflater.getAdler() != dictionaryId) {
+                            throw new IllegalStateException("Stored value requires compression dictionary "
+                                    + Integer.toHexString(inflater.getAdler()) + " which is not configured");
+                        }
+                        inflater.setDictionary(dictionary);
+                        continue;
+                    }
+                    if (inflater.needsInput()) {
+                        throw new IllegalStateException("Truncated compressed value");
+                    }
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static String plain(String value) {
+        return value.charAt(0) == MARKER ? RAW + value : value;
+    }
+
+    /**
+     * Builds a preset dictionary from sample values (e.g. recent RAG contexts).
+     * Lines that recur across samples are kept, the most valuable ones last since deflate
+     * encodes nearer back-references more cheaply.
+     */
+    public static byte[] trainDictionary(Collection<String> samples, int maxBytes) {
+        int budget = Math.min(maxBytes, MAX_DICTIONARY_BYTES);
+        Map<String, Integer> freq = new HashMap<>();
+        for (String sample : samples) {
+            if (sample == null) continue;
+            Set<String> seen = new HashSet<>();
+            for (String line : sample.split("\n")) {
+                String l = line.strip();
+                if (l.length() >= 8 && seen.add(l)) freq.merge(l, 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>(freq.entrySet());
+        ranked.removeIf(e -> e.getValue() < 2);
+        ranked.sort(Comparator.comparingLong((Map.Entry<String, Integer> e) -> (long) e.getValue() * e.getKey().length()).reversed());
+        List<byte[]> picked = new ArrayList<>();
+        int used = 0;
+        for (Map.Entry<String, Integer> e : ranked) {
+            byte[] b = (e.getKey() + "\n").getBytes(StandardCharsets.UTF_8);
+            if (used + b.length > budget) continue;
+            picked.add(b);
+            used += b.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(used);
+        for (int i = picked.size() - 1; i >= 0; i--) {
+            out.writeBytes(picked.get(i));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readDictionary(TextCompressionProperties props) {
+        if (props.getDictionary() == null) return null;
+        try (InputStream in = props.getDictionary().getInputStream()) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read compression dictionary " + props.getDictionary(), e);
+        }
+    }
+
+    private static int adler(byte[] bytes) {
+        Adler32 a = new Adler32();
+        a.update(bytes);
+        return (int) a.getValue();
+    }
+}
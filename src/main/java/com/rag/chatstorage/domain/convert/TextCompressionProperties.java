@@ -0,0 +1,30 @@
+package com.rag.chatstorage.domain.convert;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.core.io.Resource;
+
+/**
+ * Configuration properties for transparent compression of large message text columns.
+ * <p>
+ * Compression is opt-in. Values already stored compressed remain readable when it is turned off,
+ * and rows written before it was turned on are read unchanged.
+ */
+@ConfigurationProperties(prefix = "chat.storage.compression")
+public class TextCompressionProperties {
+    private boolean enabled = false;
+    // Values shorter than this (in chars) are stored as-is
+    private int minLength = 512;
+    // Deflate level; 1 favours speed, 9 favours ratio
+    private int level = 1;
+    // Optional preset dictionary (see TextCompressionCodec#trainDictionary)
+    private Resource dictionary;
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public int getMinLength() { return minLength; }
+    public void setMinLength(int minLength) { this.minLength = minLength; }
+    public int getLevel() { return level; }
+    public void setLevel(int level) { this.level = level; }
+    public Resource getDictionary() { return dictionary; }
+    public void setDictionary(Resource dictionary) { this.dictionary = dictionary; }
+}
@@ -0,0 +1,32 @@
+package com.rag.chatstorage.idempotency;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for {@code Idempotency-Key} handling on message posts.
+ * <p>
+ * The response to the first request with a key is kept for {@code ttl}; at most {@code maxEntries}
+ * keys are remembered, the oldest being dropped first. Keys longer than {@code maxKeyLength} are rejected.
+ * A duplicate of a request still running waits up to {@code inFlightWait} for its response, and is then
+ * answered 409 with a Retry-After.
+ */
+@ConfigurationProperties(prefix = "chat.idempotency")
+public class IdempotencyProperties {
+    private boolean enabled = true;
+    private Duration ttl = Duration.ofHours(24);
+    private long maxEntries = 100_000;
+    private int maxKeyLength = 255;
+    private Duration inFlightWait = Duration.ofSeconds(5);
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public Duration getTtl() { return ttl; }
+    public void setTtl(Duration ttl) { this.ttl = ttl; }
+    public long getMaxEntries() { return maxEntries; }
+    public void setMaxEntries(long maxEntries) { this.maxEntries = maxEntries; }
+    public int getMaxKeyLength() { return maxKeyLength; }
+    public void setMaxKeyLength(int maxKeyLength) { this.maxKeyLength = maxKeyLength; }
+    public Duration getInFlightWait() { return inFlightWait; }
+    public void setInFlightWait(Duration inFlightWait) { this.inFlightWait = inFlightWait; }
+}
@@ -0,0 +1,125 @@
+package com.rag.chatstorage.idempotency;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-process store of responses by {@code Idempotency-Key}.
+ * <p>
+ * The first request with a key runs the action and its serialized response is kept; requests repeating
+ * the key get the same bytes back without running it again. A duplicate arriving while the first request
+ * is still running waits for its outcome up to {@code in-flight-wait}, and is then refused as in flight so
+ * that the client retries later. Reusing a key for a different request body is refused.
+ * A request that fails is not remembered, so retrying it after the failure runs it again.
+ * <p>
+ * Entries live in this instance only; a retry that reaches another instance runs again.
+ */
+@Component
+public class IdempotencyStore {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private final IdempotencyProperties props;
+    private final Cache<String, Entry> entries;
+
+    public IdempotencyStore(IdempotencyProperties props) {
+        this.props = props;
+        this.entries = Caffeine.newBuilder()
+                .expireAfterWrite(props.getTtl())
+                .maximumSize(props.getMaxEntries())
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return props.isEnabled();
+    }
+
+    /**
+     * Runs {@code action} once per {@code scope} and {@code key}, or returns the response stored for them.
+     *
+     * @param scope   what the key applies to, such as the session posted to
+     * @param request the serialized request body; a repeated key must come with the same body
+     */
+    public Result execute(String scope, String key, byte[] request, Supplier<Response> action) {
+        if (key.isBlank() || key.length() > props.getMaxKeyLength()) {
+            throw new KeyMisuseException("IDEMPOTENCY_KEY_INVALID",
+                    "Idempotency-Key must be 1 to " + props.getMaxKeyLength() + " characters");
+        }
+        Entry entry = new Entry(digest(request), new CompletableFuture<>());
+        Entry existing = entries.asMap().putIfAbsent(scope + '\n' + key, entry);
+        if (existing != null) {
+            if (!Arrays.equals(existing.fingerprint(), entry.fingerprint())) {
+                throw new KeyMisuseException("IDEMPOTENCY_KEY_REUSED",
+                        "Idempotency-Key was already used for a different request");
+            }
+            try {
+                return new Result(existing.response().get(props.getInFlightWait().toMillis(), TimeUnit.MILLISECONDS), true);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                if (e.getCause() instanceof Error err) throw err;
+                throw new IllegalStateException(e.getCause());
+            } catch (TimeoutException e) {
+                throw inFlight();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw inFlight();
+            }
+        }
+        try {
+            Response response = action.get();
+            entry.response().complete(response);
+            return new Result(response, false);
+        } catch (RuntimeException | Error e) {
+            entries.asMap().remove(scope + '\n' + key, entry);
+            entry.response().completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static KeyMisuseException inFlight() {
+        return new KeyMisuseException("IDEMPOTENCY_KEY_IN_FLIGHT",
+                "A request with this Idempotency-Key is still being processed; retry later");
+    }
+
+    public long estimatedSize() {
+        return entries.estimatedSize();
+    }
+
+    private static byte[] digest(byte[] request) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(request);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** A response as sent to the client: status and exact body bytes. */
+    public record Response(int status, byte[] body) {}
+
+    /** The response, and whether it was stored by an earlier request with the same key. */
+    public record Result(Response response, boolean replayed) {}
+
+    private record Entry(byte[] fingerprint, CompletableFuture<Response> response) {}
+
+    /** A key that cannot be used for this request. */
+    public static class KeyMisuseException extends RuntimeException {
+        private final String code;
+
+        public KeyMisuseException(String code, String message) {
+            super(message);
+            this.code = code;
+        }
+
+        public String getCode() { return code; }
+    }
+}
@@ -0,0 +1,117 @@
+package com.rag.chatstorage.maintenance;
+
+import com.rag.chatstorage.shard.ShardRouter;
+import java.time.Duration;
+import java.util.List;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Physically removes sessions and users that were marked deleted.
+ * <p>
+ * Messages are deleted with {@code DELETE ... LIMIT} in auto-committed batches of
+ * {@code chat.deletion.batch-size} rows, with a pause between batches. Their contexts are deleted the
+ * same way beforehand, since the partitioned production chat_messages table has no cascading foreign
+ * keys. No statement touches more than one batch of rows, so purging a very large
+ * session neither holds locks for long nor produces one huge replication event. The session row is
+ * deleted once it has no messages left, and a deleted user once all of their sessions are gone.
+ * Nothing here needs to finish in one run: the marks persist, so an interrupted purge resumes.
+ */
+@Component
+public class DeletionPurger {
+
+    private static final Logger log = LoggerFactory.getLogger(DeletionPurger.class);
+
+    // The derived table lets MySQL delete from chat_message_context while selecting from it
+    private static final String DELETE_CONTEXTS = """
+            DELETE FROM chat_message_context WHERE message_id IN (SELECT id FROM (
+              SELECT m.id FROM chat_messages m JOIN chat_message_context c ON c.message_id = m.id
+              WHERE m.session_id = ? LIMIT ?) batch)
+            """;
+    private static final String DELETE_MESSAGES = "DELETE FROM chat_messages WHERE session_id = ? LIMIT ?";
+
+    private final JdbcTemplate jdbc;
+    private final ShardRouter shards;
+    private final int batchSize;
+    private final Duration pause;
+
+    public DeletionPurger(DataSource dataSource, ShardRouter shards,
+                          @Value("${chat.deletion.batch-size:1000}") int batchSize,
+                          @Value("${chat.deletion.pause:PT0.05S}") Duration pause) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.shards = shards;
+        this.batchSize = Math.max(1, batchSize);
+        this.pause = pause;
+    }
+
+    @Scheduled(initialDelayString = "${chat.deletion.initial-delay:PT10S}", fixedDelayString = "${chat.deletion.interval:PT5S}")
+    public void run() {
+        shards.forEachShard(shard -> {
+            Result r = purge();
+            if (r.sessions() > 0 || r.users() > 0) {
+                log.info("Purged {} deleted chat sessions ({} messages) and {} users on shard {}",
+                        r.sessions(), r.messages(), r.users(), shard);
+            }
+        });
+    }
+
+    /** Purges everything currently marked deleted. */
+    public Result purge() {
+        long sessions = 0;
+        long messages = 0;
+        long after = 0;
+        List<Long> ids;
+        do {
+            ids = jdbc.queryForList("SELECT id FROM chat_sessions WHERE deleted_at IS NOT NULL AND id > ? ORDER BY id LIMIT 100",
+                    Long.class, after);
+            for (Long id : ids) {
+                long purged = purgeMessages(id);
+                if (purged < 0) return new Result(sessions, messages, 0);
+                messages += purged;
+                sessions += jdbc.update("DELETE FROM chat_sessions WHERE id = ? AND deleted_at IS NOT NULL", id);
+                after = id;
+            }
+        } while (ids.size() == 100);
+        int users = 0;
+        for (Long id : jdbc.queryForList("SELECT id FROM users WHERE deleted_at IS NOT NULL", Long.class)) {
+            // A user whose id was reused in the meantime has had deleted_at cleared and is kept
+            users += jdbc.update("DELETE FROM users WHERE id = ? AND deleted_at IS NOT NULL "
+                    + "AND NOT EXISTS (SELECT 1 FROM chat_sessions WHERE user_id = ?)", id, id);
+        }
+        return new Result(sessions, messages, users);
+    }
+
+    /** Deletes a session's messages batch by batch; returns the count, or -1 if interrupted. */
+    private long purgeMessages(long sessionId) {
+        return deleteInBatches(DELETE_CONTEXTS, sessionId) < 0 ? -1 : deleteInBatches(DELETE_MESSAGES, sessionId);
+    }
+
+    private long deleteInBatches(String sql, long sessionId) {
+        long total = 0;
+        int n;
+        do {
+            n = jdbc.update(sql, sessionId, batchSize);
+            total += n;
+            if (n == batchSize && !pause()) return -1;
+        } while (n == batchSize);
+        return total;
+    }
+
+    private boolean pause() {
+        if (pause.isZero()) return true;
+        try {
+            Thread.sleep(pause);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public record Result(long sessions, long messages, long users) {}
+}
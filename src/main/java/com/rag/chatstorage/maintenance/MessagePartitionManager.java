@@ -0,0 +1,180 @@
+package com.rag.chatstorage.maintenance;
+
+import com.rag.chatstorage.cache.RecentMessageCache;
+import com.rag.chatstorage.shard.ShardRouter;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maintains the monthly RANGE partitions of {@code chat_messages} on MySQL (changeset
+ * 008-message-partitions).
+ * <p>
+ * Each run splits partitions for the coming {@code chat.partitions.months-ahead} months off the
+ * trailing {@code MAXVALUE} partition. That partition is always empty when this keeps up, so the
+ * reorganisation copies no rows. With {@code chat.partitions.retain-months} set, partitions entirely
+ * older than that many whole months are dropped: retention becomes a metadata operation instead of a
+ * large {@code DELETE}. Before a drop, sessions whose last message falls inside the expired range are
+ * marked deleted for {@link DeletionPurger}. Sessions that straddle the boundary have their message count
+ * reduced. Contexts of the expired messages are deleted in batches, because the partitioned table has no
+ * cascading foreign keys.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.partitions.enabled", havingValue = "true")
+public class MessagePartitionManager {
+
+    private static final Logger log = LoggerFactory.getLogger(MessagePartitionManager.class);
+
+    private static final DateTimeFormatter MONTH_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+    private static final Pattern PARTITION_NAME = Pattern.compile("p\\w{1,63}");
+
+    private static final String PARTITIONS_SQL = """
+            SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'chat_messages' AND PARTITION_NAME IS NOT NULL
+            ORDER BY PARTITION_ORDINAL_POSITION
+            """;
+    private static final String EXPIRE_SESSIONS_SQL =
+            "UPDATE chat_sessions SET deleted_at = ? WHERE deleted_at IS NULL AND last_message_at < ?";
+    private static final String ADJUST_COUNT_SQL =
+            "UPDATE chat_sessions SET message_count = GREATEST(message_count - ?, 0) WHERE id = ? AND deleted_at IS NULL";
+
+    private final JdbcTemplate jdbc;
+    private final RecentMessageCache recentMessages;
+    private final ShardRouter shards;
+    private final int monthsAhead;
+    private final int retainMonths;
+    private final int batchSize;
+
+    public MessagePartitionManager(DataSource dataSource, RecentMessageCache recentMessages, ShardRouter shards,
+                                   @Value("${chat.partitions.months-ahead:3}") int monthsAhead,
+                                   @Value("${chat.partitions.retain-months:0}") int retainMonths,
+                                   @Value("${chat.partitions.batch-size:1000}") int batchSize) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.recentMessages = recentMessages;
+        this.shards = shards;
+        this.monthsAhead = Math.max(1, monthsAhead);
+        this.retainMonths = Math.max(0, retainMonths);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Scheduled(initialDelayString = "${chat.partitions.initial-delay:PT1M}", fixedDelayString = "${chat.partitions.interval:PT6H}")
+    public void run() {
+        shards.forEachShard(shard -> maintain());
+    }
+
+    private void maintain() {
+        List<Partition> partitions = partitions();
+        if (partitions.isEmpty()) {
+            log.warn("chat.partitions.enabled is set but chat_messages is not partitioned; nothing to do");
+            return;
+        }
+        Plan plan = plan(partitions, LocalDate.now(), monthsAhead, retainMonths);
+        if (!plan.create().isEmpty()) {
+            jdbc.execute(reorganizeSql(plan.future(), plan.create()));
+            log.info("Created chat_messages partitions for {}", plan.create());
+        }
+        for (Partition p : plan.drop()) {
+            drop(p);
+        }
+    }
+
+    List<Partition> partitions() {
+        return jdbc.query(PARTITIONS_SQL, (rs, i) -> new Partition(rs.getString(1), upperBound(rs.getString(2))));
+    }
+
+    private void drop(Partition p) {
+        String name = checkedName(p.name());
+        Timestamp boundary = Timestamp.valueOf(p.upperBound().atStartOfDay());
+        int expired = jdbc.update(EXPIRE_SESSIONS_SQL, Timestamp.from(Instant.now()), boundary);
+        // Surviving sessions lose only their messages in this partition; a grouped index scan of it counts them
+        List<Map<String, Object>> counts = jdbc.queryForList("SELECT session_id, COUNT(*) AS n FROM chat_messages PARTITION ("
+                + name + ") GROUP BY session_id");
+        jdbc.batchUpdate(ADJUST_COUNT_SQL, counts, batchSize, (ps, row) -> {
+            ps.setLong(1, ((Number) row.get("n")).longValue());
+            ps.setLong(2, ((Number) row.get("session_id")).longValue());
+        });
+        String deleteContexts = "DELETE FROM chat_message_context WHERE message_id IN (SELECT id FROM ("
+                + "SELECT id FROM chat_messages PARTITION (" + name + ") WHERE has_context LIMIT ?) batch)";
+        long contexts = 0;
+        int n;
+        do {
+            n = jdbc.update(deleteContexts, batchSize);
+            contexts += n;
+        } while (n == batchSize);
+        jdbc.execute("ALTER TABLE chat_messages DROP PARTITION " + name);
+        counts.forEach(row -> recentMessages.evict(((Number) row.get("session_id")).longValue()));
+        log.info("Dropped chat_messages partition {} (before {}): {} sessions expired, {} contexts removed",
+                name, p.upperBound(), expired, contexts);
+    }
+
+    /**
+     * Decides which monthly partitions to add and which to drop. {@code create} holds the first day of
+     * each month still missing up to {@code monthsAhead} months past the current one; {@code drop} holds
+     * bounded partitions that end on or before the first day of the month {@code retainMonths} back
+     * (none when {@code retainMonths} is 0).
+     */
+    static Plan plan(List<Partition> partitions, LocalDate today, int monthsAhead, int retainMonths) {
+        LocalDate thisMonth = today.withDayOfMonth(1);
+        Partition last = partitions.get(partitions.size() - 1);
+        List<LocalDate> create = new ArrayList<>();
+        if (last.upperBound() == null) {
+            LocalDate covered = partitions.stream().map(Partition::upperBound).filter(b -> b != null)
+                    .max(LocalDate::compareTo).orElse(thisMonth);
+            for (LocalDate m = covered.withDayOfMonth(1); !m.isAfter(thisMonth.plusMonths(monthsAhead)); m = m.plusMonths(1)) {
+                if (!m.isBefore(covered)) create.add(m);
+            }
+        }
+        List<Partition> drop = new ArrayList<>();
+        if (retainMonths > 0) {
+            LocalDate horizon = thisMonth.minusMonths(retainMonths);
+            for (Partition p : partitions) {
+                if (p.upperBound() != null && !p.upperBound().isAfter(horizon)) drop.add(p);
+            }
+        }
+        return new Plan(last.upperBound() == null ? last.name() : null, create, drop);
+    }
+
+    static String reorganizeSql(String future, List<LocalDate> months) {
+        StringBuilder sql = new StringBuilder("ALTER TABLE chat_messages REORGANIZE PARTITION ")
+                .append(checkedName(future)).append(" INTO (");
+        for (LocalDate m : months) {
+            sql.append("PARTITION ").append(m.format(MONTH_NAME)).append(" VALUES LESS THAN ('")
+                    .append(m.plusMonths(1)).append("'), ");
+        }
+        return sql.append("PARTITION ").append(checkedName(future)).append(" VALUES LESS THAN (MAXVALUE))").toString();
+    }
+
+    /** Parses a RANGE COLUMNS bound such as {@code '2026-12-01 00:00:00'}; null for MAXVALUE. */
+    static LocalDate upperBound(String description) {
+        if (description == null || description.equalsIgnoreCase("MAXVALUE")) return null;
+        String s = description.replace("'", "").trim();
+        return LocalDate.parse(s.length() > 10 ? s.substring(0, 10) : s);
+    }
+
+    // Partition names end up in DDL, which cannot take bind parameters
+    private static String checkedName(String name) {
+        if (name == null || !PARTITION_NAME.matcher(name).matches()) {
+            throw new IllegalStateException("Unexpected partition name: " + name);
+        }
+        return name;
+    }
+
+    /** A partition and its exclusive upper bound; {@code upperBound} is null for the MAXVALUE partition. */
+    record Partition(String name, LocalDate upperBound) {}
+
+    /** {@code future} names the MAXVALUE partition new months are split from, or is null if there is none. */
+    record Plan(String future, List<LocalDate> create, List<Partition> drop) {}
+}
@@ -0,0 +1,120 @@
+package com.rag.chatstorage.maintenance;
+
+import com.rag.chatstorage.domain.ChatSession;
+import com.rag.chatstorage.domain.convert.TextCompressionCodec;
+import com.rag.chatstorage.shard.ShardRouter;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fills {@code message_count}, {@code last_message_at} and {@code last_message_preview} for sessions
+ * that predate those columns.
+ * <p>
+ * Pending rows are the ones with a null {@code last_message_at}; they are walked by id in keyset
+ * batches, each batch being a handful of short statements. The final update only applies while the
+ * row is still pending, so a message added concurrently (which computes an exact count itself) wins.
+ * Once a pass finds nothing left to do the job stays idle until the next restart.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.sessions.backfill.enabled", havingValue = "true", matchIfMissing = true)
+public class SessionActivityBackfill {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionActivityBackfill.class);
+
+    private static final String PENDING_SQL =
+            "SELECT id, created_at FROM chat_sessions WHERE last_message_at IS NULL AND id > ? ORDER BY id LIMIT ?";
+    private static final String COUNT_SQL =
+            "SELECT session_id, COUNT(*) AS n FROM chat_messages WHERE session_id IN (:ids) GROUP BY session_id";
+    private static final String NEWEST_SQL =
+            "SELECT content, created_at FROM chat_messages WHERE session_id = ? ORDER BY created_at DESC, id DESC LIMIT 1";
+    private static final String UPDATE_SQL = """
+            UPDATE chat_sessions SET message_count = ?, last_message_preview = ?, last_message_at = ?
+            WHERE id = ? AND last_message_at IS NULL
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate named;
+    private final TextCompressionCodec codec;
+    private final ShardRouter shards;
+    private final int batchSize;
+    private volatile boolean done;
+
+    public SessionActivityBackfill(DataSource dataSource, TextCompressionCodec codec, ShardRouter shards,
+                                   @Value("${chat.sessions.backfill.batch-size:500}") int batchSize) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.named = new NamedParameterJdbcTemplate(dataSource);
+        this.codec = codec;
+        this.shards = shards;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Scheduled(initialDelayString = "${chat.sessions.backfill.initial-delay:PT30S}",
+            fixedDelayString = "${chat.sessions.backfill.interval:PT10M}")
+    public void run() {
+        if (done) return;
+        shards.forEachShard(shard -> {
+            long updated = backfill();
+            if (updated > 0) {
+                log.info("Backfilled activity columns of {} chat sessions on shard {}", updated, shard);
+            }
+        });
+        done = true;
+    }
+
+    /** Processes every pending session once; returns the number of sessions updated. */
+    public long backfill() {
+        long after = 0;
+        long updated = 0;
+        while (true) {
+            List<Pending> batch = jdbc.query(PENDING_SQL,
+                    (rs, i) -> new Pending(rs.getLong("id"), rs.getTimestamp("created_at")), after, batchSize);
+            if (batch.isEmpty()) break;
+            updated += apply(batch);
+            after = batch.get(batch.size() - 1).id();
+            if (batch.size() < batchSize) break;
+        }
+        return updated;
+    }
+
+    private int apply(List<Pending> batch) {
+        Map<Long, Integer> counts = new HashMap<>();
+        named.query(COUNT_SQL, new MapSqlParameterSource("ids", batch.stream().map(Pending::id).toList()),
+                rs -> { counts.put(rs.getLong("session_id"), rs.getInt("n")); });
+        List<Object[]> args = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            int count = counts.getOrDefault(p.id(), 0);
+            String preview = null;
+            Timestamp at = p.createdAt();
+            if (count > 0) {
+                List<Object[]> newest = jdbc.query(NEWEST_SQL,
+                        (rs, i) -> new Object[] {rs.getString("content"), rs.getTimestamp("created_at")}, p.id());
+                if (!newest.isEmpty()) {
+                    preview = ChatSession.preview(codec.decode((String) newest.get(0)[0]));
+                    at = (Timestamp) newest.get(0)[1];
+                }
+            }
+            args.add(new Object[] {count, preview, at, p.id()});
+        }
+        int updated = 0;
+        for (int n : jdbc.batchUpdate(UPDATE_SQL, args)) {
+            // Drivers may report SUCCESS_NO_INFO (-2) for batched statements
+            updated += n == 0 ? 0 : 1;
+        }
+        return updated;
+    }
+
+    private record Pending(long id, Timestamp createdAt) {}
+}
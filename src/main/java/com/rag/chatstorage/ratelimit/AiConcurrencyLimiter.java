@@ -0,0 +1,218 @@
+package com.rag.chatstorage.ratelimit;
+
+import com.rag.chatstorage.service.AiService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit on the calls in flight to the AI provider (additive increase, multiplicative decrease).
+ * <p>
+ * Each call takes a {@link Permit} and reports how it went. Successful calls while the limit is at
+ * least half in use raise it by one, so it grows only as far as callers need; an overload signal from
+ * the provider (429/503, a timeout) or a latency spike lowers it by {@link AiConcurrencyProperties#getBackoffRatio()}.
+ * Latency is judged against a slowly moving average of successful calls, so a provider that gets slower
+ * as it is pushed harder stops the growth before it starts throttling. The latency must not depend on the
+ * answer's length: streams report the time to their first chunk, blocking calls their time per output
+ * token, each against an average of its own kind. A blocking call whose answer is too short for that
+ * (below {@link AiConcurrencyProperties#getMinOutputTokens()}, or without usage) frees its permit without
+ * raising the limit. Other failures leave the limit as is.
+ * <p>
+ * Callers over the limit wait in arrival order until a permit frees up or their wait runs out, and then
+ * get an {@link AiService.AiBusyException}. Meters: {@code chat.ai.concurrency.limit},
+ * {@code .inflight} and {@code .queued} (gauges), {@code .rejected} and {@code .backoffs} (counters).
+ */
+@Component
+public class AiConcurrencyLimiter {
+
+    private final AiConcurrencyProperties props;
+    // A lock rather than synchronized, so waiting callers do not pin virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition freed = lock.newCondition();
+    private final Counter rejected;
+    private final Counter backoffs;
+    private double limit;
+    private int inflight;
+    private int queued;
+    // Smoothed latency of successful calls per Latency kind, 0 until the first one
+    private final double[] baselineNanos = new double[Latency.values().length];
+
+    public AiConcurrencyLimiter(AiConcurrencyProperties props, MeterRegistry meterRegistry) {
+        this.props = props;
+        this.limit = Math.max(props.getMinLimit(), Math.min(props.getMaxLimit(), props.getInitialLimit()));
+        Gauge.builder("chat.ai.concurrency.limit", this, AiConcurrencyLimiter::getLimit)
+                .description("Calls to the AI provider allowed in flight").register(meterRegistry);
+        Gauge.builder("chat.ai.concurrency.inflight", this, AiConcurrencyLimiter::getInflight)
+                .description("Calls to the AI provider in flight").register(meterRegistry);
+        Gauge.builder("chat.ai.concurrency.queued", this, AiConcurrencyLimiter::getQueued)
+                .description("Callers waiting for a call to the AI provider").register(meterRegistry);
+        this.rejected = Counter.builder("chat.ai.concurrency.rejected")
+                .description("Callers that waited too long for a call to the AI provider").register(meterRegistry);
+        this.backoffs = Counter.builder("chat.ai.concurrency.backoffs")
+                .description("Times the limit was lowered on overload").register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return props.isEnabled();
+    }
+
+    /** Waits for a free permit, up to the configured wait; every permit must be completed exactly once. */
+    public Permit acquire() {
+        if (!props.isEnabled()) return Permit.NONE;
+        lock.lock();
+        try {
+            // Newcomers queue behind waiting callers instead of overtaking them
+            if (queued == 0 && inflight < (int) limit) {
+                inflight++;
+                return new Permit(this);
+            }
+            if (queued >= props.getMaxQueue()) throw busy();
+            long nanos = props.getMaxWait().toNanos();
+            queued++;
+            try {
+                while (inflight >= (int) limit) {
+                    if (nanos <= 0) throw busy();
+                    nanos = freed.awaitNanos(nanos);
+                }
+                inflight++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw busy();
+            } finally {
+                queued--;
+            }
+            // Room may be left for the next in line
+            if (inflight < (int) limit) freed.signal();
+            return new Permit(this);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private AiService.AiBusyException busy() {
+        rejected.increment();
+        return new AiService.AiBusyException();
+    }
+
+    private void complete(Outcome outcome, Latency latency, long nanos) {
+        lock.lock();
+        try {
+            inflight--;
+            int before = (int) limit;
+            switch (outcome) {
+                case SUCCESS -> {
+                    // Without a latency the call says nothing about load, so it does not raise the limit either
+                    if (latency == null) break;
+                    int kind = latency.ordinal();
+                    double baseline = baselineNanos[kind];
+                    if (baseline > 0 && nanos > baseline * props.getLatencyTolerance()) {
+                        backOff();
+                    } else {
+                        baselineNanos[kind] = baseline == 0 ? nanos : baseline + props.getLatencySmoothing() * (nanos - baseline);
+                        if ((inflight + 1) * 2 >= limit) limit = Math.min(props.getMaxLimit(), limit + 1);
+                    }
+                }
+                case OVERLOAD -> backOff();
+                case IGNORE -> { }
+            }
+            int room = Math.max(1, (int) limit - before + 1);
+            for (int i = 0; i < room; i++) freed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void backOff() {
+        limit = Math.max(props.getMinLimit(), limit * props.getBackoffRatio());
+        backoffs.increment();
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInflight() {
+        lock.lock();
+        try {
+            return inflight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private enum Outcome { SUCCESS, OVERLOAD, IGNORE }
+
+    private enum Latency { FIRST_CHUNK, PER_OUTPUT_TOKEN }
+
+    /** One call in flight; report its outcome once with one of the methods, later reports are ignored. */
+    public static final class Permit {
+
+        /** A permit of a disabled limiter, for which outcomes are not tracked. */
+        public static final Permit NONE = new Permit(null);
+
+        private final AiConcurrencyLimiter limiter;
+        private final long started = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Permit(AiConcurrencyLimiter limiter) {
+            this.limiter = limiter;
+        }
+
+        /** A stream succeeded; {@code firstChunkNanos} is the time to its first chunk. */
+        public void success(long firstChunkNanos) {
+            finish(Outcome.SUCCESS, Latency.FIRST_CHUNK, Math.max(0, firstChunkNanos));
+        }
+
+        /**
+         * A blocking call succeeded after {@code elapsedNanos}, producing {@code outputTokens} (null if the
+         * provider reported no usage). It is judged by its time per output token.
+         */
+        public void success(long elapsedNanos, Integer outputTokens) {
+            if (limiter == null) return;
+            if (outputTokens == null || outputTokens < Math.max(1, limiter.props.getMinOutputTokens())) {
+                finish(Outcome.SUCCESS, null, 0);
+            } else {
+                finish(Outcome.SUCCESS, Latency.PER_OUTPUT_TOKEN, Math.max(0, elapsedNanos) / outputTokens);
+            }
+        }
+
+        /** The provider signalled overload: throttling, unavailability or a timeout. */
+        public void overload() {
+            finish(Outcome.OVERLOAD, null, 0);
+        }
+
+        /** The call ended without saying anything about the provider's capacity. */
+        public void ignore() {
+            finish(Outcome.IGNORE, null, 0);
+        }
+
+        public long elapsedNanos() {
+            return System.nanoTime() - started;
+        }
+
+        private void finish(Outcome outcome, Latency latency, long nanos) {
+            if (limiter != null && done.compareAndSet(false, true)) {
+                limiter.complete(outcome, latency, nanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.rag.chatstorage.ratelimit;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the adaptive limit on concurrent calls to the AI provider.
+ * <p>
+ * The limit starts at {@code initialLimit} and moves between {@code minLimit} and {@code maxLimit}:
+ * up by one per successful call while at least half of it is in use, down to {@code backoffRatio}
+ * of itself when the provider answers 429/503, times out, or a call is slower than {@code latencyTolerance}
+ * times the smoothed latency of recent ones: the time to a stream's first chunk, or a blocking call's time
+ * per output token. Blocking answers of fewer than {@code minOutputTokens} tokens, whose time is mostly
+ * prompt processing, are not judged and do not raise the limit. Callers over the limit wait
+ * up to {@code maxWait}, at most {@code maxQueue} of them, and then fail as busy.
+ */
+@ConfigurationProperties(prefix = "chat.ai.concurrency")
+public class AiConcurrencyProperties {
+    private boolean enabled = true;
+    private int initialLimit = 10;
+    private int minLimit = 1;
+    private int maxLimit = 200;
+    private double backoffRatio = 0.9;
+    private double latencyTolerance = 3.0;
+    private double latencySmoothing = 0.05;
+    private int minOutputTokens = 16;
+    private Duration maxWait = Duration.ofSeconds(10);
+    private int maxQueue = 1000;
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public int getInitialLimit() { return initialLimit; }
+    public void setInitialLimit(int initialLimit) { this.initialLimit = initialLimit; }
+    public int getMinLimit() { return minLimit; }
+    public void setMinLimit(int minLimit) { this.minLimit = minLimit; }
+    public int getMaxLimit() { return maxLimit; }
+    public void setMaxLimit(int maxLimit) { this.maxLimit = maxLimit; }
+    public double getBackoffRatio() { return backoffRatio; }
+    public void setBackoffRatio(double backoffRatio) { this.backoffRatio = backoffRatio; }
+    public double getLatencyTolerance() { return latencyTolerance; }
+    public void setLatencyTolerance(double latencyTolerance) { this.latencyTolerance = latencyTolerance; }
+    public double getLatencySmoothing() { return latencySmoothing; }
+    public void setLatencySmoothing(double latencySmoothing) { this.latencySmoothing = latencySmoothing; }
+    public int getMinOutputTokens() { return minOutputTokens; }
+    public void setMinOutputTokens(int minOutputTokens) { this.minOutputTokens = minOutputTokens; }
+    public Duration getMaxWait() { return maxWait; }
+    public void setMaxWait(Duration maxWait) { this.maxWait = maxWait; }
+    public int getMaxQueue() { return maxQueue; }
+    public void setMaxQueue(int maxQueue) { this.maxQueue = maxQueue; }
+}
@@ -0,0 +1,9 @@
+package com.rag.chatstorage.repository;
+
+import com.rag.chatstorage.domain.ChatMessageContext;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ChatMessageContextRepository extends JpaRepository<ChatMessageContext, Long> {
+}
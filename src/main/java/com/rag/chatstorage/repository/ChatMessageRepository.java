@@ -4,12 +4,27 @@ import com.rag.chatstorage.domain.ChatMessage;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.List;
 
+/**
+ * Message reads always carry a lower bound on {@code createdAt}. In production chat_messages is RANGE
+ * partitioned by month on created_at, and the bound (the session's creation time) lets MySQL prune every
+ * partition older than the session instead of probing the session index in each of them.
+ */
 @Repository
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long> {
-    Page<ChatMessage> findBySession_Id(Long sessionId, Pageable pageable);
-    List<ChatMessage> findBySession_IdOrderByCreatedAtAsc(Long sessionId);
+    @Query(value = "select m from ChatMessage m where m.session.id = :sessionId and m.createdAt >= :since",
+            countQuery = "select count(m) from ChatMessage m where m.session.id = :sessionId and m.createdAt >= :since")
+    Page<ChatMessage> findBySession_Id(@Param("sessionId") Long sessionId, @Param("since") Instant since, Pageable pageable);
+
+    @Query("select m from ChatMessage m where m.session.id = :sessionId and m.createdAt >= :since order by m.createdAt asc, m.id asc")
+    List<ChatMessage> findBySession_IdOrderByCreatedAtAsc(@Param("sessionId") Long sessionId, @Param("since") Instant since);
+
+    @Query("select count(m) > 0 from ChatMessage m where m.id = :id and m.session.id = :sessionId and m.createdAt >= :since")
+    boolean existsByIdAndSession_Id(@Param("id") Long id, @Param("sessionId") Long sessionId, @Param("since") Instant since);
 }
@@ -1,11 +1,16 @@
 package com.rag.chatstorage.repository;
 
 import com.rag.chatstorage.domain.ChatSession;
+import com.rag.chatstorage.search.SessionTitle;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.List;
 
 @Repository
@@ -17,4 +22,38 @@ public interface ChatSessionRepository extends JpaRepository<ChatSession, Long>
     Page<ChatSession> findByUser_UserIdAndFavoriteOrderByUpdatedAtDesc(String userId, boolean favorite, Pageable pageable);
     Page<ChatSession> findByUser_UserIdAndTitleContainingIgnoreCaseOrderByUpdatedAtDesc(String userId, String title, Pageable pageable);
     Page<ChatSession> findByUser_UserIdAndFavoriteAndTitleContainingIgnoreCaseOrderByUpdatedAtDesc(String userId, boolean favorite, String title, Pageable pageable);
+
+    // Sidebar listings, served by idx_chat_sessions_user_last_message
+    List<ChatSession> findByUser_UserIdOrderByLastMessageAtDescIdDesc(String userId);
+    List<ChatSession> findByUser_UserIdAndFavoriteOrderByLastMessageAtDescIdDesc(String userId, boolean favorite);
+
+    /**
+     * Folds a newly inserted message into the session's activity columns in one statement.
+     * Rows not yet backfilled (null last_message_at) take an exact count instead of an increment.
+     * Assignments are ordered so MySQL, which evaluates them left to right, sees the old values.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = """
+            UPDATE chat_sessions SET
+              message_count = CASE WHEN last_message_at IS NULL
+                THEN (SELECT COUNT(*) FROM chat_messages WHERE session_id = :id)
+                ELSE message_count + 1 END,
+              last_message_preview = :preview,
+              last_message_at = :at,
+              updated_at = :at
+            WHERE id = :id
+            """)
+    int recordMessage(@Param("id") Long id, @Param("at") Instant at, @Param("preview") String preview);
+
+    /** Hides a session at once; its rows are removed later by DeletionPurger. */
+    @Modifying
+    @Query(nativeQuery = true, value = "UPDATE chat_sessions SET deleted_at = :at WHERE id = :id AND deleted_at IS NULL")
+    int markDeleted(@Param("id") Long id, @Param("at") Instant at);
+
+    @Modifying
+    @Query(nativeQuery = true, value = "UPDATE chat_sessions SET deleted_at = :at WHERE user_id = :userKey AND deleted_at IS NULL")
+    int markDeletedByUser(@Param("userKey") Long userKey, @Param("at") Instant at);
+
+    @Query("select new com.rag.chatstorage.search.SessionTitle(s.id, s.title, s.favorite, s.updatedAt) from ChatSession s where s.user.userId = :userId")
+    List<SessionTitle> findTitlesByUserId(@Param("userId") String userId);
 }
@@ -1,6 +1,7 @@
 package com.rag.chatstorage.repository;
 
 import com.rag.chatstorage.domain.User;
+import java.util.List;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
@@ -8,4 +9,5 @@ import org.springframework.stereotype.Repository;
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUserId(String userId);
+    List<User> findByDeletedAtIsNull();
 }
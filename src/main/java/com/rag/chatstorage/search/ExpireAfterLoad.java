@@ -0,0 +1,34 @@
+package com.rag.chatstorage.search;
+
+import com.github.benmanes.caffeine.cache.Expiry;
+import java.time.Duration;
+
+/**
+ * Expires an index a fixed time after it was loaded from the database.
+ * <p>
+ * Unlike {@code expireAfterWrite}, the in-place updates made for this instance's writes do not restart
+ * the clock, so writes made elsewhere are picked up by the next load however busy the index is.
+ */
+final class ExpireAfterLoad<K, V> implements Expiry<K, V> {
+
+    private final long ttlNanos;
+
+    ExpireAfterLoad(Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @Override
+    public long expireAfterCreate(K key, V value, long currentTime) {
+        return ttlNanos;
+    }
+
+    @Override
+    public long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+
+    @Override
+    public long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+}
@@ -0,0 +1,67 @@
+package com.rag.chatstorage.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsed message search query. All clauses must match.
+ * <ul>
+ *   <li>{@code word} matches the word</li>
+ *   <li>{@code wor*} matches any word starting with {@code wor} (at least two characters)</li>
+ *   <li>{@code "two words"} matches the words adjacent and in order; so does {@code two-words}</li>
+ * </ul>
+ */
+public record MessageQuery(List<Clause> clauses) {
+
+    static final int MAX_CLAUSES = 16;
+    static final int MIN_PREFIX = 2;
+
+    public sealed interface Clause permits Term, Phrase {}
+
+    public record Term(String term, boolean prefix) implements Clause {
+        /** Whether a content token satisfies this clause. */
+        public boolean matches(String token) {
+            return prefix ? token.startsWith(term) : token.equals(term);
+        }
+    }
+
+    public record Phrase(List<String> terms) implements Clause {}
+
+    public static MessageQuery parse(String q) {
+        List<Clause> clauses = new ArrayList<>();
+        if (q != null) {
+            int i = 0;
+            while (i < q.length()) {
+                char c = q.charAt(i);
+                if (c == '"') {
+                    int close = q.indexOf('"', i + 1);
+                    int end = close < 0 ? q.length() : close;
+                    add(clauses, q.substring(i + 1, end), false);
+                    i = end + 1;
+                } else if (Character.isWhitespace(c)) {
+                    i++;
+                } else {
+                    int end = i;
+                    while (end < q.length() && !Character.isWhitespace(q.charAt(end)) && q.charAt(end) != '"') end++;
+                    String word = q.substring(i, end);
+                    add(clauses, word, word.endsWith("*"));
+                    i = end;
+                }
+            }
+        }
+        if (clauses.isEmpty()) throw new IllegalArgumentException("Search query must contain at least one word");
+        if (clauses.size() > MAX_CLAUSES) throw new IllegalArgumentException("Search query has too many terms");
+        return new MessageQuery(List.copyOf(clauses));
+    }
+
+    private static void add(List<Clause> clauses, String text, boolean prefix) {
+        List<String> terms = TextTokens.tokenize(text).stream().map(TextTokens.Token::term).toList();
+        if (terms.isEmpty()) return;
+        if (terms.size() == 1) {
+            String t = terms.get(0);
+            clauses.add(new Term(t, prefix && t.length() >= MIN_PREFIX));
+        } else {
+            clauses.add(new Phrase(terms));
+        }
+    }
+}
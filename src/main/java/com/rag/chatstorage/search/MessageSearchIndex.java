@@ -0,0 +1,157 @@
+package com.rag.chatstorage.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-user {@link UserMessageIndex} instances keyed by the user's primary key.
+ * <p>
+ * A user's index is built once, on their first message search, from all of their messages, and only
+ * built again after it was evicted or invalidated. From then on it is kept current incrementally: this
+ * instance's writes (new messages, deleted, archived and restored sessions, imports) update it after
+ * they commit, and a search more than {@code syncInterval} after the last sync first reads what changed
+ * in the database since then, which brings in the writes made through other instances.
+ */
+@Component
+public class MessageSearchIndex {
+
+    private final MessageSearchProperties props;
+    private final Cache<Long, Entry> indexes;
+
+    public MessageSearchIndex(MessageSearchProperties props) {
+        this.props = props;
+        this.indexes = Caffeine.newBuilder()
+                .maximumWeight(props.getMaxWeight().toBytes())
+                .weigher((Long userKey, Entry entry) -> (int) Math.min(Integer.MAX_VALUE, entry.index.weight()))
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return props.isEnabled();
+    }
+
+    /**
+     * Searches one user's messages. The index is built through {@code loader} on first use and brought
+     * up to date through it when a sync is due.
+     */
+    public Optional<Result> search(Long userKey, Loader loader, MessageQuery query, long offset, int limit) {
+        if (!isEnabled()) return Optional.empty();
+        Entry entry = indexes.get(userKey, key -> {
+            Entry built = new Entry();
+            sync(built, loader);
+            return built;
+        });
+        if (entry.syncDue(props.getSyncInterval())) {
+            // computeIfPresent re-evaluates the entry weight and serializes with write-through updates
+            indexes.asMap().computeIfPresent(userKey, (key, e) -> {
+                if (e.syncDue(props.getSyncInterval())) sync(e, loader);
+                return e;
+            });
+        }
+        UserMessageIndex.Result r = entry.index.search(query, offset, limit);
+        return Optional.of(new Result(r.hits(), r.total()));
+    }
+
+    private void sync(Entry entry, Loader loader) {
+        Instant started = Instant.now();
+        UserMessageIndex index = entry.index;
+        loader.load(entry.since, new Sink() {
+            @Override
+            public void add(long messageId, long sessionId, String content) {
+                index.add(messageId, sessionId, content);
+            }
+
+            @Override
+            public void removeSession(long sessionId) {
+                index.removeSession(sessionId);
+            }
+
+            @Override
+            public void restoreSession(long sessionId) {
+                index.restoreSession(sessionId);
+            }
+        });
+        // Re-read a margin next time: other instances' clocks differ and their transactions commit late
+        entry.since = started.minus(props.getSyncOverlap());
+        entry.syncedAt = System.nanoTime();
+    }
+
+    /** Indexes a newly persisted message if the user's index is loaded. */
+    public void add(Long userKey, Long messageId, long sessionId, String content) {
+        if (userKey == null || messageId == null) return;
+        indexes.asMap().computeIfPresent(userKey, (key, entry) -> {
+            entry.index.add(messageId, sessionId, content);
+            return entry;
+        });
+    }
+
+    public void removeSession(Long userKey, long sessionId) {
+        if (userKey == null) return;
+        indexes.asMap().computeIfPresent(userKey, (key, entry) -> {
+            entry.index.removeSession(sessionId);
+            return entry;
+        });
+    }
+
+    /** Takes back a session removed on archiving; its messages must then be {@link #add added} again. */
+    public void restoreSession(Long userKey, long sessionId) {
+        if (userKey == null) return;
+        indexes.asMap().computeIfPresent(userKey, (key, entry) -> {
+            entry.index.restoreSession(sessionId);
+            return entry;
+        });
+    }
+
+    /** Drops messages found missing from the database, so that they no longer count towards totals. */
+    public void removeMessages(Long userKey, Collection<Long> messageIds) {
+        if (userKey == null || messageIds.isEmpty()) return;
+        indexes.asMap().computeIfPresent(userKey, (key, entry) -> {
+            entry.index.removeMessages(messageIds);
+            return entry;
+        });
+    }
+
+    public void invalidate(Long userKey) {
+        if (userKey == null) return;
+        indexes.invalidate(userKey);
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * Feeds {@code sink} every message of the user when {@code since} is null. Otherwise feeds what
+         * changed from {@code since} on: the messages created since then, and the sessions deleted,
+         * archived or restored since then, followed by the messages of the restored ones. Anything the
+         * index already holds is ignored, so the same change may be fed more than once.
+         */
+        void load(Instant since, Sink sink);
+    }
+
+    public interface Sink {
+        void add(long messageId, long sessionId, String content);
+
+        void removeSession(long sessionId);
+
+        void restoreSession(long sessionId);
+    }
+
+    /** Hits of the requested result window, best first, and the total number of matches. */
+    public record Result(List<UserMessageIndex.Hit> hits, long total) {}
+
+    private static final class Entry {
+        final UserMessageIndex index = new UserMessageIndex();
+        // Only touched while building or under the map entry's lock
+        Instant since;
+        volatile long syncedAt;
+
+        boolean syncDue(Duration interval) {
+            return System.nanoTime() - syncedAt >= interval.toNanos();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.rag.chatstorage.search;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Configuration properties for the in-process full-text index over message content.
+ * <p>
+ * A user's index is built from the database on their first search, from all of their messages read in
+ * batches of {@code batchSize}, and then updated as messages are added and sessions deleted, archived or
+ * restored through this instance. A search more than {@code syncInterval} after the previous sync reads
+ * the changes made since then through other instances, going back an extra {@code syncOverlap} to cover
+ * clock differences and late commits. The least recently used indexes are dropped once their estimated
+ * total size exceeds {@code maxWeight}.
+ */
+@ConfigurationProperties(prefix = "chat.search.messages")
+public class MessageSearchProperties {
+    private boolean enabled = true;
+    private int batchSize = 5_000;
+    private Duration syncInterval = Duration.ofSeconds(10);
+    private Duration syncOverlap = Duration.ofMinutes(1);
+    private DataSize maxWeight = DataSize.ofMegabytes(256);
+    // Approximate snippet length in characters
+    private int snippetLength = 160;
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public int getBatchSize() { return batchSize; }
+    public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+    public Duration getSyncInterval() { return syncInterval; }
+    public void setSyncInterval(Duration syncInterval) { this.syncInterval = syncInterval; }
+    public Duration getSyncOverlap() { return syncOverlap; }
+    public void setSyncOverlap(Duration syncOverlap) { this.syncOverlap = syncOverlap; }
+    public DataSize getMaxWeight() { return maxWeight; }
+    public void setMaxWeight(DataSize maxWeight) { this.maxWeight = maxWeight; }
+    public int getSnippetLength() { return snippetLength; }
+    public void setSnippetLength(int snippetLength) { this.snippetLength = snippetLength; }
+}
@@ -0,0 +1,6 @@
+package com.rag.chatstorage.search;
+
+import java.time.Instant;
+
+/** The fields of a session that title search indexes and ranks on. */
+public record SessionTitle(Long id, String title, boolean favorite, Instant updatedAt) {}
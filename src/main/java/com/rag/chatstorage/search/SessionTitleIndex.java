@@ -0,0 +1,71 @@
+package com.rag.chatstorage.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-user {@link UserTitleIndex} instances, built on a user's first title search and updated
+ * after each committed session change on this instance.
+ * <p>
+ * Writes made elsewhere (other instances, bulk import) are not seen until the index is invalidated
+ * or reloaded, which happens {@code ttl} after it was built however often it is used, so callers
+ * should re-check the sessions they load for a result page.
+ */
+@Component
+public class SessionTitleIndex {
+
+    private final TitleSearchProperties props;
+    private final Cache<String, UserTitleIndex> indexes;
+
+    public SessionTitleIndex(TitleSearchProperties props) {
+        this.props = props;
+        this.indexes = Caffeine.newBuilder()
+                .expireAfter(new ExpireAfterLoad<String, UserTitleIndex>(props.getTtl()))
+                .maximumWeight(props.getMaxSessions())
+                .weigher((String userId, UserTitleIndex index) -> index.size() + 1)
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return props.isEnabled();
+    }
+
+    /**
+     * Ranked title search for one user, loading their titles with {@code loader} on first use.
+     * Empty when the index is disabled.
+     */
+    public Optional<Result> search(String userId, Supplier<List<SessionTitle>> loader,
+                                   String query, Boolean favorite, long offset, int limit) {
+        if (!isEnabled()) return Optional.empty();
+        UserTitleIndex index = indexes.get(userId, id -> new UserTitleIndex(loader.get()));
+        UserTitleIndex.Result r = index.search(query, favorite, offset, limit);
+        return Optional.of(new Result(r.ids(), r.total()));
+    }
+
+    /** Adds or updates a session in the user's index if it is loaded. */
+    public void put(String userId, SessionTitle title) {
+        // computeIfPresent re-evaluates the entry weight and serializes with a concurrent load
+        indexes.asMap().computeIfPresent(userId, (id, index) -> {
+            index.put(title);
+            return index;
+        });
+    }
+
+    public void remove(String userId, Long sessionId) {
+        indexes.asMap().computeIfPresent(userId, (id, index) -> {
+            index.remove(sessionId);
+            return index;
+        });
+    }
+
+    public void invalidate(String userId) {
+        indexes.invalidate(userId);
+    }
+
+    /** Session ids of the requested result window, best first, and the total number of matches. */
+    public record Result(List<Long> ids, long total) {}
+}
@@ -0,0 +1,85 @@
+package com.rag.chatstorage.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Excerpt of a message around the densest cluster of query matches, with the character ranges of the
+ * matched words within the excerpt.
+ */
+public record Snippet(String text, List<Highlight> highlights) {
+
+    static final String ELLIPSIS = "…";
+
+    public record Highlight(int start, int end) {}
+
+    public static Snippet of(String content, MessageQuery query, int length) {
+        if (content == null) return new Snippet("", List.of());
+        List<TextTokens.Token> tokens = TextTokens.tokenize(content);
+        List<TextTokens.Token> hits = matches(tokens, query);
+        if (hits.isEmpty()) {
+            return content.length() <= length
+                    ? new Snippet(content, List.of())
+                    : new Snippet(content.substring(0, cut(content, length)) + ELLIPSIS, List.of());
+        }
+        // Window that starts at a hit and covers the most hits within the length budget
+        int best = 0;
+        int bestCount = 0;
+        for (int i = 0, j = 0; i < hits.size(); i++) {
+            while (j < hits.size() && hits.get(j).end() - hits.get(i).start() <= length) j++;
+            if (j - i > bestCount) {
+                best = i;
+                bestCount = j - i;
+            }
+        }
+        int hitStart = hits.get(best).start();
+        int hitEnd = hits.get(best + Math.max(0, bestCount - 1)).end();
+        int start = Math.max(0, hitStart - Math.max(0, (length - (hitEnd - hitStart)) / 2));
+        if (start > 0) {
+            int space = content.indexOf(' ', start);
+            if (space >= 0 && space < hitStart) start = space + 1;
+        }
+        int end = Math.min(content.length(), Math.max(hitEnd, start + length));
+        if (end < content.length()) {
+            int space = content.lastIndexOf(' ', end);
+            if (space >= hitEnd) end = space;
+        }
+        String prefix = start > 0 ? ELLIPSIS : "";
+        String text = prefix + content.substring(start, end) + (end < content.length() ? ELLIPSIS : "");
+        List<Highlight> highlights = new ArrayList<>();
+        for (TextTokens.Token t : hits) {
+            if (t.start() >= start && t.end() <= end) {
+                highlights.add(new Highlight(t.start() - start + prefix.length(), t.end() - start + prefix.length()));
+            }
+        }
+        return new Snippet(text, highlights);
+    }
+
+    private static List<TextTokens.Token> matches(List<TextTokens.Token> tokens, MessageQuery query) {
+        boolean[] hit = new boolean[tokens.size()];
+        for (MessageQuery.Clause c : query.clauses()) {
+            if (c instanceof MessageQuery.Term t) {
+                for (int i = 0; i < tokens.size(); i++) {
+                    if (t.matches(tokens.get(i).term())) hit[i] = true;
+                }
+            } else if (c instanceof MessageQuery.Phrase p) {
+                int n = p.terms().size();
+                for (int i = 0; i + n <= tokens.size(); i++) {
+                    boolean all = true;
+                    for (int k = 0; k < n && all; k++) all = tokens.get(i + k).term().equals(p.terms().get(k));
+                    if (all) for (int k = 0; k < n; k++) hit[i + k] = true;
+                }
+            }
+        }
+        List<TextTokens.Token> out = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (hit[i]) out.add(tokens.get(i));
+        }
+        return out;
+    }
+
+    private static int cut(String content, int length) {
+        int space = content.lastIndexOf(' ', length);
+        return space > length / 2 ? space : length;
+    }
+}
@@ -0,0 +1,39 @@
+package com.rag.chatstorage.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/** Splits text into lower-cased runs of letters and digits, keeping their character offsets. */
+public final class TextTokens {
+
+    static final int MAX_TOKEN_LENGTH = 64;
+
+    private TextTokens() {}
+
+    public record Token(String term, int start, int end) {}
+
+    public static List<Token> tokenize(String text) {
+        List<Token> out = new ArrayList<>();
+        if (text == null) return out;
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            int cp = text.codePointAt(i);
+            if (!Character.isLetterOrDigit(cp)) {
+                i += Character.charCount(cp);
+                continue;
+            }
+            int start = i;
+            while (i < n) {
+                cp = text.codePointAt(i);
+                if (!Character.isLetterOrDigit(cp)) break;
+                i += Character.charCount(cp);
+            }
+            if (i - start <= MAX_TOKEN_LENGTH) {
+                out.add(new Token(text.substring(start, i).toLowerCase(Locale.ROOT), start, i));
+            }
+        }
+        return out;
+    }
+}
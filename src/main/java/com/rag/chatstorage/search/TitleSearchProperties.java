@@ -0,0 +1,26 @@
+package com.rag.chatstorage.search;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the in-process session title index used by title search.
+ * <p>
+ * A user's index is built from the database on their first search and kept current on session
+ * create/rename/favorite/delete made through this instance. It is dropped {@code ttl} after it was
+ * built, so changes made through other instances show up by then, and the least recently used indexes
+ * are dropped once more than {@code maxSessions} titles are indexed in total.
+ */
+@ConfigurationProperties(prefix = "chat.search.titles")
+public class TitleSearchProperties {
+    private boolean enabled = true;
+    private Duration ttl = Duration.ofMinutes(1);
+    private long maxSessions = 1_000_000;
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public Duration getTtl() { return ttl; }
+    public void setTtl(Duration ttl) { this.ttl = ttl; }
+    public long getMaxSessions() { return maxSessions; }
+    public void setMaxSessions(long maxSessions) { this.maxSessions = maxSessions; }
+}
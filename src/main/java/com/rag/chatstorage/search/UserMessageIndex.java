@@ -0,0 +1,542 @@
+package com.rag.chatstorage.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Positional inverted index over the messages of one user.
+ * <p>
+ * Messages are numbered in the order they were indexed. Each term's postings are a byte stream of
+ * varint-encoded (document delta, frequency, position deltas...) entries, so appending a new message
+ * only touches the end of the postings of its own terms. Removed messages (of deleted or archived
+ * sessions, or found gone from the database) are filtered at query time and physically removed by a
+ * compaction once they account for a quarter of the indexed messages.
+ * <p>
+ * Results are scored with BM25 and only the requested window of the ranking is kept.
+ */
+public class UserMessageIndex {
+
+    static final int MAX_PREFIX_EXPANSION = 256;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int TERM_OVERHEAD_BYTES = 64;
+    private static final int DOC_OVERHEAD_BYTES = 20;
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private long[] messageIds = new long[64];
+    private long[] sessionIds = new long[64];
+    private int[] lengths = new int[64];
+    private int docs;
+    private long totalLength;
+    private long postingBytes;
+    private DocIds docIds = new DocIds(64);
+    private final Set<Long> deletedSessions = new HashSet<>();
+    private final BitSet removed = new BitSet();
+    private int removedDocs;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Indexes a message. Messages already present are ignored; removed ones are brought back, which is
+     * how a restored session returns without tokenizing its messages again.
+     */
+    void add(long messageId, long sessionId, String content) {
+        lock.writeLock().lock();
+        try {
+            if (deletedSessions.contains(sessionId)) return;
+            int existing = docIds.get(messageId);
+            if (existing >= 0) {
+                if (removed.get(existing)) {
+                    removed.clear(existing);
+                    removedDocs--;
+                }
+                return;
+            }
+            if (docs == messageIds.length) grow();
+            int doc = docs++;
+            messageIds[doc] = messageId;
+            sessionIds[doc] = sessionId;
+            List<TextTokens.Token> tokens = TextTokens.tokenize(content);
+            lengths[doc] = tokens.size();
+            totalLength += tokens.size();
+            Map<String, IntList> positions = new LinkedHashMap<>();
+            for (int i = 0; i < tokens.size(); i++) {
+                positions.computeIfAbsent(tokens.get(i).term(), k -> new IntList()).add(i);
+            }
+            for (Map.Entry<String, IntList> e : positions.entrySet()) {
+                Postings p = terms.computeIfAbsent(e.getKey(), k -> new Postings());
+                int before = p.len;
+                p.add(doc, e.getValue());
+                postingBytes += p.len - before;
+            }
+            docIds.put(messageId, doc);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Drops all messages of a session from future results, and ignores any added for it later. */
+    void removeSession(long sessionId) {
+        lock.writeLock().lock();
+        try {
+            if (!deletedSessions.add(sessionId)) return;
+            for (int d = 0; d < docs; d++) {
+                if (sessionIds[d] == sessionId) remove(d);
+            }
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Accepts messages of a removed session again; they return to results as they are added. */
+    void restoreSession(long sessionId) {
+        lock.writeLock().lock();
+        try {
+            deletedSessions.remove(sessionId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Drops single messages from future results; unknown ids are ignored. */
+    void removeMessages(Collection<Long> ids) {
+        lock.writeLock().lock();
+        try {
+            for (Long id : ids) {
+                int d = docIds.get(id);
+                if (d >= 0) remove(d);
+            }
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try { return docs - removedDocs; } finally { lock.readLock().unlock(); }
+    }
+
+    /** Approximate retained heap size, used as the cache weight. */
+    long weight() {
+        lock.readLock().lock();
+        try {
+            return postingBytes + (long) terms.size() * TERM_OVERHEAD_BYTES + (long) messageIds.length * DOC_OVERHEAD_BYTES
+                    + docIds.weight();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Returns hits at ranks [offset, offset + limit) best first, together with the total match count. */
+    Result search(MessageQuery query, long offset, int limit) {
+        lock.readLock().lock();
+        try {
+            // Cheapest clauses first so the candidate set shrinks as early as possible
+            List<MessageQuery.Clause> clauses = new ArrayList<>(query.clauses());
+            clauses.sort(Comparator.comparingLong(this::estimate));
+            Hits hits = null;
+            for (MessageQuery.Clause c : clauses) {
+                hits = evaluate(c, hits);
+                if (hits.size == 0) return new Result(List.of(), 0);
+            }
+            return top(hits, offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Result top(Hits hits, long offset, int limit) {
+        int keep = (int) Math.min(Integer.MAX_VALUE - 1, offset + limit);
+        Comparator<Hit> order = Comparator.comparingDouble(Hit::score).reversed()
+                .thenComparing(Hit::messageId, Comparator.reverseOrder());
+        PriorityQueue<Hit> top = new PriorityQueue<>(Math.min(keep, 1024) + 1, order.reversed());
+        long total = 0;
+        for (int i = 0; i < hits.size; i++) {
+            int d = hits.docs[i];
+            if (removedDocs > 0 && removed.get(d)) continue;
+            total++;
+            if (keep == 0) continue;
+            Hit h = new Hit(messageIds[d], sessionIds[d], hits.scores[i]);
+            if (top.size() < keep) {
+                top.add(h);
+            } else if (order.compare(h, top.peek()) < 0) {
+                top.poll();
+                top.add(h);
+            }
+        }
+        List<Hit> ranked = new ArrayList<>(top);
+        ranked.sort(order);
+        return new Result(ranked.subList((int) Math.min(offset, ranked.size()), ranked.size()), total);
+    }
+
+    private long estimate(MessageQuery.Clause c) {
+        if (c instanceof MessageQuery.Phrase p) {
+            return p.terms().stream().mapToLong(t -> docFreq(t)).min().orElse(0);
+        }
+        MessageQuery.Term t = (MessageQuery.Term) c;
+        if (!t.prefix()) return docFreq(t.term());
+        long sum = 0;
+        for (Postings p : expand(t.term())) sum += p.docFreq;
+        return sum;
+    }
+
+    private int docFreq(String term) {
+        Postings p = terms.get(term);
+        return p == null ? 0 : p.docFreq;
+    }
+
+    private List<Postings> expand(String prefix) {
+        List<Postings> out = new ArrayList<>();
+        for (Postings p : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            if (out.size() == MAX_PREFIX_EXPANSION) break;
+            out.add(p);
+        }
+        return out;
+    }
+
+    /** Matches of one clause, restricted to {@code within} when given, with scores accumulated. */
+    private Hits evaluate(MessageQuery.Clause clause, Hits within) {
+        if (clause instanceof MessageQuery.Term t && !t.prefix()) {
+            Postings p = terms.get(t.term());
+            if (p == null) return Hits.EMPTY;
+            double idf = idf(p.docFreq);
+            Hits out = new Hits(within == null ? p.docFreq : within.size);
+            Postings.Reader r = p.reader();
+            int w = 0;
+            while (r.next()) {
+                r.skipPositions();
+                if (within != null) {
+                    while (w < within.size && within.docs[w] < r.doc) w++;
+                    if (w == within.size) break;
+                    if (within.docs[w] != r.doc) continue;
+                }
+                out.add(r.doc, (within == null ? 0 : within.scores[w]) + bm25(r.freq, r.doc, idf));
+            }
+            return out;
+        }
+        Map<Integer, Integer> freqs = clause instanceof MessageQuery.Phrase ph
+                ? phraseFreqs(ph.terms(), within)
+                : prefixFreqs(((MessageQuery.Term) clause).term(), within);
+        if (freqs.isEmpty()) return Hits.EMPTY;
+        double idf = idf(estimate(clause));
+        int[] matched = freqs.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        Hits out = new Hits(matched.length);
+        int w = 0;
+        for (int d : matched) {
+            double base = 0;
+            if (within != null) {
+                while (within.docs[w] < d) w++;
+                base = within.scores[w];
+            }
+            out.add(d, base + bm25(freqs.get(d), d, idf));
+        }
+        return out;
+    }
+
+    private Map<Integer, Integer> prefixFreqs(String prefix, Hits within) {
+        Map<Integer, Integer> freqs = new HashMap<>();
+        for (Postings p : expand(prefix)) {
+            Postings.Reader r = p.reader();
+            while (r.next()) {
+                r.skipPositions();
+                if (within == null || within.contains(r.doc)) freqs.merge(r.doc, r.freq, Integer::sum);
+            }
+        }
+        return freqs;
+    }
+
+    private Map<Integer, Integer> phraseFreqs(List<String> phrase, Hits within) {
+        // doc -> positions at which the phrase matched so far ends
+        Map<Integer, int[]> ends = null;
+        for (String term : phrase) {
+            Postings p = terms.get(term);
+            if (p == null) return Map.of();
+            Map<Integer, int[]> next = new HashMap<>();
+            Postings.Reader r = p.reader();
+            while (r.next()) {
+                boolean wanted = ends == null ? within == null || within.contains(r.doc) : ends.containsKey(r.doc);
+                if (!wanted) {
+                    r.skipPositions();
+                    continue;
+                }
+                int[] positions = r.readPositions();
+                if (ends == null) {
+                    next.put(r.doc, positions);
+                    continue;
+                }
+                int[] prev = ends.get(r.doc);
+                IntList cont = new IntList();
+                for (int pos : positions) {
+                    if (Arrays.binarySearch(prev, pos - 1) >= 0) cont.add(pos);
+                }
+                if (cont.size > 0) next.put(r.doc, cont.toArray());
+            }
+            ends = next;
+            if (ends.isEmpty()) return Map.of();
+        }
+        Map<Integer, Integer> freqs = new HashMap<>();
+        ends.forEach((doc, positions) -> freqs.put(doc, positions.length));
+        return freqs;
+    }
+
+    private double idf(long df) {
+        long n = Math.max(1, docs - removedDocs);
+        // Prefix and phrase frequencies are estimates and may exceed the document count
+        long f = Math.min(df, n);
+        return Math.log(1 + (n - f + 0.5) / (f + 0.5));
+    }
+
+    private double bm25(int tf, int doc, double idf) {
+        double avg = docs == 0 ? 1 : (double) totalLength / docs;
+        double norm = 1 - B + B * lengths[doc] / Math.max(1, avg);
+        return idf * tf * (K1 + 1) / (tf + K1 * norm);
+    }
+
+    private void remove(int doc) {
+        if (removed.get(doc)) return;
+        removed.set(doc);
+        removedDocs++;
+    }
+
+    private void compactIfSparse() {
+        if (removedDocs > 0 && removedDocs * 4L >= docs) compact();
+    }
+
+    private void grow() {
+        int cap = messageIds.length * 2;
+        messageIds = Arrays.copyOf(messageIds, cap);
+        sessionIds = Arrays.copyOf(sessionIds, cap);
+        lengths = Arrays.copyOf(lengths, cap);
+    }
+
+    /** Rewrites all postings without the removed messages and renumbers the rest. */
+    private void compact() {
+        int[] remap = new int[docs];
+        int live = 0;
+        totalLength = 0;
+        docIds = new DocIds(docs - removedDocs);
+        for (int d = 0; d < docs; d++) {
+            if (removed.get(d)) {
+                remap[d] = -1;
+                continue;
+            }
+            remap[d] = live;
+            docIds.put(messageIds[d], live);
+            messageIds[live] = messageIds[d];
+            sessionIds[live] = sessionIds[d];
+            lengths[live] = lengths[d];
+            totalLength += lengths[d];
+            live++;
+        }
+        postingBytes = 0;
+        for (Iterator<Map.Entry<String, Postings>> it = terms.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Postings> e = it.next();
+            Postings rewritten = new Postings();
+            Postings.Reader r = e.getValue().reader();
+            while (r.next()) {
+                int[] positions = r.readPositions();
+                if (remap[r.doc] >= 0) rewritten.add(remap[r.doc], IntList.of(positions));
+            }
+            if (rewritten.docFreq == 0) {
+                it.remove();
+            } else {
+                e.setValue(rewritten);
+                postingBytes += rewritten.len;
+            }
+        }
+        docs = live;
+        removed.clear();
+        removedDocs = 0;
+        // deletedSessions stays: a write-through that commits just before a delete may still arrive
+    }
+
+    public record Hit(long messageId, long sessionId, double score) {}
+
+    record Result(List<Hit> hits, long total) {}
+
+    /** Candidate documents of a query in ascending order with their accumulated scores. */
+    private static final class Hits {
+        static final Hits EMPTY = new Hits(0);
+        int[] docs;
+        double[] scores;
+        int size;
+
+        Hits(int capacity) {
+            docs = new int[Math.max(1, capacity)];
+            scores = new double[docs.length];
+        }
+
+        void add(int doc, double score) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            docs[size] = doc;
+            scores[size++] = score;
+        }
+
+        boolean contains(int doc) {
+            return Arrays.binarySearch(docs, 0, size, doc) >= 0;
+        }
+    }
+
+    /** Open-addressing map from message id to document number. */
+    private static final class DocIds {
+        private static final int SLOT_BYTES = 12;
+        long[] keys;
+        // Document number + 1, so that 0 marks a free slot
+        int[] docs;
+        int size;
+
+        DocIds(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(64, expected) * 2 - 1) << 1;
+            keys = new long[capacity];
+            docs = new int[capacity];
+        }
+
+        int get(long id) {
+            int mask = keys.length - 1;
+            for (int i = slot(id, mask); docs[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == id) return docs[i] - 1;
+            }
+            return -1;
+        }
+
+        void put(long id, int doc) {
+            if ((size + 1) * 2 > keys.length) resize();
+            int mask = keys.length - 1;
+            int i = slot(id, mask);
+            while (docs[i] != 0 && keys[i] != id) i = (i + 1) & mask;
+            if (docs[i] == 0) size++;
+            keys[i] = id;
+            docs[i] = doc + 1;
+        }
+
+        long weight() {
+            return (long) keys.length * SLOT_BYTES;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldDocs = docs;
+            keys = new long[oldKeys.length * 2];
+            docs = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldDocs[i] != 0) put(oldKeys[i], oldDocs[i] - 1);
+            }
+        }
+
+        private static int slot(long id, int mask) {
+            // Sharded ids of one user share their low bits (the slot); mix them before masking
+            return Long.hashCode(id * 0x9E3779B97F4A7C15L) & mask;
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        static IntList of(int[] values) {
+            IntList l = new IntList();
+            l.values = values;
+            l.size = values.length;
+            return l;
+        }
+
+        void add(int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /** Append-only varint-compressed postings of one term. */
+    private static final class Postings {
+        byte[] buf = new byte[8];
+        int len;
+        int lastDoc = -1;
+        int docFreq;
+
+        void add(int doc, IntList positions) {
+            writeVarint(doc - lastDoc);
+            writeVarint(positions.size);
+            int prev = 0;
+            for (int i = 0; i < positions.size; i++) {
+                writeVarint(positions.values[i] - prev);
+                prev = positions.values[i];
+            }
+            lastDoc = doc;
+            docFreq++;
+        }
+
+        private void writeVarint(int v) {
+            if (len + 5 > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + 5));
+            while ((v & ~0x7F) != 0) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        Reader reader() {
+            return new Reader();
+        }
+
+        final class Reader {
+            int pos;
+            int doc = -1;
+            int freq;
+
+            boolean next() {
+                if (pos >= len) return false;
+                doc += readVarint();
+                freq = readVarint();
+                return true;
+            }
+
+            void skipPositions() {
+                for (int i = 0; i < freq; i++) readVarint();
+            }
+
+            int[] readPositions() {
+                int[] out = new int[freq];
+                int prev = 0;
+                for (int i = 0; i < freq; i++) {
+                    prev += readVarint();
+                    out[i] = prev;
+                }
+                return out;
+            }
+
+            private int readVarint() {
+                int v = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buf[pos++];
+                    v |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                return v;
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.rag.chatstorage.search;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Trigram index over the session titles of one user.
+ * <p>
+ * A query of three or more characters only examines the sessions listed under its rarest trigram,
+ * so lookups cost roughly the number of plausible matches rather than the number of sessions.
+ * Shorter queries fall back to scanning the in-memory titles. Matches are ranked exact title,
+ * then prefix, then word start, then any other substring, with recently updated sessions first
+ * within a rank, and only the requested window of the ranking is kept.
+ */
+public class UserTitleIndex {
+
+    static final int EXACT = 0;
+    static final int PREFIX = 1;
+    static final int WORD = 2;
+    static final int SUBSTRING = 3;
+
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final Map<Long, Postings> grams = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    UserTitleIndex(Collection<SessionTitle> titles) {
+        titles.forEach(this::put);
+    }
+
+    void put(SessionTitle t) {
+        lock.writeLock().lock();
+        try {
+            Entry previous = entries.remove(t.id());
+            String folded = fold(t.title());
+            if (previous != null && !previous.folded.equals(folded)) {
+                unindex(previous);
+                previous = null;
+            }
+            Entry e = new Entry(t.id(), folded, t.favorite(), t.updatedAt() == null ? Instant.EPOCH : t.updatedAt());
+            entries.put(e.id, e);
+            if (previous == null) {
+                for (long g : trigrams(folded)) {
+                    grams.computeIfAbsent(g, k -> new Postings()).add(e.id);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(Long id) {
+        lock.writeLock().lock();
+        try {
+            Entry e = entries.remove(id);
+            if (e != null) unindex(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try { return entries.size(); } finally { lock.readLock().unlock(); }
+    }
+
+    /**
+     * Returns the ids at ranks [offset, offset + limit) of sessions whose title contains {@code query}
+     * (case-insensitive), optionally restricted by favorite flag, together with the total match count.
+     */
+    Result search(String query, Boolean favorite, long offset, int limit) {
+        String q = fold(query.strip());
+        int keep = (int) Math.min(Integer.MAX_VALUE - 1, offset + limit);
+        // Worst-ranked kept match on top, so it is the one displaced by a better match
+        PriorityQueue<Match> top = new PriorityQueue<>(Math.min(keep, 1024) + 1, Match.ORDER.reversed());
+        long total = 0;
+        lock.readLock().lock();
+        try {
+            for (Entry e : candidates(q)) {
+                if (favorite != null && e.favorite != favorite) continue;
+                if (!e.folded.contains(q)) continue;
+                total++;
+                if (keep == 0) continue;
+                Match m = new Match(e.id, rank(e.folded, q), e.updatedAt);
+                if (top.size() < keep) {
+                    top.add(m);
+                } else if (Match.ORDER.compare(m, top.peek()) < 0) {
+                    top.poll();
+                    top.add(m);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Match> ranked = new ArrayList<>(top);
+        ranked.sort(Match.ORDER);
+        List<Long> ids = new ArrayList<>();
+        for (int i = (int) Math.min(offset, ranked.size()); i < ranked.size(); i++) {
+            ids.add(ranked.get(i).id);
+        }
+        return new Result(ids, total);
+    }
+
+    private Collection<Entry> candidates(String q) {
+        if (q.length() < 3) return entries.values();
+        Postings rarest = null;
+        for (long g : trigrams(q)) {
+            Postings p = grams.get(g);
+            if (p == null) return List.of();
+            if (rarest == null || p.size < rarest.size) rarest = p;
+        }
+        List<Entry> out = new ArrayList<>(rarest.size);
+        for (int i = 0; i < rarest.size; i++) {
+            out.add(entries.get(rarest.ids[i]));
+        }
+        return out;
+    }
+
+    private void unindex(Entry e) {
+        for (long g : trigrams(e.folded)) {
+            Postings p = grams.get(g);
+            if (p != null && p.remove(e.id) && p.size == 0) grams.remove(g);
+        }
+    }
+
+    static int rank(String title, String q) {
+        if (title.equals(q)) return EXACT;
+        if (title.startsWith(q)) return PREFIX;
+        for (int i = title.indexOf(q, 1); i > 0; i = title.indexOf(q, i + 1)) {
+            if (!Character.isLetterOrDigit(title.charAt(i - 1))) return WORD;
+        }
+        return SUBSTRING;
+    }
+
+    static String fold(String s) {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT);
+    }
+
+    static Set<Long> trigrams(String s) {
+        Set<Long> out = new HashSet<>();
+        for (int i = 0; i + 3 <= s.length(); i++) {
+            out.add(((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2));
+        }
+        return out;
+    }
+
+    record Result(List<Long> ids, long total) {}
+
+    private record Entry(long id, String folded, boolean favorite, Instant updatedAt) {}
+
+    private record Match(long id, int rank, Instant updatedAt) {
+        static final Comparator<Match> ORDER = Comparator.comparingInt(Match::rank)
+                .thenComparing(Match::updatedAt, Comparator.reverseOrder())
+                .thenComparing(Match::id, Comparator.reverseOrder());
+    }
+
+    /** Sorted set of session ids; ids are assigned in increasing order, so adds are usually appends. */
+    private static final class Postings {
+        long[] ids = new long[4];
+        int size;
+
+        void add(long id) {
+            int at = size == 0 || ids[size - 1] < id ? -(size + 1) : Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) return;
+            int pos = -(at + 1);
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        boolean remove(long id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at < 0) return false;
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            size--;
+            return true;
+        }
+    }
+}
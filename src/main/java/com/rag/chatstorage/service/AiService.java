@@ -1,22 +1,57 @@
 package com.rag.chatstorage.service;
 
 import com.rag.chatstorage.domain.ChatMessage;
+import java.time.Duration;
 import java.util.List;
+import reactor.core.publisher.Flux;
 
 public interface AiService {
 
+    // Number of most recent session messages sent to the model as conversation history
+    int HISTORY_WINDOW = 30;
+    // The oldest message sent moves forward in steps of this many, so the prompt keeps a stable prefix
+    // that providers can cache between turns (see ChatSessionService#promptHistory)
+    int HISTORY_STEP = 10;
+    // System prompt of chat turns, on every path that answers one (sync, async, streaming and the UI)
+    String CHAT_SYSTEM_PROMPT = "You are a helpful AI assistant.";
+
     String infer(String system, String user);
     String inferWithHistory(String user, String system, List<ChatMessage> history);
 
+    /**
+     * Streams the reply to {@code user} as it is generated, one text chunk per element. Errors arrive
+     * as {@link AiFriendlyException}. A failure before the first chunk is retried like a blocking call,
+     * waiting on a timer rather than a thread; once chunks have been shown it is not retried.
+     */
+    Flux<String> streamWithHistory(String user, String system, List<ChatMessage> history);
+
     class AiFriendlyException extends RuntimeException {
         private final String code;
         private final String hint;
+        private final Duration retryAfter;
         public AiFriendlyException(String code, String message, String hint) {
+            this(code, message, hint, null);
+        }
+        public AiFriendlyException(String code, String message, String hint, Duration retryAfter) {
             super(message);
             this.code = code;
             this.hint = hint;
+            this.retryAfter = retryAfter;
         }
         public String getCode() { return code; }
         public String getHint() { return hint; }
+        /** How long the provider asked us to wait (Retry-After) before trying again, or null. */
+        public Duration getRetryAfter() { return retryAfter; }
+    }
+
+    /**
+     * The provider already has as many calls in flight as it can take and no slot freed up in time.
+     * Not a provider failure: it is neither retried nor counted by the circuit breaker.
+     */
+    class AiBusyException extends AiFriendlyException {
+        public AiBusyException() {
+            super("AI_BUSY", "The assistant is busy right now. Please try again shortly.",
+                    "(concurrency limit)", Duration.ofSeconds(1));
+        }
     }
 }
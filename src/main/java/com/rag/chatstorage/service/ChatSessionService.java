@@ -2,7 +2,9 @@ package com.rag.chatstorage.service;
 
 import com.rag.chatstorage.domain.ChatMessage;
 import com.rag.chatstorage.domain.ChatSession;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import org.springframework.data.domain.Page;
 
 public interface ChatSessionService {
@@ -18,4 +20,12 @@ public interface ChatSessionService {
     ChatMessage addMessage(Long sessionId, ChatMessage.Sender sender, String content, String context);
     Page<ChatMessage> getMessages(Long sessionId, int page, int size);
     List<ChatMessage> listAllMessagesOrdered(Long sessionId);
+    List<ChatMessage> recentMessages(Long sessionId, int limit);
+    /**
+     * At most {@code max} of the newest messages, starting at a multiple of {@code step}: the first message
+     * stays the same until {@code step} more have been added, so consecutive prompts share their prefix.
+     */
+    List<ChatMessage> promptHistory(Long sessionId, int max, int step);
+    String getMessageContext(Long sessionId, Long messageId);
+    Map<Long, String> getMessageContexts(Collection<Long> messageIds);
 }
@@ -0,0 +1,32 @@
+package com.rag.chatstorage.service;
+
+import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.search.Snippet;
+import java.time.Instant;
+import java.util.List;
+
+public interface MessageSearchService {
+
+    /**
+     * Full-text search over the content of all messages of a user.
+     * Supports words, {@code prefix*} terms and {@code "quoted phrases"}; all must match.
+     */
+    SearchPage search(String userId, String query, int page, int size);
+
+    record SearchHit(Long messageId, Long sessionId, String sessionTitle, ChatMessage.Sender sender,
+                     Instant createdAt, double score, String snippet, List<Snippet.Highlight> highlights) {}
+
+    record SearchPage(List<SearchHit> items, int page, int size, long totalElements, int totalPages) {}
+
+    /** A search that cannot be run: a bad query or page ({@code INVALID_*}), or search turned off. */
+    class SearchException extends RuntimeException {
+        private final String code;
+
+        public SearchException(String code, String message) {
+            super(message);
+            this.code = code;
+        }
+
+        public String getCode() { return code; }
+    }
+}
@@ -0,0 +1,34 @@
+package com.rag.chatstorage.service;
+
+import com.rag.chatstorage.domain.ChatMessage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+
+/**
+ * Streams chat transcripts as newline-delimited JSON: one {@link SessionLine} per session,
+ * followed by that session's {@link MessageLine}s in chronological order.
+ */
+public interface TranscriptExportService {
+
+    /** Resolves the session up front (throws if it does not exist) and returns the writer for its transcript. */
+    Export exportSession(Long sessionId);
+
+    /** Resolves the user up front (throws if it does not exist) and returns the writer for all of their sessions. */
+    Export exportUser(String userId);
+
+    @FunctionalInterface
+    interface Export {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    record SessionLine(String type, Long id, String userId, String title, boolean favorite,
+                       Instant createdAt, Instant updatedAt) {
+        public static final String TYPE = "session";
+    }
+
+    record MessageLine(String type, Long id, Long sessionId, ChatMessage.Sender sender, String content,
+                       String context, Instant createdAt) {
+        public static final String TYPE = "message";
+    }
+}
@@ -0,0 +1,45 @@
+package com.rag.chatstorage.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Bulk import of chat history from newline-delimited JSON in the format written by
+ * {@link TranscriptExportService}: each {@code session} line is followed by its {@code message} lines.
+ * <p>
+ * Rows are inserted directly with their original timestamps. No AI replies are generated and the
+ * per-message API path (validation aside) is bypassed entirely.
+ */
+public interface TranscriptImportService {
+
+    /**
+     * Reads {@code in} line by line, committing in chunks, and reports every committed chunk and every
+     * rejected line to {@code listener} as it happens.
+     */
+    Summary importNdjson(InputStream in, Listener listener) throws IOException;
+
+    interface Listener {
+        void progress(Progress progress);
+        void error(LineError error);
+    }
+
+    /** Emitted after each committed chunk; everything up to and including {@code line} is durable. */
+    record Progress(String type, long line, long sessions, long messages) {
+        public Progress(long line, long sessions, long messages) { this("progress", line, sessions, messages); }
+    }
+
+    record LineError(String type, long line, String error) {
+        public LineError(long line, String error) { this("error", line, error); }
+    }
+
+    /**
+     * Final outcome. {@code committedThroughLine} is the last input line whose effects are committed,
+     * so an aborted import can be resumed from the following line.
+     */
+    record Summary(String type, long lines, long sessions, long messages, long errors,
+                   long committedThroughLine, boolean aborted) {
+        public Summary(long lines, long sessions, long messages, long errors, long committedThroughLine, boolean aborted) {
+            this("summary", lines, sessions, messages, errors, committedThroughLine, aborted);
+        }
+    }
+}
@@ -6,4 +6,7 @@ import java.util.List;
 public interface UserService {
     User ensureUser(String userId);
     List<User> listUsers();
+
+    /** Hides the user and all of their sessions at once; the rows are purged in the background. */
+    void delete(String userId);
 }
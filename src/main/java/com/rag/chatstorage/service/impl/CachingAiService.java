@@ -0,0 +1,104 @@
+package com.rag.chatstorage.service.impl;
+
+import com.rag.chatstorage.aicache.AiResponseCache;
+import com.rag.chatstorage.aicache.AiTenant;
+import com.rag.chatstorage.aicache.SingleFlight;
+import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.service.AiService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.List;
+import java.util.function.Supplier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Answers prompts from {@link AiResponseCache} when it can, and asks {@link SimpleAiService} otherwise.
+ * Identical prompts asked at the same time share one call to the model ({@link SingleFlight}), keyed
+ * like the exact tier; streams are not shared.
+ * <p>
+ * The time to answer is recorded in {@code chat.ai.cache.latency}, tagged with {@code result}
+ * {@code exact}, {@code semantic} or {@code miss}. Failed replies are not cached.
+ */
+@Service
+@Primary
+public class CachingAiService implements AiService {
+
+    private final AiService delegate;
+    private final AiResponseCache cache;
+    private final SingleFlight singleFlight;
+    private final MeterRegistry meterRegistry;
+
+    public CachingAiService(SimpleAiService delegate, AiResponseCache cache, SingleFlight singleFlight,
+                            MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.singleFlight = singleFlight;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public String infer(String system, String user) {
+        return cached(system, List.of(), user, () -> delegate.infer(system, user));
+    }
+
+    @Override
+    public String inferWithHistory(String user, String system, List<ChatMessage> history) {
+        return cached(system, history, user, () -> delegate.inferWithHistory(user, system, history));
+    }
+
+    @Override
+    public Flux<String> streamWithHistory(String user, String system, List<ChatMessage> history) {
+        if (!cache.isEnabled()) return delegate.streamWithHistory(user, system, history);
+        String tenant = AiTenant.current();
+        return Flux.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            // The lookup may call the embedding model, so it stays off the caller's thread
+            return Mono.fromCallable(() -> cache.get(tenant, system, history, user))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMapMany(lookup -> {
+                        if (lookup.hit()) {
+                            sample.stop(latency(lookup));
+                            return Flux.just(lookup.reply());
+                        }
+                        StringBuilder reply = new StringBuilder();
+                        return delegate.streamWithHistory(user, system, history)
+                                .doOnNext(reply::append)
+                                .doOnComplete(() -> {
+                                    cache.put(lookup, reply.toString());
+                                    sample.stop(latency(lookup));
+                                });
+                    });
+        });
+    }
+
+    private String cached(String system, List<ChatMessage> history, String user, Supplier<String> ask) {
+        if (!cache.isEnabled()) {
+            return singleFlight.execute("infer", cache.exactKey(AiTenant.current(), system, history, user), ask);
+        }
+        Timer.Sample sample = Timer.start(meterRegistry);
+        AiResponseCache.Lookup lookup = cache.get(AiTenant.current(), system, history, user);
+        if (lookup.hit()) {
+            sample.stop(latency(lookup));
+            return lookup.reply();
+        }
+        // Whoever asks first stores the reply, for everyone who asked at the same time
+        String reply = singleFlight.execute("infer", lookup.exactKey(), () -> {
+            String r = ask.get();
+            cache.put(lookup, r);
+            return r;
+        });
+        sample.stop(latency(lookup));
+        return reply;
+    }
+
+    private Timer latency(AiResponseCache.Lookup lookup) {
+        String result = lookup.tier() == null ? "miss" : lookup.tier().name().toLowerCase();
+        return Timer.builder("chat.ai.cache.latency").tag("result", result)
+                .description("Time to answer a prompt, from the cache or the model")
+                .register(meterRegistry);
+    }
+}
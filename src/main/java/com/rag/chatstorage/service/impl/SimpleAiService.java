@@ -1,37 +1,69 @@
 package com.rag.chatstorage.service.impl;
 
 import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.ratelimit.AiConcurrencyLimiter;
 import com.rag.chatstorage.service.AiService;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import io.github.resilience4j.core.functions.Either;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
 import io.github.resilience4j.retry.annotation.Retry;
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 @Service
 public class SimpleAiService implements AiService {
+    // Longer Retry-After values are not waited for; the retry falls back to its own backoff
+    private static final Duration MAX_RETRY_AFTER = Duration.ofSeconds(30);
+    private static final String CIRCUIT_OPEN = "(circuit open)";
+
     private final ChatClient chatClient;
+    private final CircuitBreakerRegistry circuitBreakers;
+    private final RetryRegistry retries;
+    private final AiConcurrencyLimiter limiter;
 
     @Autowired
-        public SimpleAiService(ObjectProvider<ChatClient> chatClientProvider) {
+        public SimpleAiService(ObjectProvider<ChatClient> chatClientProvider,
+                               ObjectProvider<CircuitBreakerRegistry> circuitBreakers,
+                               ObjectProvider<RetryRegistry> retries,
+                               ObjectProvider<AiConcurrencyLimiter> limiter) {
         this.chatClient = chatClientProvider.getIfAvailable();
+        this.circuitBreakers = circuitBreakers.getIfAvailable();
+        this.retries = retries.getIfAvailable();
+        this.limiter = limiter.getIfAvailable();
     }
 
     // Backwards-compatible constructor for tests/wiring expecting direct ChatClient
     public SimpleAiService(ChatClient chatClient) {
         this.chatClient = chatClient;
+        this.circuitBreakers = null;
+        this.retries = null;
+        this.limiter = null;
     }
 
     @Retry(name = "ai", fallbackMethod = "fallback")
@@ -49,12 +81,15 @@ public class SimpleAiService implements AiService {
             if (StringUtils.hasText(system)) {
                 prompt = prompt.system(system);
             }
-            return prompt.user(user).call().content();
+            var request = prompt.user(user);
+            return limited(request::call);
+        } catch (AiBusyException e) {
+            throw e;
         } catch (Exception e) {
-            maybeHonorRetryAfter(e);
+            // The "ai" retry waits out Retry-After (see ResilienceConfig) instead of sleeping here as well
             String msg = normalizeMessage(e);
             String hint = extractHint(e);
-            throw new AiFriendlyException("AI_UNAVAILABLE", msg, hint);
+            throw new AiFriendlyException("AI_UNAVAILABLE", msg, hint, retryAfter(e));
         }
     }
 
@@ -69,49 +104,141 @@ public class SimpleAiService implements AiService {
                         "Set SPRING_PROFILES_ACTIVE=openai and provide API keys, or use ollama profile."
                 );
             }
-            var prompt = chatClient.prompt();
-            List<Message> msgs = new ArrayList<>();
-            if (StringUtils.hasText(system)) {
-                msgs.add(new SystemMessage(system));
-            }
-            // Limit to last 30 messages to keep prompt manageable
-            int max = 30;
-            int start = Math.max(0, history.size() - max);
-            for (int i = start; i < history.size(); i++) {
-                ChatMessage m = history.get(i);
-                switch (m.getSender()) {
-                    case USER -> msgs.add(new UserMessage(m.getContent()));
-                    case ASSISTANT -> msgs.add(new AssistantMessage(m.getContent()));
-                    case SYSTEM -> msgs.add(new SystemMessage(m.getContent()));
-                }
-            }
-            return prompt.user(user).messages(msgs).call().content();
+            return limited(() -> promptWithHistory(user, system, history).call());
+        } catch (AiBusyException e) {
+            throw e;
         } catch (Exception e) {
-            maybeHonorRetryAfter(e);
+            // The "ai" retry waits out Retry-After (see ResilienceConfig) instead of sleeping here as well
             String msg = normalizeMessage(e);
             String hint = extractHint(e);
-            throw new AiFriendlyException("AI_UNAVAILABLE", msg, hint);
+            throw new AiFriendlyException("AI_UNAVAILABLE", msg, hint, retryAfter(e));
+        }
+    }
+
+    public Flux<String> streamWithHistory(String user, String system, List<ChatMessage> history) {
+        if (chatClient == null) {
+            return Flux.error(new AiFriendlyException(
+                    "AI_NOT_CONFIGURED",
+                    "No AI chat provider is configured. Enable a provider profile (e.g. openai, ollama) or set necessary environment variables.",
+                    "Set SPRING_PROFILES_ACTIVE=openai and provide API keys, or use ollama profile."
+            ));
+        }
+        // The annotations only see the Flux being assembled, so the "ai" breaker and retry are driven by hand
+        var breaker = circuitBreakers == null ? null : circuitBreakers.circuitBreaker("ai");
+        RetryConfig retry = retries == null ? null : retries.retry("ai").getRetryConfig();
+        return Flux.defer(() -> {
+            AtomicBoolean started = new AtomicBoolean();
+            // Waiting for a slot may block, so it happens off the subscriber's thread
+            Mono<AiConcurrencyLimiter.Permit> slot = limiter == null ? Mono.just(AiConcurrencyLimiter.Permit.NONE)
+                    : Mono.fromCallable(limiter::acquire).subscribeOn(Schedulers.boundedElastic());
+            return slot.flatMapMany(permit -> {
+                if (breaker != null && !breaker.tryAcquirePermission()) {
+                    permit.ignore();
+                    return Flux.error(new AiFriendlyException("AI_UNAVAILABLE",
+                            "The assistant couldn’t respond right now. Please try again.", CIRCUIT_OPEN));
+                }
+                long begun = System.nanoTime();
+                // The limiter judges the provider by the time to the first chunk, not by the length of the reply
+                AtomicLong firstChunk = new AtomicLong(-1);
+                return promptWithHistory(user, system, history).stream().content()
+                        .doOnNext(chunk -> firstChunk.compareAndSet(-1, System.nanoTime() - begun))
+                        .doOnComplete(() -> {
+                            if (breaker != null) breaker.onSuccess(System.nanoTime() - begun, TimeUnit.NANOSECONDS);
+                            permit.success(firstChunk.get() < 0 ? permit.elapsedNanos() : firstChunk.get());
+                        })
+                        .doOnError(e -> {
+                            if (breaker != null) breaker.onError(System.nanoTime() - begun, TimeUnit.NANOSECONDS, e);
+                            release(permit, e);
+                        })
+                        .doOnCancel(() -> {
+                            if (breaker != null) breaker.releasePermission();
+                            permit.ignore();
+                        });
+            }).doOnNext(chunk -> started.set(true))
+                    .onErrorMap(e -> !(e instanceof AiFriendlyException), e -> {
+                        Exception ex = e instanceof Exception x ? x : new Exception(e);
+                        return new AiFriendlyException("AI_UNAVAILABLE", normalizeMessage(ex), extractHint(ex), retryAfter(ex));
+                    })
+                    // The wait is a timer, so no thread is held while the provider asks us to back off
+                    .retryWhen(reactor.util.retry.Retry.from(signals -> signals.concatMap(signal -> {
+                        Throwable e = signal.failure();
+                        int attempt = (int) signal.totalRetries() + 1;
+                        if (retry == null || started.get() || attempt >= retry.getMaxAttempts() || e instanceof AiBusyException
+                                || (e instanceof AiFriendlyException afe && CIRCUIT_OPEN.equals(afe.getHint()))) {
+                            return Mono.error(e);
+                        }
+                        long waitMs = retry.<String>getIntervalBiFunction().apply(attempt, Either.left(e));
+                        return Mono.delay(Duration.ofMillis(waitMs));
+                    })));
+        });
+    }
+
+    // One provider call under a permit of the concurrency limiter, if there is one
+    private String limited(Supplier<ChatClient.CallResponseSpec> call) {
+        AiConcurrencyLimiter.Permit permit = limiter == null ? AiConcurrencyLimiter.Permit.NONE : limiter.acquire();
+        try {
+            ChatResponse response = call.get().chatResponse();
+            // The call lasts as long as its answer is long, so the limiter judges it per output token
+            Usage usage = response == null ? null : response.getMetadata().getUsage();
+            permit.success(permit.elapsedNanos(), usage == null ? null : usage.getCompletionTokens());
+            return response == null || response.getResult() == null ? null : response.getResult().getOutput().getText();
+        } catch (RuntimeException e) {
+            release(permit, e);
+            throw e;
+        }
+    }
+
+    // Throttling, unavailability and timeouts say the provider is overloaded; other failures do not
+    private void release(AiConcurrencyLimiter.Permit permit, Throwable e) {
+        String hint = extractHint(e instanceof Exception x ? x : new Exception(e));
+        if (retryAfter(e) != null || "(429 rate limit)".equals(hint) || "(rate limit)".equals(hint)
+                || "(503 unavailable)".equals(hint) || "(timeout)".equals(hint)) {
+            permit.overload();
+        } else {
+            permit.ignore();
+        }
+    }
+
+    private ChatClient.ChatClientRequestSpec promptWithHistory(String user, String system, List<ChatMessage> history) {
+        List<Message> msgs = new ArrayList<>();
+        if (StringUtils.hasText(system)) {
+            msgs.add(new SystemMessage(system));
+        }
+        // Limit to last messages to keep prompt manageable
+        int max = HISTORY_WINDOW;
+        int start = Math.max(0, history.size() - max);
+        for (int i = start; i < history.size(); i++) {
+            ChatMessage m = history.get(i);
+            switch (m.getSender()) {
+                case USER -> msgs.add(new UserMessage(m.getContent()));
+                case ASSISTANT -> msgs.add(new AssistantMessage(m.getContent()));
+                case SYSTEM -> msgs.add(new SystemMessage(m.getContent()));
+            }
         }
+        return chatClient.prompt().user(user).messages(msgs);
     }
 
     // Fallback for resilience4j annotations with history
     @SuppressWarnings("unused")
     private String fallbackWithHistory(String user, String system, List<ChatMessage> history, Throwable t) {
+        // Already mapped by the call, Retry-After and all (AI_BUSY included)
+        if (t instanceof AiFriendlyException friendly) throw friendly;
         String msg = normalizeMessage(t instanceof Exception e ? e : new Exception(t));
         String hint = extractHint(t instanceof Exception e ? e : new Exception(t));
         throw new AiFriendlyException("AI_UNAVAILABLE", msg, hint);
     }
 
-    // If provider sends Retry-After on 429/5xx, wait that period before allowing Retry to re-execute
-    private void maybeHonorRetryAfter(Exception e) {
-        if (e instanceof WebClientResponseException wex) {
-            String header = wex.getHeaders().getFirst("Retry-After");
-            if (header == null) return;
+    // Retry-After sent by the provider with a 429/5xx, if it is within MAX_RETRY_AFTER
+    private Duration retryAfter(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            HttpHeaders headers = t instanceof WebClientResponseException wex ? wex.getHeaders()
+                    : t instanceof RestClientResponseException rex ? rex.getResponseHeaders() : null;
+            String header = headers == null ? null : headers.getFirst(HttpHeaders.RETRY_AFTER);
+            if (header == null) continue;
             long waitMs = parseRetryAfter(header);
-            if (waitMs > 0 && waitMs <= 30_000) { // cap to 30s
-                try { Thread.sleep(waitMs); } catch (InterruptedException ignored) { Thread.currentThread().interrupt(); }
-            }
+            return waitMs > 0 && waitMs <= MAX_RETRY_AFTER.toMillis() ? Duration.ofMillis(waitMs) : null;
         }
+        return null;
     }
 
     private long parseRetryAfter(String value) {
@@ -132,6 +259,8 @@ public class SimpleAiService implements AiService {
     // Fallback for resilience4j annotations
     @SuppressWarnings("unused")
     private String fallback(String system, String user, Throwable t) {
+        // Already mapped by the call, Retry-After and all (AI_BUSY included)
+        if (t instanceof AiFriendlyException friendly) throw friendly;
         String msg = normalizeMessage(t instanceof Exception e ? e : new Exception(t));
         String hint = extractHint(t instanceof Exception e ? e : new Exception(t));
         throw new AiFriendlyException("AI_UNAVAILABLE", msg, hint);
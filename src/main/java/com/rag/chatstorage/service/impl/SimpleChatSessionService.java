@@ -1,56 +1,122 @@
 package com.rag.chatstorage.service.impl;
 
+import com.rag.chatstorage.archive.SessionArchive;
+import com.rag.chatstorage.cache.RecentMessageCache;
+import com.rag.chatstorage.cache.RecentMessageWindow;
+import com.rag.chatstorage.cache.VersionStamps;
+import com.rag.chatstorage.datasource.PrimaryReads;
 import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.domain.ChatMessageContext;
 import com.rag.chatstorage.domain.ChatSession;
 import com.rag.chatstorage.domain.User;
+import com.rag.chatstorage.repository.ChatMessageContextRepository;
 import com.rag.chatstorage.repository.ChatMessageRepository;
 import com.rag.chatstorage.repository.ChatSessionRepository;
+import com.rag.chatstorage.search.MessageSearchIndex;
+import com.rag.chatstorage.search.SessionTitle;
+import com.rag.chatstorage.search.SessionTitleIndex;
 import com.rag.chatstorage.service.ChatSessionService;
 import com.rag.chatstorage.service.UserService;
+import com.rag.chatstorage.shard.ShardRouter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Service
 @Transactional
 public class SimpleChatSessionService implements ChatSessionService {
 
+    // Chronological message order; id breaks ties between messages created in the same instant
+    private static final Sort MESSAGE_ORDER = Sort.by(Sort.Direction.ASC, "createdAt", "id");
+    private static final Sort MESSAGE_ORDER_NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "createdAt", "id");
+
     private final ChatSessionRepository sessionRepository;
     private final ChatMessageRepository messageRepository;
+    private final ChatMessageContextRepository contextRepository;
     private final UserService userService;
+    private final RecentMessageCache recentMessages;
+    private final SessionTitleIndex titleIndex;
+    private final MessageSearchIndex messageIndex;
+    private final SessionArchive archive;
+    private final PrimaryReads primaryReads;
+    private final ShardRouter shards;
+    private final VersionStamps versions;
 
-    public SimpleChatSessionService(ChatSessionRepository sessionRepository, ChatMessageRepository messageRepository, UserService userService) {
+    public SimpleChatSessionService(ChatSessionRepository sessionRepository, ChatMessageRepository messageRepository,
+                                    ChatMessageContextRepository contextRepository, UserService userService,
+                                    RecentMessageCache recentMessages, SessionTitleIndex titleIndex,
+                                    MessageSearchIndex messageIndex, SessionArchive archive, PrimaryReads primaryReads,
+                                    ShardRouter shards, VersionStamps versions) {
         this.sessionRepository = sessionRepository;
         this.messageRepository = messageRepository;
+        this.contextRepository = contextRepository;
         this.userService = userService;
+        this.recentMessages = recentMessages;
+        this.titleIndex = titleIndex;
+        this.messageIndex = messageIndex;
+        this.archive = archive;
+        this.primaryReads = primaryReads;
+        this.shards = shards;
+        this.versions = versions;
     }
 
+    @Transactional(readOnly = true)
     public ChatSession getSessionOrThrow(Long id) {
+        shards.forSession(id);
         return sessionRepository.findById(id).orElseThrow(() -> new IllegalArgumentException("Session not found"));
     }
 
     public ChatSession createSession(String userId, String title) {
+        shards.forUser(userId);
         User u = userService.ensureUser(userId);
         ChatSession s = new ChatSession();
         s.setUser(u);
         s.setTitle(title);
-        return sessionRepository.save(s);
+        ChatSession saved = sessionRepository.save(s);
+        afterCommit(() -> {
+            titleIndex.put(userId, titleOf(saved));
+            versions.touch(VersionStamps.sessions(userId));
+        });
+        return saved;
     }
 
+    @Transactional(readOnly = true)
     public List<ChatSession> listSessions(String userId) {
-        return sessionRepository.findByUser_UserIdOrderByUpdatedAtDesc(userId);
+        shards.forUser(userId);
+        return sessionRepository.findByUser_UserIdOrderByLastMessageAtDescIdDesc(userId);
     }
 
+    @Transactional(readOnly = true)
     public List<ChatSession> listSessions(String userId, Boolean favorite) {
         if (favorite == null) return listSessions(userId);
-        return sessionRepository.findByUser_UserIdAndFavoriteOrderByUpdatedAtDesc(userId, favorite);
+        shards.forUser(userId);
+        return sessionRepository.findByUser_UserIdAndFavoriteOrderByLastMessageAtDescIdDesc(userId, favorite);
     }
 
+    @Transactional(readOnly = true)
     public Page<ChatSession> pageSessions(String userId, Boolean favorite, String q, int page, int size) {
+        shards.forUser(userId);
         Pageable pageable = PageRequest.of(page, size);
+        if (q != null && !q.isBlank() && titleIndex.isEnabled()) {
+            return searchTitles(userId, favorite, q, pageable);
+        }
         if (favorite == null && (q == null || q.isBlank())) {
             return sessionRepository.findByUser_UserIdOrderByUpdatedAtDesc(userId, pageable);
         }
@@ -63,24 +129,70 @@ public class SimpleChatSessionService implements ChatSessionService {
         return sessionRepository.findByUser_UserIdAndFavoriteAndTitleContainingIgnoreCaseOrderByUpdatedAtDesc(userId, favorite, q, pageable);
     }
 
+    // Ranked lookup through the in-process title index, replacing a LIKE '%q%' scan of all of the user's sessions
+    private Page<ChatSession> searchTitles(String userId, Boolean favorite, String q, Pageable pageable) {
+        SessionTitleIndex.Result r = titleIndex.search(userId,
+                () -> primaryReads.get(() -> sessionRepository.findTitlesByUserId(userId)),
+                q, favorite, pageable.getOffset(), pageable.getPageSize()).orElseThrow();
+        Map<Long, ChatSession> byId = sessionRepository.findAllById(r.ids()).stream()
+                .collect(Collectors.toMap(ChatSession::getId, Function.identity()));
+        String folded = q.strip().toLowerCase(Locale.ROOT);
+        List<ChatSession> items = new ArrayList<>(r.ids().size());
+        for (Long id : r.ids()) {
+            ChatSession s = byId.get(id);
+            // The index may trail writes from other instances; drop sessions that no longer match
+            if (s != null && s.getTitle().toLowerCase(Locale.ROOT).contains(folded)
+                    && (favorite == null || s.isFavorite() == favorite)) {
+                items.add(s);
+            }
+        }
+        return new PageImpl<>(items, pageable, r.total());
+    }
+
     public ChatSession rename(Long sessionId, String title) {
+        shards.forSession(sessionId);
         ChatSession s = sessionRepository.findById(sessionId).orElseThrow(() -> new IllegalArgumentException("Session not found"));
         s.setTitle(title);
-        return sessionRepository.save(s);
+        ChatSession saved = sessionRepository.save(s);
+        reindexAfterCommit(saved);
+        return saved;
     }
 
     public ChatSession favorite(Long sessionId, boolean favorite) {
+        shards.forSession(sessionId);
         ChatSession s = sessionRepository.findById(sessionId).orElseThrow(() -> new IllegalArgumentException("Session not found"));
         s.setFavorite(favorite);
-        return sessionRepository.save(s);
+        ChatSession saved = sessionRepository.save(s);
+        reindexAfterCommit(saved);
+        return saved;
     }
 
     public void delete(Long sessionId) {
-        sessionRepository.deleteById(sessionId);
+        shards.forSession(sessionId);
+        sessionRepository.findById(sessionId).ifPresent(s -> {
+            String userId = s.getUser().getUserId();
+            Long userKey = s.getUser().getId();
+            // A single-row update; the messages are purged in the background in bounded batches
+            sessionRepository.markDeleted(sessionId, Instant.now());
+            afterCommit(() -> {
+                titleIndex.remove(userId, sessionId);
+                messageIndex.removeSession(userKey, sessionId);
+                versions.touch(VersionStamps.sessions(userId));
+            });
+        });
+        afterCommit(() -> {
+            recentMessages.evict(sessionId);
+            versions.touch(VersionStamps.messages(sessionId));
+        });
     }
 
     public ChatMessage addMessage(Long sessionId, ChatMessage.Sender sender, String content, String context) {
+        shards.forSession(sessionId);
         ChatSession s = sessionRepository.findById(sessionId).orElseThrow(() -> new IllegalArgumentException("Session not found"));
+        // New messages must not end up next to an archived history
+        if (s.isArchived()) {
+            archive.restore(sessionId);
+        }
         ChatMessage m = new ChatMessage();
         m.setSession(s);
         m.setSender(sender);
@@ -90,14 +202,197 @@ public class SimpleChatSessionService implements ChatSessionService {
             context = context.substring(0, 20000);
         }
         m.setContext(context);
-        return messageRepository.save(m);
+        ChatMessage saved = messageRepository.save(m);
+        if (context != null) {
+            contextRepository.save(new ChatMessageContext(saved.getId(), context));
+        }
+        // Activity columns and updated_at move with the insert; the loaded entity is left as is
+        Instant at = saved.getCreatedAt();
+        sessionRepository.recordMessage(sessionId, at, ChatSession.preview(content));
+        // Write through to the recent-message cache and search indexes only once the insert is durable
+        Long userKey = s.getUser().getId();
+        String userId = s.getUser().getUserId();
+        SessionTitle title = new SessionTitle(sessionId, s.getTitle(), s.isFavorite(), at);
+        afterCommit(() -> {
+            recentMessages.append(saved);
+            messageIndex.add(userKey, saved.getId(), sessionId, content);
+            titleIndex.put(userId, title);
+            versions.touch(VersionStamps.messages(sessionId));
+            versions.touch(VersionStamps.sessions(userId));
+        });
+        return saved;
     }
 
+    // Reads are marked read-only so that they can be served by a replica; the restore of an archived
+    // session writes in a transaction of its own, and the rows it wrote are read back in a new transaction
+    // on the primary, since this one's snapshot predates them
+    @Transactional(readOnly = true)
     public Page<ChatMessage> getMessages(Long sessionId, int page, int size) {
-        return messageRepository.findBySession_Id(sessionId, PageRequest.of(page, size));
+        shards.forSession(sessionId);
+        Page<ChatMessage> p = readMessages(sessionId, page, size);
+        // An archived session has no hot rows; rehydrate it on first read
+        if (p.getTotalElements() == 0 && archive.restore(sessionId)) {
+            return primaryReads.fresh(() -> pageFromDb(sessionId, PageRequest.of(page, size, MESSAGE_ORDER)));
+        }
+        return p;
+    }
+
+    private Page<ChatMessage> readMessages(Long sessionId, int page, int size) {
+        PageRequest pageable = PageRequest.of(page, size, MESSAGE_ORDER);
+        Optional<RecentMessageWindow> window = recentWindow(sessionId);
+        if (window.isPresent()) {
+            Optional<List<ChatMessage>> items = recentMessages.slice(window.get(), pageable.getOffset(), size);
+            if (items.isPresent()) {
+                return new PageImpl<>(items.get(), pageable, window.get().total());
+            }
+        }
+        return pageFromDb(sessionId, pageable);
     }
 
+    @Transactional(readOnly = true)
     public List<ChatMessage> listAllMessagesOrdered(Long sessionId) {
-        return messageRepository.findBySession_IdOrderByCreatedAtAsc(sessionId);
+        shards.forSession(sessionId);
+        List<ChatMessage> all = allFromDb(sessionId);
+        if (all.isEmpty() && archive.restore(sessionId)) {
+            return primaryReads.fresh(() -> allFromDb(sessionId));
+        }
+        return all;
+    }
+
+    private List<ChatMessage> allFromDb(Long sessionId) {
+        Instant since = createdAt(sessionId);
+        return since == null ? List.of() : messageRepository.findBySession_IdOrderByCreatedAtAsc(sessionId, since);
+    }
+
+    @Transactional(readOnly = true)
+    public String getMessageContext(Long sessionId, Long messageId) {
+        shards.forSession(sessionId);
+        if (existsInDb(sessionId, messageId)) {
+            return contextRepository.findById(messageId).map(ChatMessageContext::getContext).orElse(null);
+        }
+        if (!archive.restore(sessionId)) throw new IllegalArgumentException("Message not found");
+        return primaryReads.fresh(() -> {
+            if (!existsInDb(sessionId, messageId)) throw new IllegalArgumentException("Message not found");
+            return contextRepository.findById(messageId).map(ChatMessageContext::getContext).orElse(null);
+        });
+    }
+
+    @Transactional(readOnly = true)
+    public Map<Long, String> getMessageContexts(Collection<Long> messageIds) {
+        Map<Long, String> out = new HashMap<>();
+        if (messageIds.isEmpty()) return out;
+        // Callers pass the messages of one session, which share a shard
+        shards.forMessage(messageIds.iterator().next());
+        for (ChatMessageContext c : contextRepository.findAllById(messageIds)) {
+            out.put(c.getMessageId(), c.getContext());
+        }
+        return out;
+    }
+
+    @Transactional(readOnly = true)
+    public List<ChatMessage> recentMessages(Long sessionId, int limit) {
+        shards.forSession(sessionId);
+        Optional<List<ChatMessage>> cached = recentWindow(sessionId).flatMap(w -> recentMessages.newest(w, limit));
+        if (cached.isPresent() && !cached.get().isEmpty()) return cached.get();
+        List<ChatMessage> newest = newestFromDb(sessionId, limit);
+        if (newest.isEmpty() && archive.restore(sessionId)) {
+            newest = primaryReads.fresh(() -> newestFromDb(sessionId, limit));
+        }
+        return newest;
+    }
+
+    @Transactional(readOnly = true)
+    public List<ChatMessage> promptHistory(Long sessionId, int max, int step) {
+        shards.forSession(sessionId);
+        Optional<List<ChatMessage>> cached = recentWindow(sessionId)
+                .flatMap(w -> recentMessages.slice(w, promptStart(w.total(), max, step), max));
+        if (cached.isPresent() && !cached.get().isEmpty()) return cached.get();
+        List<ChatMessage> history = promptHistoryFromDb(sessionId, max, step);
+        if (history.isEmpty() && archive.restore(sessionId)) {
+            history = primaryReads.fresh(() -> promptHistoryFromDb(sessionId, max, step));
+        }
+        return history;
+    }
+
+    private List<ChatMessage> promptHistoryFromDb(Long sessionId, int max, int step) {
+        Page<ChatMessage> p = pageFromDb(sessionId, PageRequest.of(0, max, MESSAGE_ORDER_NEWEST_FIRST));
+        long keep = p.getTotalElements() - promptStart(p.getTotalElements(), max, step);
+        List<ChatMessage> history = new ArrayList<>(
+                p.getContent().subList(0, (int) Math.min(keep, p.getNumberOfElements())));
+        Collections.reverse(history);
+        return history;
+    }
+
+    // Position of the oldest of the newest max messages, rounded up to a multiple of step
+    static long promptStart(long total, int max, int step) {
+        if (total <= max) return 0;
+        long s = Math.min(Math.max(1, step), max);
+        return Math.ceilDiv(total - max, s) * s;
+    }
+
+    private List<ChatMessage> newestFromDb(Long sessionId, int limit) {
+        List<ChatMessage> newest = new ArrayList<>(
+                pageFromDb(sessionId, PageRequest.of(0, limit, MESSAGE_ORDER_NEWEST_FIRST)).getContent());
+        Collections.reverse(newest);
+        return newest;
+    }
+
+    private Optional<RecentMessageWindow> recentWindow(Long sessionId) {
+        if (!recentMessages.isEnabled()) return Optional.empty();
+        // The session row counts every insert, including those of other instances; it is loaded anyway
+        Optional<ChatSession> session = sessionRepository.findById(sessionId);
+        if (session.isEmpty()) return Optional.empty();
+        return recentMessages.window(sessionId, session.get().getMessageCount(), capacity -> {
+            // The window is kept current by write-through from here on, so it must not start out stale
+            Page<ChatMessage> p = primaryReads.get(
+                    () -> pageFromDb(sessionId, PageRequest.of(0, capacity, MESSAGE_ORDER_NEWEST_FIRST)));
+            List<ChatMessage> newest = new ArrayList<>(p.getContent());
+            Collections.reverse(newest);
+            return new RecentMessageCache.Snapshot(newest, p.getTotalElements());
+        });
+    }
+
+    private Page<ChatMessage> pageFromDb(Long sessionId, Pageable pageable) {
+        Instant since = createdAt(sessionId);
+        return since == null ? Page.empty(pageable) : messageRepository.findBySession_Id(sessionId, since, pageable);
+    }
+
+    private boolean existsInDb(Long sessionId, Long messageId) {
+        Instant since = createdAt(sessionId);
+        return since != null && messageRepository.existsByIdAndSession_Id(messageId, sessionId, since);
+    }
+
+    /**
+     * Lower bound for message reads: no message predates its session, and passing the bound explicitly
+     * lets a partitioned chat_messages table skip every older partition. Null for missing or deleted sessions.
+     */
+    private Instant createdAt(Long sessionId) {
+        return sessionRepository.findById(sessionId).map(ChatSession::getCreatedAt).orElse(null);
+    }
+
+    private void reindexAfterCommit(ChatSession s) {
+        String userId = s.getUser().getUserId();
+        // Read the title fields at commit time, after auditing has stamped updatedAt
+        afterCommit(() -> {
+            titleIndex.put(userId, titleOf(s));
+            versions.touch(VersionStamps.sessions(userId));
+        });
+    }
+
+    private static SessionTitle titleOf(ChatSession s) {
+        return new SessionTitle(s.getId(), s.getTitle(), s.isFavorite(), s.getUpdatedAt());
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
     }
 }
@@ -1,5 +1,6 @@
 package com.rag.chatstorage.service.impl;
 
+import com.rag.chatstorage.aicache.SingleFlight;
 import com.rag.chatstorage.domain.Document;
 import com.rag.chatstorage.repository.DocumentRepository;
 import com.rag.chatstorage.service.DocumentService;
@@ -20,12 +21,14 @@ public class SimpleDocumentService implements DocumentService {
     private final DocumentRepository repo;
     private final ObjectProvider<EmbeddingModel> embeddingModelProvider;
     private final Environment env;
+    private final SingleFlight singleFlight;
 
     public SimpleDocumentService(DocumentRepository repo, ObjectProvider<EmbeddingModel> embeddingModelProvider,
-                                 Environment env) {
+                                 Environment env, SingleFlight singleFlight) {
         this.repo = repo;
         this.embeddingModelProvider = embeddingModelProvider;
         this.env = env;
+        this.singleFlight = singleFlight;
     }
 
     private EmbeddingModel chooseEmbeddingModel() {
@@ -39,6 +42,9 @@ public class SimpleDocumentService implements DocumentService {
         if (all.isEmpty()) return null;
         if (all.size() == 1) return all.getFirst();
         List<String> profiles = Arrays.asList(env.getActiveProfiles());
+        if (profiles.contains("stub-ai")) {
+            for (EmbeddingModel m : all) if (m.getClass().getName().toLowerCase().contains("stub")) return m;
+        }
         if (profiles.contains("openai") || profiles.contains("openai-compatible")) {
             for (EmbeddingModel m : all) if (m.getClass().getName().toLowerCase().contains("openai")) return m;
         }
@@ -75,8 +81,9 @@ public class SimpleDocumentService implements DocumentService {
             throw new IllegalStateException("No AI embedding provider is configured. Enable a provider profile (e.g. openai, ollama).");
         }
         if (topK <= 0) topK = 5;
-        EmbeddingResponse er = model.embedForResponse(List.of(query));
-        float[] q = er.getResults().getFirst().getOutput();
+        // A popular query searched by many at once is embedded once; the vector is only read below
+        float[] q = singleFlight.execute("search-embed", query,
+                () -> model.embedForResponse(List.of(query)).getResults().getFirst().getOutput());
         List<Document> corpus = (userId == null || userId.isBlank()) ? repo.findAll() : repo.findByUserId(userId);
         // compute cosine similarity
         List<SearchMatch> matches = new ArrayList<>();
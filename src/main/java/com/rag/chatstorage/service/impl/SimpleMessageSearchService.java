@@ -0,0 +1,173 @@
+package com.rag.chatstorage.service.impl;
+
+import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.domain.convert.TextCompressionCodec;
+import com.rag.chatstorage.search.MessageQuery;
+import com.rag.chatstorage.search.MessageSearchIndex;
+import com.rag.chatstorage.search.MessageSearchProperties;
+import com.rag.chatstorage.search.Snippet;
+import com.rag.chatstorage.search.UserMessageIndex;
+import com.rag.chatstorage.service.MessageSearchService;
+import com.rag.chatstorage.service.MessageSearchService.SearchException;
+import com.rag.chatstorage.shard.ShardRouter;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Message search backed by {@link MessageSearchIndex}. The index yields ranked message ids; only the
+ * messages of the requested page are read back from the database to build snippets. Hits the database
+ * no longer has are removed from the index, so that totals and pages come from the same postings.
+ */
+@Service
+public class SimpleMessageSearchService implements MessageSearchService {
+
+    // All messages of a user, one keyset page at a time, so that no single query reads a whole history
+    private static final String LOAD_SQL = """
+            SELECT m.id, m.session_id, m.content
+            FROM chat_messages m JOIN chat_sessions s ON s.id = m.session_id
+            WHERE s.user_id = ? AND s.deleted_at IS NULL AND m.id > ?
+            ORDER BY m.id LIMIT ?
+            """;
+
+    private static final String CREATED_SINCE_SQL = """
+            SELECT m.id, m.session_id, m.content
+            FROM chat_messages m JOIN chat_sessions s ON s.id = m.session_id
+            WHERE s.user_id = ? AND s.deleted_at IS NULL AND m.created_at >= ?
+            """;
+
+    // Restoring keeps message ids and timestamps, so restored sessions are found by their own stamp
+    private static final String SESSIONS_CHANGED_SQL = """
+            SELECT id, deleted_at, archived_at
+            FROM chat_sessions
+            WHERE user_id = ? AND (deleted_at >= ? OR archived_at >= ? OR restored_at >= ?)
+            """;
+
+    private static final String PAGE_SQL = """
+            SELECT m.id, m.session_id, m.sender, m.content, m.created_at, s.title
+            FROM chat_messages m JOIN chat_sessions s ON s.id = m.session_id
+            WHERE m.id IN (:ids) AND s.user_id = :userKey AND s.deleted_at IS NULL
+            """;
+
+    // A page that keeps losing hits to concurrent deletes is returned short rather than ranked forever
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final JdbcTemplate jdbc;
+    private final NamedParameterJdbcTemplate named;
+    private final TextCompressionCodec codec;
+    private final MessageSearchIndex index;
+    private final MessageSearchProperties props;
+    private final ShardRouter shards;
+
+    public SimpleMessageSearchService(DataSource dataSource, TextCompressionCodec codec, MessageSearchIndex index,
+                                      MessageSearchProperties props, ShardRouter shards) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.named = new NamedParameterJdbcTemplate(dataSource);
+        this.codec = codec;
+        this.index = index;
+        this.props = props;
+        this.shards = shards;
+    }
+
+    public SearchPage search(String userId, String query, int page, int size) {
+        if (!index.isEnabled()) throw new SearchException("SEARCH_DISABLED", "Message search is disabled");
+        if (page < 0 || size < 1) throw new SearchException("INVALID_PAGE", "page must be >= 0 and size >= 1");
+        MessageQuery parsed;
+        try {
+            parsed = MessageQuery.parse(query);
+        } catch (IllegalArgumentException e) {
+            throw new SearchException("INVALID_QUERY", e.getMessage());
+        }
+        shards.forUser(userId);
+        List<Long> keys = jdbc.queryForList("SELECT id FROM users WHERE user_id = ? AND deleted_at IS NULL", Long.class, userId);
+        if (keys.isEmpty()) throw new IllegalArgumentException("User not found");
+        Long userKey = keys.get(0);
+
+        long offset = (long) page * size;
+        for (int attempt = 1; ; attempt++) {
+            MessageSearchIndex.Result result = index.search(userKey, (since, sink) -> load(userKey, since, sink), parsed, offset, size)
+                    .orElseThrow(() -> new SearchException("SEARCH_DISABLED", "Message search is disabled"));
+            Map<Long, SearchHit> loaded = hydrate(userKey, parsed, result.hits());
+            // Keep the index ranking
+            List<SearchHit> items = new ArrayList<>(loaded.size());
+            List<Long> missing = new ArrayList<>();
+            for (UserMessageIndex.Hit h : result.hits()) {
+                SearchHit hit = loaded.get(h.messageId());
+                if (hit != null) {
+                    items.add(hit);
+                } else {
+                    missing.add(h.messageId());
+                }
+            }
+            if (!missing.isEmpty()) {
+                // Gone since they were indexed (purged, or dropped with an expired partition): once out of
+                // the index they count towards no total, and ranking again fills the page without them
+                index.removeMessages(userKey, missing);
+                if (attempt < MAX_ATTEMPTS) continue;
+            }
+            long total = result.total() - missing.size();
+            int totalPages = (int) ((total + size - 1) / size);
+            return new SearchPage(items, page, size, total, totalPages);
+        }
+    }
+
+    private Map<Long, SearchHit> hydrate(Long userKey, MessageQuery parsed, List<UserMessageIndex.Hit> hits) {
+        Map<Long, SearchHit> loaded = new HashMap<>();
+        if (hits.isEmpty()) return loaded;
+        Map<Long, UserMessageIndex.Hit> byId = new HashMap<>();
+        hits.forEach(h -> byId.put(h.messageId(), h));
+        named.query(PAGE_SQL, new MapSqlParameterSource("ids", byId.keySet()).addValue("userKey", userKey), rs -> {
+            long id = rs.getLong("id");
+            Snippet snippet = Snippet.of(codec.decode(rs.getString("content")), parsed, props.getSnippetLength());
+            loaded.put(id, new SearchHit(id, rs.getLong("session_id"), rs.getString("title"),
+                    ChatMessage.Sender.valueOf(rs.getString("sender")), rs.getTimestamp("created_at").toInstant(),
+                    byId.get(id).score(), snippet.text(), snippet.highlights()));
+        });
+        return loaded;
+    }
+
+    // Runs on the searching request: every message on the user's first search, only the changes after that
+    private void load(Long userKey, Instant since, MessageSearchIndex.Sink sink) {
+        if (since == null) {
+            long[] after = {Long.MIN_VALUE};
+            int[] read = new int[1];
+            do {
+                read[0] = 0;
+                jdbc.query(LOAD_SQL, rs -> {
+                    after[0] = rs.getLong("id");
+                    read[0]++;
+                    sink.add(after[0], rs.getLong("session_id"), codec.decode(rs.getString("content")));
+                }, userKey, after[0], props.getBatchSize());
+            } while (read[0] == props.getBatchSize());
+            return;
+        }
+        Timestamp from = Timestamp.from(since);
+        List<Long> restored = new ArrayList<>();
+        jdbc.query(SESSIONS_CHANGED_SQL, rs -> {
+            long sessionId = rs.getLong("id");
+            if (rs.getTimestamp("deleted_at") != null || rs.getTimestamp("archived_at") != null) {
+                sink.removeSession(sessionId);
+            } else {
+                sink.restoreSession(sessionId);
+                restored.add(sessionId);
+            }
+        }, userKey, from, from, from);
+        for (Long sessionId : restored) {
+            jdbc.query("SELECT id, session_id, content FROM chat_messages WHERE session_id = ?", into(sink), sessionId);
+        }
+        jdbc.query(CREATED_SINCE_SQL, into(sink), userKey, from);
+    }
+
+    private RowCallbackHandler into(MessageSearchIndex.Sink sink) {
+        return rs -> sink.add(rs.getLong("id"), rs.getLong("session_id"), codec.decode(rs.getString("content")));
+    }
+}
@@ -0,0 +1,162 @@
+package com.rag.chatstorage.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rag.chatstorage.archive.ArchivedMessage;
+import com.rag.chatstorage.archive.SessionArchive;
+import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.domain.convert.TextCompressionCodec;
+import com.rag.chatstorage.service.TranscriptExportService;
+import com.rag.chatstorage.shard.ShardRouter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * JDBC-backed transcript export.
+ * <p>
+ * Rows are read in keyset-paginated chunks of {@code chat.export.batch-size} through a forward-only
+ * cursor with the same fetch size, and each chunk is written out before the next one is queried.
+ * No transaction spans the export, so the connection goes back to the pool between chunks and a
+ * slow client only ever holds one chunk in memory, never a database connection. The export body runs
+ * on the servlet container's async thread, so it binds the shard again itself.
+ */
+@Service
+public class SimpleTranscriptExportService implements TranscriptExportService {
+
+    private static final String SESSION_SELECT = """
+            SELECT s.id, u.user_id, s.title, s.favorite, s.created_at, s.updated_at
+            FROM chat_sessions s JOIN users u ON u.id = s.user_id
+            """;
+
+    private static final String MESSAGE_SELECT = """
+            SELECT m.id, m.session_id, m.sender, m.content, c.context, m.created_at
+            FROM chat_messages m LEFT JOIN chat_message_context c ON c.message_id = m.id
+            """;
+
+    // Same order as the paged message API; (created_at, id) keyset follows idx_chat_messages_session_created
+    private static final String MESSAGES_FIRST = MESSAGE_SELECT
+            + " WHERE m.session_id = ? ORDER BY m.created_at, m.id LIMIT ?";
+    private static final String MESSAGES_NEXT = MESSAGE_SELECT
+            + " WHERE m.session_id = ? AND (m.created_at > ? OR (m.created_at = ? AND m.id > ?))"
+            + " ORDER BY m.created_at, m.id LIMIT ?";
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper mapper;
+    private final TextCompressionCodec codec;
+    private final SessionArchive archive;
+    private final ShardRouter shards;
+    private final int batchSize;
+
+    public SimpleTranscriptExportService(DataSource dataSource, ObjectMapper mapper, TextCompressionCodec codec,
+                                         SessionArchive archive, ShardRouter shards,
+                                         @Value("${chat.export.batch-size:500}") int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.jdbc.setFetchSize(this.batchSize);
+        this.mapper = mapper;
+        this.codec = codec;
+        this.archive = archive;
+        this.shards = shards;
+    }
+
+    public Export exportSession(Long sessionId) {
+        shards.forSession(sessionId);
+        List<SessionLine> found = jdbc.query(SESSION_SELECT + " WHERE s.id = ? AND s.deleted_at IS NULL", this::mapSession, sessionId);
+        if (found.isEmpty()) throw new IllegalArgumentException("Session not found");
+        SessionLine session = found.get(0);
+        return out -> {
+            shards.forSession(sessionId);
+            try {
+                writeLine(out, session);
+                writeMessages(session.id(), out);
+                out.flush();
+            } finally {
+                shards.release();
+            }
+        };
+    }
+
+    public Export exportUser(String userId) {
+        shards.forUser(userId);
+        List<Long> ids = jdbc.queryForList("SELECT id FROM users WHERE user_id = ? AND deleted_at IS NULL", Long.class, userId);
+        if (ids.isEmpty()) throw new IllegalArgumentException("User not found");
+        Long userKey = ids.get(0);
+        return out -> {
+            shards.forUser(userId);
+            try {
+                long afterId = 0;
+                List<SessionLine> chunk;
+                do {
+                    chunk = jdbc.query(SESSION_SELECT + " WHERE s.user_id = ? AND s.id > ? AND s.deleted_at IS NULL ORDER BY s.id LIMIT ?",
+                            this::mapSession, userKey, afterId, batchSize);
+                    for (SessionLine session : chunk) {
+                        writeLine(out, session);
+                        writeMessages(session.id(), out);
+                        afterId = session.id();
+                    }
+                    out.flush();
+                } while (chunk.size() == batchSize);
+            } finally {
+                shards.release();
+            }
+        };
+    }
+
+    private void writeMessages(Long sessionId, OutputStream out) throws IOException {
+        List<MessageRow> chunk = jdbc.query(MESSAGES_FIRST, this::mapMessage, sessionId, batchSize);
+        if (chunk.isEmpty()) {
+            // Archived sessions are exported straight from the archive, without restoring them
+            Optional<List<ArchivedMessage>> archived = archive.read(sessionId);
+            if (archived.isPresent()) {
+                for (ArchivedMessage m : archived.get()) {
+                    writeLine(out, new MessageLine(MessageLine.TYPE, m.id(), sessionId, m.sender(), m.content(),
+                            m.context(), m.createdAt()));
+                }
+                out.flush();
+                return;
+            }
+        }
+        while (true) {
+            for (MessageRow row : chunk) {
+                writeLine(out, row.line());
+            }
+            out.flush();
+            if (chunk.size() < batchSize) return;
+            MessageRow last = chunk.get(chunk.size() - 1);
+            chunk = jdbc.query(MESSAGES_NEXT, this::mapMessage,
+                    sessionId, last.createdAt(), last.createdAt(), last.line().id(), batchSize);
+        }
+    }
+
+    private void writeLine(OutputStream out, Object line) throws IOException {
+        out.write(mapper.writeValueAsBytes(line));
+        out.write('\n');
+    }
+
+    private SessionLine mapSession(ResultSet rs, int rowNum) throws SQLException {
+        return new SessionLine(SessionLine.TYPE, rs.getLong("id"), rs.getString("user_id"), rs.getString("title"),
+                rs.getBoolean("favorite"), rs.getTimestamp("created_at").toInstant(),
+                rs.getTimestamp("updated_at").toInstant());
+    }
+
+    private MessageRow mapMessage(ResultSet rs, int rowNum) throws SQLException {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        MessageLine line = new MessageLine(MessageLine.TYPE, rs.getLong("id"), rs.getLong("session_id"),
+                ChatMessage.Sender.valueOf(rs.getString("sender")),
+                codec.decode(rs.getString("content")), codec.decode(rs.getString("context")),
+                createdAt.toInstant());
+        return new MessageRow(line, createdAt);
+    }
+
+    // Keeps the driver's timestamp for the keyset predicate so it binds back exactly as it was read
+    private record MessageRow(MessageLine line, Timestamp createdAt) {}
+}
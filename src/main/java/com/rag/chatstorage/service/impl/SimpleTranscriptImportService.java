@@ -0,0 +1,445 @@
+package com.rag.chatstorage.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rag.chatstorage.cache.VersionStamps;
+import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.domain.ChatSession;
+import com.rag.chatstorage.domain.convert.TextCompressionCodec;
+import com.rag.chatstorage.search.MessageSearchIndex;
+import com.rag.chatstorage.search.SessionTitleIndex;
+import com.rag.chatstorage.service.TranscriptImportService;
+import com.rag.chatstorage.shard.ShardRouter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * JDBC batch import of NDJSON transcripts.
+ * <p>
+ * Lines are parsed one at a time and buffered until {@code chat.import.batch-size} rows are pending;
+ * each such chunk is written in its own transaction with JDBC batch inserts. Invalid lines are
+ * reported and skipped. The import is aborted on a database error or once
+ * {@code chat.import.max-errors} lines have been rejected; committed chunks are kept.
+ */
+@Service
+public class SimpleTranscriptImportService implements TranscriptImportService {
+
+    // Same limits the message API enforces
+    static final int MAX_CONTENT = 10_000;
+    static final int MAX_CONTEXT = 20_000;
+    static final int MAX_TITLE = 255;
+    static final int MAX_USER_ID = 128;
+
+    private static final String INSERT_MESSAGE =
+            "INSERT INTO chat_messages (session_id, sender, content, has_context, created_at) VALUES (?, ?, ?, ?, ?)";
+    private static final String INSERT_MESSAGE_WITH_ID =
+            "INSERT INTO chat_messages (id, session_id, sender, content, has_context, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_CONTEXT =
+            "INSERT INTO chat_message_context (message_id, context) VALUES (?, ?)";
+    // A session's messages may span chunks; fold each chunk into the activity columns
+    private static final String RECORD_ACTIVITY = """
+            UPDATE chat_sessions SET
+              last_message_preview = CASE WHEN message_count = 0 OR last_message_at <= ? THEN ? ELSE last_message_preview END,
+              last_message_at = CASE WHEN message_count = 0 OR last_message_at <= ? THEN ? ELSE last_message_at END,
+              message_count = message_count + ?,
+              created_at = CASE WHEN created_at > ? THEN ? ELSE created_at END
+            WHERE id = ?
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final ObjectMapper mapper;
+    private final TextCompressionCodec codec;
+    private final SessionTitleIndex titleIndex;
+    private final MessageSearchIndex messageIndex;
+    private final ShardRouter shards;
+    private final VersionStamps versions;
+    private final int batchSize;
+    private final int maxErrors;
+
+    public SimpleTranscriptImportService(DataSource dataSource, PlatformTransactionManager transactionManager,
+                                         ObjectMapper mapper, TextCompressionCodec codec, SessionTitleIndex titleIndex,
+                                         MessageSearchIndex messageIndex, ShardRouter shards, VersionStamps versions,
+                                         @Value("${chat.import.batch-size:1000}") int batchSize,
+                                         @Value("${chat.import.max-errors:1000}") int maxErrors) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.tx = new TransactionTemplate(transactionManager);
+        this.mapper = mapper;
+        this.codec = codec;
+        this.titleIndex = titleIndex;
+        this.messageIndex = messageIndex;
+        this.shards = shards;
+        this.versions = versions;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxErrors = Math.max(1, maxErrors);
+    }
+
+    public Summary importNdjson(InputStream in, Listener listener) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+        Run run = new Run(listener);
+        String raw;
+        while ((raw = reader.readLine()) != null) {
+            run.line++;
+            if (raw.isBlank()) continue;
+            try {
+                accept(run, mapper.readTree(raw));
+            } catch (JsonProcessingException e) {
+                // The current session is kept; exported message lines carry sessionId, which guards
+                // against attaching them to the wrong session if a session line was the one mangled
+                run.reject("Malformed JSON: " + e.getOriginalMessage());
+            } catch (IllegalArgumentException | DateTimeException e) {
+                run.reject(e.getMessage());
+            }
+            if (run.errors >= maxErrors) {
+                return run.abort("Too many rejected lines");
+            }
+            if (run.pendingRows() >= batchSize && !run.commit()) {
+                return run.summary(true);
+            }
+        }
+        return run.commit() ? run.summary(false) : run.summary(true);
+    }
+
+    private void accept(Run run, JsonNode node) {
+        String type = text(node, "type");
+        if ("session".equals(type)) {
+            // Until this line validates, following messages have no session to attach to
+            run.current = null;
+            run.current = parseSession(node);
+            run.sessions.add(run.current);
+        } else if ("message".equals(type)) {
+            if (run.current == null) {
+                throw new IllegalArgumentException("No valid session line precedes this message");
+            }
+            Long sourceSessionId = node.hasNonNull("sessionId") ? node.get("sessionId").asLong() : null;
+            if (sourceSessionId != null && run.current.sourceId != null && !sourceSessionId.equals(run.current.sourceId)) {
+                throw new IllegalArgumentException("Message belongs to session " + sourceSessionId
+                        + " but follows session " + run.current.sourceId);
+            }
+            run.messages.add(parseMessage(node, run.current));
+        } else {
+            throw new IllegalArgumentException("Unknown line type: " + type);
+        }
+    }
+
+    private PendingSession parseSession(JsonNode node) {
+        String userId = text(node, "userId");
+        if (userId == null || userId.isBlank()) throw new IllegalArgumentException("userId is required");
+        if (userId.length() > MAX_USER_ID) throw new IllegalArgumentException("userId is too long");
+        String title = text(node, "title");
+        if (title == null || title.isBlank()) title = "New Session";
+        if (title.length() > MAX_TITLE) throw new IllegalArgumentException("title is too long");
+        Instant createdAt = instant(node, "createdAt", Instant.now());
+        Instant updatedAt = instant(node, "updatedAt", createdAt);
+        Long sourceId = node.hasNonNull("id") ? node.get("id").asLong() : null;
+        return new PendingSession(sourceId, userId, title, node.path("favorite").asBoolean(false), createdAt, updatedAt);
+    }
+
+    private PendingMessage parseMessage(JsonNode node, PendingSession session) {
+        String sender = text(node, "sender");
+        if (sender == null) throw new IllegalArgumentException("sender is required");
+        ChatMessage.Sender parsed;
+        try {
+            parsed = ChatMessage.Sender.valueOf(sender.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown sender: " + sender);
+        }
+        String content = text(node, "content");
+        if (content == null || content.isBlank()) throw new IllegalArgumentException("content is required");
+        if (content.length() > MAX_CONTENT) throw new IllegalArgumentException("content is too long");
+        String context = text(node, "context");
+        if (context != null && context.length() > MAX_CONTEXT) throw new IllegalArgumentException("context is too long");
+        return new PendingMessage(session, parsed, content, context, instant(node, "createdAt", Instant.now()));
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode v = node.get(field);
+        return v == null || v.isNull() ? null : v.asText();
+    }
+
+    private static Instant instant(JsonNode node, String field, Instant fallback) {
+        String v = text(node, field);
+        return v == null ? fallback : Instant.parse(v);
+    }
+
+    private final class Run {
+        final Listener listener;
+        final List<PendingSession> sessions = new ArrayList<>();
+        final List<PendingMessage> messages = new ArrayList<>();
+        // users.user_id -> users.id for users touched by this import
+        final Map<String, Long> userKeys = new HashMap<>();
+        PendingSession current;
+        long line;
+        long committedLine;
+        long sessionCount;
+        long messageCount;
+        long errors;
+
+        Run(Listener listener) {
+            this.listener = listener;
+        }
+
+        int pendingRows() {
+            return sessions.size() + messages.size();
+        }
+
+        void reject(String error) {
+            errors++;
+            listener.error(new LineError(line, error));
+        }
+
+        Summary abort(String reason) {
+            // Keep the valid rows read so far, then stop
+            if (commit()) {
+                errors++;
+                listener.error(new LineError(line, reason + "; import aborted"));
+            }
+            return summary(true);
+        }
+
+        /**
+         * Writes the pending chunk in one transaction; returns false (after reporting) if it failed.
+         * With sharding each shard's part commits on its own, so a failed chunk may be partly imported;
+         * a session and its messages always share a shard and are written or not together.
+         */
+        boolean commit() {
+            if (pendingRows() > 0) {
+                try {
+                    if (shards.isEnabled()) {
+                        writeByShard();
+                    } else {
+                        tx.executeWithoutResult(status -> write(sessions, messages));
+                    }
+                } catch (DataAccessException e) {
+                    errors++;
+                    listener.error(new LineError(committedLine + 1, "Chunk through line " + line
+                            + " was not imported: " + e.getMostSpecificCause().getMessage()));
+                    return false;
+                }
+                // Imported rows bypass the title index; rebuild it for affected users on next search
+                sessions.stream().map(s -> s.userId).distinct().forEach(titleIndex::invalidate);
+                messages.forEach(m -> messageIndex.add(userKeys.get(m.session.userId), m.id, m.session.key, m.content));
+                sessions.stream().map(s -> s.userId).distinct().map(VersionStamps::sessions).forEach(versions::touch);
+                messages.stream().map(m -> m.session).distinct().forEach(s -> {
+                    versions.touch(VersionStamps.messages(s.key));
+                    versions.touch(VersionStamps.sessions(s.userId));
+                });
+                sessionCount += sessions.size();
+                messageCount += messages.size();
+                sessions.clear();
+                messages.clear();
+            }
+            committedLine = line;
+            listener.progress(new Progress(line, sessionCount, messageCount));
+            return true;
+        }
+
+        private void writeByShard() {
+            Map<String, List<PendingSession>> sessionsByShard = sessions.stream()
+                    .collect(Collectors.groupingBy(s -> shards.shardOf(s.userId), LinkedHashMap::new, Collectors.toList()));
+            Map<String, List<PendingMessage>> messagesByShard = messages.stream()
+                    .collect(Collectors.groupingBy(m -> shards.shardOf(m.session.userId), LinkedHashMap::new, Collectors.toList()));
+            Set<String> touched = new LinkedHashSet<>(sessionsByShard.keySet());
+            touched.addAll(messagesByShard.keySet());
+            for (String shard : touched) {
+                shards.forShard(shard);
+                try {
+                    tx.executeWithoutResult(status -> write(sessionsByShard.getOrDefault(shard, List.of()),
+                            messagesByShard.getOrDefault(shard, List.of())));
+                } finally {
+                    shards.release();
+                }
+            }
+        }
+
+        private void write(List<PendingSession> sessions, List<PendingMessage> messages) {
+            for (PendingSession s : sessions) {
+                s.key = insertSession(userKey(s.userId), s);
+            }
+            if (messages.isEmpty()) return;
+            List<PendingMessage> withContext = messages.stream().filter(m -> m.context != null).toList();
+            if (shards.isEnabled()) {
+                // Sharded ids carry the user's slot, so they are assigned here rather than by the database
+                for (PendingMessage m : messages) m.id = shards.nextId(m.session.userId);
+                jdbc.batchUpdate(INSERT_MESSAGE_WITH_ID, messageSetter(messages, true));
+            } else {
+                // Generated ids are returned in batch order; they link each context to its message and
+                // let the search index take the messages in
+                KeyHolder keys = new GeneratedKeyHolder();
+                jdbc.batchUpdate(con -> con.prepareStatement(INSERT_MESSAGE, new String[] {"id"}), messageSetter(messages, false), keys);
+                List<Map<String, Object>> generated = keys.getKeyList();
+                for (int i = 0; i < messages.size(); i++) {
+                    messages.get(i).id = ((Number) generated.get(i).values().iterator().next()).longValue();
+                }
+            }
+            if (!withContext.isEmpty()) {
+                jdbc.batchUpdate(INSERT_CONTEXT, withContext, withContext.size(), (ps, m) -> {
+                    ps.setLong(1, m.id);
+                    ps.setString(2, codec.encode(m.context));
+                });
+            }
+            recordActivity(messages);
+        }
+
+        private void recordActivity(List<PendingMessage> messages) {
+            Map<PendingSession, PendingMessage> newest = new LinkedHashMap<>();
+            Map<PendingSession, Instant> oldest = new HashMap<>();
+            Map<PendingSession, Integer> counts = new HashMap<>();
+            for (PendingMessage m : messages) {
+                newest.merge(m.session, m, (a, b) -> b.createdAt.isBefore(a.createdAt) ? a : b);
+                oldest.merge(m.session, m.createdAt, (a, b) -> b.isBefore(a) ? b : a);
+                counts.merge(m.session, 1, Integer::sum);
+            }
+            List<PendingMessage> latest = new ArrayList<>(newest.values());
+            jdbc.batchUpdate(RECORD_ACTIVITY, latest, latest.size(), (ps, m) -> {
+                Timestamp at = Timestamp.from(m.createdAt);
+                ps.setTimestamp(1, at);
+                ps.setString(2, ChatSession.preview(m.content));
+                ps.setTimestamp(3, at);
+                ps.setTimestamp(4, at);
+                ps.setInt(5, counts.get(m.session));
+                // Message reads bound created_at by the session's creation time; keep no message older than it
+                Timestamp first = Timestamp.from(oldest.get(m.session));
+                ps.setTimestamp(6, first);
+                ps.setTimestamp(7, first);
+                ps.setLong(8, m.session.key);
+            });
+        }
+
+        private BatchPreparedStatementSetter messageSetter(List<PendingMessage> messages, boolean withId) {
+            return new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    PendingMessage m = messages.get(i);
+                    int col = 1;
+                    if (withId) ps.setLong(col++, m.id);
+                    ps.setLong(col++, m.session.key);
+                    ps.setString(col++, m.sender.name());
+                    ps.setString(col++, codec.encode(m.content));
+                    ps.setBoolean(col++, m.context != null);
+                    ps.setTimestamp(col, Timestamp.from(m.createdAt));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return messages.size();
+                }
+            };
+        }
+
+        private Long userKey(String userId) {
+            Long key = userKeys.get(userId);
+            if (key != null) return key;
+            List<Long> found = jdbc.queryForList("SELECT id FROM users WHERE user_id = ?", Long.class, userId);
+            if (found.isEmpty()) {
+                Timestamp now = Timestamp.from(Instant.now());
+                key = insert(userId, "users", "user_id, created_at, updated_at", userId, now, now);
+            } else {
+                key = found.get(0);
+                // Importing into a purged user id starts it over, as ensureUser does
+                jdbc.update("UPDATE users SET deleted_at = NULL WHERE id = ? AND deleted_at IS NOT NULL", key);
+            }
+            userKeys.put(userId, key);
+            return key;
+        }
+
+        private Long insertSession(Long userKey, PendingSession s) {
+            Timestamp createdAt = Timestamp.from(s.createdAt);
+            return insert(s.userId, "chat_sessions", "user_id, title, favorite, created_at, updated_at, last_message_at",
+                    userKey, s.title, s.favorite, createdAt, Timestamp.from(s.updatedAt), createdAt);
+        }
+
+        /** Inserts a row of the user's and returns its id: a shard-aware one, or the one the database generated. */
+        private Long insert(String userId, String table, String columns, Object... args) {
+            Long id = shards.nextId(userId);
+            String values = String.join(", ", Collections.nCopies(args.length, "?"));
+            if (id != null) {
+                Object[] withId = new Object[args.length + 1];
+                withId[0] = id;
+                System.arraycopy(args, 0, withId, 1, args.length);
+                jdbc.update("INSERT INTO " + table + " (id, " + columns + ") VALUES (?, " + values + ")", withId);
+                return id;
+            }
+            String sql = "INSERT INTO " + table + " (" + columns + ") VALUES (" + values + ")";
+            KeyHolder key = new GeneratedKeyHolder();
+            jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                for (int i = 0; i < args.length; i++) ps.setObject(i + 1, args[i]);
+                return ps;
+            }, key);
+            return Objects.requireNonNull(key.getKey()).longValue();
+        }
+
+        Summary summary(boolean aborted) {
+            return new Summary(line, sessionCount, messageCount, errors, committedLine, aborted);
+        }
+    }
+
+    private static final class PendingSession {
+        final Long sourceId;
+        final String userId;
+        final String title;
+        final boolean favorite;
+        final Instant createdAt;
+        final Instant updatedAt;
+        Long key;
+
+        PendingSession(Long sourceId, String userId, String title, boolean favorite,
+                       Instant createdAt, Instant updatedAt) {
+            this.sourceId = sourceId;
+            this.userId = userId;
+            this.title = title;
+            this.favorite = favorite;
+            this.createdAt = createdAt;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    private static final class PendingMessage {
+        final PendingSession session;
+        final ChatMessage.Sender sender;
+        final String content;
+        final String context;
+        final Instant createdAt;
+        long id;
+
+        PendingMessage(PendingSession session, ChatMessage.Sender sender, String content, String context, Instant createdAt) {
+            this.session = session;
+            this.sender = sender;
+            this.content = content;
+            this.context = context;
+            this.createdAt = createdAt;
+        }
+    }
+}
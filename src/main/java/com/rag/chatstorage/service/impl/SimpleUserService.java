@@ -1,25 +1,53 @@
 package com.rag.chatstorage.service.impl;
 
+import com.rag.chatstorage.cache.VersionStamps;
+import com.rag.chatstorage.datasource.ReadYourWrites;
 import com.rag.chatstorage.domain.User;
+import com.rag.chatstorage.repository.ChatSessionRepository;
 import com.rag.chatstorage.repository.UserRepository;
+import com.rag.chatstorage.search.MessageSearchIndex;
+import com.rag.chatstorage.search.SessionTitleIndex;
 import com.rag.chatstorage.service.UserService;
+import com.rag.chatstorage.shard.ShardRouter;
 import java.time.Instant;
 import java.util.List;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @Service
 @Transactional
 public class SimpleUserService implements UserService {
 
     private final UserRepository userRepository;
+    private final ChatSessionRepository sessionRepository;
+    private final SessionTitleIndex titleIndex;
+    private final MessageSearchIndex messageIndex;
+    private final ShardRouter shards;
+    private final VersionStamps versions;
 
-    public SimpleUserService(UserRepository userRepository) {
+    public SimpleUserService(UserRepository userRepository, ChatSessionRepository sessionRepository,
+                             SessionTitleIndex titleIndex, MessageSearchIndex messageIndex, ShardRouter shards,
+                             VersionStamps versions) {
         this.userRepository = userRepository;
+        this.sessionRepository = sessionRepository;
+        this.titleIndex = titleIndex;
+        this.messageIndex = messageIndex;
+        this.shards = shards;
+        this.versions = versions;
     }
 
     public User ensureUser(String userId) {
+        shards.forUser(userId);
+        // Requests that create users or sessions name the user only in their body
+        ReadYourWrites.actAs(userId);
         return userRepository.findByUserId(userId)
+                .map(u -> {
+                    // Reusing a purged user id starts over with an empty history
+                    if (u.isDeleted()) u.setDeletedAt(null);
+                    return u;
+                })
                 .orElseGet(() -> {
                     User u = new User();
                     u.setUserId(userId);
@@ -31,6 +59,37 @@ public class SimpleUserService implements UserService {
     }
 
     public List<User> listUsers() {
-        return userRepository.findAll();
+        // Asks every shard; a user in the middle of a migration is on two of them, and only its owner reports it
+        return shards.scatter(shard -> userRepository.findByDeletedAtIsNull().stream()
+                .filter(u -> shards.owns(shard, u.getUserId()))
+                .toList());
+    }
+
+    public void delete(String userId) {
+        shards.forUser(userId);
+        User u = userRepository.findByUserId(userId).filter(x -> !x.isDeleted())
+                .orElseThrow(() -> new IllegalArgumentException("User not found"));
+        Instant now = Instant.now();
+        u.setDeletedAt(now);
+        sessionRepository.markDeletedByUser(u.getId(), now);
+        Long userKey = u.getId();
+        afterCommit(() -> {
+            titleIndex.invalidate(userId);
+            messageIndex.invalidate(userKey);
+            versions.touch(VersionStamps.sessions(userId));
+        });
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
     }
 }
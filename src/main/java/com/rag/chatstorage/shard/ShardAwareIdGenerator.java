@@ -0,0 +1,47 @@
+package com.rag.chatstorage.shard;
+
+import java.lang.reflect.Member;
+import java.util.EnumSet;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.generator.EventTypeSets;
+import org.hibernate.id.IdentityGenerator;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+
+/**
+ * Id generator behind {@link ShardAwareId}. Without sharding it is the plain identity generator and
+ * inserts look exactly as before. With sharding the {@link ShardIds} instance is handed over through
+ * the Hibernate settings, and ids are assigned before the insert from the slot of the bound user.
+ */
+public class ShardAwareIdGenerator extends IdentityGenerator implements BeforeExecutionGenerator {
+
+    /** Hibernate setting that carries the {@link ShardIds} instance when sharding is enabled. */
+    public static final String IDS_SETTING = "chat.shards.ids";
+
+    private final ShardIds ids;
+
+    public ShardAwareIdGenerator(ShardAwareId config, Member member, CustomIdGeneratorCreationContext context) {
+        Object setting = context.getServiceRegistry().requireService(ConfigurationService.class)
+                .getSettings().get(IDS_SETTING);
+        this.ids = setting instanceof ShardIds s ? s : null;
+    }
+
+    @Override
+    public boolean generatedOnExecution() {
+        return ids == null;
+    }
+
+    @Override
+    public EnumSet<EventType> getEventTypes() {
+        return EventTypeSets.INSERT_ONLY;
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object owner, Object currentValue, EventType eventType) {
+        ShardContext.Binding b = ShardContext.current();
+        // Rows written without a user binding (documents on the main shard) are never routed by id
+        return ids.next(b == null || b.slot() < 0 ? 0 : b.slot());
+    }
+}
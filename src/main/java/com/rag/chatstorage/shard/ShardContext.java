@@ -0,0 +1,27 @@
+package com.rag.chatstorage.shard;
+
+/**
+ * The shard the current thread works on, set by {@link ShardRouter} and read by the
+ * {@link ShardRoutingDataSource} when a connection is requested and by the id generator.
+ */
+public final class ShardContext {
+
+    private static final ThreadLocal<Binding> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() {}
+
+    /** A shard, and the user slot that selected it; {@code slot} is -1 when a whole shard is bound. */
+    public record Binding(String shard, int slot) {}
+
+    static void bind(String shard, int slot) {
+        CURRENT.set(new Binding(shard, slot));
+    }
+
+    static void clear() {
+        CURRENT.remove();
+    }
+
+    public static Binding current() {
+        return CURRENT.get();
+    }
+}
@@ -0,0 +1,31 @@
+package com.rag.chatstorage.shard;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Drops the request thread's shard binding once the response is written. Services bind it; keeping it
+ * until here lets lazy loads in the web layer, under open-in-view, reach the same shard.
+ */
+public class ShardContextFilter extends OncePerRequestFilter {
+
+    private final ShardRouter router;
+
+    public ShardContextFilter(ShardRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            router.release();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.rag.chatstorage.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.sql.DataSource;
+import liquibase.integration.spring.SpringLiquibase;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.liquibase.LiquibaseProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+/**
+ * Provides the {@link ShardRouter} services bind through. It is a no-op unless
+ * {@code chat.shards.enabled} is set; then the auto-configured DataSource is replaced by one pool per
+ * shard behind a {@link ShardRoutingDataSource}, every shard gets the Liquibase schema, and entity ids
+ * are assigned by {@link ShardIds}.
+ */
+@Configuration
+public class ShardDataSourceConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "chat.shards.enabled", havingValue = "false", matchIfMissing = true)
+    public ShardRouter shardRouter() {
+        return ShardRouter.unsharded();
+    }
+
+    @Configuration
+    @ConditionalOnProperty(name = "chat.shards.enabled", havingValue = "true")
+    static class Sharded {
+
+        Sharded(@Value("${chat.datasource.replicas.enabled:false}") boolean replicas) {
+            // Both replace the application DataSource; replicas per shard are not supported
+            if (replicas) throw new IllegalStateException("chat.shards and chat.datasource.replicas cannot be enabled together");
+        }
+
+        @Bean
+        @ConfigurationProperties(prefix = "spring.datasource.hikari")
+        public HikariDataSource mainDataSource(DataSourceProperties properties) {
+            HikariDataSource ds = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+            ds.setPoolName(ShardRoutingDataSource.MAIN);
+            return ds;
+        }
+
+        @Bean
+        public ShardRoutingDataSource shardRoutingDataSource(@Qualifier("mainDataSource") HikariDataSource main,
+                                                             ShardProperties props, MeterRegistry meterRegistry) {
+            Map<String, DataSource> shards = new LinkedHashMap<>();
+            shards.put(ShardRoutingDataSource.MAIN, main);
+            for (ShardProperties.Member m : props.getMembers()) {
+                if (shards.containsKey(m.getName())) throw new IllegalStateException("Duplicate shard name: " + m.getName());
+                HikariDataSource ds = new HikariDataSource();
+                ds.setPoolName(m.getName());
+                ds.setJdbcUrl(m.getUrl());
+                ds.setUsername(m.getUsername());
+                ds.setPassword(m.getPassword());
+                ds.setDriverClassName(main.getDriverClassName());
+                ds.setMaximumPoolSize(m.getMaximumPoolSize());
+                ds.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+                shards.put(m.getName(), ds);
+            }
+            return new ShardRoutingDataSource(shards);
+        }
+
+        @Bean
+        @Primary
+        public DataSource dataSource(ShardRoutingDataSource routing) {
+            return new LazyConnectionDataSourceProxy(routing);
+        }
+
+        @Bean
+        public ShardIds shardIds(@Qualifier("mainDataSource") HikariDataSource main, ShardProperties props) {
+            return new ShardIds(main, props.getIdBlockSize());
+        }
+
+        @Bean
+        public ShardRing shardRing(ShardRoutingDataSource routing, ShardProperties props) {
+            return new ShardRing(routing.shards().keySet().stream().toList(), props.getVirtualNodes());
+        }
+
+        /**
+         * The auto-configured Liquibase migrates the main shard (unbound statements go there); the added
+         * members are migrated here with the same change log and contexts before the directory is read.
+         */
+        @Bean
+        public ShardDirectory shardDirectory(ShardRoutingDataSource routing, SpringLiquibase liquibase,
+                                             LiquibaseProperties liquibaseProperties, ResourceLoader resourceLoader)
+                throws Exception {
+            for (Map.Entry<String, DataSource> e : routing.shards().entrySet()) {
+                if (e.getKey().equals(ShardRoutingDataSource.MAIN)) continue;
+                SpringLiquibase member = new SpringLiquibase();
+                member.setDataSource(e.getValue());
+                member.setChangeLog(liquibaseProperties.getChangeLog());
+                member.setContexts(liquibaseProperties.getContexts());
+                member.setResourceLoader(resourceLoader);
+                member.afterPropertiesSet();
+            }
+            ShardDirectory directory = new ShardDirectory(routing.shard(ShardRoutingDataSource.MAIN), routing.shards().keySet());
+            directory.init();
+            return directory;
+        }
+
+        @Bean
+        public ShardRouter shardRouter(ShardRoutingDataSource routing, ShardDirectory directory, ShardIds ids,
+                                       ShardProperties props) {
+            return new ShardRouter(routing, directory, ids, props.getFreezeTimeout());
+        }
+
+        @Bean
+        public ShardMigrator shardMigrator(ShardRouter router, ShardDirectory directory, ShardRing ring,
+                                           ShardProperties props) {
+            return new ShardMigrator(router, directory, ring, props.getCopyBatchSize());
+        }
+
+        /**
+         * Shard-aware ids for every entity, and connections released after each transaction so that
+         * each transaction, not each open-in-view session, picks its shard (as with replicas).
+         */
+        @Bean
+        public HibernatePropertiesCustomizer shardHibernateProperties(ShardIds ids) {
+            return props -> {
+                props.put(ShardAwareIdGenerator.IDS_SETTING, ids);
+                props.put(AvailableSettings.CONNECTION_HANDLING,
+                        PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+            };
+        }
+
+        @Bean
+        public FilterRegistrationBean<ShardContextFilter> shardContextFilter(ShardRouter router) {
+            return new FilterRegistrationBean<>(new ShardContextFilter(router));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.rag.chatstorage.shard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Where every slot lives right now, kept in {@code shard_slots} on the main shard and mirrored in memory.
+ * <p>
+ * The first start with sharding enabled records every slot on the main shard, which is where all data
+ * written before then lives; a rebalance then moves the slots the ring places elsewhere. Only a
+ * migration changes an entry, and it does so after the slot's rows have been copied.
+ */
+public class ShardDirectory {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardDirectory.class);
+
+    private final JdbcTemplate jdbc;
+    private final Set<String> shards;
+    private final String[] slots = new String[ShardRing.SLOTS];
+
+    public ShardDirectory(DataSource main, Set<String> shards) {
+        this.jdbc = new JdbcTemplate(main);
+        this.shards = shards;
+        Arrays.fill(slots, ShardRoutingDataSource.MAIN);
+    }
+
+    /** Loads the directory, first recording every slot on the main shard if it is empty. */
+    public void init() {
+        Integer count = jdbc.queryForObject("SELECT COUNT(*) FROM shard_slots", Integer.class);
+        if (count == null || count == 0) {
+            List<Object[]> rows = new ArrayList<>(ShardRing.SLOTS);
+            for (int slot = 0; slot < ShardRing.SLOTS; slot++) rows.add(new Object[] {slot, ShardRoutingDataSource.MAIN});
+            jdbc.batchUpdate("INSERT INTO shard_slots (slot, shard) VALUES (?, ?)", rows);
+            log.info("Recorded all {} slots on the {} shard; rebalance to spread them", ShardRing.SLOTS, ShardRoutingDataSource.MAIN);
+        }
+        refresh();
+    }
+
+    @Scheduled(initialDelayString = "${chat.shards.directory-refresh:PT30S}", fixedDelayString = "${chat.shards.directory-refresh:PT30S}")
+    public void refresh() {
+        jdbc.query("SELECT slot, shard FROM shard_slots", rs -> {
+            String shard = rs.getString(2);
+            if (!shards.contains(shard)) {
+                throw new IllegalStateException("Slot " + rs.getInt(1) + " lives on shard " + shard + ", which is not configured");
+            }
+            slots[rs.getInt(1)] = shard;
+        });
+    }
+
+    public String shardOf(int slot) {
+        return slots[slot];
+    }
+
+    /** Records slots as living on {@code shard}; the caller has copied their rows there. */
+    public void assign(Collection<Integer> moved, String shard) {
+        List<Object[]> rows = moved.stream().map(slot -> new Object[] {shard, slot}).toList();
+        jdbc.batchUpdate("UPDATE shard_slots SET shard = ? WHERE slot = ?", rows);
+        for (int slot : moved) slots[slot] = shard;
+    }
+}
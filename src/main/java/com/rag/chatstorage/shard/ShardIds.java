@@ -0,0 +1,68 @@
+package com.rag.chatstorage.shard;
+
+import java.util.concurrent.locks.ReentrantLock;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Shard-aware ids for users, sessions and messages.
+ * <p>
+ * An id carries the slot of its user in the low 12 bits, so any session or message id can be routed
+ * without a lookup, also after its slot has moved to another shard. The bits above come from one
+ * sequence on the main shard, reserved in blocks, which keeps ids unique across shards. Bit 52 marks
+ * the layout: ids handed out by auto-increment before sharding was enabled never reach it.
+ * <p>
+ * Every id stays below 2^53, so clients that read JSON numbers as doubles (browsers, ui.js) get them
+ * back exactly. That leaves 40 bits, about 10^12 ids, for the sequence.
+ */
+public class ShardIds {
+
+    static final long SHARDED = 1L << 52;
+    private static final int SLOT_BITS = 12;
+    private static final long MAX_SEQUENCE = (1L << (52 - SLOT_BITS)) - 1;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final int blockSize;
+    // A lock rather than synchronized: reserving a block queries the database, which would pin a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private long next;
+    private long limit;
+
+    public ShardIds(DataSource main, int blockSize) {
+        this.jdbc = new JdbcTemplate(main);
+        this.tx = new TransactionTemplate(new DataSourceTransactionManager(main));
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    public long next(int slot) {
+        lock.lock();
+        try {
+            if (next >= limit) reserve();
+            return SHARDED | (next++ << SLOT_BITS) | slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reserve() {
+        Long start = tx.execute(status -> {
+            Long value = jdbc.queryForObject("SELECT next_val FROM shard_sequence WHERE name = 'ids' FOR UPDATE", Long.class);
+            jdbc.update("UPDATE shard_sequence SET next_val = ? WHERE name = 'ids'", value + blockSize);
+            return value;
+        });
+        if (start + blockSize > MAX_SEQUENCE) throw new IllegalStateException("Shard id sequence is exhausted");
+        next = start;
+        limit = start + blockSize;
+    }
+
+    public static boolean isSharded(long id) {
+        return (id & SHARDED) != 0;
+    }
+
+    public static int slotOf(long id) {
+        return (int) (id & (ShardRing.SLOTS - 1));
+    }
+}
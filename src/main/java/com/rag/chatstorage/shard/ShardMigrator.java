@@ -0,0 +1,224 @@
+package com.rag.chatstorage.shard;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Moves slots to the shard the ring assigns them, while the application keeps serving.
+ * <p>
+ * Slots are moved in groups sharing a source and a target shard. For each group the users, sessions,
+ * archives, messages and contexts are first copied while the source stays live. The slots are then
+ * frozen, which waits for the requests in flight on them, and a catch-up pass copies what was written
+ * meanwhile: users and sessions again in full, messages created since the copy began. The directory
+ * entry is switched, the slots thawed, and the rows deleted from the source. Rows keep their ids, so
+ * sessions and messages stay addressable throughout.
+ * <p>
+ * Background jobs skip both shards while a group is moved. The freeze only holds back requests of this
+ * instance; with several instances, move slots while only one of them serves writes.
+ */
+public class ShardMigrator {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardMigrator.class);
+    // Covers clock skew between instances writing created_at
+    private static final Duration CATCH_UP_MARGIN = Duration.ofMinutes(1);
+
+    private final ShardRouter router;
+    private final ShardDirectory directory;
+    private final ShardRing ring;
+    private final int batchSize;
+    private final ReentrantLock running = new ReentrantLock();
+
+    public ShardMigrator(ShardRouter router, ShardDirectory directory, ShardRing ring, int batchSize) {
+        this.router = router;
+        this.directory = directory;
+        this.ring = ring;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /** Slots whose directory entry differs from their place on the ring, by source and target shard. */
+    public Map<Move, Set<Integer>> plan() {
+        Map<Move, Set<Integer>> plan = new LinkedHashMap<>();
+        for (int slot = 0; slot < ShardRing.SLOTS; slot++) {
+            String from = directory.shardOf(slot);
+            String to = ring.shardOf(slot);
+            if (!from.equals(to)) plan.computeIfAbsent(new Move(from, to), m -> new TreeSet<>()).add(slot);
+        }
+        return plan;
+    }
+
+    /** Moves every misplaced slot; one migration runs at a time. */
+    public List<Result> rebalance() {
+        running.lock();
+        try {
+            List<Result> results = new ArrayList<>();
+            for (Map.Entry<Move, Set<Integer>> e : plan().entrySet()) {
+                results.add(move(e.getKey(), e.getValue()));
+            }
+            return results;
+        } finally {
+            running.unlock();
+        }
+    }
+
+    private Result move(Move move, Set<Integer> slots) {
+        JdbcTemplate source = new JdbcTemplate(router.dataSources().get(move.from()));
+        JdbcTemplate target = new JdbcTemplate(router.dataSources().get(move.to()));
+        router.startMigration(move.from(), move.to());
+        try {
+            Instant started = Instant.now();
+            Counts counts = new Counts();
+            copy(source, target, usersIn(source, slots), null, counts);
+            router.freeze(slots);
+            List<Long> users;
+            try {
+                // Users created during the copy are picked up here
+                users = usersIn(source, slots);
+                copy(source, target, users, started.minus(CATCH_UP_MARGIN), counts);
+                directory.assign(slots, move.to());
+            } finally {
+                router.thaw(slots);
+            }
+            delete(source, users);
+            log.info("Moved {} slots from shard {} to {}: {} users, {} sessions, {} messages",
+                    slots.size(), move.from(), move.to(), users.size(), counts.sessions, counts.messages);
+            return new Result(move.from(), move.to(), slots.size(), users.size(), counts.sessions, counts.messages);
+        } finally {
+            router.endMigration(move.from(), move.to());
+        }
+    }
+
+    private List<Long> usersIn(JdbcTemplate source, Set<Integer> slots) {
+        List<Long> ids = new ArrayList<>();
+        source.query("SELECT id, user_id FROM users", rs -> {
+            if (slots.contains(ShardRing.slotOf(rs.getString(2)))) ids.add(rs.getLong(1));
+        });
+        return ids;
+    }
+
+    /** Copies the users' rows; with {@code since} set, only messages created from then on. */
+    private void copy(JdbcTemplate source, JdbcTemplate target, List<Long> users, Instant since, Counts counts) {
+        for (List<Long> batch : batches(users)) {
+            String in = placeholders(batch.size());
+            List<Map<String, Object>> rows = source.queryForList("SELECT * FROM users WHERE id IN (" + in + ")", batch.toArray());
+            for (Map<String, Object> u : rows) {
+                // A session-less row of the same user under another id, such as the demo user the change log seeds everywhere
+                target.update("DELETE FROM users WHERE user_id = ? AND id <> ? "
+                        + "AND NOT EXISTS (SELECT 1 FROM chat_sessions s WHERE s.user_id = users.id)", u.get("user_id"), u.get("id"));
+            }
+            upsert(target, "users", "id", rows);
+            List<Map<String, Object>> sessions = source.queryForList(
+                    "SELECT * FROM chat_sessions WHERE user_id IN (" + in + ")", batch.toArray());
+            upsert(target, "chat_sessions", "id", sessions);
+            if (since == null) counts.sessions += sessions.size();
+            for (Map<String, Object> s : sessions) {
+                long sessionId = ((Number) s.get("id")).longValue();
+                upsert(target, "chat_session_archive", "session_id", source.queryForList(
+                        "SELECT * FROM chat_session_archive WHERE session_id = ?", sessionId));
+                counts.messages += copyMessages(source, target, sessionId, since);
+            }
+        }
+    }
+
+    private long copyMessages(JdbcTemplate source, JdbcTemplate target, long sessionId, Instant since) {
+        Timestamp from = Timestamp.from(since == null ? Instant.EPOCH : since);
+        long copied = 0;
+        long after = Long.MIN_VALUE;
+        while (true) {
+            List<Map<String, Object>> page = source.queryForList(
+                    "SELECT * FROM chat_messages WHERE session_id = ? AND created_at >= ? AND id > ? ORDER BY id LIMIT ?",
+                    sessionId, from, after, batchSize);
+            if (page.isEmpty()) return copied;
+            List<Long> ids = page.stream().map(r -> ((Number) r.get("id")).longValue()).toList();
+            after = ids.get(ids.size() - 1);
+            copied += insertMissing(target, "chat_messages", "id", page);
+            String in = placeholders(ids.size());
+            insertMissing(target, "chat_message_context", "message_id",
+                    source.queryForList("SELECT * FROM chat_message_context WHERE message_id IN (" + in + ")", ids.toArray()));
+        }
+    }
+
+    private void delete(JdbcTemplate source, List<Long> users) {
+        for (List<Long> batch : batches(users)) {
+            String in = placeholders(batch.size());
+            List<Long> sessions = source.queryForList("SELECT id FROM chat_sessions WHERE user_id IN (" + in + ")",
+                    Long.class, batch.toArray());
+            for (Long sessionId : sessions) {
+                source.update("DELETE FROM chat_message_context WHERE message_id IN "
+                        + "(SELECT id FROM chat_messages WHERE session_id = ?)", sessionId);
+                source.update("DELETE FROM chat_messages WHERE session_id = ?", sessionId);
+                source.update("DELETE FROM chat_session_archive WHERE session_id = ?", sessionId);
+            }
+            source.update("DELETE FROM chat_sessions WHERE user_id IN (" + in + ")", batch.toArray());
+            source.update("DELETE FROM users WHERE id IN (" + in + ")", batch.toArray());
+        }
+    }
+
+    /** Inserts rows whose key is not on the target yet, and updates the others. */
+    private static void upsert(JdbcTemplate target, String table, String key, List<Map<String, Object>> rows) {
+        for (Map<String, Object> row : rows) {
+            List<String> columns = new ArrayList<>(row.keySet());
+            columns.removeIf(c -> c.equalsIgnoreCase(key));
+            List<Object> args = columns.stream().map(row::get).collect(Collectors.toCollection(ArrayList::new));
+            args.add(row.get(key));
+            String set = columns.stream().map(c -> c + " = ?").collect(Collectors.joining(", "));
+            if (target.update("UPDATE " + table + " SET " + set + " WHERE " + key + " = ?", args.toArray()) == 0) {
+                insert(target, table, row);
+            }
+        }
+    }
+
+    /** Inserts rows whose key is not on the target yet; messages and contexts never change once written. */
+    private static int insertMissing(JdbcTemplate target, String table, String key, List<Map<String, Object>> rows) {
+        if (rows.isEmpty()) return 0;
+        List<Object> keys = rows.stream().map(r -> r.get(key)).toList();
+        Set<Long> present = new HashSet<>(target.queryForList("SELECT " + key + " FROM " + table
+                + " WHERE " + key + " IN (" + placeholders(keys.size()) + ")", Long.class, keys.toArray()));
+        int inserted = 0;
+        for (Map<String, Object> row : rows) {
+            if (present.contains(((Number) row.get(key)).longValue())) continue;
+            insert(target, table, row);
+            inserted++;
+        }
+        return inserted;
+    }
+
+    private static void insert(JdbcTemplate target, String table, Map<String, Object> row) {
+        List<String> columns = new ArrayList<>(row.keySet());
+        target.update("INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+                + placeholders(columns.size()) + ")", columns.stream().map(row::get).toArray());
+    }
+
+    private List<List<Long>> batches(List<Long> ids) {
+        if (ids.isEmpty()) return Collections.emptyList();
+        List<List<Long>> out = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += batchSize) out.add(ids.subList(i, Math.min(ids.size(), i + batchSize)));
+        return out;
+    }
+
+    private static String placeholders(int n) {
+        return String.join(", ", Collections.nCopies(n, "?"));
+    }
+
+    public record Move(String from, String to) {}
+
+    public record Result(String from, String to, int slots, int users, long sessions, long messages) {}
+
+    private static final class Counts {
+        long sessions;
+        long messages;
+    }
+}
@@ -0,0 +1,73 @@
+package com.rag.chatstorage.shard;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * User-sharded storage ({@code chat.shards}). The auto-configured {@code spring.datasource} is always
+ * the first shard, named {@code main}; it also holds the slot directory, the id sequence and the tables
+ * that are not sharded. {@code members} adds further shards. Members are only ever appended: the ring
+ * places slots by member name, and a new member takes over its share of slots once a rebalance has
+ * moved them.
+ */
+@ConfigurationProperties(prefix = "chat.shards")
+public class ShardProperties {
+
+    private boolean enabled = false;
+    // Points per shard on the hash ring; more points spread slots more evenly
+    private int virtualNodes = 64;
+    // Ids reserved from the shared sequence per round trip to the main shard
+    private int idBlockSize = 100;
+    // Longest a migration waits for in-flight requests on the slots it moves, and requests wait for it
+    private Duration freezeTimeout = Duration.ofSeconds(10);
+    private int copyBatchSize = 500;
+    // How often the slot directory is re-read, to pick up moves made by another instance
+    private Duration directoryRefresh = Duration.ofSeconds(30);
+    private List<Member> members = new ArrayList<>();
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    public int getVirtualNodes() { return virtualNodes; }
+    public void setVirtualNodes(int virtualNodes) { this.virtualNodes = virtualNodes; }
+
+    public int getIdBlockSize() { return idBlockSize; }
+    public void setIdBlockSize(int idBlockSize) { this.idBlockSize = idBlockSize; }
+
+    public Duration getFreezeTimeout() { return freezeTimeout; }
+    public void setFreezeTimeout(Duration freezeTimeout) { this.freezeTimeout = freezeTimeout; }
+
+    public int getCopyBatchSize() { return copyBatchSize; }
+    public void setCopyBatchSize(int copyBatchSize) { this.copyBatchSize = copyBatchSize; }
+
+    public Duration getDirectoryRefresh() { return directoryRefresh; }
+    public void setDirectoryRefresh(Duration directoryRefresh) { this.directoryRefresh = directoryRefresh; }
+
+    public List<Member> getMembers() { return members; }
+    public void setMembers(List<Member> members) { this.members = members; }
+
+    public static class Member {
+        private String name;
+        private String url;
+        private String username;
+        private String password;
+        private int maximumPoolSize = 10;
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+
+        public String getUrl() { return url; }
+        public void setUrl(String url) { this.url = url; }
+
+        public String getUsername() { return username; }
+        public void setUsername(String username) { this.username = username; }
+
+        public String getPassword() { return password; }
+        public void setPassword(String password) { this.password = password; }
+
+        public int getMaximumPoolSize() { return maximumPoolSize; }
+        public void setMaximumPoolSize(int maximumPoolSize) { this.maximumPoolSize = maximumPoolSize; }
+    }
+}
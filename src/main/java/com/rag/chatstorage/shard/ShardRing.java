@@ -0,0 +1,56 @@
+package com.rag.chatstorage.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Consistent-hash placement of users.
+ * <p>
+ * A user hashes to one of {@link #SLOTS} fixed slots, and slots are placed on a ring that carries
+ * {@code virtualNodes} points per shard. Adding a shard therefore takes slots from every existing
+ * shard but moves no slot between two existing ones. The ring only says where a slot should live;
+ * where it lives right now is recorded in the {@link ShardDirectory}, and a rebalance moves the
+ * difference.
+ */
+public final class ShardRing {
+
+    public static final int SLOTS = 4096;
+
+    private final TreeMap<Integer, String> ring = new TreeMap<>();
+
+    public ShardRing(List<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) throw new IllegalArgumentException("At least one shard is required");
+        for (String shard : shards) {
+            for (int i = 0; i < Math.max(1, virtualNodes); i++) {
+                ring.putIfAbsent(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    /** Slot of a user; stable across deployments, since it is stored in ids and in the directory. */
+    public static int slotOf(String userId) {
+        return Math.floorMod(hash(userId), SLOTS);
+    }
+
+    /** Shard the ring assigns a slot to. */
+    public String shardOf(int slot) {
+        Map.Entry<Integer, String> e = ring.ceilingEntry(hash("slot-" + slot));
+        return (e != null ? e : ring.firstEntry()).getValue();
+    }
+
+    private static int hash(String key) {
+        CRC32 crc = new CRC32();
+        crc.update(key.getBytes(StandardCharsets.UTF_8));
+        // CRC32 clusters similar keys; the murmur3 finalizer spreads them over the ring
+        int h = (int) crc.getValue();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
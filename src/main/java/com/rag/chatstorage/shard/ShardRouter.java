@@ -0,0 +1,284 @@
+package com.rag.chatstorage.shard;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Binds the current thread to the shard of a user, session or message.
+ * <p>
+ * Services call it at the top of each method; everything after that, JPA repositories as well as
+ * {@code JdbcTemplate}s over the application DataSource, runs on the bound shard. The binding stays in
+ * place for the rest of the request, so lazy loads in the web layer follow it, and is dropped by
+ * {@link ShardContextFilter}. Background jobs visit every shard through {@link #forEachShard}.
+ * <p>
+ * Session and message ids carry their user's slot (see {@link ShardIds}). Ids from before sharding was
+ * enabled do not; their slot is looked up once on every shard and cached.
+ * <p>
+ * For a migration, slots can be frozen: new bindings to them wait, and the freeze itself waits until
+ * the requests already bound to them have finished. Without sharding every method is a no-op.
+ */
+public class ShardRouter {
+
+    private static final String LEGACY_SESSION = """
+            SELECT u.user_id FROM chat_sessions s JOIN users u ON u.id = s.user_id WHERE s.id = ?
+            """;
+    private static final String LEGACY_MESSAGE = """
+            SELECT u.user_id FROM chat_messages m JOIN chat_sessions s ON s.id = m.session_id
+            JOIN users u ON u.id = s.user_id WHERE m.id = ?
+            """;
+
+    private final ShardRoutingDataSource shards;
+    private final ShardDirectory directory;
+    private final ShardIds ids;
+    private final Duration freezeTimeout;
+    private final AtomicIntegerArray active = new AtomicIntegerArray(ShardRing.SLOTS);
+    private final AtomicIntegerArray frozen = new AtomicIntegerArray(ShardRing.SLOTS);
+    // A lock and condition rather than a monitor, so requests waiting out a freeze do not pin virtual threads
+    private final ReentrantLock barrier = new ReentrantLock();
+    private final Condition changed = barrier.newCondition();
+    private final Set<String> migrating = ConcurrentHashMap.newKeySet();
+    private final Cache<Long, Integer> legacySessions = Caffeine.newBuilder().maximumSize(100_000).build();
+    private final Cache<Long, Integer> legacyMessages = Caffeine.newBuilder().maximumSize(100_000).build();
+    private final ExecutorService scatter;
+
+    public ShardRouter(ShardRoutingDataSource shards, ShardDirectory directory, ShardIds ids, Duration freezeTimeout) {
+        this.shards = shards;
+        this.directory = directory;
+        this.ids = ids;
+        this.freezeTimeout = freezeTimeout;
+        this.scatter = shards == null ? null
+                : Executors.newCachedThreadPool(new CustomizableThreadFactory("shard-scatter-"));
+    }
+
+    /** A router for a single database, where all bindings are no-ops. */
+    public static ShardRouter unsharded() {
+        return new ShardRouter(null, null, null, Duration.ZERO);
+    }
+
+    public boolean isEnabled() {
+        return shards != null;
+    }
+
+    public void forUser(String userId) {
+        if (isEnabled()) bindSlot(ShardRing.slotOf(userId));
+    }
+
+    public void forSession(long sessionId) {
+        if (isEnabled()) bindId(sessionId, legacySessions, LEGACY_SESSION);
+    }
+
+    public void forMessage(long messageId) {
+        if (isEnabled()) bindId(messageId, legacyMessages, LEGACY_MESSAGE);
+    }
+
+    /** Binds a whole shard, for work that is not about one user. */
+    public void forShard(String shard) {
+        if (!isEnabled()) return;
+        release();
+        ShardContext.bind(shard, -1);
+    }
+
+    /** Drops the current thread's binding; later statements go to the main shard. */
+    public void release() {
+        ShardContext.Binding b = ShardContext.current();
+        if (b == null) return;
+        ShardContext.clear();
+        if (b.slot() >= 0 && active.decrementAndGet(b.slot()) == 0 && frozen.get(b.slot()) == 1) {
+            signalAll();
+        }
+    }
+
+    /** A fresh id for a row of this user, or null without sharding, where the database assigns ids. */
+    public Long nextId(String userId) {
+        return isEnabled() ? ids.next(ShardRing.slotOf(userId)) : null;
+    }
+
+    public String shardOf(String userId) {
+        return isEnabled() ? directory.shardOf(ShardRing.slotOf(userId)) : ShardRoutingDataSource.MAIN;
+    }
+
+    /** Whether {@code shard} is where the user lives; rows of a user being migrated exist on two shards for a while. */
+    public boolean owns(String shard, String userId) {
+        return shardOf(userId).equals(shard);
+    }
+
+    public List<String> shards() {
+        return isEnabled() ? List.copyOf(shards.shards().keySet()) : List.of(ShardRoutingDataSource.MAIN);
+    }
+
+    /**
+     * Runs a query on every shard in parallel, each on a thread bound to its shard, and concatenates
+     * the results in shard order. Without sharding the query runs once, in place.
+     */
+    public <T> List<T> scatter(Function<String, List<T>> query) {
+        if (!isEnabled()) return query.apply(ShardRoutingDataSource.MAIN);
+        List<CompletableFuture<List<T>>> parts = new ArrayList<>();
+        for (String shard : shards()) {
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                forShard(shard);
+                try {
+                    return query.apply(shard);
+                } finally {
+                    release();
+                }
+            }, scatter));
+        }
+        List<T> out = new ArrayList<>();
+        try {
+            for (CompletableFuture<List<T>> part : parts) out.addAll(part.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+        return out;
+    }
+
+    /** Runs a background job once per shard on the calling thread, skipping shards a migration is working on. */
+    public void forEachShard(Consumer<String> job) {
+        if (!isEnabled()) {
+            job.accept(ShardRoutingDataSource.MAIN);
+            return;
+        }
+        for (String shard : shards()) {
+            if (migrating.contains(shard)) continue;
+            forShard(shard);
+            try {
+                job.accept(shard);
+            } finally {
+                release();
+            }
+        }
+    }
+
+    private void bindId(long id, Cache<Long, Integer> legacy, String lookup) {
+        int slot = ShardIds.isSharded(id) ? ShardIds.slotOf(id) : legacy.get(id, key -> legacySlot(key, lookup));
+        if (slot < 0) {
+            // Found nowhere; the query that follows reports it missing
+            forShard(ShardRoutingDataSource.MAIN);
+        } else {
+            bindSlot(slot);
+        }
+    }
+
+    private int legacySlot(long id, String lookup) {
+        for (DataSource ds : shards.shards().values()) {
+            List<String> users = new JdbcTemplate(ds).queryForList(lookup, String.class, id);
+            if (!users.isEmpty()) return ShardRing.slotOf(users.get(0));
+        }
+        return -1;
+    }
+
+    private void bindSlot(int slot) {
+        ShardContext.Binding current = ShardContext.current();
+        if (current != null && current.slot() == slot) return;
+        release();
+        long deadline = System.nanoTime() + freezeTimeout.toNanos();
+        while (true) {
+            awaitThaw(slot, deadline);
+            active.incrementAndGet(slot);
+            if (frozen.get(slot) == 0) break;
+            // Frozen in between; step back so the freeze can complete
+            active.decrementAndGet(slot);
+            signalAll();
+        }
+        // Read after the barrier, so a request that waited for a move sees its new shard
+        ShardContext.bind(directory.shardOf(slot), slot);
+    }
+
+    private void awaitThaw(int slot, long deadline) {
+        if (frozen.get(slot) == 0) return;
+        barrier.lock();
+        try {
+            while (frozen.get(slot) == 1) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) throw new IllegalStateException("Shard migration in progress, retry shortly");
+                waitOn(left);
+            }
+        } finally {
+            barrier.unlock();
+        }
+    }
+
+    // ---- migration support
+
+    void startMigration(String from, String to) {
+        migrating.add(from);
+        migrating.add(to);
+    }
+
+    void endMigration(String from, String to) {
+        migrating.remove(from);
+        migrating.remove(to);
+    }
+
+    /** Stops new requests on the slots and waits for the ones in flight; thaws and fails after the timeout. */
+    void freeze(Collection<Integer> slots) {
+        slots.forEach(slot -> frozen.set(slot, 1));
+        long deadline = System.nanoTime() + freezeTimeout.toNanos();
+        barrier.lock();
+        try {
+            while (slots.stream().anyMatch(slot -> active.get(slot) > 0)) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    thaw(slots);
+                    throw new IllegalStateException("Requests on the moving slots did not finish within " + freezeTimeout);
+                }
+                waitOn(left);
+            }
+        } finally {
+            barrier.unlock();
+        }
+    }
+
+    void thaw(Collection<Integer> slots) {
+        slots.forEach(slot -> frozen.set(slot, 0));
+        signalAll();
+    }
+
+    private void signalAll() {
+        barrier.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            barrier.unlock();
+        }
+    }
+
+    private void waitOn(long nanos) {
+        try {
+            changed.await(nanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shard migration", e);
+        }
+    }
+
+    /** The pool of every shard by name, bypassing routing. */
+    Map<String, DataSource> dataSources() {
+        return shards.shards();
+    }
+
+    public void shutdown() {
+        if (scatter != null) scatter.shutdownNow();
+    }
+}
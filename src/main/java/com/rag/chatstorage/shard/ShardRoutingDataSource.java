@@ -0,0 +1,62 @@
+package com.rag.chatstorage.shard;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+/**
+ * Hands out connections of the shard bound to the current thread, or of the main shard when none is.
+ * <p>
+ * Like the replica router, it must sit behind a {@code LazyConnectionDataSourceProxy}: services bind
+ * their shard at the top of a method, after the transaction has begun but before its first statement.
+ */
+public class ShardRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    public static final String MAIN = "main";
+
+    private final Map<String, DataSource> shards;
+
+    public ShardRoutingDataSource(Map<String, DataSource> shards) {
+        if (!shards.containsKey(MAIN)) throw new IllegalArgumentException("The main shard is required");
+        this.shards = Collections.unmodifiableMap(new LinkedHashMap<>(shards));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return shard(current()).getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return shard(current()).getConnection(username, password);
+    }
+
+    private static String current() {
+        ShardContext.Binding b = ShardContext.current();
+        return b == null ? MAIN : b.shard();
+    }
+
+    /** The pool of one shard, bypassing routing. */
+    public DataSource shard(String name) {
+        DataSource ds = shards.get(name);
+        if (ds == null) throw new IllegalStateException("Unknown shard: " + name);
+        return ds;
+    }
+
+    /** Every shard by name, main first. */
+    public Map<String, DataSource> shards() {
+        return shards;
+    }
+
+    /** Closes the pools of the added members; the main pool is a bean of its own. */
+    @Override
+    public void close() throws Exception {
+        for (Map.Entry<String, DataSource> e : shards.entrySet()) {
+            if (!e.getKey().equals(MAIN) && e.getValue() instanceof AutoCloseable c) c.close();
+        }
+    }
+}
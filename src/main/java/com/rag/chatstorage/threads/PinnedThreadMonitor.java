@@ -0,0 +1,87 @@
+package com.rag.chatstorage.threads;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports virtual threads that block while pinned to their carrier, typically inside a
+ * {@code synchronized} block or a native frame, which takes the carrier away from every other virtual
+ * thread meanwhile.
+ * <p>
+ * Listens to the JDK's {@code jdk.VirtualThreadPinned} flight-recorder events in-process. Each event is
+ * counted in {@code chat.virtual.pinned} and timed in {@code chat.virtual.pinned.duration}; the first
+ * occurrence of each distinct stack is logged with its frames, so the offending lock can be found.
+ */
+@Component
+@ConditionalOnThreading(Threading.VIRTUAL)
+@ConditionalOnProperty(name = "chat.virtual-threads.pinning.enabled", havingValue = "true", matchIfMissing = true)
+public class PinnedThreadMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(PinnedThreadMonitor.class);
+    static final String EVENT = "jdk.VirtualThreadPinned";
+    private static final int MAX_LOGGED = 1_000;
+
+    private final PinningProperties props;
+    private final Counter pinned;
+    private final Timer pinnedFor;
+    private final Set<String> logged = ConcurrentHashMap.newKeySet();
+    private final RecordingStream stream;
+
+    public PinnedThreadMonitor(PinningProperties props, MeterRegistry meterRegistry) {
+        this.props = props;
+        this.pinned = Counter.builder("chat.virtual.pinned")
+                .description("Virtual threads that blocked while pinned to their carrier")
+                .register(meterRegistry);
+        this.pinnedFor = Timer.builder("chat.virtual.pinned.duration")
+                .description("How long pinned virtual threads held their carrier")
+                .register(meterRegistry);
+        this.stream = new RecordingStream();
+        stream.enable(EVENT).withThreshold(props.getThreshold()).withStackTrace();
+        stream.onEvent(EVENT, this::onPinned);
+        stream.startAsync();
+        log.info("Reporting virtual threads pinned for {} ms or longer", props.getThreshold().toMillis());
+    }
+
+    void onPinned(RecordedEvent event) {
+        pinned.increment();
+        pinnedFor.record(event.getDuration());
+        String stack = describe(event.getStackTrace());
+        if (logged.size() < MAX_LOGGED && logged.add(stack)) {
+            log.warn("Virtual thread pinned for {} ms:\n{}", event.getDuration().toMillis(), stack);
+        }
+    }
+
+    private String describe(RecordedStackTrace trace) {
+        if (trace == null) return "\t(no stack trace)";
+        List<RecordedFrame> frames = trace.getFrames();
+        // The top frames are the JDK parking the thread; the caller that blocked comes after them
+        return frames.stream()
+                .dropWhile(f -> f.getMethod().getType().getName().startsWith("java.lang.VirtualThread")
+                        || f.getMethod().getType().getName().startsWith("jdk.internal."))
+                .limit(Math.max(1, props.getStackDepth()))
+                .map(f -> "\tat " + f.getMethod().getType().getName() + "." + f.getMethod().getName()
+                        + (f.getLineNumber() > 0 ? ":" + f.getLineNumber() : ""))
+                .collect(Collectors.joining("\n"));
+    }
+
+    @PreDestroy
+    public void close() {
+        stream.close();
+    }
+}
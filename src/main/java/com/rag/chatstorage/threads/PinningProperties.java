@@ -0,0 +1,25 @@
+package com.rag.chatstorage.threads;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the diagnostics of virtual threads pinned to their carrier.
+ * <p>
+ * Active only while {@code spring.threads.virtual.enabled} is on. Pinning that lasts at least
+ * {@code threshold} is counted; each distinct place it happens is logged once, with up to
+ * {@code stackDepth} frames.
+ */
+@ConfigurationProperties(prefix = "chat.virtual-threads.pinning")
+public class PinningProperties {
+    private boolean enabled = true;
+    private Duration threshold = Duration.ofMillis(20);
+    private int stackDepth = 12;
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public Duration getThreshold() { return threshold; }
+    public void setThreshold(Duration threshold) { this.threshold = threshold; }
+    public int getStackDepth() { return stackDepth; }
+    public void setStackDepth(int stackDepth) { this.stackDepth = stackDepth; }
+}
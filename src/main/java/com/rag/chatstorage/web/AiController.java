@@ -1,8 +1,14 @@
 package com.rag.chatstorage.web;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rag.chatstorage.aicache.SingleFlight;
+import com.rag.chatstorage.service.AiService;
 import io.swagger.v3.oas.annotations.Hidden;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
-import org.springframework.ai.chat.client.ChatClient;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.embedding.EmbeddingResponse;
 import org.springframework.http.HttpStatus;
@@ -16,6 +22,9 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Map;
 
@@ -26,13 +35,20 @@ import java.util.Map;
 @Hidden
 public class AiController {
 
-    private final ChatClient chatClient;
+    private final AiService aiService;
     private final EmbeddingModel embeddingModel;
+    private final SingleFlight singleFlight;
+    private final InferBatches batches;
+    private final ObjectMapper mapper;
 
-    public AiController(org.springframework.beans.factory.ObjectProvider<ChatClient> chatClientProvider,
-                        org.springframework.beans.factory.ObjectProvider<EmbeddingModel> embeddingModelProvider) {
-        this.chatClient = chatClientProvider.getIfAvailable();
+    public AiController(AiService aiService,
+                        org.springframework.beans.factory.ObjectProvider<EmbeddingModel> embeddingModelProvider,
+                        SingleFlight singleFlight, InferBatches batches, ObjectMapper mapper) {
+        this.aiService = aiService;
         this.embeddingModel = embeddingModelProvider.getIfAvailable();
+        this.singleFlight = singleFlight;
+        this.batches = batches;
+        this.mapper = mapper;
     }
 
     public record InferRequest(@NotBlank String prompt, String system) {}
@@ -42,7 +58,8 @@ public class AiController {
     @ResponseStatus(HttpStatus.OK)
     @Operation(
             summary = "Chat inference",
-            description = "Send a prompt (and optional system instruction) to the configured chat model and return the assistant reply.",
+            description = "Send a prompt (and optional system instruction) to the configured chat model and return the assistant reply. "
+                    + "A prompt asked before, or close in meaning to one asked before, is answered from the reply cache (chat.ai-cache).",
             requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     required = true,
                     content = @Content(mediaType = "application/json",
@@ -64,19 +81,53 @@ public class AiController {
             }
     )
     public InferResponse infer(@RequestBody InferRequest request) {
-        if (chatClient == null) {
-            throw new org.springframework.web.server.ResponseStatusException(
-                    HttpStatus.SERVICE_UNAVAILABLE,
-                    "No AI chat provider is configured. Enable a provider profile (e.g. openai, ollama)."
-            );
-        }
-        var prompt = chatClient.prompt();
-        if (request.system() != null && !request.system().isBlank()) {
-            prompt = prompt.system(request.system());
-        }
-        var result = prompt.user(request.prompt()).call();
-        String content = result.content();
-        return new InferResponse(content, Map.of());
+        // Through AiService, so that retries, the circuit breaker and the reply cache apply
+        return new InferResponse(aiService.infer(request.system(), request.prompt()), Map.of());
+    }
+
+    // Prompts per batch request
+    static final int MAX_BATCH_SIZE = 100;
+
+    public record InferBatchRequest(@NotEmpty @Size(max = MAX_BATCH_SIZE) List<@NotBlank String> prompts, String system) {}
+
+    @PostMapping(value = "/infer:batch", produces = "application/x-ndjson")
+    @Operation(
+            summary = "Batch chat inference (NDJSON)",
+            description = "Runs up to " + MAX_BATCH_SIZE + " prompts with an optional shared system instruction side by side and streams one line per prompt "
+                    + "as soon as it completes, in completion order: {\"index\", \"content\"} or {\"index\", \"error\": {message, code, hint}}. "
+                    + "Each prompt goes through the same cache, retries, circuit breaker and concurrency limit as /infer; "
+                    + "per API key at most chat.ai.batch.parallelism prompts run at once.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    required = true,
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = InferBatchRequest.class),
+                            examples = @ExampleObject(value = "{\n  \"prompts\": [\"Classify: great product\", \"Classify: never again\"],\n  \"system\": \"Answer positive or negative.\"\n}"))
+            ),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK, one line per prompt",
+                            content = @Content(mediaType = "application/x-ndjson",
+                                    examples = @ExampleObject(value = "{\"index\":1,\"content\":\"negative\",\"error\":null}\n{\"index\":0,\"content\":\"positive\",\"error\":null}"))),
+                    @ApiResponse(responseCode = "400", description = "Bad Request - no prompts, a blank prompt or too many",
+                            content = @Content(mediaType = "application/problem+json")),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized - missing/invalid API key",
+                            content = @Content(mediaType = "application/problem+json")),
+                    @ApiResponse(responseCode = "429", description = "Too Many Requests",
+                            content = @Content(mediaType = "application/problem+json"))
+            }
+    )
+    public void inferBatch(@Valid @RequestBody InferBatchRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(NdjsonExports.NDJSON.toString());
+        OutputStream out = response.getOutputStream();
+        batches.run(request.system(), request.prompts(), item -> {
+            try {
+                out.write(mapper.writeValueAsBytes(item));
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     public record EmbeddingsRequest(List<@NotBlank String> inputs) {}
@@ -116,7 +167,9 @@ public class AiController {
                     "No AI embedding provider is configured. Enable a provider profile (e.g. openai, ollama)."
             );
         }
-        EmbeddingResponse resp = embeddingModel.embedForResponse(request.inputs());
+        // Identical input lists in flight at the same time share one call to the provider
+        EmbeddingResponse resp = singleFlight.execute("embeddings", String.join("\u0000", request.inputs()),
+                () -> embeddingModel.embedForResponse(request.inputs()));
         List<EmbeddingVector> vectors = resp.getResults().stream()
                 .map(r -> new EmbeddingVector(r.getOutput()))
                 .toList();
@@ -1,7 +1,10 @@
 package com.rag.chatstorage.web;
 
+import com.rag.chatstorage.idempotency.IdempotencyStore;
 import com.rag.chatstorage.service.AiService;
+import com.rag.chatstorage.service.MessageSearchService;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -12,6 +15,7 @@ import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.context.request.async.AsyncRequestNotUsableException;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.servlet.ModelAndView;
 
@@ -49,6 +53,7 @@ public class GlobalExceptionHandler {
             HttpStatus status = switch (ex.getCode() == null ? "" : ex.getCode()) {
                 case "CONFIG_MISSING" -> HttpStatus.SERVICE_UNAVAILABLE;
                 case "AI_UNAVAILABLE" -> HttpStatus.SERVICE_UNAVAILABLE;
+                case "AI_BUSY" -> HttpStatus.SERVICE_UNAVAILABLE;
                 default -> HttpStatus.SERVICE_UNAVAILABLE;
             };
             ProblemDetail pd = ProblemDetail.forStatus(status);
@@ -60,6 +65,9 @@ public class GlobalExceptionHandler {
             if (ex.getHint() != null) pd.setProperty("hint", ex.getHint());
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.valueOf("application/problem+json"));
+            if (ex.getRetryAfter() != null) {
+                headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, ex.getRetryAfter().toSeconds())));
+            }
             return new ResponseEntity<>(pd, headers, status);
         }
 
@@ -82,6 +90,41 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(pd, headers, HttpStatus.NOT_FOUND);
     }
 
+    @ExceptionHandler(IdempotencyStore.KeyMisuseException.class)
+    public Object handleIdempotencyKey(IdempotencyStore.KeyMisuseException ex, HttpServletRequest request) {
+        HttpStatus status = switch (ex.getCode()) {
+            case "IDEMPOTENCY_KEY_REUSED" -> HttpStatus.UNPROCESSABLE_ENTITY;
+            case "IDEMPOTENCY_KEY_IN_FLIGHT" -> HttpStatus.CONFLICT;
+            default -> HttpStatus.BAD_REQUEST;
+        };
+        ProblemDetail pd = ProblemDetail.forStatus(status);
+        pd.setTitle(status.getReasonPhrase());
+        pd.setDetail(ex.getMessage());
+        pd.setType(URI.create("about:blank"));
+        pd.setInstance(URI.create(request.getRequestURI()));
+        pd.setProperty("code", ex.getCode());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf("application/problem+json"));
+        // The first request is still running; its response can be replayed once it is done
+        if (status == HttpStatus.CONFLICT) headers.set(HttpHeaders.RETRY_AFTER, "1");
+        return new ResponseEntity<>(pd, headers, status);
+    }
+
+    @ExceptionHandler(MessageSearchService.SearchException.class)
+    public Object handleSearch(MessageSearchService.SearchException ex, HttpServletRequest request) {
+        HttpStatus status = "SEARCH_DISABLED".equals(ex.getCode())
+                ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.BAD_REQUEST;
+        ProblemDetail pd = ProblemDetail.forStatus(status);
+        pd.setTitle(status.getReasonPhrase());
+        pd.setDetail(ex.getMessage());
+        pd.setType(URI.create("about:blank"));
+        pd.setInstance(URI.create(request.getRequestURI()));
+        pd.setProperty("code", ex.getCode());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf("application/problem+json"));
+        return new ResponseEntity<>(pd, headers, status);
+    }
+
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public Object handleValidation(MethodArgumentNotValidException ex, HttpServletRequest request) {
         Map<String, Object> errors = new HashMap<>();
@@ -150,8 +193,15 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(pd, headers, HttpStatus.BAD_REQUEST);
     }
 
+    // The client went away during a streamed response; there is nothing left to write to
+    @ExceptionHandler(AsyncRequestNotUsableException.class)
+    public void handleClientGone(AsyncRequestNotUsableException ex) {
+    }
+
     @ExceptionHandler(Exception.class)
-    public Object handleGeneric(Exception ex, HttpServletRequest request) {
+    public Object handleGeneric(Exception ex, HttpServletRequest request, HttpServletResponse response) {
+        // A streamed response already started (e.g. the client went away mid-stream); nothing more can be sent
+        if (response.isCommitted()) return null;
         if (wantsHtml(request) && !isApi(request)) {
             ModelAndView mav = new ModelAndView("error/5xx");
             mav.setStatus(HttpStatus.INTERNAL_SERVER_ERROR);
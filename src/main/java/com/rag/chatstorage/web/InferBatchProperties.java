@@ -0,0 +1,17 @@
+package com.rag.chatstorage.web;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for batch inference ({@code POST /api/v1/ai/infer:batch}).
+ * <p>
+ * A tenant has at most {@code parallelism} prompts of its batches with the model at once, across all
+ * of its concurrent batches; the rest wait their turn. The provider-wide concurrency limit still applies.
+ */
+@ConfigurationProperties(prefix = "chat.ai.batch")
+public class InferBatchProperties {
+    private int parallelism = 8;
+
+    public int getParallelism() { return parallelism; }
+    public void setParallelism(int parallelism) { this.parallelism = parallelism; }
+}
@@ -0,0 +1,122 @@
+package com.rag.chatstorage.web;
+
+import com.rag.chatstorage.aicache.AiTenant;
+import com.rag.chatstorage.service.AiService;
+import com.rag.chatstorage.web.dto.AddMessageResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the prompts of an inference batch side by side, so a batch takes about as long as its slowest prompt.
+ * <p>
+ * Every prompt goes through {@link AiService#infer}, with its cache, coalescing, retries, circuit breaker
+ * and concurrency limit, on a virtual thread of its own. Per tenant at most {@code chat.ai.batch.parallelism}
+ * prompts are with the model at once. Results are handed back on the caller's thread as they complete,
+ * in completion order; a prompt that fails yields an error item and does not fail the batch.
+ * <p>
+ * Meters: {@code chat.ai.batch.items} counts prompts by {@code result} (ok, error).
+ */
+@Component
+public class InferBatches {
+
+    private static final Logger log = LoggerFactory.getLogger(InferBatches.class);
+
+    /** The outcome of the prompt at {@code index}: its reply, or the error it failed with. */
+    public record Item(int index, String content, AddMessageResponse.AiError error) {}
+
+    private final AiService aiService;
+    private final InferBatchProperties props;
+    private final Map<String, Semaphore> tenants = new ConcurrentHashMap<>();
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("infer-batch-", 1).factory());
+    private final Counter succeeded;
+    private final Counter failed;
+
+    public InferBatches(AiService aiService, InferBatchProperties props, MeterRegistry meterRegistry) {
+        this.aiService = aiService;
+        this.props = props;
+        this.succeeded = Counter.builder("chat.ai.batch.items").tag("result", "ok")
+                .description("Prompts of inference batches").register(meterRegistry);
+        this.failed = Counter.builder("chat.ai.batch.items").tag("result", "error")
+                .description("Prompts of inference batches").register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code prompts} with the shared {@code system} prompt and passes each result to {@code sink}
+     * as it completes. If {@code sink} throws, as when the client went away, prompts still running are cancelled.
+     */
+    public void run(String system, List<String> prompts, Consumer<Item> sink) {
+        String tenant = AiTenant.current();
+        Semaphore slots = tenants.computeIfAbsent(tenant, t -> new Semaphore(Math.max(1, props.getParallelism()), true));
+        Map<String, String> mdc = MDC.getCopyOfContextMap();
+        BlockingQueue<Item> done = new LinkedBlockingQueue<>();
+        List<Future<?>> running = new ArrayList<>(prompts.size());
+        try {
+            for (int i = 0; i < prompts.size(); i++) {
+                int index = i;
+                running.add(executor.submit(() -> {
+                    if (mdc != null) MDC.setContextMap(mdc);
+                    try {
+                        AiTenant.runAs(tenant, () -> done.add(infer(slots, index, system, prompts.get(index))));
+                    } finally {
+                        MDC.clear();
+                    }
+                }));
+            }
+            for (int n = 0; n < prompts.size(); n++) {
+                sink.accept(done.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.forEach(f -> f.cancel(true));
+        }
+    }
+
+    private Item infer(Semaphore slots, int index, String system, String prompt) {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return error(index, "AI_UNAVAILABLE", "The batch was cancelled.", null);
+        }
+        try {
+            String reply = aiService.infer(system, prompt);
+            succeeded.increment();
+            return new Item(index, reply, null);
+        } catch (AiService.AiFriendlyException e) {
+            return error(index, e.getCode(), e.getMessage(), e.getHint());
+        } catch (RuntimeException e) {
+            log.warn("Batch prompt {} failed", index, e);
+            return error(index, "AI_UNAVAILABLE", "The assistant couldn’t respond right now. Please try again.", null);
+        } finally {
+            slots.release();
+        }
+    }
+
+    private Item error(int index, String code, String message, String hint) {
+        failed.increment();
+        return new Item(index, null, new AddMessageResponse.AiError(message, code, hint));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,43 @@
+package com.rag.chatstorage.web;
+
+import com.rag.chatstorage.service.TranscriptExportService.Export;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/** Builds streaming NDJSON download responses for transcript exports. */
+final class NdjsonExports {
+
+    static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private NdjsonExports() {}
+
+    /**
+     * Wraps an export in a {@link StreamingResponseBody}, gzip-encoded when requested explicitly
+     * or when the client advertises gzip support.
+     */
+    static ResponseEntity<StreamingResponseBody> response(Export export, String filename, boolean gzip,
+                                                          String acceptEncoding) {
+        boolean compress = gzip || (acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip"));
+        StreamingResponseBody body = out -> {
+            if (compress) {
+                GZIPOutputStream gz = new GZIPOutputStream(out, 8192, true);
+                export.writeTo(gz);
+                gz.finish();
+            } else {
+                export.writeTo(out);
+            }
+        };
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(filename).build().toString());
+        if (compress) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).body(body);
+    }
+}
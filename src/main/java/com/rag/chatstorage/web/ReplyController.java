@@ -0,0 +1,41 @@
+package com.rag.chatstorage.web;
+
+import com.rag.chatstorage.web.dto.ReplyJobResponse;
+import org.springframework.web.bind.annotation.*;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@RestController
+@RequestMapping("/api/v1/replies")
+@Tag(name = "Replies", description = "Follow assistant replies generated in the background")
+public class ReplyController {
+
+    private final ReplyJobs replyJobs;
+
+    public ReplyController(ReplyJobs replyJobs) {
+        this.replyJobs = replyJobs;
+    }
+
+    @GetMapping("/{jobId}")
+    @Operation(
+            summary = "Get reply job",
+            description = "State of a reply requested with async=true: PENDING or RUNNING, then SUCCEEDED with aiMessage "
+                    + "or FAILED with aiError. Finished jobs are kept for chat.replies.ttl.",
+            parameters = { @Parameter(name = "jobId", description = "Reply job ID", required = true) },
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK",
+                            content = @Content(mediaType = "application/json",
+                                    schema = @Schema(implementation = ReplyJobResponse.class))),
+                    @ApiResponse(responseCode = "404", description = "Unknown or expired job",
+                            content = @Content(mediaType = "application/problem+json"))
+            }
+    )
+    public ReplyJobResponse get(@PathVariable String jobId) {
+        return replyJobs.find(jobId)
+                .orElseThrow(() -> new IllegalArgumentException("Reply job not found"));
+    }
+}
@@ -0,0 +1,37 @@
+package com.rag.chatstorage.web;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for assistant replies generated in the background ({@code async=true}).
+ * <p>
+ * Replies run on {@code threads} dedicated threads; up to {@code queueCapacity} more wait their turn and
+ * beyond that a job fails right away as busy. Job states can be looked up for {@code ttl} after they
+ * were last updated, for at most {@code maxJobs} jobs.
+ * <p>
+ * With {@code virtualThreads} each job gets a virtual thread of its own instead, so replies waiting on
+ * the provider cost no platform thread; {@code threads + queueCapacity} jobs may then run at once.
+ */
+@ConfigurationProperties(prefix = "chat.replies")
+public class ReplyJobProperties {
+    private int threads = 8;
+    private int queueCapacity = 500;
+    private Duration ttl = Duration.ofHours(1);
+    private long maxJobs = 100_000;
+    private Duration shutdownGrace = Duration.ofSeconds(30);
+    private boolean virtualThreads = false;
+
+    public int getThreads() { return threads; }
+    public void setThreads(int threads) { this.threads = threads; }
+    public int getQueueCapacity() { return queueCapacity; }
+    public void setQueueCapacity(int queueCapacity) { this.queueCapacity = queueCapacity; }
+    public Duration getTtl() { return ttl; }
+    public void setTtl(Duration ttl) { this.ttl = ttl; }
+    public long getMaxJobs() { return maxJobs; }
+    public void setMaxJobs(long maxJobs) { this.maxJobs = maxJobs; }
+    public Duration getShutdownGrace() { return shutdownGrace; }
+    public void setShutdownGrace(Duration shutdownGrace) { this.shutdownGrace = shutdownGrace; }
+    public boolean isVirtualThreads() { return virtualThreads; }
+    public void setVirtualThreads(boolean virtualThreads) { this.virtualThreads = virtualThreads; }
+}
@@ -0,0 +1,186 @@
+package com.rag.chatstorage.web;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rag.chatstorage.aicache.AiTenant;
+import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.service.AiService;
+import com.rag.chatstorage.service.ChatSessionService;
+import com.rag.chatstorage.shard.ShardRouter;
+import com.rag.chatstorage.web.dto.AddMessageResponse;
+import com.rag.chatstorage.web.dto.ReplyJobResponse;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Assistant replies generated in the background, for message posts with {@code async=true}.
+ * <p>
+ * The user message is stored on the request thread, which then returns the job; the reply is asked for
+ * and stored on a dedicated, bounded pool, so a slow model holds neither servlet threads nor the
+ * client's connection. When the pool and its queue are full the job fails at once with {@code AI_BUSY}.
+ * Clients poll the job, or listen on the session's event channel for a {@code reply} event carrying
+ * the finished job. Jobs live in this instance only.
+ * <p>
+ * With {@code chat.replies.virtual-threads} every job runs on a virtual thread of its own, admitted up to
+ * {@code threads + queue-capacity} at a time, so thousands of replies can wait on the provider at once.
+ */
+@Component
+public class ReplyJobs {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplyJobs.class);
+
+    private final ChatSessionService service;
+    private final AiService aiService;
+    private final ShardRouter shards;
+    private final ReplyJobProperties props;
+    private final ExecutorService executor;
+    private final Semaphore admitted; // only with virtual threads; the pool's queue bounds platform threads
+    private final Cache<String, ReplyJobResponse> jobs;
+    private final Map<Long, Set<SseEmitter>> listeners = new ConcurrentHashMap<>();
+
+    public ReplyJobs(ChatSessionService service, AiService aiService, ShardRouter shards,
+                     ReplyJobProperties props, MeterRegistry meterRegistry) {
+        this.service = service;
+        this.aiService = aiService;
+        this.shards = shards;
+        this.props = props;
+        int threads = Math.max(1, props.getThreads());
+        int queue = Math.max(1, props.getQueueCapacity());
+        if (props.isVirtualThreads()) {
+            Semaphore permits = new Semaphore(threads + queue);
+            this.admitted = permits;
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("reply-", 1).factory());
+            Gauge.builder("chat.replies.active", () -> threads + queue - permits.availablePermits())
+                    .description("Reply jobs running on virtual threads")
+                    .register(meterRegistry);
+        } else {
+            this.admitted = null;
+            this.executor = ExecutorServiceMetrics.monitor(meterRegistry,
+                    new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(queue), new CustomizableThreadFactory("reply-")),
+                    "chat.replies");
+        }
+        this.jobs = Caffeine.newBuilder()
+                .expireAfterWrite(props.getTtl())
+                .maximumSize(props.getMaxJobs())
+                .build();
+    }
+
+    /** Stores the message and, for a user message, queues the reply; other senders complete at once. */
+    public ReplyJobResponse submit(Long sessionId, ChatMessage.Sender sender, String content, String context) {
+        ChatMessage userMsg = service.addMessage(sessionId, sender, content, context);
+        ReplyJobResponse job = new ReplyJobResponse(UUID.randomUUID().toString(), sessionId,
+                ReplyJobResponse.Status.PENDING, AddMessageResponse.MessageResponse.from(userMsg),
+                null, null, Instant.now(), null);
+        if (sender != ChatMessage.Sender.USER) {
+            return complete(job.completed(null, null));
+        }
+        jobs.put(job.jobId(), job);
+        try {
+            if (admitted != null && !admitted.tryAcquire()) throw new RejectedExecutionException();
+            String tenant = AiTenant.current();
+            executor.execute(() -> {
+                try {
+                    AiTenant.runAs(tenant, () -> run(job, content));
+                } finally {
+                    if (admitted != null) admitted.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return complete(job.completed(null, new AddMessageResponse.AiError(
+                    "The assistant is busy right now. Please try again shortly.", "AI_BUSY", null)));
+        }
+        return job;
+    }
+
+    public Optional<ReplyJobResponse> find(String jobId) {
+        return Optional.ofNullable(jobs.getIfPresent(jobId));
+    }
+
+    /** An event stream of the session's finished jobs, as {@code reply} events, until it times out. */
+    public SseEmitter subscribe(Long sessionId) {
+        SseEmitter emitter = new SseEmitter(props.getTtl().toMillis());
+        Set<SseEmitter> set = listeners.computeIfAbsent(sessionId, id -> new CopyOnWriteArraySet<>());
+        set.add(emitter);
+        Runnable remove = () -> listeners.computeIfPresent(sessionId, (id, s) -> {
+            s.remove(emitter);
+            return s.isEmpty() ? null : s;
+        });
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        return emitter;
+    }
+
+    private void run(ReplyJobResponse job, String content) {
+        jobs.put(job.jobId(), job.running());
+        try {
+            String reply = aiService.inferWithHistory(content, AiService.CHAT_SYSTEM_PROMPT,
+                    service.promptHistory(job.sessionId(), AiService.HISTORY_WINDOW, AiService.HISTORY_STEP));
+            ChatMessage aiMsg = service.addMessage(job.sessionId(), ChatMessage.Sender.ASSISTANT, reply, null);
+            complete(job.completed(AddMessageResponse.MessageResponse.from(aiMsg), null));
+        } catch (AiService.AiFriendlyException afe) {
+            complete(job.completed(null, new AddMessageResponse.AiError(afe.getMessage(), afe.getCode(), afe.getHint())));
+        } catch (Exception e) {
+            log.warn("Reply job {} failed", job.jobId(), e);
+            complete(job.completed(null, new AddMessageResponse.AiError(
+                    "The assistant couldn’t respond right now. Please try again.", "AI_UNAVAILABLE", null)));
+        } finally {
+            shards.release();
+        }
+    }
+
+    private ReplyJobResponse complete(ReplyJobResponse job) {
+        jobs.put(job.jobId(), job);
+        Set<SseEmitter> set = listeners.get(job.sessionId());
+        if (set != null) {
+            for (SseEmitter emitter : set) {
+                try {
+                    emitter.send(SseEmitter.event().name("reply").id(job.jobId()).data(job, MediaType.APPLICATION_JSON));
+                } catch (IOException | IllegalStateException e) {
+                    // The client went away; the job can still be polled
+                    set.remove(emitter);
+                }
+            }
+        }
+        return job;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(props.getShutdownGrace().toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Reply jobs still running at shutdown were abandoned");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        listeners.values().forEach(set -> set.forEach(SseEmitter::complete));
+    }
+}
@@ -0,0 +1,114 @@
+package com.rag.chatstorage.web;
+
+import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.service.AiService;
+import com.rag.chatstorage.service.ChatSessionService;
+import com.rag.chatstorage.shard.ShardRouter;
+import com.rag.chatstorage.web.dto.AddMessageResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Server-Sent Events for a posted message and the assistant's reply as it is generated.
+ * <p>
+ * The user message is stored on the request thread, which then returns; chunks are relayed from the
+ * model client's threads as they arrive, so no servlet thread waits out the generation. Events:
+ * {@code user} (the stored message), {@code delta} (a chunk of reply text), then either {@code done}
+ * (an {@link AddMessageResponse} with the stored reply) or {@code error} (an
+ * {@link AddMessageResponse.AiError}). The reply is stored once, when generation completes; a client
+ * that disconnects early finds it in the session afterwards.
+ */
+@Component
+public class ReplyStreams {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplyStreams.class);
+
+    private final ChatSessionService service;
+    private final AiService aiService;
+    private final ShardRouter shards;
+
+    public ReplyStreams(ChatSessionService service, AiService aiService, ShardRouter shards) {
+        this.service = service;
+        this.aiService = aiService;
+        this.shards = shards;
+    }
+
+    public record Delta(String text) {}
+
+    public SseEmitter stream(Long sessionId, ChatMessage.Sender sender, String content, String context) {
+        // Before the stream opens, so that an unknown session is still a plain 404
+        ChatMessage userMsg = service.addMessage(sessionId, sender, content, context);
+        AddMessageResponse resp = new AddMessageResponse();
+        resp.setUserMessage(AddMessageResponse.MessageResponse.from(userMsg));
+
+        SseEmitter emitter = new SseEmitter();
+        AtomicBoolean open = new AtomicBoolean(true);
+        emitter.onCompletion(() -> open.set(false));
+        emitter.onTimeout(() -> open.set(false));
+        emitter.onError(e -> open.set(false));
+
+        send(emitter, open, "user", resp.getUserMessage());
+        if (sender != ChatMessage.Sender.USER) {
+            send(emitter, open, "done", resp);
+            emitter.complete();
+            return emitter;
+        }
+        List<ChatMessage> history = service.promptHistory(sessionId, AiService.HISTORY_WINDOW, AiService.HISTORY_STEP);
+        StringBuilder reply = new StringBuilder();
+        aiService.streamWithHistory(content, AiService.CHAT_SYSTEM_PROMPT, history)
+                .doOnNext(chunk -> {
+                    reply.append(chunk);
+                    send(emitter, open, "delta", new Delta(chunk));
+                })
+                // Storing the reply blocks, so it leaves the model client's threads
+                .then(Mono.fromCallable(() -> store(sessionId, reply.toString())).subscribeOn(Schedulers.boundedElastic()))
+                .subscribe(aiMsg -> {
+                    resp.setAiMessage(AddMessageResponse.MessageResponse.from(aiMsg));
+                    send(emitter, open, "done", resp);
+                    emitter.complete();
+                }, e -> {
+                    send(emitter, open, "error", aiError(e));
+                    emitter.complete();
+                });
+        return emitter;
+    }
+
+    private ChatMessage store(Long sessionId, String reply) {
+        if (reply.isBlank()) {
+            throw new AiService.AiFriendlyException("AI_UNAVAILABLE",
+                    "The assistant couldn’t respond right now. Please try again.", "(empty reply)");
+        }
+        try {
+            return service.addMessage(sessionId, ChatMessage.Sender.ASSISTANT, reply, null);
+        } finally {
+            shards.release();
+        }
+    }
+
+    private static AddMessageResponse.AiError aiError(Throwable e) {
+        if (e instanceof AiService.AiFriendlyException afe) {
+            return new AddMessageResponse.AiError(afe.getMessage(), afe.getCode(), afe.getHint());
+        }
+        log.warn("Streamed reply failed", e);
+        return new AddMessageResponse.AiError("The assistant couldn’t respond right now. Please try again.",
+                "AI_UNAVAILABLE", null);
+    }
+
+    private static void send(SseEmitter emitter, AtomicBoolean open, String event, Object data) {
+        if (!open.get()) return;
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            // The client went away; generation goes on and the reply is still stored
+            open.set(false);
+        }
+    }
+}
@@ -1,25 +1,46 @@
 package com.rag.chatstorage.web;
 
+import com.rag.chatstorage.cache.VersionStamps;
 import com.rag.chatstorage.domain.ChatMessage;
 import com.rag.chatstorage.domain.ChatSession;
+import com.rag.chatstorage.idempotency.IdempotencyStore;
 import com.rag.chatstorage.service.AiService;
 import com.rag.chatstorage.service.ChatSessionService;
+import com.rag.chatstorage.service.TranscriptExportService;
+import com.rag.chatstorage.service.TranscriptImportService;
 import com.rag.chatstorage.web.dto.AddMessageResponse;
+import com.rag.chatstorage.web.dto.ReplyJobResponse;
 import com.rag.chatstorage.web.dto.SessionDtos.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import org.springframework.data.domain.Page;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 @RestController
 @RequestMapping("/api/v1/sessions")
@@ -28,10 +49,26 @@ public class SessionController {
 
     private final AiService aiService;
     private final ChatSessionService service;
+    private final TranscriptExportService exportService;
+    private final TranscriptImportService importService;
+    private final ObjectMapper mapper;
+    private final IdempotencyStore idempotency;
+    private final VersionStamps versions;
+    private final ReplyStreams replyStreams;
+    private final ReplyJobs replyJobs;
 
-    public SessionController(AiService aiService, ChatSessionService service) {
+    public SessionController(AiService aiService, ChatSessionService service, TranscriptExportService exportService,
+                             TranscriptImportService importService, ObjectMapper mapper, IdempotencyStore idempotency,
+                             VersionStamps versions, ReplyStreams replyStreams, ReplyJobs replyJobs) {
         this.aiService = aiService;
         this.service = service;
+        this.exportService = exportService;
+        this.importService = importService;
+        this.mapper = mapper;
+        this.idempotency = idempotency;
+        this.versions = versions;
+        this.replyStreams = replyStreams;
+        this.replyJobs = replyJobs;
     }
 
     @PostMapping
@@ -62,11 +99,12 @@ public class SessionController {
     @GetMapping
     @Operation(
             summary = "List sessions (paged)",
-            description = "List user's sessions ordered by updatedAt desc. Supports favorites filter and title search.",
+            description = "List user's sessions ordered by updatedAt desc. Supports favorites filter and title search; with q, results are ranked exact title, prefix, word start, then other matches (updatedAt desc within each). "
+                    + "Responses carry an ETag; send it back in If-None-Match to get 304 Not Modified while the user's sessions are unchanged.",
             parameters = {
                     @Parameter(name = "userId", description = "User ID", required = true),
                     @Parameter(name = "favorite", description = "Filter by favorite"),
-                    @Parameter(name = "q", description = "Title contains (case-insensitive)"),
+                    @Parameter(name = "q", description = "Title contains (case-insensitive), ranked"),
                     @Parameter(name = "page", description = "Page number (0-based)", example = "0"),
                     @Parameter(name = "size", description = "Page size", example = "20")
             },
@@ -74,6 +112,7 @@ public class SessionController {
                     @ApiResponse(responseCode = "200", description = "OK",
                             content = @Content(mediaType = "application/json",
                                     schema = @Schema(implementation = PagedSessions.class))),
+                    @ApiResponse(responseCode = "304", description = "Not Modified"),
                     @ApiResponse(responseCode = "401", description = "Unauthorized",
                             content = @Content(mediaType = "application/problem+json"))
             }
@@ -82,7 +121,11 @@ public class SessionController {
                               @RequestParam(required = false) Boolean favorite,
                               @RequestParam(required = false) String q,
                               @RequestParam(defaultValue = "0") int page,
-                              @RequestParam(defaultValue = "20") int size) {
+                              @RequestParam(defaultValue = "20") int size,
+                              WebRequest request) {
+        // Checked before any query; a poll of an unchanged list costs a cache lookup
+        String etag = versions.etag(VersionStamps.sessions(userId), favorite, q, page, size);
+        if (etag != null && request.checkNotModified(etag)) return null;
         var p = service.pageSessions(userId, favorite, q, page, size);
         return new PagedSessions(
                 p.getContent().stream().map(SessionResponse::from).collect(Collectors.toList()),
@@ -146,10 +189,19 @@ public class SessionController {
     }
 
     @PostMapping("/{id}/messages")
-    @ResponseStatus(HttpStatus.CREATED)
     @Operation(
             summary = "Add message",
-            parameters = { @Parameter(name = "id", description = "Session ID", required = true) },
+            description = "With an Idempotency-Key header, a retry of the same request returns the first response byte for byte "
+                    + "(marked Idempotent-Replayed: true) instead of storing the message and asking the assistant again; "
+                    + "a retry sent while the first request is still running waits for it for a while, then gets 409 with Retry-After. "
+                    + "With async=true the message is stored and 202 Accepted returns a reply job at once; follow it with "
+                    + "GET /api/v1/replies/{jobId} (the Location header) or the session's event stream.",
+            parameters = {
+                    @Parameter(name = "id", description = "Session ID", required = true),
+                    @Parameter(name = "async", description = "Generate the reply in the background", example = "false"),
+                    @Parameter(name = IdempotencyStore.HEADER, in = ParameterIn.HEADER,
+                            description = "Client-chosen unique key for this post, reused on retries")
+            },
             requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(required = true,
                     content = @Content(mediaType = "application/json",
                             schema = @Schema(implementation = AddMessageRequest.class),
@@ -157,17 +209,91 @@ public class SessionController {
             responses = {
                     @ApiResponse(responseCode = "201", description = "Created",
                             content = @Content(mediaType = "application/json",
-                                    schema = @Schema(implementation = MessageResponse.class))),
+                                    schema = @Schema(implementation = AddMessageResponse.class))),
+                    @ApiResponse(responseCode = "202", description = "Accepted; the reply is generated in the background",
+                            content = @Content(mediaType = "application/json",
+                                    schema = @Schema(implementation = ReplyJobResponse.class))),
                     @ApiResponse(responseCode = "400", description = "Bad Request",
                             content = @Content(mediaType = "application/problem+json")),
                     @ApiResponse(responseCode = "404", description = "Not Found",
+                            content = @Content(mediaType = "application/problem+json")),
+                    @ApiResponse(responseCode = "409", description = "A request with this Idempotency-Key is still running; retry after Retry-After",
+                            content = @Content(mediaType = "application/problem+json")),
+                    @ApiResponse(responseCode = "422", description = "Idempotency-Key already used for a different request",
                             content = @Content(mediaType = "application/problem+json"))
             }
     )
+    public ResponseEntity<?> addMessage(@PathVariable Long id,
+                                        @Valid @RequestBody AddMessageRequest req,
+                                        @RequestParam(defaultValue = "false") boolean async,
+                                        @RequestHeader(value = IdempotencyStore.HEADER, required = false) String idempotencyKey) {
+        if (idempotencyKey == null || !idempotency.isEnabled()) {
+            return async ? accepted(replyJobs.submit(id, req.sender(), req.content(), req.context()))
+                    : ResponseEntity.status(HttpStatus.CREATED).body(reply(id, req));
+        }
+        // A replayed async post returns the job as first accepted; poll it for the current state
+        IdempotencyStore.Result result = async
+                ? idempotency.execute("session:" + id + ":async", idempotencyKey, json(req),
+                        () -> new IdempotencyStore.Response(HttpStatus.ACCEPTED.value(),
+                                json(replyJobs.submit(id, req.sender(), req.content(), req.context()))))
+                : idempotency.execute("session:" + id, idempotencyKey, json(req),
+                        () -> new IdempotencyStore.Response(HttpStatus.CREATED.value(), json(reply(id, req))));
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(result.response().status())
+                .contentType(MediaType.APPLICATION_JSON);
+        if (result.replayed()) builder.header(IdempotencyStore.REPLAYED_HEADER, "true");
+        return builder.body(result.response().body());
+    }
 
+    private static ResponseEntity<ReplyJobResponse> accepted(ReplyJobResponse job) {
+        return ResponseEntity.accepted()
+                .header(HttpHeaders.LOCATION, "/api/v1/replies/" + job.jobId())
+                .body(job);
+    }
 
-    public AddMessageResponse addMessage(@PathVariable Long id,
-                                         @Valid @RequestBody AddMessageRequest req) {
+    @GetMapping(value = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(
+            summary = "Session events (SSE)",
+            description = "Server-Sent Events for the session: a \"reply\" event, with the job as body and its id as event id, "
+                    + "each time a reply requested with async=true finishes on this instance.",
+            parameters = { @Parameter(name = "id", description = "Session ID", required = true) },
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Event stream",
+                            content = @Content(mediaType = "text/event-stream")),
+                    @ApiResponse(responseCode = "404", description = "Not Found",
+                            content = @Content(mediaType = "application/problem+json"))
+            }
+    )
+    public SseEmitter events(@PathVariable Long id) {
+        service.getSessionOrThrow(id);
+        return replyJobs.subscribe(id);
+    }
+
+    @PostMapping(value = "/{id}/messages:stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(
+            summary = "Add message, streaming the reply (SSE)",
+            description = "Stores the message and streams the assistant's reply as Server-Sent Events while it is generated: "
+                    + "a \"user\" event with the stored message, \"delta\" events with chunks of reply text ({\"text\": ...}), "
+                    + "then \"done\" with the same body as the non-streaming endpoint, or \"error\" with message, code and hint. "
+                    + "The reply is stored once complete, also if the client disconnects before.",
+            parameters = { @Parameter(name = "id", description = "Session ID", required = true) },
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(required = true,
+                    content = @Content(mediaType = "application/json",
+                            schema = @Schema(implementation = AddMessageRequest.class),
+                            examples = @ExampleObject(value = "{\n  \"sender\": \"USER\",\n  \"content\": \"Hello\"\n}"))),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Event stream",
+                            content = @Content(mediaType = "text/event-stream")),
+                    @ApiResponse(responseCode = "400", description = "Bad Request",
+                            content = @Content(mediaType = "application/problem+json")),
+                    @ApiResponse(responseCode = "404", description = "Not Found",
+                            content = @Content(mediaType = "application/problem+json"))
+            }
+    )
+    public SseEmitter addMessageStreaming(@PathVariable Long id, @Valid @RequestBody AddMessageRequest req) {
+        return replyStreams.stream(id, req.sender(), req.content(), req.context());
+    }
+
+    private AddMessageResponse reply(Long id, AddMessageRequest req) {
         AddMessageResponse resp = new AddMessageResponse();
 
         // Save user message
@@ -177,9 +303,8 @@ public class SessionController {
         // If sender is USER, try AI reply
         if (req.sender() == ChatMessage.Sender.USER) {
             try {
-                String system = "You are a helpful AI assistant.";
                 String aiReply = aiService.inferWithHistory(
-                        req.content(), system, service.listAllMessagesOrdered(id)
+                        req.content(), AiService.CHAT_SYSTEM_PROMPT, service.promptHistory(id, AiService.HISTORY_WINDOW, AiService.HISTORY_STEP)
                 );
                 ChatMessage aiMsg = service.addMessage(id, ChatMessage.Sender.ASSISTANT, aiReply, null);
                 resp.setAiMessage(AddMessageResponse.MessageResponse.from(aiMsg));
@@ -202,26 +327,137 @@ public class SessionController {
     @GetMapping("/{id}/messages")
     @Operation(
             summary = "List messages (paged)",
+            description = "Message context is omitted unless includeContext=true; use hasContext and the context endpoint to fetch it on demand. "
+                    + "Responses carry an ETag; send it back in If-None-Match to get 304 Not Modified while the session's messages are unchanged.",
             parameters = {
                     @Parameter(name = "id", description = "Session ID", required = true),
                     @Parameter(name = "page", description = "Page number (0-based)", example = "0"),
-                    @Parameter(name = "size", description = "Page size", example = "20")
+                    @Parameter(name = "size", description = "Page size", example = "20"),
+                    @Parameter(name = "includeContext", description = "Include message context", example = "false")
             },
             responses = {
                     @ApiResponse(responseCode = "200", description = "OK",
                             content = @Content(mediaType = "application/json",
                                     schema = @Schema(implementation = PagedMessages.class))),
+                    @ApiResponse(responseCode = "304", description = "Not Modified"),
                     @ApiResponse(responseCode = "404", description = "Not Found",
                             content = @Content(mediaType = "application/problem+json"))
             }
     )
     public PagedMessages getMessages(@PathVariable Long id,
                                      @RequestParam(defaultValue = "0") int page,
-                                     @RequestParam(defaultValue = "20") int size) {
+                                     @RequestParam(defaultValue = "20") int size,
+                                     @RequestParam(defaultValue = "false") boolean includeContext,
+                                     WebRequest request) {
+        String etag = versions.etag(VersionStamps.messages(id), page, size, includeContext);
+        if (etag != null && request.checkNotModified(etag)) return null;
         Page<ChatMessage> p = service.getMessages(id, page, size);
-        return new PagedMessages(
-                p.getContent().stream().map(MessageResponse::from).collect(Collectors.toList()),
-                p.getNumber(), p.getSize(), p.getTotalElements(), p.getTotalPages()
-        );
+        List<MessageResponse> items;
+        if (includeContext) {
+            Map<Long, String> contexts = service.getMessageContexts(p.getContent().stream()
+                    .filter(ChatMessage::hasContext).map(ChatMessage::getId).toList());
+            items = p.getContent().stream().map(m -> MessageResponse.from(m, contexts.get(m.getId()))).collect(Collectors.toList());
+        } else {
+            items = p.getContent().stream().map(MessageResponse::from).collect(Collectors.toList());
+        }
+        return new PagedMessages(items, p.getNumber(), p.getSize(), p.getTotalElements(), p.getTotalPages());
+    }
+
+    @GetMapping("/{id}/messages/{messageId}/context")
+    @Operation(
+            summary = "Get message context",
+            parameters = {
+                    @Parameter(name = "id", description = "Session ID", required = true),
+                    @Parameter(name = "messageId", description = "Message ID", required = true)
+            },
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK",
+                            content = @Content(mediaType = "application/json",
+                                    schema = @Schema(implementation = MessageContextResponse.class))),
+                    @ApiResponse(responseCode = "404", description = "Not Found",
+                            content = @Content(mediaType = "application/problem+json"))
+            }
+    )
+    public MessageContextResponse getMessageContext(@PathVariable Long id, @PathVariable Long messageId) {
+        return new MessageContextResponse(messageId, id, service.getMessageContext(id, messageId));
+    }
+
+    @GetMapping(value = "/{id}/export", produces = "application/x-ndjson")
+    @Operation(
+            summary = "Export session transcript (NDJSON)",
+            description = "Streams the session as newline-delimited JSON: a \"session\" line followed by one \"message\" line per message in chronological order, including context. Gzip-encoded when gzip=true or the client sends Accept-Encoding: gzip.",
+            parameters = {
+                    @Parameter(name = "id", description = "Session ID", required = true),
+                    @Parameter(name = "gzip", description = "Force gzip content encoding", example = "false")
+            },
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK",
+                            content = @Content(mediaType = "application/x-ndjson")),
+                    @ApiResponse(responseCode = "404", description = "Not Found",
+                            content = @Content(mediaType = "application/problem+json"))
+            }
+    )
+    public ResponseEntity<StreamingResponseBody> export(@PathVariable Long id,
+                                                        @RequestParam(defaultValue = "false") boolean gzip,
+                                                        @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        TranscriptExportService.Export export = exportService.exportSession(id);
+        return NdjsonExports.response(export, "session-" + id + ".ndjson", gzip, acceptEncoding);
+    }
+
+    @PostMapping(value = "/import", consumes = "application/x-ndjson", produces = "application/x-ndjson")
+    @Operation(
+            summary = "Bulk import transcripts (NDJSON)",
+            description = "Imports sessions and messages in the export format: each \"session\" line (userId, title, favorite, createdAt, updatedAt) is followed by its \"message\" lines (sender, content, context, createdAt). "
+                    + "Timestamps are preserved and no AI replies are generated. Rows are committed in chunks; the response streams a \"progress\" line per committed chunk, an \"error\" line per rejected input line and a final \"summary\" line. "
+                    + "Send Content-Encoding: gzip for compressed input.",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(required = true,
+                    content = @Content(mediaType = "application/x-ndjson",
+                            examples = @ExampleObject(value = "{\"type\":\"session\",\"userId\":\"u1\",\"title\":\"Imported\",\"createdAt\":\"2024-01-01T10:00:00Z\"}\n"
+                                    + "{\"type\":\"message\",\"sender\":\"USER\",\"content\":\"Hello\",\"createdAt\":\"2024-01-01T10:00:01Z\"}"))),
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK (see summary line for the outcome)",
+                            content = @Content(mediaType = "application/x-ndjson")),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized",
+                            content = @Content(mediaType = "application/problem+json"))
+            }
+    )
+    public void importTranscripts(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        InputStream in = request.getInputStream();
+        if ("gzip".equalsIgnoreCase(request.getHeader(HttpHeaders.CONTENT_ENCODING))) {
+            in = new GZIPInputStream(in, 64 * 1024);
+        }
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(NdjsonExports.NDJSON.toString());
+        OutputStream out = response.getOutputStream();
+        TranscriptImportService.Summary summary = importService.importNdjson(in, new TranscriptImportService.Listener() {
+            @Override
+            public void progress(TranscriptImportService.Progress progress) {
+                writeLine(out, progress);
+            }
+
+            @Override
+            public void error(TranscriptImportService.LineError error) {
+                writeLine(out, error);
+            }
+        });
+        writeLine(out, summary);
+    }
+
+    private byte[] json(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeLine(OutputStream out, Object line) {
+        try {
+            out.write(mapper.writeValueAsBytes(line));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
@@ -0,0 +1,57 @@
+package com.rag.chatstorage.web;
+
+import com.rag.chatstorage.shard.ShardMigrator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.*;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/admin/shards")
+@ConditionalOnProperty(name = "chat.shards.enabled", havingValue = "true")
+@Tag(name = "Shards", description = "Inspect and rebalance user-sharded storage")
+public class ShardController {
+
+    private final ShardMigrator migrator;
+
+    public ShardController(ShardMigrator migrator) {
+        this.migrator = migrator;
+    }
+
+    public record PendingMove(String from, String to, int slots) {}
+
+    @GetMapping("/plan")
+    @Operation(
+            summary = "Pending slot moves",
+            description = "Slots whose current shard differs from the one the hash ring assigns, grouped by source and target shard.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK",
+                            content = @Content(mediaType = "application/json"))
+            }
+    )
+    public List<PendingMove> plan() {
+        return migrator.plan().entrySet().stream()
+                .map(e -> new PendingMove(e.getKey().from(), e.getKey().to(), e.getValue().size()))
+                .toList();
+    }
+
+    @PostMapping("/rebalance")
+    @Operation(
+            summary = "Rebalance shards",
+            description = "Moves every misplaced slot to its shard while the service keeps running. Requests on a slot wait "
+                    + "briefly while it is switched over. Returns when all moves are done.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK",
+                            content = @Content(mediaType = "application/json")),
+                    @ApiResponse(responseCode = "500", description = "A move failed; slots not yet switched stay where they were",
+                            content = @Content(mediaType = "application/problem+json"))
+            }
+    )
+    public List<ShardMigrator.Result> rebalance() {
+        return migrator.rebalance();
+    }
+}
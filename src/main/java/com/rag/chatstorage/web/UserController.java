@@ -1,10 +1,16 @@
 package com.rag.chatstorage.web;
 
 import com.rag.chatstorage.domain.User;
+import com.rag.chatstorage.service.MessageSearchService;
+import com.rag.chatstorage.service.TranscriptExportService;
 import com.rag.chatstorage.service.UserService;
 import jakarta.validation.constraints.NotBlank;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
@@ -16,13 +22,18 @@ import java.util.List;
 
 @RestController
 @RequestMapping("/api/v1/users")
-@Tag(name = "Users", description = "Manage users (ensure/list)")
+@Tag(name = "Users", description = "Manage users (ensure/list/delete)")
 public class UserController {
 
     private final UserService userService;
+    private final TranscriptExportService exportService;
+    private final MessageSearchService messageSearch;
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService, TranscriptExportService exportService,
+                          MessageSearchService messageSearch) {
         this.userService = userService;
+        this.exportService = exportService;
+        this.messageSearch = messageSearch;
     }
 
     public record CreateUserRequest(@NotBlank String userId) {}
@@ -62,4 +73,74 @@ public class UserController {
     public List<User> list() {
         return userService.listUsers();
     }
+
+    @DeleteMapping("/{userId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    @Operation(
+            summary = "Delete user",
+            description = "Hides the user and all of their sessions immediately; messages are purged in the background.",
+            parameters = { @Parameter(name = "userId", description = "User ID", required = true) },
+            responses = {
+                    @ApiResponse(responseCode = "204", description = "No Content"),
+                    @ApiResponse(responseCode = "404", description = "Not Found",
+                            content = @Content(mediaType = "application/problem+json"))
+            }
+    )
+    public void delete(@PathVariable String userId) {
+        userService.delete(userId);
+    }
+
+    @GetMapping(value = "/{userId}/export", produces = "application/x-ndjson")
+    @Operation(
+            summary = "Export all transcripts of a user (NDJSON)",
+            description = "Streams every session of the user as newline-delimited JSON; each \"session\" line is followed by its \"message\" lines. Gzip-encoded when gzip=true or the client sends Accept-Encoding: gzip.",
+            parameters = {
+                    @Parameter(name = "userId", description = "User ID", required = true),
+                    @Parameter(name = "gzip", description = "Force gzip content encoding", example = "false")
+            },
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK",
+                            content = @Content(mediaType = "application/x-ndjson")),
+                    @ApiResponse(responseCode = "404", description = "Not Found",
+                            content = @Content(mediaType = "application/problem+json"))
+            }
+    )
+    public ResponseEntity<StreamingResponseBody> export(@PathVariable String userId,
+                                                        @RequestParam(defaultValue = "false") boolean gzip,
+                                                        @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        TranscriptExportService.Export export = exportService.exportUser(userId);
+        return NdjsonExports.response(export, "user-" + userId.replaceAll("[^A-Za-z0-9._-]", "_") + ".ndjson",
+                gzip, acceptEncoding);
+    }
+
+    @GetMapping("/{userId}/messages/search")
+    @Operation(
+            summary = "Search messages",
+            description = "Full-text search over the content of all of the user's messages, ranked by relevance. "
+                    + "All terms must match; use prefix* for prefix matches and \"quoted words\" for phrases. "
+                    + "Each hit carries a snippet and the character ranges of the matched words within it.",
+            parameters = {
+                    @Parameter(name = "userId", description = "User ID", required = true),
+                    @Parameter(name = "q", description = "Search query", required = true, example = "\"refund policy\" ship*"),
+                    @Parameter(name = "page", description = "Page number (0-based)", example = "0"),
+                    @Parameter(name = "size", description = "Page size", example = "20")
+            },
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK",
+                            content = @Content(mediaType = "application/json",
+                                    schema = @Schema(implementation = MessageSearchService.SearchPage.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad Request",
+                            content = @Content(mediaType = "application/problem+json")),
+                    @ApiResponse(responseCode = "404", description = "Not Found",
+                            content = @Content(mediaType = "application/problem+json")),
+                    @ApiResponse(responseCode = "503", description = "Message search is disabled",
+                            content = @Content(mediaType = "application/problem+json"))
+            }
+    )
+    public MessageSearchService.SearchPage searchMessages(@PathVariable String userId,
+                                                          @RequestParam String q,
+                                                          @RequestParam(defaultValue = "0") int page,
+                                                          @RequestParam(defaultValue = "20") int size) {
+        return messageSearch.search(userId, q, page, size);
+    }
 }
@@ -0,0 +1,26 @@
+package com.rag.chatstorage.web.dto;
+
+import java.time.Instant;
+
+/** State of an assistant reply generated in the background for a posted message. */
+public record ReplyJobResponse(
+        String jobId,
+        Long sessionId,
+        Status status,
+        AddMessageResponse.MessageResponse userMessage,
+        AddMessageResponse.MessageResponse aiMessage, // set once SUCCEEDED
+        AddMessageResponse.AiError aiError, // set once FAILED
+        Instant createdAt,
+        Instant completedAt
+) {
+    public enum Status { PENDING, RUNNING, SUCCEEDED, FAILED }
+
+    public ReplyJobResponse running() {
+        return new ReplyJobResponse(jobId, sessionId, Status.RUNNING, userMessage, null, null, createdAt, null);
+    }
+
+    public ReplyJobResponse completed(AddMessageResponse.MessageResponse ai, AddMessageResponse.AiError error) {
+        return new ReplyJobResponse(jobId, sessionId, error == null ? Status.SUCCEEDED : Status.FAILED,
+                userMessage, ai, error, createdAt, Instant.now());
+    }
+}
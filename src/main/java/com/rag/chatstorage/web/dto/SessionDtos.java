@@ -38,10 +38,14 @@ public class SessionDtos {
             String title,
             boolean favorite,
             Instant createdAt,
-            Instant updatedAt
+            Instant updatedAt,
+            int messageCount,
+            Instant lastMessageAt,
+            String lastMessagePreview
     ) {
         public static SessionResponse from(ChatSession s) {
-            return new SessionResponse(s.getId(), s.getUser().getUserId(), s.getTitle(), s.isFavorite(), s.getCreatedAt(), s.getUpdatedAt());
+            return new SessionResponse(s.getId(), s.getUser().getUserId(), s.getTitle(), s.isFavorite(), s.getCreatedAt(),
+                    s.getUpdatedAt(), s.getMessageCount(), s.getLastMessageAt(), s.getLastMessagePreview());
         }
     }
 
@@ -51,13 +55,25 @@ public class SessionDtos {
             ChatMessage.Sender sender,
             String content,
             String context,
+            boolean hasContext,
             Instant createdAt
     ) {
+        // Context is omitted unless explicitly requested; hasContext tells clients whether to fetch it
         public static MessageResponse from(ChatMessage m) {
-            return new MessageResponse(m.getId(), m.getSession().getId(), m.getSender(), m.getContent(), m.getContext(), m.getCreatedAt());
+            return from(m, null);
+        }
+
+        public static MessageResponse from(ChatMessage m, String context) {
+            return new MessageResponse(m.getId(), m.getSession().getId(), m.getSender(), m.getContent(), context, m.hasContext(), m.getCreatedAt());
         }
     }
 
+    public record MessageContextResponse(
+            Long messageId,
+            Long sessionId,
+            String context
+    ) {}
+
     public record PagedMessages(
             List<MessageResponse> items,
             int page,
@@ -1,6 +1,7 @@
 package com.rag.chatstorage.web.ui;
 
 import com.rag.chatstorage.service.ChatSessionService;
+import com.rag.chatstorage.web.ReplyStreams;
 import com.rag.chatstorage.web.dto.SessionDtos.MessageResponse;
 import com.rag.chatstorage.web.dto.SessionDtos.PagedMessages;
 import com.rag.chatstorage.web.dto.SessionDtos.SessionResponse;
@@ -21,12 +22,14 @@ public class UiController {
     private final ChatSessionService service;
     private final com.rag.chatstorage.service.AiService aiService;
     private final com.rag.chatstorage.service.UserService userService;
+    private final ReplyStreams replyStreams;
 
     public UiController(ChatSessionService service, com.rag.chatstorage.service.AiService aiService,
-                        com.rag.chatstorage.service.UserService userService) {
+                        com.rag.chatstorage.service.UserService userService, ReplyStreams replyStreams) {
         this.service = service;
         this.aiService = aiService;
         this.userService = userService;
+        this.replyStreams = replyStreams;
     }
 
     @GetMapping("/docs")
@@ -60,8 +63,9 @@ public class UiController {
         service.addMessage(session.getId(), com.rag.chatstorage.domain.ChatMessage.Sender.USER, content, context);
         // Try AI reply with full session context
         try {
-            String system = "You are a helpful AI assistant.";
-            String reply = aiService.inferWithHistory(content, system, service.listAllMessagesOrdered(session.getId()));
+            String reply = aiService.inferWithHistory(content, com.rag.chatstorage.service.AiService.CHAT_SYSTEM_PROMPT,
+                    service.promptHistory(session.getId(), com.rag.chatstorage.service.AiService.HISTORY_WINDOW,
+                            com.rag.chatstorage.service.AiService.HISTORY_STEP));
             service.addMessage(session.getId(), com.rag.chatstorage.domain.ChatMessage.Sender.ASSISTANT, reply, null);
         } catch (com.rag.chatstorage.service.AiService.AiFriendlyException afe) {
             ra.addFlashAttribute("uiAiIssue", true);
@@ -142,6 +146,13 @@ public class UiController {
         return "session";
     }
 
+    @GetMapping(value = "/sessions/{id}/messages/{messageId}/context", produces = "text/plain;charset=UTF-8")
+    @ResponseBody
+    public String messageContext(@PathVariable Long id, @PathVariable Long messageId) {
+        String context = service.getMessageContext(id, messageId);
+        return context == null ? "" : context;
+    }
+
     @PostMapping("/sessions/{id}/messages")
     public String postMessage(@PathVariable Long id, @RequestParam String userId,
                               @RequestParam("sender") com.rag.chatstorage.domain.ChatMessage.Sender sender,
@@ -153,8 +164,9 @@ public class UiController {
         // If the sender is USER, try to get an assistant reply via Spring AI
         if (sender == com.rag.chatstorage.domain.ChatMessage.Sender.USER) {
             try {
-                String system = "You are a helpful AI assistant."; // simple default system prompt
-                String reply = aiService.inferWithHistory(content, system, service.listAllMessagesOrdered(id));
+                String reply = aiService.inferWithHistory(content, com.rag.chatstorage.service.AiService.CHAT_SYSTEM_PROMPT,
+                        service.promptHistory(id, com.rag.chatstorage.service.AiService.HISTORY_WINDOW,
+                                com.rag.chatstorage.service.AiService.HISTORY_STEP));
                 service.addMessage(id, com.rag.chatstorage.domain.ChatMessage.Sender.ASSISTANT, reply, null);
             } catch (com.rag.chatstorage.service.AiService.AiFriendlyException afe) {
                 // Set a friendly, non-technical toast message and a short code for optional diagnostics
@@ -173,6 +185,17 @@ public class UiController {
         return "redirect:/ui/sessions/" + id + "?userId=" + userId;
     }
 
+    // Used by ui.js in place of the form post above: same fields, reply streamed as it is generated
+    @PostMapping(value = "/sessions/{id}/messages:stream", produces = "text/event-stream")
+    @ResponseBody
+    public org.springframework.web.servlet.mvc.method.annotation.SseEmitter postMessageStreaming(
+            @PathVariable Long id,
+            @RequestParam("sender") com.rag.chatstorage.domain.ChatMessage.Sender sender,
+            @RequestParam("content") String content,
+            @RequestParam(value = "context", required = false) String context) {
+        return replyStreams.stream(id, sender, content, context);
+    }
+
     @PostMapping("/sessions/{id}/title")
     public String rename(@PathVariable Long id, @RequestParam String userId, @RequestParam String title) {
         service.rename(id, title);
@@ -16,10 +16,14 @@
         form.requestSubmit();
       }
     });
-      // Show a transient thinking state and clear input on submit
-      form.addEventListener('submit', function(){
+      // Show a transient thinking state and clear input on submit. On a session page the reply is
+      // streamed into that bubble (POST .../messages:stream); elsewhere the form posts and redirects.
+      const streamable = !!(window.fetch && window.TextDecoder && window.URLSearchParams)
+          && /\/messages$/.test(form.getAttribute('action') || '');
+      form.addEventListener('submit', function(e){
+          let reply = null;
+          const btn = form.querySelector('button[type="submit"]');
           try {
-              const btn = form.querySelector('button[type="submit"]');
               if (btn) {
                   btn.dataset.prevText = btn.textContent;
                   btn.setAttribute('aria-busy','true');
@@ -30,25 +34,112 @@
               // Optionally display a small inline indicator
               const chat = document.querySelector('.chat');
               if (chat) {
-                  const thinking = document.createElement('div');
-                  thinking.className = 'msg assistant';
-                  const bubble = document.createElement('div');
-                  bubble.className = 'bubble assistant';
-                  const sender = document.createElement('div');
-                  sender.className = 'sender';
-                  sender.innerHTML = '<span>ASSISTANT</span><span class="time">…</span>';
-                  const body = document.createElement('div');
-                  bubble.appendChild(sender);
-                  bubble.appendChild(body);
-                  thinking.appendChild(bubble);
-                  chat.appendChild(thinking);
+                  reply = appendBubble(chat, 'ASSISTANT', '', '…');
                   setTimeout(()=>{ chat.scrollTop = chat.scrollHeight; }, 10);
               }
-          } catch(e) {}
+          } catch(err) {}
+          if (!streamable || !reply) return;
+          e.preventDefault();
+          streamReply(form, reply, btn);
       });
 
   }
 
+  function appendBubble(chat, sender, text, time){
+      const kind = sender.toLowerCase();
+      const msg = document.createElement('div');
+      msg.className = 'msg ' + kind;
+      const bubble = document.createElement('div');
+      bubble.className = 'bubble ' + kind;
+      const head = document.createElement('div');
+      head.className = 'sender';
+      const name = document.createElement('span');
+      name.textContent = sender;
+      const at = document.createElement('span');
+      at.className = 'time';
+      at.textContent = time;
+      head.appendChild(name);
+      head.appendChild(at);
+      const body = document.createElement('div');
+      body.textContent = text;
+      bubble.appendChild(head);
+      bubble.appendChild(body);
+      msg.appendChild(bubble);
+      chat.appendChild(msg);
+      return { msg: msg, body: body, time: at };
+  }
+
+  function hhmm(iso){
+      const d = iso ? new Date(iso) : null;
+      return d && !isNaN(d) ? d.toTimeString().slice(0, 5) : '';
+  }
+
+  function streamReply(form, reply, btn){
+      const chat = reply.msg.parentNode;
+      const params = new URLSearchParams(new FormData(form));
+      let stored = false;
+      const onEvent = (name, data) => {
+          if (name === 'user') {
+              stored = true;
+              const m = JSON.parse(data);
+              // The user's message goes above the reply being written
+              const user = appendBubble(chat, m.sender, m.content, hhmm(m.createdAt));
+              chat.insertBefore(user.msg, reply.msg);
+          } else if (name === 'delta') {
+              reply.body.textContent += JSON.parse(data).text;
+          } else if (name === 'done') {
+              const r = JSON.parse(data);
+              if (r.aiMessage) reply.time.textContent = hhmm(r.aiMessage.createdAt);
+              else reply.msg.remove();
+          } else if (name === 'error') {
+              const err = JSON.parse(data);
+              reply.body.textContent = '⚠️ ' + err.message + (err.hint ? ' ' + err.hint : '');
+              reply.time.textContent = '';
+          }
+          chat.scrollTop = chat.scrollHeight;
+      };
+      const done = () => {
+          if (btn) { btn.removeAttribute('aria-busy'); btn.disabled = false; }
+      };
+      fetch(form.getAttribute('action') + ':stream', {
+          method: 'POST', body: params, headers: { 'Accept': 'text/event-stream' }
+      }).then(r => {
+          if (!r.ok || !r.body) throw new Error('HTTP ' + r.status);
+          return readEvents(r.body.getReader(), onEvent);
+      }).then(done).catch(() => {
+          // Nothing stored yet: fall back to the plain form post
+          if (!stored) { ta.value = params.get('content') || ''; form.submit(); return; }
+          reply.body.textContent = '⚠️ The connection was lost; reload to see the reply.';
+          done();
+      });
+  }
+
+  // Minimal text/event-stream reader: events are separated by a blank line
+  function readEvents(reader, onEvent){
+      const decoder = new TextDecoder();
+      let buffer = '';
+      const dispatch = (block) => {
+          let name = 'message';
+          const data = [];
+          block.split(/\r?\n/).forEach(line => {
+              if (line.startsWith('event:')) name = line.slice(6).trim();
+              else if (line.startsWith('data:')) data.push(line.slice(5).replace(/^ /, ''));
+          });
+          if (data.length) onEvent(name, data.join('\n'));
+      };
+      const pump = () => reader.read().then(({ value, done }) => {
+          buffer += decoder.decode(value || new Uint8Array(), { stream: !done });
+          let cut;
+          while ((cut = buffer.search(/\r?\n\r?\n/)) >= 0) {
+              dispatch(buffer.slice(0, cut));
+              buffer = buffer.slice(cut).replace(/^\r?\n\r?\n/, '');
+          }
+          if (done) { if (buffer.trim()) dispatch(buffer); return; }
+          return pump();
+      });
+      return pump();
+  }
+
   // Confirm delete actions
   document.querySelectorAll('form[data-confirm]').forEach(f => {
     f.addEventListener('submit', function(e){
@@ -79,6 +170,21 @@
     });
   });
 
+  // Message context is not part of the page; fetch it on first expand
+  document.querySelectorAll('.context-toggle').forEach(btn => {
+    btn.addEventListener('click', function(){
+      const pre = btn.nextElementSibling;
+      if (!pre) return;
+      if (!pre.hidden) { pre.hidden = true; btn.textContent = 'Show context'; return; }
+      const show = () => { pre.hidden = false; btn.textContent = 'Hide context'; };
+      if (pre.dataset.loaded) { show(); return; }
+      fetch(btn.dataset.url)
+        .then(r => r.ok ? r.text() : '')
+        .then(text => { pre.textContent = text; pre.dataset.loaded = 'true'; show(); })
+        .catch(()=>{});
+    });
+  });
+
   // Auto-hide AI toast
   const toast = document.getElementById('ai-toast');
   if (toast) {
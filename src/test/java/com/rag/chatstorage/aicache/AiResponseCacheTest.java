@@ -0,0 +1,106 @@
+package com.rag.chatstorage.aicache;
+
+import com.rag.chatstorage.domain.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class AiResponseCacheTest {
+
+    private EmbeddingModel embeddings;
+    private SimpleMeterRegistry meters;
+    private AiResponseCache cache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        embeddings = mock(EmbeddingModel.class);
+        // Prompts about opening hours point one way, anything else another
+        when(embeddings.embed(anyString())).thenAnswer(inv -> ((String) inv.getArgument(0)).contains("open")
+                ? new float[]{1f, 0.1f, 0f} : new float[]{0f, 0f, 1f});
+        ObjectProvider<EmbeddingModel> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(embeddings);
+        meters = new SimpleMeterRegistry();
+        AiCacheProperties props = new AiCacheProperties();
+        props.getSemantic().setEnabled(true);
+        cache = new AiResponseCache(props, provider,
+                new SingleFlight(new SingleFlightProperties(), meters), meters);
+    }
+
+    @Test
+    void exactTierMatchesNormalizedPromptsPerTenant() {
+        AiResponseCache.Lookup miss = cache.get("a", "sys", List.of(), "What is RAG?");
+        assertThat(miss.hit()).isFalse();
+        cache.put(miss, "Retrieval-augmented generation.");
+
+        AiResponseCache.Lookup hit = cache.get("a", "sys", List.of(), "  what is   rag? ");
+        assertThat(hit.tier()).isEqualTo(AiResponseCache.Tier.EXACT);
+        assertThat(hit.reply()).isEqualTo("Retrieval-augmented generation.");
+
+        assertThat(cache.get("b", "sys", List.of(), "What is RAG?").hit()).isFalse();
+        assertThat(cache.get("a", "other system", List.of(), "What is RAG?").hit()).isFalse();
+        assertThat(meters.get("chat.ai.cache").tag("tier", "exact").tag("result", "hit").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void semanticTierMatchesSimilarPromptsInTheSameContext() {
+        AiResponseCache.Lookup miss = cache.get("a", "sys", List.of(), "When do you open?");
+        cache.put(miss, "At nine.");
+
+        AiResponseCache.Lookup similar = cache.get("a", "sys", List.of(), "What time do you open on weekdays");
+        assertThat(similar.tier()).isEqualTo(AiResponseCache.Tier.SEMANTIC);
+        assertThat(similar.reply()).isEqualTo("At nine.");
+        // ...and its wording is an exact hit from now on
+        assertThat(cache.get("a", "sys", List.of(), "What time do you open on weekdays").tier())
+                .isEqualTo(AiResponseCache.Tier.EXACT);
+
+        assertThat(cache.get("a", "sys", List.of(), "Where are you located?").hit()).isFalse();
+        assertThat(cache.get("b", "sys", List.of(), "When do you open").hit()).isFalse();
+        List<ChatMessage> otherHistory = List.of(message(ChatMessage.Sender.USER, "I mean the museum"),
+                message(ChatMessage.Sender.ASSISTANT, "Sure."));
+        assertThat(cache.get("a", "sys", otherHistory, "When do you open").hit()).isFalse();
+    }
+
+    @Test
+    void semanticTierIsSkippedForChatTurnsAndTheSharedTenant() {
+        // A chat turn's history holds at least the prompt itself, stored before asking
+        List<ChatMessage> turn = List.of(message(ChatMessage.Sender.USER, "When do you open?"));
+        AiResponseCache.Lookup chat = cache.get("a", "sys", turn, "When do you open?");
+        assertThat(chat.embedding()).isNull();
+        cache.put(chat, "At nine.");
+        assertThat(cache.get("a", "sys", List.of(message(ChatMessage.Sender.USER, "What time do you open on weekdays")),
+                "What time do you open on weekdays").hit()).isFalse();
+
+        AiResponseCache.Lookup keyless = cache.get(AiTenant.DEFAULT, "sys", List.of(), "When do you open?");
+        assertThat(keyless.embedding()).isNull();
+        cache.put(keyless, "At ten.");
+        assertThat(cache.get(AiTenant.DEFAULT, "sys", List.of(), "What time do you open on weekdays").hit()).isFalse();
+        // The exact tier still serves both
+        assertThat(cache.get(AiTenant.DEFAULT, "sys", List.of(), "when do you open?").reply()).isEqualTo("At ten.");
+        verify(embeddings, never()).embed(anyString());
+    }
+
+    @Test
+    void embeddingFailuresFallBackToTheExactTier() {
+        when(embeddings.embed(anyString())).thenThrow(new RuntimeException("503"));
+        AiResponseCache.Lookup miss = cache.get("a", null, List.of(), "hello");
+        assertThat(miss.embedding()).isNull();
+        cache.put(miss, "Hi!");
+        assertThat(cache.get("a", null, List.of(), "Hello").reply()).isEqualTo("Hi!");
+    }
+
+    private static ChatMessage message(ChatMessage.Sender sender, String content) {
+        ChatMessage m = new ChatMessage();
+        m.setSender(sender);
+        m.setContent(content);
+        return m;
+    }
+}
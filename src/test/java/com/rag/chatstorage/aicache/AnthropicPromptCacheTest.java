@@ -0,0 +1,80 @@
+package com.rag.chatstorage.aicache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.util.StreamUtils;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AnthropicPromptCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private PromptCacheProperties props;
+    private SimpleMeterRegistry meters;
+    private AnthropicPromptCache cache;
+
+    @BeforeEach
+    void setUp() {
+        props = new PromptCacheProperties();
+        meters = new SimpleMeterRegistry();
+        cache = new AnthropicPromptCache(props, new PromptCacheMeter(meters), objectMapper, "/v1/messages");
+    }
+
+    @Test
+    void marksTheSystemPromptAndTheEndOfTheHistory() throws Exception {
+        String request = """
+                {"model":"m","system":"You are a helpful AI assistant.","messages":[
+                 {"role":"user","content":[{"type":"text","text":"hi"}]},
+                 {"role":"assistant","content":[{"type":"text","text":"hello"}]},
+                 {"role":"user","content":[{"type":"text","text":"how are you?"}]}]}""";
+
+        JsonNode marked = objectMapper.readTree(cache.mark(request.getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(marked.at("/system/0/text").asText()).isEqualTo("You are a helpful AI assistant.");
+        assertThat(marked.at("/system/0/cache_control/type").asText()).isEqualTo("ephemeral");
+        assertThat(marked.at("/messages/1/content/0/cache_control/type").asText()).isEqualTo("ephemeral");
+        assertThat(marked.at("/messages/0/content/0").has("cache_control")).isFalse();
+        assertThat(marked.at("/messages/2/content/0").has("cache_control")).isFalse();
+        // The same request is marked the same way, byte for byte
+        assertThat(cache.mark(request.getBytes(StandardCharsets.UTF_8)))
+                .isEqualTo(cache.mark(request.getBytes(StandardCharsets.UTF_8)));
+
+        props.setEnabled(false);
+        assertThat(cache.mark(request.getBytes(StandardCharsets.UTF_8))).isEqualTo(request.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void sendsTheMarkedRequest_andRecordsCachedTokensOfTheReply() throws Exception {
+        String reply = """
+                {"id":"msg_1","content":[{"type":"text","text":"Fine."}],"usage":{"input_tokens":12,
+                 "cache_creation_input_tokens":0,"cache_read_input_tokens":1800,"cache_creation":{"ephemeral_5m_input_tokens":0},
+                 "output_tokens":3}}""";
+        byte[] body = "{\"system\":\"sys\",\"messages\":[{\"role\":\"user\",\"content\":\"hi\"}]}".getBytes(StandardCharsets.UTF_8);
+        MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.POST, URI.create("https://api.anthropic.com/v1/messages"));
+        request.getHeaders().setContentLength(body.length);
+        AtomicReference<byte[]> sent = new AtomicReference<>();
+
+        ClientHttpResponse response = cache.intercept(request, body, (req, b) -> {
+            sent.set(b);
+            return new MockClientHttpResponse(reply.getBytes(StandardCharsets.UTF_8), HttpStatus.OK);
+        });
+
+        assertThat(objectMapper.readTree(sent.get()).at("/system/0/cache_control/type").asText()).isEqualTo("ephemeral");
+        assertThat(request.getHeaders().getContentLength()).isEqualTo(sent.get().length);
+        assertThat(StreamUtils.copyToString(response.getBody(), StandardCharsets.UTF_8)).isEqualTo(reply);
+        assertThat(meters.get("chat.ai.prompt.tokens").tag("kind", "input").counter().count()).isEqualTo(1812);
+        assertThat(meters.get("chat.ai.prompt.tokens").tag("kind", "cache_read").counter().count()).isEqualTo(1800);
+    }
+}
@@ -0,0 +1,109 @@
+package com.rag.chatstorage.aicache;
+
+import com.rag.chatstorage.service.AiService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SingleFlightTest {
+
+    private SingleFlightProperties props;
+    private SimpleMeterRegistry meters;
+    private SingleFlight flights;
+    private ExecutorService callers;
+
+    @BeforeEach
+    void setUp() {
+        props = new SingleFlightProperties();
+        meters = new SimpleMeterRegistry();
+        flights = new SingleFlight(props, meters);
+        callers = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+        flights.shutdown();
+    }
+
+    @Test
+    void concurrentIdenticalCallsShareOneUpstreamCall() throws Exception {
+        AtomicInteger upstream = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            replies.add(CompletableFuture.supplyAsync(() -> flights.execute("infer", "what is rag?", () -> {
+                upstream.incrementAndGet();
+                await(release);
+                return "Retrieval-augmented generation.";
+            }), callers));
+        }
+        waitFor(() -> meters.find("chat.ai.single-flight").tag("result", "coalesced").counter() != null
+                && meters.get("chat.ai.single-flight").tag("result", "coalesced").counter().count() == 19);
+        release.countDown();
+
+        for (CompletableFuture<String> reply : replies) {
+            assertThat(reply.get(5, TimeUnit.SECONDS)).isEqualTo("Retrieval-augmented generation.");
+        }
+        assertThat(upstream).hasValue(1);
+        assertThat(meters.get("chat.ai.single-flight").tag("operation", "infer").tag("result", "issued").counter().count())
+                .isEqualTo(1);
+        // Once it has completed, the next caller asks again
+        assertThat(flights.execute("infer", "what is rag?", () -> "fresh")).isEqualTo("fresh");
+        assertThat(flights.execute("embed", "what is rag?", () -> "other operation")).isEqualTo("other operation");
+    }
+
+    @Test
+    void failuresReachEveryCaller() {
+        assertThatThrownBy(() -> flights.execute("infer", "k", () -> {
+            throw new AiService.AiFriendlyException("AI_UNAVAILABLE", "down", "(503 unavailable)");
+        })).isInstanceOf(AiService.AiFriendlyException.class).hasMessage("down");
+        assertThat(flights.inFlight()).isZero();
+    }
+
+    @Test
+    void theLastCallerToGiveUpCancelsTheCall() throws Exception {
+        props.setWaitTimeout(Duration.ofMillis(50));
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        assertThatThrownBy(() -> flights.execute("infer", "slow", () -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "late";
+        })).isInstanceOf(AiService.AiFriendlyException.class).hasMessageContaining("couldn’t respond");
+
+        assertThat(interrupted.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(flights.inFlight()).isZero();
+        assertThat(meters.get("chat.ai.single-flight").tag("result", "timeout").counter().count()).isEqualTo(1);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) Thread.sleep(5);
+    }
+}
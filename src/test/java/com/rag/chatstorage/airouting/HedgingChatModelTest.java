@@ -0,0 +1,118 @@
+package com.rag.chatstorage.airouting;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class HedgingChatModelTest {
+
+    private final Prompt prompt = new Prompt("hello");
+    private ChatModel primary;
+    private ChatModel secondary;
+    private AiRoutingProperties.Hedge hedge;
+    private SimpleMeterRegistry meters;
+
+    @BeforeEach
+    void setUp() {
+        primary = mock(ChatModel.class);
+        secondary = mock(ChatModel.class);
+        hedge = new AiRoutingProperties.Hedge();
+        hedge.setInitialDelay(Duration.ofMillis(50));
+        hedge.setMinDelay(Duration.ofMillis(10));
+        hedge.setMaxRatio(1.0);
+        meters = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void slowPrimaryIsHedged_andTheLoserIsCancelled() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(primary.call(any(Prompt.class))).thenAnswer(inv -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return reply("slow");
+        });
+        when(secondary.call(any(Prompt.class))).thenReturn(reply("fast"));
+
+        ChatResponse response = model(null).call(prompt);
+
+        assertThat(response.getResult().getOutput().getText()).isEqualTo("fast");
+        assertThat(interrupted.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(meters.get("chat.ai.provider.hedges").tag("provider", "secondary").counter().count()).isEqualTo(1);
+        assertThat(meters.get("chat.ai.provider.hedges.won").tag("provider", "secondary").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void fastPrimaryIsNotHedged_norAreCallsOverTheBudget() {
+        when(primary.call(any(Prompt.class))).thenReturn(reply("fast"));
+        assertThat(model(null).call(prompt).getResult().getOutput().getText()).isEqualTo("fast");
+        verify(secondary, never()).call(any(Prompt.class));
+
+        hedge.setMaxRatio(0);
+        HedgingChatModel unbudgeted = model(null);
+        when(primary.call(any(Prompt.class))).thenAnswer(inv -> {
+            Thread.sleep(100);
+            return reply("slow");
+        });
+        unbudgeted.call(prompt); // spends the budget the model starts with
+        assertThat(unbudgeted.call(prompt).getResult().getOutput().getText()).isEqualTo("slow");
+        verify(secondary, times(1)).call(any(Prompt.class));
+    }
+
+    @Test
+    void failuresAndOpenCircuitsFailOver() {
+        when(primary.call(any(Prompt.class))).thenThrow(new RuntimeException("503 Service Unavailable"));
+        when(secondary.call(any(Prompt.class))).thenReturn(reply("backup"));
+        hedge.setInitialDelay(Duration.ofSeconds(30));
+        CircuitBreaker breaker = CircuitBreaker.ofDefaults("ai.primary");
+        HedgingChatModel routed = model(breaker);
+
+        assertThat(routed.call(prompt).getResult().getOutput().getText()).isEqualTo("backup");
+        assertThat(meters.get("chat.ai.provider.failovers").tag("provider", "secondary").counter().count()).isEqualTo(1);
+
+        breaker.transitionToOpenState();
+        assertThat(routed.call(prompt).getResult().getOutput().getText()).isEqualTo("backup");
+        verify(primary, times(1)).call(any(Prompt.class));
+    }
+
+    @Test
+    void streamsAreHedgedUntilTheFirstChunk() {
+        when(primary.stream(any(Prompt.class))).thenReturn(Flux.just(reply("late")).delaySubscription(Duration.ofSeconds(5)));
+        when(secondary.stream(any(Prompt.class))).thenReturn(Flux.just(reply("He"), reply("llo")));
+
+        List<String> chunks = model(null).stream(prompt)
+                .map(r -> r.getResult().getOutput().getText())
+                .collectList().block(Duration.ofSeconds(2));
+
+        assertThat(chunks).containsExactly("He", "llo");
+    }
+
+    private HedgingChatModel model(CircuitBreaker primaryBreaker) {
+        return new HedgingChatModel(List.of(
+                new HedgingChatModel.Route("primary", primary, primaryBreaker),
+                new HedgingChatModel.Route("secondary", secondary, null)), hedge, meters);
+    }
+
+    private static ChatResponse reply(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+}
@@ -0,0 +1,127 @@
+package com.rag.chatstorage.archive;
+
+import com.rag.chatstorage.cache.RecentMessageCache;
+import com.rag.chatstorage.cache.RecentMessageCacheProperties;
+import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.domain.convert.TextCompressionCodec;
+import com.rag.chatstorage.search.MessageSearchIndex;
+import com.rag.chatstorage.search.MessageSearchProperties;
+import com.rag.chatstorage.shard.ShardRouter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class SessionArchiveTest {
+
+    private final TextCompressionCodec codec = new TextCompressionCodec(true, 16, 1, null);
+    private final Instant now = Instant.parse("2025-06-01T00:00:00Z");
+    private final RetentionProperties props = new RetentionProperties();
+    private EmbeddedDatabase db;
+    private JdbcTemplate jdbc;
+    private SessionArchive archive;
+
+    @BeforeEach
+    void setUp() {
+        db = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .setName("archive-" + UUID.randomUUID()).build();
+        jdbc = new JdbcTemplate(db);
+        jdbc.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, user_id VARCHAR(128))");
+        jdbc.execute("CREATE TABLE chat_sessions (id BIGINT PRIMARY KEY, user_id BIGINT, message_count INT DEFAULT 0 NOT NULL, "
+                + "last_message_at TIMESTAMP(6), archived_at TIMESTAMP(6), restored_at TIMESTAMP(6), deleted_at TIMESTAMP(6))");
+        jdbc.execute("CREATE TABLE chat_messages (id BIGINT AUTO_INCREMENT PRIMARY KEY, session_id BIGINT, sender VARCHAR(16), "
+                + "content CLOB NOT NULL, has_context BOOLEAN, created_at TIMESTAMP(6))");
+        jdbc.execute("CREATE TABLE chat_message_context (message_id BIGINT PRIMARY KEY, context CLOB)");
+        jdbc.execute("CREATE TABLE chat_session_archive (session_id BIGINT PRIMARY KEY, message_count INT, payload BLOB, "
+                + "archived_at TIMESTAMP(6))");
+        jdbc.update("INSERT INTO users VALUES (1, 'acme-1'), (2, 'audit-1'), (3, 'plain')");
+        props.setArchiveAfter(Duration.ofDays(90));
+        props.setPause(Duration.ZERO);
+        archive = new SessionArchive(db, new DataSourceTransactionManager(db), codec,
+                new RecentMessageCache(new RecentMessageCacheProperties()),
+                new MessageSearchIndex(new MessageSearchProperties()), props);
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.shutdown();
+    }
+
+    @Test
+    void archiveAndRestore_roundTripsMessagesWithOriginalIds() {
+        session(10, 3, now.minus(Duration.ofDays(100)));
+        message(5, 10, "USER", "question ".repeat(40), null, 1);
+        message(6, 10, "ASSISTANT", "answer", "retrieved ".repeat(30), 2);
+
+        assertThat(archive.archive(10, now.minus(Duration.ofDays(90)))).isEqualTo(2);
+
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM chat_messages", Integer.class)).isZero();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM chat_message_context", Integer.class)).isZero();
+        assertThat(archive.read(10).orElseThrow()).extracting(ArchivedMessage::id, ArchivedMessage::sender)
+                .containsExactly(tuple(5L, ChatMessage.Sender.USER),
+                        tuple(6L, ChatMessage.Sender.ASSISTANT));
+
+        assertThat(archive.restore(10)).isTrue();
+        assertThat(archive.restore(10)).isFalse();
+
+        assertThat(jdbc.queryForList("SELECT id FROM chat_messages ORDER BY id", Long.class)).containsExactly(5L, 6L);
+        assertThat(codec.decode(jdbc.queryForObject("SELECT content FROM chat_messages WHERE id = 5", String.class)))
+                .isEqualTo("question ".repeat(40));
+        assertThat(codec.decode(jdbc.queryForObject("SELECT context FROM chat_message_context WHERE message_id = 6", String.class)))
+                .isEqualTo("retrieved ".repeat(30));
+        assertThat(jdbc.queryForObject("SELECT archived_at FROM chat_sessions WHERE id = 10", Timestamp.class)).isNull();
+        assertThat(archive.read(10)).isEmpty();
+        // Freshly restored, so the next pass leaves it alone even though its last message is old
+        assertThat(archive.archive(10, now.minus(Duration.ofDays(90)))).isZero();
+    }
+
+    @Test
+    void archiver_appliesFirstMatchingTenantPolicy() {
+        RetentionProperties.Tenant acme = new RetentionProperties.Tenant();
+        acme.setUsers(List.of("acme-*"));
+        acme.setArchiveAfter(Duration.ofDays(7));
+        RetentionProperties.Tenant hold = new RetentionProperties.Tenant();
+        hold.setUsers(List.of("audit-*"));
+        props.setTenants(List.of(acme, hold));
+        props.setBatchSize(1);
+
+        session(1, 1, now.minus(Duration.ofDays(10)));
+        session(2, 2, now.minus(Duration.ofDays(400)));
+        session(3, 3, now.minus(Duration.ofDays(10)));
+        session(4, 3, now.minus(Duration.ofDays(91)));
+        for (long s = 1; s <= 4; s++) message(s, s, "USER", "hello " + s, null, 0);
+
+        SessionArchiver.Result r = new SessionArchiver(db, archive, props, ShardRouter.unsharded()).archiveIdleSessions(now);
+
+        assertThat(r.sessions()).isEqualTo(2);
+        assertThat(jdbc.queryForList("SELECT session_id FROM chat_session_archive ORDER BY session_id", Long.class))
+                .containsExactly(1L, 4L);
+    }
+
+    private void session(long id, long userKey, Instant lastMessageAt) {
+        jdbc.update("INSERT INTO chat_sessions (id, user_id, message_count, last_message_at) VALUES (?, ?, 1, ?)",
+                id, userKey, Timestamp.from(lastMessageAt));
+    }
+
+    private void message(long id, long sessionId, String sender, String content, String context, long seconds) {
+        jdbc.update("INSERT INTO chat_messages (id, session_id, sender, content, has_context, created_at) VALUES (?, ?, ?, ?, ?, ?)",
+                id, sessionId, sender, codec.encode(content), context != null,
+                Timestamp.from(now.minus(Duration.ofDays(200)).plusSeconds(seconds)));
+        if (context != null) {
+            jdbc.update("INSERT INTO chat_message_context VALUES (?, ?)", id, codec.encode(context));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.rag.chatstorage.cache;
+
+import com.rag.chatstorage.datasource.ReplicaProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VersionStampsTest {
+
+    @Test
+    void etagIsStableUntilTouched_andDiffersPerVariant() {
+        VersionStamps versions = new VersionStamps(new VersionStampProperties(), new ReplicaProperties());
+        String first = versions.etag(VersionStamps.messages(1L), 0, 20, false);
+
+        assertThat(first).startsWith("\"").endsWith("\"");
+        assertThat(versions.etag(VersionStamps.messages(1L), 0, 20, false)).isEqualTo(first);
+        assertThat(versions.etag(VersionStamps.messages(1L), 1, 20, false)).isNotEqualTo(first);
+        assertThat(versions.etag(VersionStamps.messages(2L), 0, 20, false)).isNotEqualTo(first);
+
+        versions.touch(VersionStamps.sessions("u1"));
+        assertThat(versions.etag(VersionStamps.messages(1L), 0, 20, false)).isEqualTo(first);
+        versions.touch(VersionStamps.messages(1L));
+        assertThat(versions.etag(VersionStamps.messages(1L), 0, 20, false)).isNotEqualTo(first);
+    }
+
+    @Test
+    void stampIsRenewedAfterItsTtl_evenWhilePolled() throws InterruptedException {
+        VersionStampProperties props = new VersionStampProperties();
+        props.setTtl(Duration.ofMillis(300));
+        VersionStamps versions = new VersionStamps(props, new ReplicaProperties());
+        String first = versions.etag(VersionStamps.messages(1L));
+
+        Thread.sleep(50);
+        assertThat(versions.etag(VersionStamps.messages(1L))).isEqualTo(first);
+        // Another instance may have written meanwhile; this one cannot know
+        Thread.sleep(300);
+        assertThat(versions.etag(VersionStamps.messages(1L))).isNotEqualTo(first);
+    }
+
+    @Test
+    void anotherInstanceOrRestartNeverMatches() {
+        String a = new VersionStamps(new VersionStampProperties(), new ReplicaProperties()).etag(VersionStamps.sessions("u1"));
+        String b = new VersionStamps(new VersionStampProperties(), new ReplicaProperties()).etag(VersionStamps.sessions("u1"));
+        assertThat(a).isNotEqualTo(b);
+    }
+
+    @Test
+    void noEtagWhileReplicasMayLagBehindAChange_orWhenDisabled() {
+        ReplicaProperties replicas = new ReplicaProperties();
+        replicas.setEnabled(true);
+        replicas.setMaxLag(Duration.ofMinutes(1));
+        VersionStamps versions = new VersionStamps(new VersionStampProperties(), replicas);
+        versions.touch(VersionStamps.sessions("u1"));
+        assertThat(versions.etag(VersionStamps.sessions("u1"))).isNull();
+
+        VersionStampProperties off = new VersionStampProperties();
+        off.setEnabled(false);
+        assertThat(new VersionStamps(off, new ReplicaProperties()).etag(VersionStamps.sessions("u1"))).isNull();
+    }
+}
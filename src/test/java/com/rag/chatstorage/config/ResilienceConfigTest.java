@@ -0,0 +1,44 @@
+package com.rag.chatstorage.config;
+
+import com.rag.chatstorage.service.AiService;
+import io.github.resilience4j.common.retry.configuration.CommonRetryConfigurationProperties;
+import io.github.resilience4j.core.IntervalBiFunction;
+import io.github.resilience4j.core.IntervalFunction;
+import io.github.resilience4j.core.functions.Either;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResilienceConfigTest {
+
+    private final IntervalBiFunction<Object> interval = ResilienceConfig.honoringRetryAfter(attempt -> 500L * attempt);
+
+    @Test
+    void waitsForRetryAfterWhenLongerThanTheBackoff() {
+        assertThat(interval.apply(1, Either.left(throttled(Duration.ofSeconds(3))))).isEqualTo(3_000L);
+        assertThat(interval.apply(2, Either.left(throttled(Duration.ofMillis(200))))).isEqualTo(1_000L);
+        assertThat(interval.apply(2, Either.left(throttled(null)))).isEqualTo(1_000L);
+        assertThat(interval.apply(1, Either.left(new IllegalStateException("boom")))).isEqualTo(500L);
+    }
+
+    @Test
+    void backoffFollowsTheRetryInstanceProperties() {
+        CommonRetryConfigurationProperties.InstanceProperties props = new CommonRetryConfigurationProperties.InstanceProperties()
+                .setWaitDuration(Duration.ofMillis(500))
+                .setEnableExponentialBackoff(true)
+                .setExponentialBackoffMultiplier(2.0);
+        IntervalFunction exponential = ResilienceConfig.backoff(props);
+        assertThat(List.of(exponential.apply(1), exponential.apply(2), exponential.apply(3))).containsExactly(500L, 1_000L, 2_000L);
+
+        IntervalFunction randomized = ResilienceConfig.backoff(props.setEnableRandomizedWait(true).setRandomizedWaitFactor(0.5));
+        assertThat(randomized.apply(2)).isBetween(500L, 1_500L);
+        assertThat(ResilienceConfig.backoff(null).apply(1)).isEqualTo(IntervalFunction.DEFAULT_INITIAL_INTERVAL);
+    }
+
+    private static AiService.AiFriendlyException throttled(Duration retryAfter) {
+        return new AiService.AiFriendlyException("AI_UNAVAILABLE", "busy", "(429 rate limit)", retryAfter);
+    }
+}
@@ -0,0 +1,82 @@
+package com.rag.chatstorage.config;
+
+import com.rag.chatstorage.config.provider.StubAiProperties;
+import com.rag.chatstorage.config.provider.StubChatModel;
+import com.rag.chatstorage.config.provider.StubEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StubAiModelsTest {
+
+    @Test
+    void chatRepliesDependOnlyOnThePrompt_andStreamAtTheTokenRate() {
+        StubAiProperties.Chat props = new StubAiProperties.Chat();
+        props.setMedianLatency(Duration.ofMillis(5));
+        props.setP99Latency(Duration.ofMillis(20));
+        props.setReplyTokens(10);
+        props.setTokensPerSecond(100);
+        StubChatModel model = new StubChatModel(props);
+
+        String reply = model.call(new Prompt("what is rag?")).getResult().getOutput().getText();
+        assertThat(model.call(new Prompt("what is rag?")).getResult().getOutput().getText()).isEqualTo(reply);
+        assertThat(model.call(new Prompt("something else")).getResult().getOutput().getText()).isNotEqualTo(reply);
+        assertThat(reply.split(" ")).hasSize(10);
+
+        long start = System.nanoTime();
+        List<ChatResponse> chunks = model.stream(new Prompt("what is rag?")).collectList().block(Duration.ofSeconds(5));
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        assertThat(chunks).hasSize(10);
+        assertThat(String.join("", chunks.stream().map(c -> c.getResult().getOutput().getText()).toList())).isEqualTo(reply);
+        assertThat(chunks.getLast().getMetadata().getUsage().getCompletionTokens()).isEqualTo(10);
+        assertThat(millis).isGreaterThanOrEqualTo(90); // nine gaps of 10ms after the first token
+    }
+
+    @Test
+    void injectedRateLimitsCarryRetryAfter() {
+        StubAiProperties.Chat props = new StubAiProperties.Chat();
+        props.setRateLimitRate(1.0);
+        props.setRetryAfter(Duration.ofSeconds(3));
+        StubChatModel model = new StubChatModel(props);
+
+        assertThatThrownBy(() -> model.call(new Prompt("hi")))
+                .isInstanceOfSatisfying(HttpClientErrorException.class, e -> {
+                    assertThat(e.getStatusCode().value()).isEqualTo(429);
+                    assertThat(e.getResponseHeaders().getFirst("Retry-After")).isEqualTo("3");
+                });
+        assertThatThrownBy(() -> model.stream(new Prompt("hi")).blockLast())
+                .isInstanceOfSatisfying(WebClientResponseException.class,
+                        e -> assertThat(e.getHeaders().getFirst("Retry-After")).isEqualTo("3"));
+    }
+
+    @Test
+    void embeddingsAreUnitVectors_closerForTextsSharingWords() {
+        StubAiProperties.Embedding props = new StubAiProperties.Embedding();
+        props.setDimensions(256);
+        props.setLatency(Duration.ZERO);
+        StubEmbeddingModel model = new StubEmbeddingModel(props);
+
+        float[] a = model.embed("How do I reset my password?");
+        float[] b = model.embed("reset password steps");
+        float[] c = model.embed("Quarterly revenue grew strongly");
+
+        assertThat(model.dimensions()).isEqualTo(256);
+        assertThat(a).hasSize(256).containsExactly(model.embed("How do I reset my password?"));
+        assertThat(dot(a, a)).isCloseTo(1.0, org.assertj.core.data.Offset.offset(1e-5));
+        assertThat(dot(a, b)).isGreaterThan(dot(a, c));
+    }
+
+    private static double dot(float[] x, float[] y) {
+        double sum = 0;
+        for (int i = 0; i < x.length; i++) sum += x[i] * y[i];
+        return sum;
+    }
+}
@@ -0,0 +1,180 @@
+package com.rag.chatstorage.datasource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReplicaRoutingDataSourceTest {
+
+    private EmbeddedDatabase primaryDb;
+    private EmbeddedDatabase replicaDb;
+    private final ReplicaProperties props = new ReplicaProperties();
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private ReplicaRoutingDataSource routing;
+    private JdbcTemplate jdbc;
+    private TransactionTemplate write;
+    private TransactionTemplate read;
+
+    @BeforeEach
+    void setUp() {
+        // Two independent H2 databases stand in for the primary and its replica
+        primaryDb = database("primary");
+        replicaDb = database("replica");
+        new JdbcTemplate(replicaDb).execute("CREATE TABLE replica_lag (seconds INT)");
+        new JdbcTemplate(replicaDb).update("INSERT INTO replica_lag VALUES (0)");
+        props.setLagQuery("SELECT seconds FROM replica_lag");
+        routing = new ReplicaRoutingDataSource(primaryDb, Map.of("replica-1", replicaDb), props,
+                new ReadYourWrites(Duration.ofSeconds(5)), meters);
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(routing);
+        jdbc = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager tm = new DataSourceTransactionManager(dataSource);
+        write = new TransactionTemplate(tm);
+        read = new TransactionTemplate(tm);
+        read.setReadOnly(true);
+        routing.checkReplicas();
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReadYourWrites.clear();
+        primaryDb.shutdown();
+        replicaDb.shutdown();
+    }
+
+    @Test
+    void readOnlyTransactionsGoToTheReplica_everythingElseToThePrimary() {
+        assertThat(originIn(read)).isEqualTo("replica");
+        assertThat(originIn(write)).isEqualTo("primary");
+        assertThat(origin()).isEqualTo("primary");
+        assertThat(meters.counter("counter.datasource.connections", "pool", "replica-1", "reason", "read").count()).isEqualTo(1);
+        assertThat(meters.get("gauge.datasource.replica.healthy").tag("pool", "replica-1").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void userReadsTheirOwnWritesFromThePrimaryWithinTheWindow() {
+        ReadYourWrites.bind("alice");
+        assertThat(originIn(write)).isEqualTo("primary");
+        assertThat(originIn(read)).isEqualTo("replica");
+
+        write.executeWithoutResult(s -> jdbc.update("INSERT INTO origin VALUES (?)", "written"));
+        assertThat(originIn(read)).isEqualTo("primary");
+
+        ReadYourWrites.bind("bob");
+        assertThat(originIn(read)).isEqualTo("replica");
+    }
+
+    @Test
+    void aWriteForOneUserDoesNotPinAnotherUsersReads_behindTheSameKeyAndAddress() throws Exception {
+        // Session 42 belongs to bob, session 7 to alice; the lookup runs only once a connection needs it
+        List<Long> lookups = new ArrayList<>();
+        ReadYourWritesFilter filter = new ReadYourWritesFilter(id -> {
+            lookups.add(id);
+            return id == 42 ? "bob" : "alice";
+        });
+
+        assertThat(through(filter, "POST", "/api/v1/users/alice", () -> {
+            write.executeWithoutResult(s -> jdbc.update("INSERT INTO origin VALUES (?)", "written"));
+            return "written";
+        })).isEqualTo("written");
+        assertThat(through(filter, "GET", "/api/v1/sessions/42/messages", () -> originIn(read))).isEqualTo("replica");
+        assertThat(through(filter, "GET", "/api/v1/sessions/7/messages", () -> originIn(read))).isEqualTo("primary");
+        assertThat(through(filter, "GET", "/api/v1/sessions?userId=alice", () -> originIn(read))).isEqualTo("primary");
+        // No user named at all: never pinned
+        assertThat(through(filter, "POST", "/api/v1/ai/infer", () -> originIn(read))).isEqualTo("replica");
+        assertThat(through(filter, "GET", "/api/v1/sessions/7/events", () -> "no database")).isEqualTo("no database");
+        assertThat(lookups).containsExactly(42L, 7L);
+    }
+
+    @Test
+    void writesThroughPlainStatementsStartTheWindowToo() {
+        ReadYourWrites.bind("alice");
+        write.executeWithoutResult(s -> jdbc.execute("UPDATE origin SET name = 'updated' WHERE name = 'none'"));
+        assertThat(originIn(read)).isEqualTo("primary");
+    }
+
+    @Test
+    void connectionsWithCredentialsAreRoutedLikeAnyOther() throws Exception {
+        // H2 embedded databases are created for user "sa" with an empty password
+        try (Connection c = routing.getConnection("sa", "")) {
+            assertThat(c.getMetaData().getURL()).contains("primary");
+        }
+        read.executeWithoutResult(s -> {
+            try (Connection c = routing.getConnection("sa", "")) {
+                assertThat(c.getMetaData().getURL()).contains("replica");
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Test
+    void laggingOrBrokenReplicaIsRoutedAround() {
+        props.setMaxLag(Duration.ofSeconds(5));
+        new JdbcTemplate(replicaDb).update("UPDATE replica_lag SET seconds = 30");
+        routing.checkReplicas();
+        assertThat(originIn(read)).isEqualTo("primary");
+        assertThat(routing.status()).singleElement().satisfies(st -> {
+            assertThat(st.healthy()).isFalse();
+            assertThat(st.lagSeconds()).isEqualTo(30);
+        });
+
+        new JdbcTemplate(replicaDb).update("UPDATE replica_lag SET seconds = 1");
+        routing.checkReplicas();
+        assertThat(originIn(read)).isEqualTo("replica");
+
+        replicaDb.shutdown();
+        routing.checkReplicas();
+        assertThat(originIn(read)).isEqualTo("primary");
+        assertThat(meters.counter("counter.datasource.connections", "pool", "primary", "reason", "no-replica").count()).isEqualTo(2);
+    }
+
+    // Runs work as a request from one API key and address, for the user the filter finds in it
+    private String through(ReadYourWritesFilter filter, String method, String uri, Supplier<String> work) throws Exception {
+        String[] parts = uri.split("\\?", 2);
+        MockHttpServletRequest request = new MockHttpServletRequest(method, parts[0]);
+        if (parts.length > 1) request.setParameter(parts[1].split("=")[0], parts[1].split("=")[1]);
+        request.addHeader("X-API-KEY", "shared");
+        request.setRemoteAddr("10.0.0.1");
+        String[] result = new String[1];
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> result[0] = work.get());
+        return result[0];
+    }
+
+    private String originIn(TransactionTemplate tx) {
+        return tx.execute(s -> origin());
+    }
+
+    private String origin() {
+        return jdbc.queryForObject("SELECT name FROM origin ORDER BY name LIMIT 1", String.class);
+    }
+
+    private static EmbeddedDatabase database(String name) {
+        EmbeddedDatabase db = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .setName(name + "-" + UUID.randomUUID()).build();
+        JdbcTemplate jdbc = new JdbcTemplate(db);
+        jdbc.execute("CREATE TABLE origin (name VARCHAR(16))");
+        jdbc.update("INSERT INTO origin VALUES (?)", name);
+        return db;
+    }
+}
@@ -0,0 +1,74 @@
+package com.rag.chatstorage.domain.convert;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TextCompressionCodecTest {
+
+    private final String context = "Source: handbook.pdf, page 12\nRefunds are processed within 14 days.\n".repeat(40);
+
+    @Test
+    void largeValues_roundTripCompressed() {
+        TextCompressionCodec codec = new TextCompressionCodec(true, 512, 1, null);
+
+        String stored = codec.encode(context);
+
+        assertThat(stored).startsWith(TextCompressionCodec.DEFLATE);
+        assertThat(stored.length()).isLessThan(context.length() / 4);
+        assertThat(codec.decode(stored)).isEqualTo(context);
+    }
+
+    @Test
+    void nonAsciiValues_areKeptPlain_unlessFewerCharactersAreStored() {
+        TextCompressionCodec codec = new TextCompressionCodec(true, 512, 1, null);
+        // Three UTF-8 bytes per character and little repetition: deflate saves bytes, base64 adds characters
+        StringBuilder cjk = new StringBuilder();
+        java.util.Random random = new java.util.Random(7);
+        for (int i = 0; i < 1000; i++) cjk.append((char) (0x4E00 + random.nextInt(64)));
+        String value = cjk.toString();
+
+        assertThat(codec.encode(value)).isEqualTo(value);
+        String repetitive = "\u9000\u6b3e\u653f\u7b56\u8bf4\u660e\u3002".repeat(200);
+        assertThat(codec.encode(repetitive)).startsWith(TextCompressionCodec.DEFLATE)
+                .satisfies(stored -> assertThat(stored.length()).isLessThan(repetitive.length()));
+    }
+
+    @Test
+    void smallAndLegacyValues_passThrough() {
+        TextCompressionCodec codec = new TextCompressionCodec(true, 512, 1, null);
+
+        assertThat(codec.encode("hello")).isEqualTo("hello");
+        assertThat(codec.decode("plain row written before compression")).isEqualTo("plain row written before compression");
+        assertThat(codec.decode(null)).isNull();
+    }
+
+    @Test
+    void valuesStartingWithMarker_areEscaped() {
+        TextCompressionCodec codec = new TextCompressionCodec(true, 512, 1, null);
+        String tricky = TextCompressionCodec.MARKER + "1d:not base64";
+
+        String stored = codec.encode(tricky);
+
+        assertThat(stored).startsWith(TextCompressionCodec.RAW);
+        assertThat(codec.decode(stored)).isEqualTo(tricky);
+    }
+
+    @Test
+    void dictionary_isRequiredToReadValuesWrittenWithIt() {
+        byte[] dict = TextCompressionCodec.trainDictionary(List.of(context, context), 4096);
+        TextCompressionCodec withDict = new TextCompressionCodec(true, 16, 1, dict);
+        String value = "Source: handbook.pdf, page 12\nRefunds are processed within 14 days.\nSomething new";
+
+        String stored = withDict.encode(value);
+
+        assertThat(stored).startsWith(TextCompressionCodec.DEFLATE_DICT);
+        assertThat(withDict.decode(stored)).isEqualTo(value);
+        assertThatThrownBy(() -> TextCompressionCodec.passthrough().decode(stored))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("dictionary");
+    }
+}
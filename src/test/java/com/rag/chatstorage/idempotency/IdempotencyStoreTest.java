@@ -0,0 +1,127 @@
+package com.rag.chatstorage.idempotency;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class IdempotencyStoreTest {
+
+    private final IdempotencyStore store = new IdempotencyStore(new IdempotencyProperties());
+
+    @Test
+    void repeatedKeyReplaysTheSameBytesWithoutRunningAgain() {
+        AtomicInteger runs = new AtomicInteger();
+        IdempotencyStore.Result first = store.execute("session:1", "k", bytes("hello"), () -> response(runs));
+        IdempotencyStore.Result second = store.execute("session:1", "k", bytes("hello"), () -> response(runs));
+
+        assertThat(runs).hasValue(1);
+        assertThat(first.replayed()).isFalse();
+        assertThat(second.replayed()).isTrue();
+        assertThat(second.response().body()).isEqualTo(first.response().body());
+        assertThat(second.response().status()).isEqualTo(201);
+
+        // Keys are per scope
+        assertThat(store.execute("session:2", "k", bytes("hello"), () -> response(runs)).replayed()).isFalse();
+        assertThat(runs).hasValue(2);
+    }
+
+    @Test
+    void concurrentDuplicatesWaitForTheRequestInFlight() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Future<IdempotencyStore.Result> first = pool.submit(() -> store.execute("session:1", "k", bytes("hi"), () -> {
+                started.countDown();
+                await(release);
+                return response(runs);
+            }));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<IdempotencyStore.Result> second = pool.submit(() -> store.execute("session:1", "k", bytes("hi"), () -> response(runs)));
+            Future<IdempotencyStore.Result> third = pool.submit(() -> store.execute("session:1", "k", bytes("hi"), () -> response(runs)));
+            Thread.sleep(100);
+            assertThat(second.isDone()).isFalse();
+            release.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS).replayed()).isFalse();
+            assertThat(second.get(5, TimeUnit.SECONDS).replayed()).isTrue();
+            assertThat(third.get(5, TimeUnit.SECONDS).response().body()).isEqualTo(first.get().response().body());
+            assertThat(runs).hasValue(1);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void duplicateOfASlowRequestIsRefusedAsInFlight_afterItsWait() throws Exception {
+        IdempotencyProperties props = new IdempotencyProperties();
+        props.setInFlightWait(Duration.ofMillis(50));
+        IdempotencyStore store = new IdempotencyStore(props);
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<IdempotencyStore.Result> first = pool.submit(() -> store.execute("session:1", "k", bytes("hi"), () -> {
+                started.countDown();
+                await(release);
+                return response(runs);
+            }));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+            assertThatThrownBy(() -> store.execute("session:1", "k", bytes("hi"), () -> response(runs)))
+                    .isInstanceOf(IdempotencyStore.KeyMisuseException.class)
+                    .extracting("code").isEqualTo("IDEMPOTENCY_KEY_IN_FLIGHT");
+            release.countDown();
+            assertThat(first.get(5, TimeUnit.SECONDS).replayed()).isFalse();
+            assertThat(store.execute("session:1", "k", bytes("hi"), () -> response(runs)).replayed()).isTrue();
+            assertThat(runs).hasValue(1);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void keyReusedForAnotherBodyIsRefused_andFailuresAreNotStored() {
+        AtomicInteger runs = new AtomicInteger();
+        store.execute("session:1", "k", bytes("hello"), () -> response(runs));
+        assertThatThrownBy(() -> store.execute("session:1", "k", bytes("other"), () -> response(runs)))
+                .isInstanceOf(IdempotencyStore.KeyMisuseException.class)
+                .extracting("code").isEqualTo("IDEMPOTENCY_KEY_REUSED");
+        assertThatThrownBy(() -> store.execute("session:1", " ", bytes("hello"), () -> response(runs)))
+                .extracting("code").isEqualTo("IDEMPOTENCY_KEY_INVALID");
+
+        assertThatThrownBy(() -> store.execute("session:1", "f", bytes("x"), () -> {
+            throw new IllegalArgumentException("Session not found");
+        })).isInstanceOf(IllegalArgumentException.class);
+        assertThat(store.execute("session:1", "f", bytes("x"), () -> response(runs)).replayed()).isFalse();
+        assertThat(runs).hasValue(2);
+    }
+
+    private static IdempotencyStore.Response response(AtomicInteger runs) {
+        return new IdempotencyStore.Response(201, bytes("{\"run\":" + runs.incrementAndGet() + "}"));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
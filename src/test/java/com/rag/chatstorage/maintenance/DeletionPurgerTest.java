@@ -0,0 +1,64 @@
+package com.rag.chatstorage.maintenance;
+
+import com.rag.chatstorage.shard.ShardRouter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeletionPurgerTest {
+
+    private EmbeddedDatabase db;
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        db = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .setName("purge-" + UUID.randomUUID() + ";MODE=MySQL").build();
+        jdbc = new JdbcTemplate(db);
+        jdbc.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, user_id VARCHAR(128), deleted_at TIMESTAMP(6))");
+        jdbc.execute("CREATE TABLE chat_sessions (id BIGINT PRIMARY KEY, user_id BIGINT REFERENCES users(id) ON DELETE CASCADE, "
+                + "deleted_at TIMESTAMP(6))");
+        // Like the partitioned production table: no foreign keys, so nothing cascades from sessions or messages
+        jdbc.execute("CREATE TABLE chat_messages (id BIGINT PRIMARY KEY, session_id BIGINT)");
+        jdbc.execute("CREATE TABLE chat_message_context (message_id BIGINT PRIMARY KEY)");
+        jdbc.update("INSERT INTO users (id, user_id) VALUES (1, 'keep'), (2, 'gone'), (3, 'reused')");
+        jdbc.update("INSERT INTO chat_sessions (id, user_id) VALUES (10, 1), (11, 1), (20, 2), (30, 3)");
+        for (long id = 1; id <= 25; id++) {
+            jdbc.update("INSERT INTO chat_messages VALUES (?, ?)", id, id <= 23 ? 10 : 11);
+            jdbc.update("INSERT INTO chat_message_context VALUES (?)", id);
+        }
+        jdbc.update("INSERT INTO chat_messages VALUES (26, 20), (27, 30)");
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.shutdown();
+    }
+
+    @Test
+    void purge_removesMarkedSessionsInBatchesAndEmptiedUsers() {
+        jdbc.update("UPDATE chat_sessions SET deleted_at = CURRENT_TIMESTAMP WHERE id IN (10, 20)");
+        jdbc.update("UPDATE users SET deleted_at = CURRENT_TIMESTAMP WHERE id = 2");
+        // A deleted session of a user who is not deleted: only the session goes
+        jdbc.update("UPDATE chat_sessions SET deleted_at = CURRENT_TIMESTAMP WHERE id = 30");
+
+        DeletionPurger.Result r = new DeletionPurger(db, ShardRouter.unsharded(), 5, Duration.ZERO).purge();
+
+        assertThat(r.sessions()).isEqualTo(3);
+        assertThat(r.messages()).isEqualTo(25);
+        assertThat(r.users()).isEqualTo(1);
+        assertThat(jdbc.queryForList("SELECT id FROM chat_sessions ORDER BY id", Long.class)).containsExactly(11L);
+        assertThat(jdbc.queryForList("SELECT id FROM chat_messages ORDER BY id", Long.class)).containsExactly(24L, 25L);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM chat_message_context", Integer.class)).isEqualTo(2);
+        assertThat(jdbc.queryForList("SELECT user_id FROM users ORDER BY id", String.class)).containsExactly("keep", "reused");
+    }
+}
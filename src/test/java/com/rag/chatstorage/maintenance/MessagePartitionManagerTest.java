@@ -0,0 +1,57 @@
+package com.rag.chatstorage.maintenance;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessagePartitionManagerTest {
+
+    private static final LocalDate TODAY = LocalDate.parse("2026-10-19");
+
+    @Test
+    void plan_splitsMissingMonthsOffTheMaxvaluePartition() {
+        List<MessagePartitionManager.Partition> partitions = List.of(
+                new MessagePartitionManager.Partition("p_history", LocalDate.parse("2026-10-01")),
+                new MessagePartitionManager.Partition("p202610", LocalDate.parse("2026-11-01")),
+                new MessagePartitionManager.Partition("p_future", null));
+
+        MessagePartitionManager.Plan plan = MessagePartitionManager.plan(partitions, TODAY, 2, 0);
+
+        assertThat(plan.future()).isEqualTo("p_future");
+        assertThat(plan.create()).containsExactly(LocalDate.parse("2026-11-01"), LocalDate.parse("2026-12-01"));
+        assertThat(plan.drop()).isEmpty();
+        assertThat(MessagePartitionManager.reorganizeSql(plan.future(), plan.create())).isEqualTo(
+                "ALTER TABLE chat_messages REORGANIZE PARTITION p_future INTO ("
+                        + "PARTITION p202611 VALUES LESS THAN ('2026-12-01'), "
+                        + "PARTITION p202612 VALUES LESS THAN ('2027-01-01'), "
+                        + "PARTITION p_future VALUES LESS THAN (MAXVALUE))");
+
+        // Already covered: nothing to do
+        assertThat(MessagePartitionManager.plan(partitions, TODAY.minusMonths(1), 1, 0).create()).isEmpty();
+    }
+
+    @Test
+    void plan_dropsOnlyPartitionsEntirelyOlderThanTheRetainedMonths() {
+        List<MessagePartitionManager.Partition> partitions = List.of(
+                new MessagePartitionManager.Partition("p_history", LocalDate.parse("2026-07-01")),
+                new MessagePartitionManager.Partition("p202607", LocalDate.parse("2026-08-01")),
+                new MessagePartitionManager.Partition("p202608", LocalDate.parse("2026-09-01")),
+                new MessagePartitionManager.Partition("p202609", LocalDate.parse("2026-10-01")),
+                new MessagePartitionManager.Partition("p_future", null));
+
+        MessagePartitionManager.Plan plan = MessagePartitionManager.plan(partitions, TODAY, 1, 2);
+
+        assertThat(plan.drop()).extracting(MessagePartitionManager.Partition::name).containsExactly("p_history", "p202607");
+        assertThat(plan.create()).containsExactly(LocalDate.parse("2026-10-01"), LocalDate.parse("2026-11-01"));
+    }
+
+    @Test
+    void upperBound_parsesRangeColumnsDescriptions() {
+        assertThat(MessagePartitionManager.upperBound("'2026-12-01 00:00:00'")).isEqualTo(LocalDate.parse("2026-12-01"));
+        assertThat(MessagePartitionManager.upperBound("'2026-12-01'")).isEqualTo(LocalDate.parse("2026-12-01"));
+        assertThat(MessagePartitionManager.upperBound("MAXVALUE")).isNull();
+    }
+}
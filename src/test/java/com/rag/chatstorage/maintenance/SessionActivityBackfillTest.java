@@ -0,0 +1,76 @@
+package com.rag.chatstorage.maintenance;
+
+import com.rag.chatstorage.domain.convert.TextCompressionCodec;
+import com.rag.chatstorage.shard.ShardRouter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SessionActivityBackfillTest {
+
+    private final TextCompressionCodec codec = new TextCompressionCodec(true, 16, 1, null);
+    private final Instant t0 = Instant.parse("2025-01-01T00:00:00Z");
+    private EmbeddedDatabase db;
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        db = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .setName("backfill-" + UUID.randomUUID()).build();
+        jdbc = new JdbcTemplate(db);
+        jdbc.execute("CREATE TABLE chat_sessions (id BIGINT PRIMARY KEY, created_at TIMESTAMP(6), "
+                + "message_count INT DEFAULT 0 NOT NULL, last_message_at TIMESTAMP(6), last_message_preview VARCHAR(255))");
+        jdbc.execute("CREATE TABLE chat_messages (id BIGINT PRIMARY KEY, session_id BIGINT, content CLOB, created_at TIMESTAMP(6))");
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.shutdown();
+    }
+
+    @Test
+    void backfill_fillsPendingSessionsAcrossBatches() {
+        for (int id = 1; id <= 5; id++) {
+            jdbc.update("INSERT INTO chat_sessions (id, created_at) VALUES (?, ?)", id, Timestamp.from(t0));
+        }
+        message(10, 1, "hello", 1);
+        message(11, 1, "  the   latest\nreply " + "x".repeat(200), 5);
+        message(12, 3, "only one", 2);
+        // Already maintained by addMessage; must be left alone
+        jdbc.update("UPDATE chat_sessions SET message_count = 7, last_message_at = ?, last_message_preview = 'kept' WHERE id = 4",
+                Timestamp.from(t0.plusSeconds(9)));
+
+        long updated = new SessionActivityBackfill(db, codec, ShardRouter.unsharded(), 2).backfill();
+
+        assertThat(updated).isEqualTo(4);
+        Map<String, Object> first = row(1);
+        assertThat(first).containsEntry("MESSAGE_COUNT", 2).containsEntry("LAST_MESSAGE_AT", Timestamp.from(t0.plusSeconds(5)));
+        assertThat((String) first.get("LAST_MESSAGE_PREVIEW")).startsWith("the latest reply xxx").hasSize(140).endsWith("…");
+        assertThat(row(2)).containsEntry("MESSAGE_COUNT", 0).containsEntry("LAST_MESSAGE_AT", Timestamp.from(t0))
+                .containsEntry("LAST_MESSAGE_PREVIEW", null);
+        assertThat(row(3)).containsEntry("MESSAGE_COUNT", 1).containsEntry("LAST_MESSAGE_PREVIEW", "only one");
+        assertThat(row(4)).containsEntry("MESSAGE_COUNT", 7).containsEntry("LAST_MESSAGE_PREVIEW", "kept");
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM chat_sessions WHERE last_message_at IS NULL", Integer.class)).isZero();
+        assertThat(new SessionActivityBackfill(db, codec, ShardRouter.unsharded(), 2).backfill()).isZero();
+    }
+
+    private void message(long id, long sessionId, String content, long seconds) {
+        jdbc.update("INSERT INTO chat_messages VALUES (?, ?, ?, ?)", id, sessionId, codec.encode(content),
+                Timestamp.from(t0.plusSeconds(seconds)));
+    }
+
+    private Map<String, Object> row(long id) {
+        return jdbc.queryForMap("SELECT message_count, last_message_at, last_message_preview FROM chat_sessions WHERE id = ?", id);
+    }
+}
@@ -0,0 +1,129 @@
+package com.rag.chatstorage.ratelimit;
+
+import com.rag.chatstorage.service.AiService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AiConcurrencyLimiterTest {
+
+    private AiConcurrencyProperties props;
+    private SimpleMeterRegistry meters;
+
+    @BeforeEach
+    void setUp() {
+        props = new AiConcurrencyProperties();
+        props.setInitialLimit(2);
+        props.setMaxWait(Duration.ofMillis(50));
+        meters = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void growsWhileBusyAndLatencyIsFlat_shrinksOnOverload() {
+        AiConcurrencyLimiter limiter = new AiConcurrencyLimiter(props, meters);
+        for (int i = 0; i < 5; i++) {
+            AiConcurrencyLimiter.Permit a = limiter.acquire();
+            AiConcurrencyLimiter.Permit b = limiter.acquire();
+            a.success(1_000_000);
+            b.success(1_000_000);
+        }
+        // Two calls at a time grow it only as far as they keep at least half of it in use
+        assertThat(limiter.getLimit()).isEqualTo(5);
+
+        int before = limiter.getLimit();
+        limiter.acquire().overload();
+        assertThat(limiter.getLimit()).isLessThan(before);
+        assertThat(meters.get("chat.ai.concurrency.limit").gauge().value()).isEqualTo(limiter.getLimit());
+        assertThat(meters.get("chat.ai.concurrency.backoffs").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void latencySpikeShrinksTheLimit_idleCallsDoNotGrowIt() {
+        props.setInitialLimit(10);
+        AiConcurrencyLimiter limiter = new AiConcurrencyLimiter(props, meters);
+        // One call at a time uses a tenth of the limit, so it does not grow
+        for (int i = 0; i < 5; i++) limiter.acquire().success(1_000_000);
+        assertThat(limiter.getLimit()).isEqualTo(10);
+
+        limiter.acquire().success(10_000_000);
+        assertThat(limiter.getLimit()).isEqualTo(9);
+        // Failures that are not about capacity, and repeated reports, change nothing
+        AiConcurrencyLimiter.Permit p = limiter.acquire();
+        p.ignore();
+        p.overload();
+        assertThat(limiter.getLimit()).isEqualTo(9);
+        assertThat(limiter.getInflight()).isZero();
+    }
+
+    @Test
+    void blockingCallsAreJudgedPerOutputToken() {
+        AiConcurrencyLimiter limiter = new AiConcurrencyLimiter(props, meters);
+        // Streams keep their own baseline, so a short first chunk does not make blocking calls look slow
+        for (int i = 0; i < 3; i++) limiter.acquire().success(1_000_000);
+        for (int i = 0; i < 3; i++) {
+            AiConcurrencyLimiter.Permit a = limiter.acquire();
+            AiConcurrencyLimiter.Permit b = limiter.acquire();
+            // A long answer takes ten times as long as a short one, at the same time per token
+            a.success(20_000_000_000L, 1000);
+            b.success(2_000_000_000L, 100);
+        }
+        int grown = limiter.getLimit();
+        assertThat(grown).isGreaterThan(2);
+        assertThat(meters.get("chat.ai.concurrency.backoffs").counter().count()).isZero();
+
+        // Answers too short to judge, or without usage, neither grow nor shrink it
+        AiConcurrencyLimiter.Permit a = limiter.acquire();
+        AiConcurrencyLimiter.Permit b = limiter.acquire();
+        a.success(5_000_000_000L, 3);
+        b.success(5_000_000_000L, null);
+        assertThat(limiter.getLimit()).isEqualTo(grown);
+
+        // Tokens coming four times slower than usual are a latency spike
+        limiter.acquire().success(8_000_000_000L, 100);
+        assertThat(limiter.getLimit()).isLessThan(grown);
+        assertThat(limiter.getInflight()).isZero();
+    }
+
+    @Test
+    void excessCallersWaitForAFreedSlot_untilTheirDeadline() throws Exception {
+        props.setInitialLimit(1);
+        props.setMaxLimit(1);
+        props.setMaxWait(Duration.ofSeconds(5));
+        AiConcurrencyLimiter limiter = new AiConcurrencyLimiter(props, meters);
+        AiConcurrencyLimiter.Permit held = limiter.acquire();
+
+        CompletableFuture<AiConcurrencyLimiter.Permit> waiter = CompletableFuture.supplyAsync(limiter::acquire);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.getQueued() == 0 && System.nanoTime() < deadline) Thread.onSpinWait();
+        assertThat(meters.get("chat.ai.concurrency.queued").gauge().value()).isEqualTo(1);
+        held.ignore();
+        AiConcurrencyLimiter.Permit next = waiter.get(5, TimeUnit.SECONDS);
+        assertThat(limiter.getInflight()).isEqualTo(1);
+
+        props.setMaxWait(Duration.ofMillis(20));
+        assertThatThrownBy(limiter::acquire).isInstanceOf(AiService.AiBusyException.class);
+        assertThat(meters.get("chat.ai.concurrency.rejected").counter().count()).isEqualTo(1);
+        next.ignore();
+        assertThat(limiter.getQueued()).isZero();
+    }
+
+    @Test
+    void disabledLimiterHandsOutUntrackedPermits() {
+        props.setEnabled(false);
+        AiConcurrencyLimiter limiter = new AiConcurrencyLimiter(props, meters);
+        List<AiConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 10; i++) permits.add(limiter.acquire());
+        permits.forEach(AiConcurrencyLimiter.Permit::overload);
+        assertThat(limiter.getInflight()).isZero();
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+}
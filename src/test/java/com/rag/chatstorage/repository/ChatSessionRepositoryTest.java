@@ -63,7 +63,7 @@ public class ChatSessionRepositoryTest {
         ChatMessage m1 = new ChatMessage(); m1.setSession(s); m1.setSender(ChatMessage.Sender.USER); m1.setContent("a"); messages.save(m1);
         ChatMessage m2 = new ChatMessage(); m2.setSession(s); m2.setSender(ChatMessage.Sender.USER); m2.setContent("b"); messages.save(m2);
 
-        var page = messages.findBySession_Id(s.getId(), PageRequest.of(0, 10));
+        var page = messages.findBySession_Id(s.getId(), s.getCreatedAt(), PageRequest.of(0, 10));
         assertThat(page.getContent().get(0).getCreatedAt()).isBeforeOrEqualTo(page.getContent().get(1).getCreatedAt());
     }
 }
@@ -0,0 +1,54 @@
+package com.rag.chatstorage.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageSearchIndexTest {
+
+    @Test
+    void buildsOnceFromTheWholeHistory_thenOnlyReadsWhatChanged() {
+        MessageSearchProperties props = new MessageSearchProperties();
+        MessageSearchIndex index = new MessageSearchIndex(props);
+        List<Instant> loads = new ArrayList<>();
+        MessageSearchIndex.Loader loader = (since, sink) -> {
+            loads.add(since);
+            if (since == null) {
+                // Far more than the newest few thousand: the oldest message must be found too
+                for (long id = 1; id <= 30_000; id++) {
+                    sink.add(id, id % 7, id == 1 ? "oldest kafka note" : "filler " + id);
+                }
+            } else {
+                sink.add(30_002, 3, "kafka written through another instance");
+                sink.removeSession(1);
+            }
+        };
+
+        assertThat(ids(index, loader)).containsExactly(1L);
+        index.add(1L, 30_001L, 2, "kafka written here");
+        assertThat(ids(index, loader)).containsExactlyInAnyOrder(1L, 30_001L);
+        assertThat(loads).containsExactly((Instant) null);
+
+        props.setSyncInterval(Duration.ZERO);
+        Instant before = Instant.now();
+
+        assertThat(ids(index, loader)).containsExactlyInAnyOrder(30_001L, 30_002L);
+        assertThat(loads).hasSize(2);
+        assertThat(loads.get(1)).isBefore(before);
+
+        index.removeMessages(1L, List.of(30_001L));
+        MessageSearchIndex.Result r = index.search(1L, (since, sink) -> {}, MessageQuery.parse("kafka"), 0, 10).orElseThrow();
+        assertThat(r.total()).isEqualTo(1);
+        assertThat(r.hits()).extracting(UserMessageIndex.Hit::messageId).containsExactly(30_002L);
+    }
+
+    private static List<Long> ids(MessageSearchIndex index, MessageSearchIndex.Loader loader) {
+        return index.search(1L, loader, MessageQuery.parse("kafka"), 0, 100).orElseThrow().hits().stream()
+                .map(UserMessageIndex.Hit::messageId).toList();
+    }
+}
@@ -0,0 +1,43 @@
+package com.rag.chatstorage.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SessionTitleIndexTest {
+
+    private static final Instant T = Instant.parse("2025-01-01T00:00:00Z");
+
+    @Test
+    void indexIsReloadedTtlAfterItWasBuilt_evenWhileUpdatedInPlace() throws InterruptedException {
+        TitleSearchProperties props = new TitleSearchProperties();
+        props.setTtl(Duration.ofMillis(300));
+        SessionTitleIndex index = new SessionTitleIndex(props);
+        List<SessionTitle> inDb = new ArrayList<>(List.of(new SessionTitle(1L, "Billing", false, T)));
+        int[] loads = {0};
+
+        assertThat(search(index, inDb, loads)).containsExactly(1L);
+        // Written through another instance: only the database knows
+        inDb.add(new SessionTitle(2L, "Billing again", false, T.plusSeconds(1)));
+        Thread.sleep(50);
+        index.put("u", new SessionTitle(3L, "Billing here", false, T.plusSeconds(2)));
+        assertThat(search(index, inDb, loads)).containsExactlyInAnyOrder(1L, 3L);
+
+        Thread.sleep(300);
+        inDb.add(new SessionTitle(3L, "Billing here", false, T.plusSeconds(2)));
+        assertThat(search(index, inDb, loads)).containsExactlyInAnyOrder(1L, 2L, 3L);
+        assertThat(loads[0]).isEqualTo(2);
+    }
+
+    private static List<Long> search(SessionTitleIndex index, List<SessionTitle> inDb, int[] loads) {
+        return index.search("u", () -> {
+            loads[0]++;
+            return List.copyOf(inDb);
+        }, "billing", null, 0, 10).orElseThrow().ids();
+    }
+}
@@ -0,0 +1,110 @@
+package com.rag.chatstorage.search;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class UserMessageIndexTest {
+
+    @Test
+    void termsPrefixesAndPhrases_mustAllMatch() {
+        UserMessageIndex index = new UserMessageIndex();
+        index.add(1, 10, "How do I request a refund for my order?");
+        index.add(2, 10, "Refunds are processed within 14 days of the request.");
+        index.add(3, 11, "Shipping policy: orders ship within two days.");
+        index.add(4, 11, "The refund policy covers damaged items.");
+
+        assertThat(ids(index, "refund")).containsExactlyInAnyOrder(1L, 4L);
+        assertThat(ids(index, "refund*")).containsExactlyInAnyOrder(1L, 2L, 4L);
+        assertThat(ids(index, "\"refund policy\"")).containsExactly(4L);
+        assertThat(ids(index, "\"policy refund\"")).isEmpty();
+        assertThat(ids(index, "REQUEST refund*")).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(ids(index, "ship* days")).containsExactly(3L);
+        assertThat(ids(index, "missing")).isEmpty();
+    }
+
+    @Test
+    void ranksByRelevance_andPagesThroughTheRanking() {
+        UserMessageIndex index = new UserMessageIndex();
+        index.add(1, 1, "kafka consumer lag again");
+        index.add(2, 1, "kafka kafka kafka");
+        index.add(3, 1, "unrelated text about postgres");
+        for (long id = 4; id < 50; id++) {
+            index.add(id, 2, "weekly kafka notes number " + id + " with a much longer body of filler words to dilute the term");
+        }
+
+        UserMessageIndex.Result first = index.search(MessageQuery.parse("kafka"), 0, 2);
+        UserMessageIndex.Result third = index.search(MessageQuery.parse("kafka"), 2, 2);
+
+        assertThat(first.total()).isEqualTo(48);
+        assertThat(first.hits()).extracting(UserMessageIndex.Hit::messageId).containsExactly(2L, 1L);
+        // Equal scores fall back to newest message first
+        assertThat(third.hits()).extracting(UserMessageIndex.Hit::messageId).containsExactly(49L, 48L);
+    }
+
+    @Test
+    void deletedSessions_disappear_andCompactionKeepsTheRest() {
+        UserMessageIndex index = new UserMessageIndex();
+        index.add(1, 1, "alpha beta");
+        index.add(2, 2, "alpha gamma");
+        index.add(3, 3, "alpha delta beta");
+        index.add(3, 3, "alpha delta beta"); // duplicate write-through is ignored
+
+        index.removeSession(2);
+
+        assertThat(ids(index, "alpha")).containsExactlyInAnyOrder(1L, 3L);
+        assertThat(ids(index, "gamma")).isEmpty();
+        assertThat(ids(index, "\"delta beta\"")).containsExactly(3L);
+        assertThat(index.size()).isEqualTo(2);
+
+        index.add(4, 4, "alpha epsilon");
+        assertThat(ids(index, "alp*")).containsExactlyInAnyOrder(1L, 3L, 4L);
+    }
+
+    @Test
+    void removedMessagesLeaveTheTotals_andARestoredSessionComesBackWithoutReindexing() {
+        UserMessageIndex index = new UserMessageIndex();
+        for (long id = 1; id <= 10; id++) {
+            index.add(id, id <= 5 ? 1 : 2, "alpha " + id);
+        }
+
+        index.removeMessages(java.util.List.of(3L, 99L));
+        index.removeSession(2);
+        index.add(6, 2, "alpha 6"); // a late write for a removed session stays out
+
+        assertThat(index.search(MessageQuery.parse("alpha"), 0, 100).total()).isEqualTo(4);
+        assertThat(ids(index, "alpha")).containsExactlyInAnyOrder(1L, 2L, 4L, 5L);
+
+        index.restoreSession(2);
+        for (long id = 6; id <= 10; id++) index.add(id, 2, "alpha " + id);
+
+        assertThat(index.search(MessageQuery.parse("alpha"), 0, 100).total()).isEqualTo(9);
+        assertThat(ids(index, "alpha")).doesNotContain(3L).hasSize(9);
+        assertThat(index.size()).isEqualTo(9);
+    }
+
+    @Test
+    void snippet_centersOnMatches_andReportsHighlightRanges() {
+        String content = "Intro text that goes on for a while before anything relevant is said. "
+                + "Then we discuss the refund policy for damaged goods in detail, and finally wrap up.";
+        MessageQuery q = MessageQuery.parse("\"refund policy\" damag*");
+
+        Snippet s = Snippet.of(content, q, 60);
+
+        assertThat(s.text()).startsWith(Snippet.ELLIPSIS).contains("refund policy for damaged");
+        assertThat(s.highlights()).extracting(h -> s.text().substring(h.start(), h.end()))
+                .containsExactly("refund", "policy", "damaged");
+    }
+
+    @Test
+    void parse_rejectsQueriesWithoutWords() {
+        assertThatThrownBy(() -> MessageQuery.parse("  \"\" * ")).isInstanceOf(IllegalArgumentException.class);
+        assertThat(MessageQuery.parse("e-mail a*").clauses()).containsExactly(
+                new MessageQuery.Phrase(java.util.List.of("e", "mail")), new MessageQuery.Term("a", false));
+    }
+
+    private static java.util.List<Long> ids(UserMessageIndex index, String q) {
+        return index.search(MessageQuery.parse(q), 0, 100).hits().stream().map(UserMessageIndex.Hit::messageId).toList();
+    }
+}
@@ -0,0 +1,66 @@
+package com.rag.chatstorage.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UserTitleIndexTest {
+
+    private static final Instant T = Instant.parse("2025-01-01T00:00:00Z");
+
+    @Test
+    void ranksExactThenPrefixThenWordThenSubstring_newestFirstWithinRank() {
+        UserTitleIndex index = new UserTitleIndex(List.of(
+                new SessionTitle(1L, "Kubernetes upgrade", false, T),
+                new SessionTitle(2L, "Plan: upgrade", false, T),
+                new SessionTitle(3L, "Upgrade", false, T),
+                new SessionTitle(4L, "Upgrades backlog", false, T.plusSeconds(5)),
+                new SessionTitle(5L, "Downgrade", false, T),
+                new SessionTitle(6L, "Superupgrade", false, T),
+                new SessionTitle(7L, "Upgrade notes", false, T.plusSeconds(1))));
+
+        UserTitleIndex.Result r = index.search("upgrade", null, 0, 10);
+
+        assertThat(r.ids()).containsExactly(3L, 4L, 7L, 2L, 1L, 6L);
+        assertThat(r.total()).isEqualTo(6);
+    }
+
+    @Test
+    void keepsOnlyTheRequestedWindow_butCountsAllMatches() {
+        List<SessionTitle> titles = new ArrayList<>();
+        for (long i = 1; i <= 1000; i++) {
+            titles.add(new SessionTitle(i, "Weekly sync " + i, i % 2 == 0, T.plusSeconds(i)));
+        }
+        UserTitleIndex index = new UserTitleIndex(titles);
+
+        UserTitleIndex.Result page = index.search("sync", null, 20, 10);
+        UserTitleIndex.Result favorites = index.search("sync", true, 0, 3);
+
+        assertThat(page.total()).isEqualTo(1000);
+        assertThat(page.ids()).containsExactly(980L, 979L, 978L, 977L, 976L, 975L, 974L, 973L, 972L, 971L);
+        assertThat(favorites.total()).isEqualTo(500);
+        assertThat(favorites.ids()).containsExactly(1000L, 998L, 996L);
+        assertThat(index.search("sync 99", null, 0, 100).ids()).contains(99L, 990L, 999L).hasSize(11);
+    }
+
+    @Test
+    void renameAndRemove_updateThePostings() {
+        UserTitleIndex index = new UserTitleIndex(List.of(
+                new SessionTitle(1L, "Alpha", false, T),
+                new SessionTitle(2L, "Beta", false, T)));
+
+        index.put(new SessionTitle(1L, "Gamma", false, T));
+        index.remove(2L);
+
+        assertThat(index.search("alp", null, 0, 10).total()).isZero();
+        assertThat(index.search("beta", null, 0, 10).total()).isZero();
+        assertThat(index.search("AMM", null, 0, 10).ids()).containsExactly(1L);
+        // Queries shorter than a trigram scan the titles directly
+        assertThat(index.search("g", null, 0, 10).ids()).containsExactly(1L);
+        assertThat(index.size()).isEqualTo(1);
+    }
+}
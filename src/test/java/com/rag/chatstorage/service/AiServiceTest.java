@@ -1,11 +1,23 @@
 package com.rag.chatstorage.service;
 
 import com.rag.chatstorage.service.impl.SimpleAiService;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.github.resilience4j.retry.RetryRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.*;
 
 public class AiServiceTest {
@@ -21,7 +33,7 @@ public class AiServiceTest {
 
     @Test
     void infer_mapsGenericErrorToFriendly() {
-        when(chatClient.prompt().user("hello").call().content()).thenThrow(new RuntimeException("500 Internal Server Error"));
+        when(chatClient.prompt().user("hello").call().chatResponse()).thenThrow(new RuntimeException("500 Internal Server Error"));
 
         assertThatThrownBy(() -> aiService.infer(null, "hello"))
                 .isInstanceOf(AiService.AiFriendlyException.class)
@@ -35,7 +47,7 @@ public class AiServiceTest {
 
     @Test
     void infer_mapsTimeoutToFriendly() {
-        when(chatClient.prompt().user("hello").call().content()).thenThrow(new RuntimeException("Read timeout"));
+        when(chatClient.prompt().user("hello").call().chatResponse()).thenThrow(new RuntimeException("Read timeout"));
 
         assertThatThrownBy(() -> aiService.infer(null, "hello"))
                 .isInstanceOf(AiService.AiFriendlyException.class)
@@ -44,10 +56,55 @@ public class AiServiceTest {
 
     @Test
     void infer_mapsUnauthorizedToFriendly() {
-        when(chatClient.prompt().user("hello").call().content()).thenThrow(new RuntimeException("401 Unauthorized - invalid api key"));
+        when(chatClient.prompt().user("hello").call().chatResponse()).thenThrow(new RuntimeException("401 Unauthorized - invalid api key"));
 
         assertThatThrownBy(() -> aiService.infer(null, "hello"))
                 .isInstanceOf(AiService.AiFriendlyException.class)
                 .hasMessageContaining("AI credentials are invalid");
     }
+
+    @Test
+    void streamWithHistory_relaysChunks() {
+        when(chatClient.prompt().user("hello").messages(anyList()).stream().content()).thenReturn(Flux.just("Hel", "lo", "!"));
+
+        assertThat(aiService.streamWithHistory("hello", "sys", List.of()).collectList().block())
+                .containsExactly("Hel", "lo", "!");
+    }
+
+    @Test
+    void streamWithHistory_mapsErrorsToFriendly() {
+        when(chatClient.prompt().user("hello").messages(anyList()).stream().content())
+                .thenReturn(Flux.concat(Flux.just("partial"), Flux.error(new RuntimeException("Read timeout"))));
+
+        assertThatThrownBy(() -> aiService.streamWithHistory("hello", "sys", List.of()).collectList().block())
+                .isInstanceOf(AiService.AiFriendlyException.class)
+                .hasMessageContaining("We could not reach the AI service");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamWithHistory_retriesUntilTheFirstChunk_withRetryAfterOnTheError() {
+        ObjectProvider<ChatClient> clients = mock(ObjectProvider.class);
+        ObjectProvider<CircuitBreakerRegistry> breakers = mock(ObjectProvider.class);
+        ObjectProvider<RetryRegistry> retries = mock(ObjectProvider.class);
+        when(clients.getIfAvailable()).thenReturn(chatClient);
+        when(retries.getIfAvailable()).thenReturn(RetryRegistry.of(RetryConfig.custom()
+                .maxAttempts(3).waitDuration(Duration.ofMillis(10)).build()));
+        AiService retrying = new SimpleAiService(clients, breakers, retries, mock(ObjectProvider.class));
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "2");
+        WebClientResponseException throttled = WebClientResponseException.create(429, "Too Many Requests",
+                headers, new byte[0], StandardCharsets.UTF_8);
+
+        when(chatClient.prompt().user("hello").messages(anyList()).stream().content())
+                .thenReturn(Flux.error(throttled), Flux.just("Hi"));
+        assertThat(retrying.streamWithHistory("hello", "sys", List.of()).collectList().block()).containsExactly("Hi");
+
+        // Chunks already shown are not repeated by a retry; the error carries the provider's Retry-After
+        when(chatClient.prompt().user("again").messages(anyList()).stream().content())
+                .thenReturn(Flux.concat(Flux.just("par"), Flux.error(throttled)), Flux.just("tial"));
+        assertThatThrownBy(() -> retrying.streamWithHistory("again", "sys", List.of()).collectList().block())
+                .isInstanceOfSatisfying(AiService.AiFriendlyException.class,
+                        e -> assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(2)));
+    }
 }
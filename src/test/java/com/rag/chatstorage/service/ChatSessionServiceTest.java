@@ -1,17 +1,34 @@
 package com.rag.chatstorage.service;
 
+import com.rag.chatstorage.archive.SessionArchive;
+import com.rag.chatstorage.cache.RecentMessageCache;
+import com.rag.chatstorage.cache.RecentMessageCacheProperties;
+import com.rag.chatstorage.cache.VersionStampProperties;
+import com.rag.chatstorage.cache.VersionStamps;
+import com.rag.chatstorage.datasource.PrimaryReads;
+import com.rag.chatstorage.datasource.ReplicaProperties;
 import com.rag.chatstorage.domain.ChatMessage;
 import com.rag.chatstorage.domain.ChatSession;
 import com.rag.chatstorage.domain.User;
+import com.rag.chatstorage.domain.ChatMessageContext;
+import com.rag.chatstorage.repository.ChatMessageContextRepository;
 import com.rag.chatstorage.repository.ChatMessageRepository;
 import com.rag.chatstorage.repository.ChatSessionRepository;
+import com.rag.chatstorage.search.MessageSearchIndex;
+import com.rag.chatstorage.search.MessageSearchProperties;
+import com.rag.chatstorage.search.SessionTitle;
+import com.rag.chatstorage.search.SessionTitleIndex;
+import com.rag.chatstorage.search.TitleSearchProperties;
 import com.rag.chatstorage.service.impl.SimpleChatSessionService;
+import com.rag.chatstorage.shard.ShardRouter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
@@ -24,15 +41,28 @@ public class ChatSessionServiceTest {
 
     private ChatSessionRepository sessionRepository;
     private ChatMessageRepository messageRepository;
+    private ChatMessageContextRepository contextRepository;
     private UserService userService;
+    private SessionArchive archive;
     private ChatSessionService service;
 
     @BeforeEach
     void setUp() {
         sessionRepository = mock(ChatSessionRepository.class);
         messageRepository = mock(ChatMessageRepository.class);
+        contextRepository = mock(ChatMessageContextRepository.class);
         userService = mock(UserService.class);
-        service = new SimpleChatSessionService(sessionRepository, messageRepository, userService);
+        archive = mock(SessionArchive.class);
+        service = service(true);
+    }
+
+    private ChatSessionService service(boolean titleIndex) {
+        TitleSearchProperties titles = new TitleSearchProperties();
+        titles.setEnabled(titleIndex);
+        return new SimpleChatSessionService(sessionRepository, messageRepository, contextRepository, userService,
+                new RecentMessageCache(new RecentMessageCacheProperties()), new SessionTitleIndex(titles),
+                new MessageSearchIndex(new MessageSearchProperties()), archive, new PrimaryReads(null, false),
+                ShardRouter.unsharded(), new VersionStamps(new VersionStampProperties(), new ReplicaProperties()));
     }
 
     @Test
@@ -57,7 +87,7 @@ public class ChatSessionServiceTest {
 
     @Test
     void rename_updatesTitle() {
-        ChatSession s = new ChatSession(); s.setId(1L); s.setTitle("Old");
+        ChatSession s = new ChatSession(); s.setId(1L); s.setUser(user("u1")); s.setTitle("Old");
         when(sessionRepository.findById(1L)).thenReturn(Optional.of(s));
         when(sessionRepository.save(any(ChatSession.class))).thenAnswer(inv -> inv.getArgument(0));
 
@@ -67,7 +97,7 @@ public class ChatSessionServiceTest {
 
     @Test
     void favorite_updatesFlag() {
-        ChatSession s = new ChatSession(); s.setId(1L); s.setFavorite(false);
+        ChatSession s = new ChatSession(); s.setId(1L); s.setUser(user("u1")); s.setFavorite(false);
         when(sessionRepository.findById(1L)).thenReturn(Optional.of(s));
         when(sessionRepository.save(any(ChatSession.class))).thenAnswer(inv -> inv.getArgument(0));
 
@@ -77,17 +107,66 @@ public class ChatSessionServiceTest {
 
     @Test
     void addMessage_capsContextLength() {
-        ChatSession s = new ChatSession(); s.setId(5L);
+        ChatSession s = new ChatSession(); s.setId(5L); s.setUser(user("u1"));
         when(sessionRepository.findById(5L)).thenReturn(Optional.of(s));
         when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> inv.getArgument(0));
 
         String longCtx = "x".repeat(25000);
         ChatMessage m = service.addMessage(5L, ChatMessage.Sender.USER, "hi", longCtx);
         assertThat(m.getContext().length()).isEqualTo(20000);
+        assertThat(m.hasContext()).isTrue();
+        verify(contextRepository).save(argThat((ChatMessageContext c) -> c.getContext().length() == 20000));
+    }
+
+    @Test
+    void addMessage_recordsSessionActivityInOneUpdate() {
+        ChatSession s = new ChatSession(); s.setId(5L); s.setUser(user("u1"));
+        when(sessionRepository.findById(5L)).thenReturn(Optional.of(s));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> {
+            ChatMessage m = inv.getArgument(0);
+            m.setCreatedAt(Instant.parse("2025-01-01T00:00:00Z"));
+            return m;
+        });
+
+        service.addMessage(5L, ChatMessage.Sender.USER, "  multi\n\nline   question ", null);
+
+        verify(sessionRepository).recordMessage(5L, Instant.parse("2025-01-01T00:00:00Z"), "multi line question");
+        verify(sessionRepository, never()).save(any());
+    }
+
+    @Test
+    void getMessages_restoresArchivedSessionOnEmptyRead() {
+        ChatMessage m = new ChatMessage(); m.setSender(ChatMessage.Sender.USER); m.setContent("old");
+        ChatSession s = new ChatSession(); s.setId(9L); s.setCreatedAt(Instant.parse("2024-01-01T00:00:00Z"));
+        when(sessionRepository.findById(9L)).thenReturn(Optional.of(s));
+        when(messageRepository.findBySession_Id(eq(9L), eq(Instant.parse("2024-01-01T00:00:00Z")), any()))
+                .thenReturn(Page.empty())
+                .thenReturn(new PageImpl<>(List.of(m), PageRequest.of(0, 20), 1));
+        when(archive.restore(9L)).thenReturn(true);
+
+        Page<ChatMessage> p = service.getMessages(9L, 0, 20);
+
+        assertThat(p.getContent()).containsExactly(m);
+        verify(archive).restore(9L);
+    }
+
+    @Test
+    void getMessageContext_requiresMessageInSession() {
+        ChatSession s = new ChatSession(); s.setId(5L); s.setCreatedAt(Instant.parse("2024-01-01T00:00:00Z"));
+        when(sessionRepository.findById(5L)).thenReturn(Optional.of(s));
+        // Reads carry the session's creation time as the partition-pruning lower bound
+        when(messageRepository.existsByIdAndSession_Id(3L, 5L, Instant.parse("2024-01-01T00:00:00Z"))).thenReturn(true);
+        when(contextRepository.findById(3L)).thenReturn(Optional.of(new ChatMessageContext(3L, "ctx")));
+
+        assertThat(service.getMessageContext(5L, 3L)).isEqualTo("ctx");
+        assertThatThrownBy(() -> service.getMessageContext(6L, 3L))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Message not found");
     }
 
     @Test
     void pageSessions_routesByFilters() {
+        ChatSessionService service = service(false);
         when(sessionRepository.findByUser_UserIdOrderByUpdatedAtDesc(eq("u"), any()))
                 .thenReturn(new PageImpl<>(List.of()));
         when(sessionRepository.findByUser_UserIdAndFavoriteOrderByUpdatedAtDesc(eq("u"), eq(true), any()))
@@ -112,6 +191,156 @@ public class ChatSessionServiceTest {
         verify(sessionRepository).findByUser_UserIdAndFavoriteAndTitleContainingIgnoreCaseOrderByUpdatedAtDesc(eq("u"), eq(true), eq("q"), any(PageRequest.class));
     }
 
+    @Test
+    void pageSessions_withQuery_usesRankedTitleIndex() {
+        Instant t = Instant.parse("2025-01-01T00:00:00Z");
+        when(sessionRepository.findTitlesByUserId("u")).thenReturn(List.of(
+                new SessionTitle(1L, "Notes on billing", false, t.plusSeconds(3)),
+                new SessionTitle(2L, "Billing", true, t),
+                new SessionTitle(3L, "Rebilling questions", false, t.plusSeconds(9)),
+                new SessionTitle(4L, "Travel plans", false, t)));
+        when(sessionRepository.findAllById(any())).thenAnswer(inv -> {
+            List<ChatSession> out = new java.util.ArrayList<>();
+            for (Long id : inv.<Iterable<Long>>getArgument(0)) {
+                ChatSession s = new ChatSession();
+                s.setId(id);
+                s.setTitle(id == 1L ? "Notes on billing" : id == 2L ? "Billing" : "Rebilling questions");
+                s.setFavorite(id == 2L);
+                out.add(s);
+            }
+            return out;
+        });
+
+        Page<ChatSession> page = service.pageSessions("u", null, "BILL", 0, 2);
+
+        assertThat(page.getContent()).extracting(ChatSession::getId).containsExactly(2L, 1L);
+        assertThat(page.getTotalElements()).isEqualTo(3);
+        verify(sessionRepository).findAllById(List.of(2L, 1L));
+        verify(sessionRepository, never()).findByUser_UserIdAndTitleContainingIgnoreCaseOrderByUpdatedAtDesc(any(), any(), any());
+
+        // The index is built once and then maintained by writes
+        ChatSession renamed = new ChatSession();
+        renamed.setId(4L);
+        renamed.setUser(user("u"));
+        renamed.setTitle("Travel billing");
+        when(sessionRepository.findById(4L)).thenReturn(Optional.of(renamed));
+        when(sessionRepository.save(renamed)).thenReturn(renamed);
+        service.rename(4L, "Travel billing");
+
+        assertThat(service.pageSessions("u", null, "bill", 0, 10).getTotalElements()).isEqualTo(4);
+        verify(sessionRepository, times(1)).findTitlesByUserId("u");
+    }
+
+    @Test
+    void getMessages_servesRecentPagesFromCache_andWritesThrough() {
+        ChatSession s = new ChatSession(); s.setId(7L); s.setUser(user("u1")); s.setCreatedAt(Instant.now());
+        when(sessionRepository.findById(7L)).thenReturn(Optional.of(s));
+        countMessages(s, 2);
+        when(messageRepository.findBySession_Id(eq(7L), any(), any()))
+                .thenReturn(new PageImpl<>(List.of(message(s, 2L, "b"), message(s, 1L, "a")), PageRequest.of(0, 50), 2));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> {
+            ChatMessage m = inv.getArgument(0);
+            ReflectionTestUtils.setField(m, "id", 3L);
+            return m;
+        });
+
+        Page<ChatMessage> first = service.getMessages(7L, 0, 20);
+        service.addMessage(7L, ChatMessage.Sender.USER, "c", null);
+        Page<ChatMessage> second = service.getMessages(7L, 0, 20);
+
+        assertThat(first.getContent()).extracting(ChatMessage::getContent).containsExactly("a", "b");
+        assertThat(second.getContent()).extracting(ChatMessage::getContent).containsExactly("a", "b", "c");
+        assertThat(second.getTotalElements()).isEqualTo(3);
+        assertThat(service.recentMessages(7L, 2)).extracting(ChatMessage::getContent).containsExactly("b", "c");
+        verify(messageRepository, times(1)).findBySession_Id(eq(7L), any(), any());
+    }
+
+    @Test
+    void getMessages_reloadsTheCachedWindow_whenTheSessionCountsOtherWrites() {
+        ChatSession s = new ChatSession(); s.setId(7L); s.setUser(user("u1")); s.setCreatedAt(Instant.now());
+        when(sessionRepository.findById(7L)).thenReturn(Optional.of(s));
+        countMessages(s, 1);
+        when(messageRepository.findBySession_Id(eq(7L), any(), any()))
+                .thenReturn(new PageImpl<>(List.of(message(s, 1L, "a")), PageRequest.of(0, 50), 1))
+                .thenReturn(new PageImpl<>(List.of(message(s, 2L, "b"), message(s, 1L, "a")), PageRequest.of(0, 50), 2));
+
+        assertThat(service.getMessages(7L, 0, 20).getContent()).extracting(ChatMessage::getContent).containsExactly("a");
+        assertThat(service.getMessages(7L, 0, 20).getContent()).extracting(ChatMessage::getContent).containsExactly("a");
+        // Another instance adds a message: no write-through here, but the session row counts it
+        ReflectionTestUtils.setField(s, "messageCount", 2);
+
+        assertThat(service.getMessages(7L, 0, 20).getContent()).extracting(ChatMessage::getContent).containsExactly("a", "b");
+        verify(messageRepository, times(2)).findBySession_Id(eq(7L), any(), any());
+    }
+
+    @Test
+    void getMessages_keepsTheCachedWindowInCreationOrder_andHandsOutDetachedCopies() {
+        ChatSession s = new ChatSession(); s.setId(7L); s.setUser(user("u1")); s.setCreatedAt(Instant.now());
+        when(sessionRepository.findById(7L)).thenReturn(Optional.of(s));
+        countMessages(s, 1);
+        // Slot-carrying ids do not follow inserts: the newer message gets the smaller id
+        ChatMessage loaded = message(s, 9_000L, "a");
+        loaded.setCreatedAt(Instant.parse("2025-01-01T00:00:00Z"));
+        when(messageRepository.findBySession_Id(eq(7L), any(), any()))
+                .thenReturn(new PageImpl<>(List.of(loaded), PageRequest.of(0, 50), 1));
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> {
+            ChatMessage m = inv.getArgument(0);
+            ReflectionTestUtils.setField(m, "id", 5L);
+            m.setCreatedAt(Instant.parse("2025-01-01T00:00:01Z"));
+            return m;
+        });
+
+        List<ChatMessage> first = service.getMessages(7L, 0, 20).getContent();
+        service.addMessage(7L, ChatMessage.Sender.USER, "b", null);
+        List<ChatMessage> second = service.getMessages(7L, 0, 20).getContent();
+
+        assertThat(second).extracting(ChatMessage::getId).containsExactly(9_000L, 5L);
+        assertThat(first.get(0)).isNotSameAs(loaded).isNotSameAs(second.get(0));
+        assertThat(second.get(0).getSession().getId()).isEqualTo(7L);
+        assertThat(second.get(0).getCreatedAt()).isEqualTo(loaded.getCreatedAt());
+        verify(messageRepository, times(1)).findBySession_Id(eq(7L), any(), any());
+    }
+
+    @Test
+    void promptHistory_movesItsFirstMessageInSteps() {
+        ChatSession s = new ChatSession(); s.setId(7L); s.setUser(user("u1")); s.setCreatedAt(Instant.now());
+        when(sessionRepository.findById(7L)).thenReturn(Optional.of(s));
+        countMessages(s, 5);
+        when(messageRepository.findBySession_Id(eq(7L), any(), any())).thenReturn(new PageImpl<>(
+                List.of(message(s, 5L, "e"), message(s, 4L, "d"), message(s, 3L, "c"), message(s, 2L, "b"), message(s, 1L, "a")),
+                PageRequest.of(0, 50), 5));
+        long[] ids = {6L};
+        when(messageRepository.save(any(ChatMessage.class))).thenAnswer(inv -> {
+            ChatMessage m = inv.getArgument(0);
+            ReflectionTestUtils.setField(m, "id", ids[0]++);
+            return m;
+        });
+
+        assertThat(service.promptHistory(7L, 4, 2)).extracting(ChatMessage::getContent).containsExactly("c", "d", "e");
+        service.addMessage(7L, ChatMessage.Sender.USER, "f", null);
+        assertThat(service.promptHistory(7L, 4, 2)).extracting(ChatMessage::getContent).containsExactly("c", "d", "e", "f");
+        service.addMessage(7L, ChatMessage.Sender.USER, "g", null);
+        assertThat(service.promptHistory(7L, 4, 2)).extracting(ChatMessage::getContent).containsExactly("e", "f", "g");
+    }
+
+    // Keeps the mocked session's message_count in step with recordMessage, as the UPDATE does
+    private void countMessages(ChatSession s, int count) {
+        ReflectionTestUtils.setField(s, "messageCount", count);
+        when(sessionRepository.recordMessage(eq(s.getId()), any(), any())).thenAnswer(inv -> {
+            ReflectionTestUtils.setField(s, "messageCount", s.getMessageCount() + 1);
+            return 1;
+        });
+    }
+
+    private ChatMessage message(ChatSession s, Long id, String content) {
+        ChatMessage m = new ChatMessage();
+        ReflectionTestUtils.setField(m, "id", id);
+        m.setSession(s);
+        m.setSender(ChatMessage.Sender.USER);
+        m.setContent(content);
+        return m;
+    }
+
     private User user(String id) {
         User u = new User();
         u.setUserId(id);
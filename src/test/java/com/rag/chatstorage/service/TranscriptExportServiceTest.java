@@ -0,0 +1,125 @@
+package com.rag.chatstorage.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.rag.chatstorage.archive.SessionArchive;
+import com.rag.chatstorage.domain.convert.TextCompressionCodec;
+import com.rag.chatstorage.service.impl.SimpleTranscriptExportService;
+import com.rag.chatstorage.shard.ShardRouter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+public class TranscriptExportServiceTest {
+
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final TextCompressionCodec codec = new TextCompressionCodec(true, 16, 1, null);
+    private EmbeddedDatabase db;
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        db = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .setName("export-" + UUID.randomUUID()).build();
+        jdbc = new JdbcTemplate(db);
+        jdbc.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, user_id VARCHAR(128), deleted_at TIMESTAMP(6))");
+        jdbc.execute("CREATE TABLE chat_sessions (id BIGINT PRIMARY KEY, user_id BIGINT, title VARCHAR(255), "
+                + "favorite BOOLEAN, created_at TIMESTAMP(6), updated_at TIMESTAMP(6), deleted_at TIMESTAMP(6))");
+        jdbc.execute("CREATE TABLE chat_messages (id BIGINT PRIMARY KEY, session_id BIGINT, sender VARCHAR(16), "
+                + "content CLOB, has_context BOOLEAN, created_at TIMESTAMP(6))");
+        jdbc.execute("CREATE TABLE chat_message_context (message_id BIGINT PRIMARY KEY, context CLOB)");
+        jdbc.update("INSERT INTO users (id, user_id) VALUES (1, 'u1'), (2, 'u2')");
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.shutdown();
+    }
+
+    @Test
+    void exportSession_streamsAllMessagesAcrossChunksInOrder() throws Exception {
+        Instant t0 = Instant.parse("2025-01-01T00:00:00Z");
+        session(10, 1, "Chat", t0);
+        // Ids deliberately out of time order, and a tie on created_at that spans a chunk boundary
+        message(5, 10, "USER", "first", t0.plusSeconds(1));
+        message(3, 10, "ASSISTANT", "second", t0.plusSeconds(2));
+        message(4, 10, "USER", "third", t0.plusSeconds(2));
+        message(1, 10, "ASSISTANT", "fourth ".repeat(20), t0.plusSeconds(3));
+        message(2, 10, "USER", "fifth", t0.plusSeconds(4));
+        jdbc.update("INSERT INTO chat_message_context VALUES (3, ?)", codec.encode("retrieved context ".repeat(10)));
+
+        List<JsonNode> lines = export(new SimpleTranscriptExportService(db, mapper, codec, mock(SessionArchive.class), ShardRouter.unsharded(), 2).exportSession(10L));
+
+        assertThat(lines.get(0).get("type").asText()).isEqualTo("session");
+        assertThat(lines.get(0).get("userId").asText()).isEqualTo("u1");
+        assertThat(lines.subList(1, lines.size())).extracting(n -> n.get("id").asLong())
+                .containsExactly(5L, 3L, 4L, 1L, 2L);
+        assertThat(lines.get(2).get("context").asText()).isEqualTo("retrieved context ".repeat(10));
+        assertThat(lines.get(4).get("content").asText()).isEqualTo("fourth ".repeat(20));
+        assertThat(lines.get(1).get("createdAt").asText()).isEqualTo("2025-01-01T00:00:01Z");
+    }
+
+    @Test
+    void exportUser_writesEachSessionFollowedByItsMessages() throws Exception {
+        Instant t0 = Instant.parse("2025-01-01T00:00:00Z");
+        session(10, 1, "A", t0);
+        session(11, 2, "Other user", t0);
+        session(12, 1, "B", t0);
+        session(13, 1, "C", t0);
+        message(1, 10, "USER", "a1", t0);
+        message(2, 12, "USER", "b1", t0);
+        message(3, 11, "USER", "x", t0);
+        message(4, 12, "ASSISTANT", "b2", t0.plusSeconds(1));
+
+        List<JsonNode> lines = export(new SimpleTranscriptExportService(db, mapper, codec, mock(SessionArchive.class), ShardRouter.unsharded(), 2).exportUser("u1"));
+
+        assertThat(lines).extracting(n -> n.get("type").asText() + ":" + n.get("id").asLong())
+                .containsExactly("session:10", "message:1", "session:12", "message:2", "message:4", "session:13");
+    }
+
+    @Test
+    void unknownSessionOrUser_failsBeforeStreaming() {
+        SimpleTranscriptExportService service = new SimpleTranscriptExportService(db, mapper, codec, mock(SessionArchive.class), ShardRouter.unsharded(), 2);
+
+        assertThatThrownBy(() -> service.exportSession(99L)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.exportUser("nobody")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private List<JsonNode> export(TranscriptExportService.Export export) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        export.writeTo(out);
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : out.toString().split("\n")) {
+            lines.add(mapper.readTree(line));
+        }
+        return lines;
+    }
+
+    private void session(long id, long userKey, String title, Instant at) {
+        jdbc.update("INSERT INTO chat_sessions (id, user_id, title, favorite, created_at, updated_at) VALUES (?, ?, ?, false, ?, ?)",
+                id, userKey, title, Timestamp.from(at), Timestamp.from(at));
+    }
+
+    private void message(long id, long sessionId, String sender, String content, Instant at) {
+        jdbc.update("INSERT INTO chat_messages VALUES (?, ?, ?, ?, false, ?)",
+                id, sessionId, sender, codec.encode(content), Timestamp.from(at));
+    }
+}
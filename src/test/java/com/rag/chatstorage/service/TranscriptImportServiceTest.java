@@ -0,0 +1,161 @@
+package com.rag.chatstorage.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.rag.chatstorage.cache.VersionStampProperties;
+import com.rag.chatstorage.cache.VersionStamps;
+import com.rag.chatstorage.datasource.ReplicaProperties;
+import com.rag.chatstorage.domain.convert.TextCompressionCodec;
+import com.rag.chatstorage.search.MessageSearchIndex;
+import com.rag.chatstorage.search.MessageSearchProperties;
+import com.rag.chatstorage.search.SessionTitleIndex;
+import com.rag.chatstorage.search.TitleSearchProperties;
+import com.rag.chatstorage.service.impl.SimpleTranscriptImportService;
+import com.rag.chatstorage.shard.ShardRouter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TranscriptImportServiceTest {
+
+    private final TextCompressionCodec codec = new TextCompressionCodec(true, 16, 1, null);
+    private EmbeddedDatabase db;
+    private JdbcTemplate jdbc;
+    private final List<TranscriptImportService.Progress> progress = new ArrayList<>();
+    private final List<TranscriptImportService.LineError> errors = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        db = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .setName("import-" + UUID.randomUUID()).build();
+        jdbc = new JdbcTemplate(db);
+        jdbc.execute("CREATE TABLE users (id BIGINT AUTO_INCREMENT PRIMARY KEY, user_id VARCHAR(128) UNIQUE, "
+                + "created_at TIMESTAMP(6), updated_at TIMESTAMP(6), deleted_at TIMESTAMP(6))");
+        jdbc.execute("CREATE TABLE chat_sessions (id BIGINT AUTO_INCREMENT PRIMARY KEY, user_id BIGINT, title VARCHAR(255), "
+                + "favorite BOOLEAN, created_at TIMESTAMP(6), updated_at TIMESTAMP(6), message_count INT DEFAULT 0 NOT NULL, "
+                + "last_message_at TIMESTAMP(6), last_message_preview VARCHAR(255))");
+        jdbc.execute("CREATE TABLE chat_messages (id BIGINT AUTO_INCREMENT PRIMARY KEY, session_id BIGINT, sender VARCHAR(16), "
+                + "content CLOB NOT NULL, has_context BOOLEAN, created_at TIMESTAMP(6))");
+        jdbc.execute("CREATE TABLE chat_message_context (message_id BIGINT PRIMARY KEY, context CLOB)");
+        jdbc.update("INSERT INTO users (user_id, created_at, updated_at) VALUES ('existing', CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)");
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.shutdown();
+    }
+
+    @Test
+    void import_insertsSessionsAndMessagesWithOriginalTimestampsInChunks() throws Exception {
+        String input = """
+                {"type":"session","id":7,"userId":"existing","title":"Old chat","favorite":true,"createdAt":"2024-03-01T09:00:00Z","updatedAt":"2024-03-01T09:05:00Z"}
+                {"type":"message","sessionId":7,"sender":"USER","content":"Question?","createdAt":"2024-03-01T09:00:01Z"}
+                {"type":"message","sessionId":7,"sender":"ASSISTANT","content":"Answer","context":"retrieved passage text","createdAt":"2024-03-01T09:00:02Z"}
+
+                {"type":"session","userId":"new-user","title":"Second"}
+                {"type":"message","sender":"user","content":"Hi"}
+                """;
+
+        TranscriptImportService.Summary summary = importer(2).importNdjson(stream(input), listener());
+
+        assertThat(summary.aborted()).isFalse();
+        assertThat(summary.sessions()).isEqualTo(2);
+        assertThat(summary.messages()).isEqualTo(3);
+        assertThat(summary.committedThroughLine()).isEqualTo(6);
+        assertThat(errors).isEmpty();
+        assertThat(progress).extracting(TranscriptImportService.Progress::line).containsExactly(2L, 5L, 6L);
+
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM users", Integer.class)).isEqualTo(2);
+        Long sessionId = jdbc.queryForObject("SELECT id FROM chat_sessions WHERE title = 'Old chat'", Long.class);
+        assertThat(jdbc.queryForObject("SELECT favorite FROM chat_sessions WHERE id = ?", Boolean.class, sessionId)).isTrue();
+        assertThat(jdbc.queryForObject("SELECT created_at FROM chat_messages WHERE session_id = ? ORDER BY id LIMIT 1",
+                Timestamp.class, sessionId).toInstant()).isEqualTo(Instant.parse("2024-03-01T09:00:01Z"));
+        String storedContext = jdbc.queryForObject("SELECT c.context FROM chat_message_context c "
+                + "JOIN chat_messages m ON m.id = c.message_id WHERE m.content = 'Answer' AND m.has_context", String.class);
+        assertThat(codec.decode(storedContext)).isEqualTo("retrieved passage text");
+        // Batch size 2 splits this session's messages across chunks
+        assertThat(jdbc.queryForMap("SELECT message_count, last_message_at, last_message_preview FROM chat_sessions WHERE id = ?", sessionId))
+                .containsEntry("MESSAGE_COUNT", 2)
+                .containsEntry("LAST_MESSAGE_AT", Timestamp.from(Instant.parse("2024-03-01T09:00:02Z")))
+                .containsEntry("LAST_MESSAGE_PREVIEW", "Answer");
+    }
+
+    @Test
+    void invalidLines_areReportedAndSkipped() throws Exception {
+        String input = """
+                {"type":"message","sender":"USER","content":"orphan"}
+                {"type":"session","id":1,"userId":"u1"}
+                {"type":"message","sessionId":1,"sender":"ROBOT","content":"x"}
+                {not json
+                {"type":"message","sessionId":2,"sender":"USER","content":"wrong session"}
+                {"type":"message","sessionId":1,"sender":"USER","content":"   "}
+                {"type":"message","sessionId":1,"sender":"USER","content":"kept"}
+                {"type":"session","title":"no user"}
+                {"type":"message","sender":"USER","content":"belongs to rejected session"}
+                """;
+
+        TranscriptImportService.Summary summary = importer(100).importNdjson(stream(input), listener());
+
+        assertThat(errors).extracting(TranscriptImportService.LineError::line).containsExactly(1L, 3L, 4L, 5L, 6L, 8L, 9L);
+        assertThat(errors.get(1).error()).contains("Unknown sender");
+        assertThat(summary.messages()).isEqualTo(1);
+        assertThat(summary.sessions()).isEqualTo(1);
+        assertThat(summary.aborted()).isFalse();
+    }
+
+    @Test
+    void tooManyErrors_commitsValidRowsThenAborts() throws Exception {
+        String input = """
+                {"type":"session","userId":"u1"}
+                {"type":"message","sender":"USER","content":"ok"}
+                {"type":"bogus"}
+                {"type":"bogus"}
+                {"type":"message","sender":"USER","content":"never read"}
+                """;
+
+        TranscriptImportService.Summary summary = new SimpleTranscriptImportService(db, new DataSourceTransactionManager(db),
+                new ObjectMapper().registerModule(new JavaTimeModule()), codec, new SessionTitleIndex(new TitleSearchProperties()),
+                new MessageSearchIndex(new MessageSearchProperties()), ShardRouter.unsharded(),
+                new VersionStamps(new VersionStampProperties(), new ReplicaProperties()), 100, 2).importNdjson(stream(input), listener());
+
+        assertThat(summary.aborted()).isTrue();
+        assertThat(summary.committedThroughLine()).isEqualTo(4);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM chat_messages", Integer.class)).isEqualTo(1);
+    }
+
+    private SimpleTranscriptImportService importer(int batchSize) {
+        return new SimpleTranscriptImportService(db, new DataSourceTransactionManager(db),
+                new ObjectMapper().registerModule(new JavaTimeModule()), codec, new SessionTitleIndex(new TitleSearchProperties()),
+                new MessageSearchIndex(new MessageSearchProperties()), ShardRouter.unsharded(),
+                new VersionStamps(new VersionStampProperties(), new ReplicaProperties()), batchSize, 1000);
+    }
+
+    private TranscriptImportService.Listener listener() {
+        return new TranscriptImportService.Listener() {
+            @Override
+            public void progress(TranscriptImportService.Progress p) { progress.add(p); }
+
+            @Override
+            public void error(TranscriptImportService.LineError e) { errors.add(e); }
+        };
+    }
+
+    private static ByteArrayInputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,27 +1,43 @@
 package com.rag.chatstorage.service;
 
+import com.rag.chatstorage.cache.VersionStampProperties;
+import com.rag.chatstorage.cache.VersionStamps;
+import com.rag.chatstorage.datasource.ReplicaProperties;
 import com.rag.chatstorage.domain.User;
+import com.rag.chatstorage.repository.ChatSessionRepository;
 import com.rag.chatstorage.repository.UserRepository;
+import com.rag.chatstorage.search.MessageSearchIndex;
+import com.rag.chatstorage.search.MessageSearchProperties;
+import com.rag.chatstorage.search.SessionTitleIndex;
+import com.rag.chatstorage.search.TitleSearchProperties;
 import com.rag.chatstorage.service.impl.SimpleUserService;
+import com.rag.chatstorage.shard.ShardRouter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 public class UserServiceTest {
 
     private UserRepository userRepository;
+    private ChatSessionRepository sessionRepository;
     private UserService userService;
 
     @BeforeEach
     void setUp() {
         userRepository = mock(UserRepository.class);
-        userService = new SimpleUserService(userRepository);
+        sessionRepository = mock(ChatSessionRepository.class);
+        userService = new SimpleUserService(userRepository, sessionRepository,
+                new SessionTitleIndex(new TitleSearchProperties()), new MessageSearchIndex(new MessageSearchProperties()),
+                ShardRouter.unsharded(), new VersionStamps(new VersionStampProperties(), new ReplicaProperties()));
     }
 
     @Test
@@ -51,8 +67,32 @@ public class UserServiceTest {
 
     @Test
     void listUsers_delegatesToRepo() {
-        when(userRepository.findAll()).thenReturn(List.of(new User()));
+        when(userRepository.findByDeletedAtIsNull()).thenReturn(List.of(new User()));
         assertThat(userService.listUsers()).hasSize(1);
-        verify(userRepository).findAll();
+        verify(userRepository).findByDeletedAtIsNull();
+    }
+
+    @Test
+    void delete_marksUserAndSessionsWithoutLoadingThem() {
+        User existing = new User();
+        existing.setUserId("u1");
+        when(userRepository.findByUserId("u1")).thenReturn(Optional.of(existing));
+
+        userService.delete("u1");
+
+        assertThat(existing.isDeleted()).isTrue();
+        verify(sessionRepository).markDeletedByUser(any(), eq(existing.getDeletedAt()));
+        verify(sessionRepository, never()).deleteAll(any());
+        assertThatThrownBy(() -> userService.delete("u1")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void ensureUser_reusesDeletedUserId() {
+        User existing = new User();
+        existing.setUserId("u1");
+        existing.setDeletedAt(Instant.now());
+        when(userRepository.findByUserId("u1")).thenReturn(Optional.of(existing));
+
+        assertThat(userService.ensureUser("u1").isDeleted()).isFalse();
     }
 }
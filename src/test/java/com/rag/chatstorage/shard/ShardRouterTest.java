@@ -0,0 +1,207 @@
+package com.rag.chatstorage.shard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ShardRouterTest {
+
+    private static final List<String> NAMES = List.of("main", "shard-1", "shard-2");
+
+    private final Map<String, EmbeddedDatabase> dbs = new LinkedHashMap<>();
+    private ShardRoutingDataSource routing;
+    private ShardDirectory directory;
+    private ShardIds ids;
+    private ShardRouter router;
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        // Three independent H2 databases stand in for the shards
+        for (String name : NAMES) dbs.put(name, database(name));
+        routing = new ShardRoutingDataSource(new LinkedHashMap<>(dbs));
+        directory = new ShardDirectory(dbs.get("main"), dbs.keySet());
+        directory.init();
+        ids = new ShardIds(dbs.get("main"), 2);
+        router = new ShardRouter(routing, directory, ids, Duration.ofMillis(200));
+        jdbc = new JdbcTemplate(routing);
+    }
+
+    @AfterEach
+    void tearDown() {
+        router.release();
+        router.shutdown();
+        dbs.values().forEach(EmbeddedDatabase::shutdown);
+    }
+
+    @Test
+    void ringSpreadsSlotsAndANewShardOnlyTakesSlots() {
+        ShardRing three = new ShardRing(NAMES, 64);
+        ShardRing four = new ShardRing(List.of("main", "shard-1", "shard-2", "shard-3"), 64);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int slot = 0; slot < ShardRing.SLOTS; slot++) {
+            counts.merge(three.shardOf(slot), 1, Integer::sum);
+            String before = three.shardOf(slot);
+            String after = four.shardOf(slot);
+            assertThat(after).isIn(before, "shard-3");
+        }
+        assertThat(counts).hasSize(3);
+        assertThat(counts.values()).allSatisfy(n -> assertThat(n).isBetween(ShardRing.SLOTS / 5, ShardRing.SLOTS / 2));
+    }
+
+    @Test
+    void idsCarryTheSlotAndStayUniqueAcrossBlocks() {
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < 7; i++) {
+            long id = ids.next(1234);
+            assertThat(ShardIds.isSharded(id)).isTrue();
+            assertThat(ShardIds.slotOf(id)).isEqualTo(1234);
+            assertThat(seen.add(id)).isTrue();
+        }
+        assertThat(ShardIds.isSharded(42L)).isFalse();
+        assertThat(new JdbcTemplate(dbs.get("main")).queryForObject(
+                "SELECT next_val FROM shard_sequence WHERE name = 'ids'", Long.class)).isEqualTo(9L);
+    }
+
+    @Test
+    void idsSurviveJsonNumbersReadAsDoubles() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        // The first id of the sequence and the largest the layout allows
+        for (long id : List.of(ids.next(ShardRing.SLOTS - 1), 2 * ShardIds.SHARDED - 1)) {
+            String json = mapper.writeValueAsString(Map.of("id", id));
+            // What a browser sees: JSON numbers are IEEE doubles
+            double parsed = mapper.readTree(json).get("id").asDouble();
+            assertThat((long) parsed).isEqualTo(id);
+            assertThat(ShardIds.isSharded((long) parsed)).isTrue();
+            assertThat(ShardIds.slotOf((long) parsed)).isEqualTo(ShardRing.SLOTS - 1);
+        }
+    }
+
+    @Test
+    void usersSessionsAndLegacyIdsRouteToTheShardOfTheirSlot() {
+        int alice = ShardRing.slotOf("alice");
+        int bob = ShardRing.slotOf("bob");
+        directory.assign(List.of(alice), "shard-1");
+        directory.assign(List.of(bob), "shard-2");
+
+        router.forUser("alice");
+        assertThat(origin()).isEqualTo("shard-1");
+        router.forSession(ids.next(bob));
+        assertThat(origin()).isEqualTo("shard-2");
+        router.release();
+        assertThat(origin()).isEqualTo("main");
+
+        // Written before sharding: no slot in the id, so it is looked up on every shard
+        JdbcTemplate shard2 = new JdbcTemplate(dbs.get("shard-2"));
+        shard2.update("INSERT INTO users (id, user_id) VALUES (7, 'bob')");
+        shard2.update("INSERT INTO chat_sessions (id, user_id, title) VALUES (5, 7, 't')");
+        router.forSession(5L);
+        assertThat(origin()).isEqualTo("shard-2");
+    }
+
+    @Test
+    void scatterAsksEveryShardOnItsOwnBinding() {
+        assertThat(router.scatter(shard -> List.of(shard + ":" + origin()))).containsExactly(
+                "main:main", "shard-1:shard-1", "shard-2:shard-2");
+    }
+
+    @Test
+    void frozenSlotHoldsBackNewRequests_andFreezeWaitsForRunningOnes() {
+        int alice = ShardRing.slotOf("alice");
+        router.freeze(List.of(alice));
+        assertThatThrownBy(() -> router.forUser("alice")).isInstanceOf(IllegalStateException.class);
+        router.thaw(List.of(alice));
+
+        router.forUser("alice");
+        assertThatThrownBy(() -> router.freeze(List.of(alice))).isInstanceOf(IllegalStateException.class);
+        router.release();
+        router.freeze(List.of(alice));
+        router.thaw(List.of(alice));
+    }
+
+    @Test
+    void rebalanceMovesEveryUserToItsRingShard() {
+        ShardRing ring = new ShardRing(NAMES, 64);
+        JdbcTemplate main = new JdbcTemplate(dbs.get("main"));
+        Map<String, Long> sessions = new LinkedHashMap<>();
+        for (int u = 0; u < 20; u++) {
+            String userId = "user-" + u;
+            int slot = ShardRing.slotOf(userId);
+            long userKey = ids.next(slot);
+            long sessionId = ids.next(slot);
+            main.update("INSERT INTO users (id, user_id) VALUES (?, ?)", userKey, userId);
+            main.update("INSERT INTO chat_sessions (id, user_id, title) VALUES (?, ?, ?)", sessionId, userKey, "s" + u);
+            for (int m = 0; m < 3; m++) {
+                long messageId = ids.next(slot);
+                main.update("INSERT INTO chat_messages (id, session_id, content, created_at) VALUES (?, ?, ?, ?)",
+                        messageId, sessionId, "m" + m, Timestamp.from(Instant.now()));
+                main.update("INSERT INTO chat_message_context (message_id, context) VALUES (?, ?)", messageId, "c" + m);
+            }
+            sessions.put(userId, sessionId);
+        }
+        ShardMigrator migrator = new ShardMigrator(router, directory, ring, 3);
+        assertThat(migrator.plan()).isNotEmpty();
+
+        List<ShardMigrator.Result> results = migrator.rebalance();
+
+        assertThat(migrator.plan()).isEmpty();
+        assertThat(results.stream().mapToLong(ShardMigrator.Result::messages).sum())
+                .isEqualTo(sessions.entrySet().stream().filter(e -> !ring.shardOf(ShardRing.slotOf(e.getKey())).equals("main")).count() * 3);
+        sessions.forEach((userId, sessionId) -> {
+            String home = ring.shardOf(ShardRing.slotOf(userId));
+            for (String shard : NAMES) {
+                JdbcTemplate t = new JdbcTemplate(dbs.get(shard));
+                int expected = shard.equals(home) ? 1 : 0;
+                assertThat(t.queryForObject("SELECT COUNT(*) FROM users WHERE user_id = ?", Integer.class, userId)).isEqualTo(expected);
+                assertThat(t.queryForObject("SELECT COUNT(*) FROM chat_messages WHERE session_id = ?", Integer.class, sessionId))
+                        .isEqualTo(expected * 3);
+                assertThat(t.queryForObject("SELECT COUNT(*) FROM chat_message_context c JOIN chat_messages m "
+                        + "ON m.id = c.message_id WHERE m.session_id = ?", Integer.class, sessionId)).isEqualTo(expected * 3);
+            }
+            router.forSession(sessionId);
+            assertThat(origin()).isEqualTo(home);
+        });
+        assertThat(new JdbcTemplate(dbs.get("main")).queryForObject(
+                "SELECT COUNT(*) FROM shard_slots WHERE shard = 'shard-1'", Integer.class)).isPositive();
+    }
+
+    private String origin() {
+        return jdbc.queryForObject("SELECT name FROM origin", String.class);
+    }
+
+    private static EmbeddedDatabase database(String name) {
+        EmbeddedDatabase db = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+                .setName(name + "-" + UUID.randomUUID() + ";MODE=MySQL").build();
+        JdbcTemplate jdbc = new JdbcTemplate(db);
+        jdbc.execute("CREATE TABLE origin (name VARCHAR(16))");
+        jdbc.update("INSERT INTO origin VALUES (?)", name);
+        jdbc.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, user_id VARCHAR(128) UNIQUE)");
+        jdbc.execute("CREATE TABLE chat_sessions (id BIGINT PRIMARY KEY, user_id BIGINT REFERENCES users(id), title VARCHAR(255))");
+        jdbc.execute("CREATE TABLE chat_session_archive (session_id BIGINT PRIMARY KEY, payload VARBINARY(1024))");
+        jdbc.execute("CREATE TABLE chat_messages (id BIGINT PRIMARY KEY, session_id BIGINT, content CLOB, created_at TIMESTAMP(6))");
+        jdbc.execute("CREATE TABLE chat_message_context (message_id BIGINT PRIMARY KEY, context CLOB)");
+        jdbc.execute("CREATE TABLE shard_slots (slot INT PRIMARY KEY, shard VARCHAR(64) NOT NULL)");
+        jdbc.execute("CREATE TABLE shard_sequence (name VARCHAR(32) PRIMARY KEY, next_val BIGINT NOT NULL)");
+        jdbc.update("INSERT INTO shard_sequence VALUES ('ids', 1)");
+        return db;
+    }
+}
@@ -3,6 +3,9 @@ package com.rag.chatstorage.web;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -13,6 +16,8 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import jakarta.annotation.Resource;
 
+import java.util.List;
+
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -36,7 +41,8 @@ class AiControllerSmokeTest {
     @Test
     void infer_endpoint_shape() throws Exception {
         // With deep-stubbed @MockBean, we can stub the fluent chain directly
-        when(chatClient.prompt().user("Hello").call().content()).thenReturn("Hi there!");
+        when(chatClient.prompt().user("Hello").call().chatResponse())
+                .thenReturn(new ChatResponse(List.of(new Generation(new AssistantMessage("Hi there!")))));
 
         String body = objectMapper.writeValueAsString(new com.fasterxml.jackson.databind.node.ObjectNode(objectMapper.getNodeFactory())
                 .put("prompt", "Hello"));
@@ -0,0 +1,81 @@
+package com.rag.chatstorage.web;
+
+import com.rag.chatstorage.service.AiService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class InferBatchesTest {
+
+    private AiService aiService;
+    private SimpleMeterRegistry meters;
+    private InferBatches batches;
+
+    @BeforeEach
+    void setUp() {
+        aiService = mock(AiService.class);
+        meters = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        batches.shutdown();
+    }
+
+    @Test
+    void promptsRunSideBySide_andResultsArriveAsTheyComplete() {
+        InferBatchProperties props = new InferBatchProperties();
+        props.setParallelism(4);
+        batches = new InferBatches(aiService, props, meters);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        when(aiService.infer(eq("sys"), anyString())).thenAnswer(inv -> {
+            String prompt = inv.getArgument(1);
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(prompt.equals("slow") ? 300 : 100);
+            } finally {
+                running.decrementAndGet();
+            }
+            return prompt.toUpperCase();
+        });
+
+        List<InferBatches.Item> items = new ArrayList<>();
+        long start = System.nanoTime();
+        batches.run("sys", List.of("slow", "a", "b", "c", "d", "e"), items::add);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(items).hasSize(6);
+        assertThat(items.getLast()).isEqualTo(new InferBatches.Item(0, "SLOW", null));
+        assertThat(peak.get()).isEqualTo(4);
+        // About the slowest prompt, not the 800ms the prompts take one after another
+        assertThat(millis).isLessThan(700);
+    }
+
+    @Test
+    void failedPromptsYieldErrorItems() {
+        batches = new InferBatches(aiService, new InferBatchProperties(), meters);
+        when(aiService.infer(null, "ok")).thenReturn("fine");
+        when(aiService.infer(null, "bad")).thenThrow(new AiService.AiFriendlyException("AI_UNAVAILABLE", "down", "(503 unavailable)"));
+
+        List<InferBatches.Item> items = new ArrayList<>();
+        batches.run(null, List.of("ok", "bad"), items::add);
+
+        assertThat(items).extracting(InferBatches.Item::index).containsExactlyInAnyOrder(0, 1);
+        InferBatches.Item failed = items.stream().filter(i -> i.index() == 1).findFirst().orElseThrow();
+        assertThat(failed.content()).isNull();
+        assertThat(failed.error().code()).isEqualTo("AI_UNAVAILABLE");
+        assertThat(failed.error().hint()).isEqualTo("(503 unavailable)");
+        assertThat(meters.get("chat.ai.batch.items").tag("result", "error").counter().count()).isEqualTo(1);
+    }
+}
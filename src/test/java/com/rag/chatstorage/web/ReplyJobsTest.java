@@ -0,0 +1,107 @@
+package com.rag.chatstorage.web;
+
+import com.rag.chatstorage.domain.ChatMessage;
+import com.rag.chatstorage.domain.ChatSession;
+import com.rag.chatstorage.service.AiService;
+import com.rag.chatstorage.service.ChatSessionService;
+import com.rag.chatstorage.shard.ShardRouter;
+import com.rag.chatstorage.web.dto.ReplyJobResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ReplyJobsTest {
+
+    private ChatSessionService service;
+    private AiService aiService;
+    private ReplyJobs jobs;
+
+    @BeforeEach
+    void setUp() {
+        service = mock(ChatSessionService.class);
+        aiService = mock(AiService.class);
+        ChatSession session = new ChatSession();
+        session.setId(7L);
+        when(service.addMessage(eq(7L), any(), anyString(), any())).thenAnswer(inv -> {
+            ChatMessage m = new ChatMessage();
+            m.setSession(session);
+            m.setSender(inv.getArgument(1));
+            m.setContent(inv.getArgument(2));
+            return m;
+        });
+        when(service.promptHistory(eq(7L), anyInt(), anyInt())).thenReturn(List.of());
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobs.shutdown();
+    }
+
+    @Test
+    void replyIsGeneratedInTheBackgroundAndStored() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(aiService.inferWithHistory(eq("hi"), anyString(), anyList())).thenAnswer(inv -> {
+            release.await(5, TimeUnit.SECONDS);
+            return "hello";
+        });
+        jobs = jobs(new ReplyJobProperties());
+
+        ReplyJobResponse job = jobs.submit(7L, ChatMessage.Sender.USER, "hi", null);
+        assertThat(job.status()).isEqualTo(ReplyJobResponse.Status.PENDING);
+        assertThat(job.userMessage().content()).isEqualTo("hi");
+        release.countDown();
+
+        ReplyJobResponse done = awaitDone(job.jobId());
+        assertThat(done.status()).isEqualTo(ReplyJobResponse.Status.SUCCEEDED);
+        assertThat(done.aiMessage().content()).isEqualTo("hello");
+        assertThat(done.completedAt()).isNotNull();
+        verify(service).addMessage(7L, ChatMessage.Sender.ASSISTANT, "hello", null);
+    }
+
+    @Test
+    void failuresAndAFullQueueEndTheJobWithAnError() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(aiService.inferWithHistory(eq("slow"), anyString(), anyList())).thenAnswer(inv -> {
+            release.await(5, TimeUnit.SECONDS);
+            throw new AiService.AiFriendlyException("AI_TIMEOUT", "Timed out", null);
+        });
+        ReplyJobProperties props = new ReplyJobProperties();
+        props.setThreads(1);
+        props.setQueueCapacity(1);
+        jobs = jobs(props);
+
+        ReplyJobResponse running = jobs.submit(7L, ChatMessage.Sender.USER, "slow", null);
+        ReplyJobResponse queued = jobs.submit(7L, ChatMessage.Sender.USER, "slow", null);
+        ReplyJobResponse rejected = jobs.submit(7L, ChatMessage.Sender.USER, "slow", null);
+        assertThat(rejected.status()).isEqualTo(ReplyJobResponse.Status.FAILED);
+        assertThat(rejected.aiError().code()).isEqualTo("AI_BUSY");
+        release.countDown();
+
+        assertThat(awaitDone(running.jobId()).aiError().code()).isEqualTo("AI_TIMEOUT");
+        assertThat(awaitDone(queued.jobId()).status()).isEqualTo(ReplyJobResponse.Status.FAILED);
+        verify(service, never()).addMessage(anyLong(), eq(ChatMessage.Sender.ASSISTANT), anyString(), any());
+    }
+
+    private ReplyJobs jobs(ReplyJobProperties props) {
+        return new ReplyJobs(service, aiService, ShardRouter.unsharded(), props, new SimpleMeterRegistry());
+    }
+
+    private ReplyJobResponse awaitDone(String jobId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            ReplyJobResponse job = jobs.find(jobId).orElseThrow();
+            if (job.completedAt() != null) return job;
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Job did not finish: " + jobId);
+    }
+}